@@ -15,13 +15,14 @@ import org.apache.http.Header;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.params.HttpConnectionParams;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
-import java.net.SocketTimeoutException;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -39,6 +40,10 @@ import microsoft.aspnet.signalr.client.http.HttpConnectionFuture.ResponseCallbac
 public class AndroidHttpConnection implements HttpConnection {
     private Logger mLogger;
 
+    private volatile boolean mCompressionEnabled = false;
+
+    private CompressionStats mCompressionStats = new CompressionStats();
+
     /**
      * Initializes the AndroidHttpConnection
      * 
@@ -53,11 +58,38 @@ public class AndroidHttpConnection implements HttpConnection {
         mLogger = logger;
     }
 
+    /**
+     * Sets whether the requests ask the server for gzip or deflate compressed
+     * responses. Compressed responses are always decompressed as they are
+     * read. Disabled by default
+     */
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        mCompressionEnabled = compressionEnabled;
+    }
+
+    /**
+     * Indicates if the requests ask the server for compressed responses
+     */
+    public boolean isCompressionEnabled() {
+        return mCompressionEnabled;
+    }
+
+    /**
+     * Returns the counters of the compressed responses read by this connection
+     */
+    public CompressionStats getCompressionStats() {
+        return mCompressionStats;
+    }
+
     @Override
     public HttpConnectionFuture execute(final Request request, final ResponseCallback responseCallback) {
 
         mLogger.log("Create new AsyncTask for HTTP Connection", LogLevel.Verbose);
 
+        if (request != null && mCompressionEnabled) {
+            request.acceptCompressedResponse();
+        }
+
         final HttpConnectionFuture future = new HttpConnectionFuture();
 
         final RequestTask requestTask = new RequestTask() {
@@ -88,7 +120,9 @@ public class AndroidHttpConnection implements HttpConnection {
 
                     try {
                         response = mClient.execute(host, realRequest);
-                    } catch (SocketTimeoutException timeoutException) {
+                    } catch (InterruptedIOException timeoutException) {
+                        // both SocketTimeoutException and
+                        // ConnectTimeoutException
                         closeStreamAndClient();
                         mLogger.log("Timeout executing request: " + timeoutException.getMessage(), LogLevel.Information);
 
@@ -113,7 +147,7 @@ public class AndroidHttpConnection implements HttpConnection {
                         }
                     }
 
-                    responseCallback.onResponse(new StreamResponse(mResponseStream, response.getStatusLine().getStatusCode(), headersMap));
+                    responseCallback.onResponse(new StreamResponse(mResponseStream, response.getStatusLine().getStatusCode(), headersMap, mCompressionStats));
                     future.setResult(null);
                     closeStreamAndClient();
                 } catch (Exception e) {
@@ -188,13 +222,20 @@ public class AndroidHttpConnection implements HttpConnection {
      * 
      * @param request
      *            The request information
-     * @throws java.io.UnsupportedEncodingException
+     * @throws java.io.IOException
      */
-    private static BasicHttpEntityEnclosingRequest createRealRequest(Request request) throws UnsupportedEncodingException {
+    private static BasicHttpEntityEnclosingRequest createRealRequest(Request request) throws IOException {
         BasicHttpEntityEnclosingRequest realRequest = new BasicHttpEntityEnclosingRequest(request.getVerb(), request.getUrl());
 
-        if (request.getContent() != null) {
-            realRequest.setEntity(new StringEntity(request.getContent()));
+        if (request.getContentStream() != null && !request.isGzipContent()) {
+            // an unknown length (-1) makes the client send the stream chunked
+            realRequest.setEntity(new InputStreamEntity(request.getContentStream(), request.getContentLength()));
+        } else if (request.hasContent()) {
+            realRequest.setEntity(new ByteArrayEntity(request.getContentBytes()));
+
+            if (request.isGzipContent()) {
+                realRequest.addHeader(Request.CONTENT_ENCODING_HEADER, Request.GZIP_ENCODING);
+            }
         }
 
         Map<String, String> headers = request.getHeaders();
@@ -203,6 +244,14 @@ public class AndroidHttpConnection implements HttpConnection {
             realRequest.addHeader(key, headers.get(key));
         }
 
+        if (request.getConnectTimeout() > 0) {
+            HttpConnectionParams.setConnectionTimeout(realRequest.getParams(), request.getConnectTimeout());
+        }
+
+        if (request.getReadTimeout() > 0) {
+            HttpConnectionParams.setSoTimeout(realRequest.getParams(), request.getReadTimeout());
+        }
+
         return realRequest;
     }
 }
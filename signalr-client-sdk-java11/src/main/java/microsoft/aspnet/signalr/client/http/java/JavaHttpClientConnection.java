@@ -0,0 +1,346 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.http.java;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.ResponseInfo;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import microsoft.aspnet.signalr.client.*;
+import microsoft.aspnet.signalr.client.http.*;
+import microsoft.aspnet.signalr.client.http.HttpConnectionFuture.ResponseCallback;
+
+/**
+ * Java HttpConnection implementation based on the non-blocking
+ * java.net.http.HttpClient. Requires Java 11 or newer.
+ * 
+ * Requests are multiplexed over HTTP/2 streams when the server supports it.
+ * Regular responses are buffered by the client and no thread is held while a
+ * request is outstanding, so pending long polling requests don't use a thread
+ * each. Server Sent Events responses (Accept: text/event-stream) are read as a
+ * stream once the headers arrive.
+ */
+public class JavaHttpClientConnection implements HttpConnection {
+
+    /**
+     * User agent header name
+     */
+    private static final String USER_AGENT_HEADER = "User-Agent";
+
+    private static final String ACCEPT_HEADER = "Accept";
+
+    private static final String EVENT_STREAM_CONTENT_TYPE = "text/event-stream";
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(15);
+
+    /**
+     * Headers set by the HttpClient itself, which cannot be set on a request
+     */
+    private static final Set<String> RESTRICTED_HEADERS = new HashSet<String>(Arrays.asList("connection", "content-length", "expect", "host", "upgrade"));
+
+    private static HttpClient mSharedClient = null;
+
+    private Logger mLogger;
+
+    private HttpClient mClient;
+
+    /**
+     * Initializes the JavaHttpClientConnection with the HttpClient shared by
+     * all the connections
+     * 
+     * @param logger
+     *            logger to log activity
+     */
+    public JavaHttpClientConnection(Logger logger) {
+        this(logger, getSharedClient());
+    }
+
+    /**
+     * Initializes the JavaHttpClientConnection
+     * 
+     * @param logger
+     *            logger to log activity
+     * @param client
+     *            client that executes the requests
+     */
+    public JavaHttpClientConnection(Logger logger, HttpClient client) {
+        if (client == null) {
+            throw new IllegalArgumentException("client");
+        }
+
+        mLogger = logger;
+        mClient = client;
+    }
+
+    /**
+     * Returns the HttpClient shared by the connections that were not given a
+     * specific one. It prefers HTTP/2 and falls back to HTTP/1.1
+     */
+    public static synchronized HttpClient getSharedClient() {
+        if (mSharedClient == null) {
+            mSharedClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).connectTimeout(CONNECT_TIMEOUT)
+                    .followRedirects(HttpClient.Redirect.NORMAL).build();
+        }
+
+        return mSharedClient;
+    }
+
+    @Override
+    public HttpConnectionFuture execute(final Request request, final ResponseCallback callback) {
+
+        request.addHeader(USER_AGENT_HEADER, Platform.getUserAgent());
+
+        mLogger.log("Send the HTTP Request", LogLevel.Verbose);
+        request.log(mLogger);
+
+        final HttpConnectionFuture future = new HttpConnectionFuture();
+
+        HttpRequest httpRequest;
+        try {
+            httpRequest = createHttpRequest(request);
+        } catch (Throwable e) {
+            mLogger.log("Error creating request: " + e.getMessage(), LogLevel.Critical);
+            future.triggerError(e);
+            return future;
+        }
+
+        if (isStreamingRequest(request)) {
+            final AtomicBoolean cancelled = new AtomicBoolean(false);
+            final AtomicReference<InputStream> openedStream = new AtomicReference<InputStream>();
+
+            // the body handler runs inside the exchange once the headers
+            // arrive, even if the returned future was already cancelled, so
+            // it is where a cancelled stream can still be closed
+            BodyHandler<InputStream> bodyHandler = new BodyHandler<InputStream>() {
+
+                @Override
+                public BodySubscriber<InputStream> apply(ResponseInfo responseInfo) {
+                    BodySubscriber<InputStream> subscriber = BodyHandlers.ofInputStream().apply(responseInfo);
+
+                    subscriber.getBody().thenAccept(new Consumer<InputStream>() {
+
+                        @Override
+                        public void accept(InputStream stream) {
+                            openedStream.set(stream);
+
+                            if (cancelled.get()) {
+                                closeStream(stream);
+                            }
+                        }
+                    });
+
+                    return subscriber;
+                }
+            };
+
+            final CompletableFuture<HttpResponse<InputStream>> responseFuture = mClient.sendAsync(httpRequest, bodyHandler);
+
+            future.onCancelled(new Runnable() {
+
+                @Override
+                public void run() {
+                    cancelled.set(true);
+                    responseFuture.cancel(true);
+
+                    InputStream stream = openedStream.get();
+                    if (stream != null) {
+                        closeStream(stream);
+                    }
+                }
+            });
+
+            responseFuture.whenComplete(new BiConsumer<HttpResponse<InputStream>, Throwable>() {
+
+                @Override
+                public void accept(HttpResponse<InputStream> response, Throwable error) {
+                    if (error != null) {
+                        onRequestError(future, error);
+                        return;
+                    }
+
+                    InputStream stream = response.body();
+                    try {
+                        onResponse(future, callback, stream, response);
+                    } finally {
+                        closeStream(stream);
+                    }
+                }
+            });
+        } else {
+            final CompletableFuture<HttpResponse<byte[]>> responseFuture = mClient.sendAsync(httpRequest, BodyHandlers.ofByteArray());
+
+            future.onCancelled(new Runnable() {
+
+                @Override
+                public void run() {
+                    responseFuture.cancel(true);
+                }
+            });
+
+            responseFuture.whenComplete(new BiConsumer<HttpResponse<byte[]>, Throwable>() {
+
+                @Override
+                public void accept(HttpResponse<byte[]> response, Throwable error) {
+                    if (error != null) {
+                        onRequestError(future, error);
+                        return;
+                    }
+
+                    onResponse(future, callback, new ByteArrayInputStream(response.body()), response);
+                }
+            });
+        }
+
+        return future;
+    }
+
+    private void onResponse(HttpConnectionFuture future, ResponseCallback callback, InputStream body, HttpResponse<?> response) {
+        if (future.isCancelled()) {
+            return;
+        }
+
+        if (LogHelper.isLoggable(mLogger, LogLevel.Verbose)) {
+            mLogger.log("Response received with status " + response.statusCode() + " over " + response.version(), LogLevel.Verbose);
+        }
+
+        try {
+            callback.onResponse(new StreamResponse(body, response.statusCode(), response.headers().map()));
+            future.setResult(null);
+        } catch (Throwable e) {
+            if (!future.isCancelled()) {
+                mLogger.log("Error executing request: " + e.getMessage(), LogLevel.Critical);
+                future.triggerError(e);
+            }
+        }
+    }
+
+    private void onRequestError(HttpConnectionFuture future, Throwable error) {
+        if (future.isCancelled()) {
+            return;
+        }
+
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+
+        if (error instanceof HttpTimeoutException) {
+            mLogger.log("Request timed out: " + error.getMessage(), LogLevel.Verbose);
+            future.triggerTimeout(error);
+        } else {
+            mLogger.log("Error executing request: " + error.getMessage(), LogLevel.Critical);
+            future.triggerError(error);
+        }
+    }
+
+    private static void closeStream(InputStream stream) {
+        try {
+            stream.close();
+        } catch (Exception e) {
+        }
+    }
+
+    /**
+     * Indicates if the response of a request is an open-ended stream that must
+     * be read as it arrives
+     */
+    private static boolean isStreamingRequest(Request request) {
+        String accept = request.getHeaders().get(ACCEPT_HEADER);
+
+        return accept != null && accept.toLowerCase(Locale.US).contains(EVENT_STREAM_CONTENT_TYPE);
+    }
+
+    /**
+     * Creates an HttpRequest
+     * 
+     * @param request
+     *            The request info
+     * @return An HttpRequest to execute the request
+     * @throws IOException
+     */
+    static HttpRequest createHttpRequest(Request request) throws IOException {
+        if (request == null) {
+            throw new IllegalArgumentException("request");
+        }
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(request.getUrl()));
+
+        BodyPublisher body;
+        if (request.getContent() != null && !request.isGzipContent()) {
+            body = BodyPublishers.ofString(request.getContent(), Constants.UTF8);
+        } else if (request.getContentStream() != null && !request.isGzipContent()) {
+            body = createStreamBody(request.getContentStream(), request.getContentLength());
+        } else if (request.hasContent()) {
+            // the compressed content is small enough to be built in memory
+            body = BodyPublishers.ofByteArray(request.getContentBytes());
+        } else {
+            body = BodyPublishers.noBody();
+        }
+
+        builder.method(request.getVerb(), body);
+
+        // the client only supports a timeout until the response headers
+        // arrive, and its connect timeout is shared by all the requests
+        int timeout = request.getTotalTimeout() > 0 ? request.getTotalTimeout() : request.getReadTimeout();
+        if (timeout > 0) {
+            builder.timeout(Duration.ofMillis(timeout));
+        }
+
+        if (request.hasContent() && request.isGzipContent()) {
+            builder.header(Request.CONTENT_ENCODING_HEADER, Request.GZIP_ENCODING);
+        }
+
+        Map<String, String> headers = request.getHeaders();
+
+        for (String key : headers.keySet()) {
+            if (!RESTRICTED_HEADERS.contains(key.toLowerCase(Locale.US))) {
+                builder.header(key, headers.get(key));
+            }
+        }
+
+        return builder.build();
+    }
+
+    private static BodyPublisher createStreamBody(final InputStream content, long length) {
+        BodyPublisher publisher = BodyPublishers.ofInputStream(new Supplier<InputStream>() {
+
+            @Override
+            public InputStream get() {
+                return content;
+            }
+        });
+
+        if (length >= 0) {
+            return BodyPublishers.fromPublisher(publisher, length);
+        }
+
+        return publisher;
+    }
+}
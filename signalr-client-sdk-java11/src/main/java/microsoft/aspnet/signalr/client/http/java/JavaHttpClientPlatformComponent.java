@@ -0,0 +1,33 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.http.java;
+
+import java.util.Locale;
+
+import microsoft.aspnet.signalr.client.Logger;
+import microsoft.aspnet.signalr.client.PlatformComponent;
+import microsoft.aspnet.signalr.client.http.HttpConnection;
+
+/**
+ * PlatformComponent that executes the HTTP requests with a
+ * JavaHttpClientConnection. Requires Java 11 or newer. To use it, call
+ * Platform.loadPlatformComponent(new JavaHttpClientPlatformComponent()) before
+ * creating the connections
+ */
+public class JavaHttpClientPlatformComponent implements PlatformComponent {
+
+    @Override
+    public HttpConnection createHttpConnection(Logger logger) {
+        return new JavaHttpClientConnection(logger);
+    }
+
+    @Override
+    public String getOSName() {
+        return System.getProperty("os.name").toLowerCase(Locale.getDefault());
+    }
+
+}
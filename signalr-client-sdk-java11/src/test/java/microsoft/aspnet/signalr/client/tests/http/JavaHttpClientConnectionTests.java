@@ -0,0 +1,289 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.tests.http;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.http.HttpClient;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import microsoft.aspnet.signalr.client.Constants;
+import microsoft.aspnet.signalr.client.NullLogger;
+import microsoft.aspnet.signalr.client.http.HttpConnectionFuture;
+import microsoft.aspnet.signalr.client.http.HttpConnectionFuture.ResponseCallback;
+import microsoft.aspnet.signalr.client.http.Request;
+import microsoft.aspnet.signalr.client.http.Response;
+import microsoft.aspnet.signalr.client.http.java.JavaHttpClientConnection;
+import microsoft.aspnet.signalr.client.tests.util.LocalHttpServer;
+import microsoft.aspnet.signalr.client.tests.util.MultiResult;
+
+public class JavaHttpClientConnectionTests {
+
+    private LocalHttpServer mServer;
+    private Semaphore mReleaseResponse;
+    private Semaphore mStreamClosed;
+
+    @Before
+    public void setUp() throws Exception {
+        mReleaseResponse = new Semaphore(0);
+        mStreamClosed = new Semaphore(0);
+
+        mServer = new LocalHttpServer(new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+
+                if (path.equals("/stream")) {
+                    exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+                    exchange.sendResponseHeaders(200, 0);
+                    OutputStream body = exchange.getResponseBody();
+                    body.write("data: first\n\n".getBytes(Constants.UTF8));
+                    body.flush();
+                    mReleaseResponse.acquireUninterruptibly();
+                    body.write("data: second\n\n".getBytes(Constants.UTF8));
+                    body.close();
+                    return;
+                }
+
+                if (path.equals("/endless")) {
+                    mReleaseResponse.acquireUninterruptibly();
+                    exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+                    exchange.sendResponseHeaders(200, 0);
+
+                    // the writes fail once the client closed the stream
+                    byte[] event = new byte[8192];
+                    OutputStream body = exchange.getResponseBody();
+                    try {
+                        for (int i = 0; i < 10000; i++) {
+                            body.write(event);
+                            body.flush();
+                            Thread.sleep(1);
+                        }
+                    } catch (IOException e) {
+                        mStreamClosed.release();
+                    } catch (InterruptedException e) {
+                    }
+
+                    exchange.close();
+                    return;
+                }
+
+                if (path.equals("/wait")) {
+                    mReleaseResponse.acquireUninterruptibly();
+                }
+
+                int status = 200;
+                byte[] content = "Hello World".getBytes(Constants.UTF8);
+
+                if (path.equals("/echo")) {
+                    content = readFully(exchange.getRequestBody());
+                } else if (path.equals("/error")) {
+                    status = 500;
+                    content = "Server error".getBytes(Constants.UTF8);
+                }
+
+                exchange.sendResponseHeaders(status, content.length);
+                OutputStream body = exchange.getResponseBody();
+                body.write(content);
+                body.close();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mReleaseResponse.release(100);
+        mServer.stop();
+    }
+
+    @Test
+    public void testGetRequest() throws Exception {
+        JavaHttpClientConnection connection = new JavaHttpClientConnection(new NullLogger());
+
+        final MultiResult result = new MultiResult();
+        connection.execute(createRequest(Constants.HTTP_GET, "hello"), new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+                result.intResult = response.getStatus();
+                result.stringResult = response.readToEnd().trim();
+            }
+        }).get();
+
+        assertEquals(200, result.intResult);
+        assertEquals("Hello World", result.stringResult);
+    }
+
+    @Test
+    public void testPostContentIsSent() throws Exception {
+        JavaHttpClientConnection connection = new JavaHttpClientConnection(new NullLogger());
+
+        Request request = createRequest(Constants.HTTP_POST, "echo");
+        request.setFormContent("data", "Hello \u00e9");
+        request.addHeader("Content-Type", "application/x-www-form-urlencoded");
+
+        final MultiResult result = new MultiResult();
+        connection.execute(request, new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+                result.stringResult = response.readToEnd().trim();
+            }
+        }).get();
+
+        assertEquals(request.getContent(), result.stringResult);
+    }
+
+    @Test
+    public void testErrorStatusIsReturned() throws Exception {
+        JavaHttpClientConnection connection = new JavaHttpClientConnection(new NullLogger());
+
+        final MultiResult result = new MultiResult();
+        connection.execute(createRequest(Constants.HTTP_GET, "error"), new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+                result.intResult = response.getStatus();
+                result.stringResult = response.readToEnd().trim();
+            }
+        }).get();
+
+        assertEquals(500, result.intResult);
+        assertEquals("Server error", result.stringResult);
+    }
+
+    @Test
+    public void testPendingRequestsDontHoldThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        HttpClient client = HttpClient.newBuilder().executor(executor).build();
+        JavaHttpClientConnection connection = new JavaHttpClientConnection(new NullLogger(), client);
+
+        ResponseCallback emptyCallback = new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+                response.readToEnd();
+            }
+        };
+
+        List<HttpConnectionFuture> pendingPolls = new ArrayList<HttpConnectionFuture>();
+        for (int i = 0; i < 10; i++) {
+            pendingPolls.add(connection.execute(createRequest(Constants.HTTP_GET, "wait"), emptyCallback));
+        }
+
+        final MultiResult result = new MultiResult();
+        connection.execute(createRequest(Constants.HTTP_GET, "hello"), new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+                result.stringResult = response.readToEnd().trim();
+            }
+        }).get(10, TimeUnit.SECONDS);
+
+        assertEquals("Hello World", result.stringResult);
+
+        mReleaseResponse.release(10);
+        for (HttpConnectionFuture poll : pendingPolls) {
+            poll.get(10, TimeUnit.SECONDS);
+        }
+
+        executor.shutdown();
+    }
+
+    @Test
+    public void testEventStreamIsReadAsItArrives() throws Exception {
+        JavaHttpClientConnection connection = new JavaHttpClientConnection(new NullLogger());
+
+        Request request = createRequest(Constants.HTTP_GET, "stream");
+        request.addHeader("Accept", "text/event-stream");
+
+        final MultiResult result = new MultiResult();
+        connection.execute(request, new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+                result.listResult.add(response.readLine());
+
+                // the server sends the rest once the first event was read
+                mReleaseResponse.release();
+
+                String line;
+                while ((line = response.readLine()) != null) {
+                    if (line.length() > 0) {
+                        result.listResult.add(line);
+                    }
+                }
+            }
+        }).get(10, TimeUnit.SECONDS);
+
+        assertEquals(2, result.listResult.size());
+        assertEquals("data: first", result.listResult.get(0));
+        assertEquals("data: second", result.listResult.get(1));
+    }
+
+    @Test
+    public void testEventStreamCancelledBeforeHeadersIsClosed() throws Exception {
+        JavaHttpClientConnection connection = new JavaHttpClientConnection(new NullLogger());
+
+        Request request = createRequest(Constants.HTTP_GET, "endless");
+        request.addHeader("Accept", "text/event-stream");
+
+        final MultiResult result = new MultiResult();
+        HttpConnectionFuture future = connection.execute(request, new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+                result.booleanResult = true;
+            }
+        });
+
+        Thread.sleep(500);
+        future.cancel();
+
+        // the headers arrive after the cancellation
+        mReleaseResponse.release();
+
+        assertTrue(mStreamClosed.tryAcquire(10, TimeUnit.SECONDS));
+        assertFalse(result.booleanResult);
+    }
+
+    private Request createRequest(String verb, String path) {
+        Request request = new Request(verb);
+        request.setUrl(mServer.getUrl() + path);
+
+        return request;
+    }
+
+    private static byte[] readFully(InputStream stream) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+
+        while ((read = stream.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+
+        return output.toByteArray();
+    }
+}
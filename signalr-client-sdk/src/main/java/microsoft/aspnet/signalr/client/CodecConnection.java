@@ -0,0 +1,31 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+/**
+ * Connection that reads and writes the JSON exchanged with the server with a
+ * JsonCodec. The other connections use a GsonCodec based on their Gson
+ * instance.
+ * 
+ * getGson returns null if the codec is not a GsonCodec, and setGson fails if
+ * the connection uses another codec, which must be replaced with setCodec.
+ */
+public interface CodecConnection extends ConnectionBase {
+
+    /**
+     * Returns the codec used to read and write the JSON exchanged with the
+     * server
+     */
+    JsonCodec getCodec();
+
+    /**
+     * Sets the codec used to read and write the JSON exchanged with the
+     * server. The Gson instance of the connection is the one of the codec if
+     * it is a GsonCodec
+     */
+    void setCodec(JsonCodec codec);
+}
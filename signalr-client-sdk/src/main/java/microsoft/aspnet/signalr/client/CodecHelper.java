@@ -0,0 +1,31 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import com.google.gson.Gson;
+
+/**
+ * Helper for the codec of a connection. Connections that are not a
+ * CodecConnection use a GsonCodec based on their Gson instance
+ */
+public class CodecHelper {
+
+    /**
+     * Returns the codec used by a connection
+     * 
+     * @param connection
+     *            The connection
+     */
+    public static JsonCodec getCodec(ConnectionBase connection) {
+        if (connection instanceof CodecConnection) {
+            return ((CodecConnection) connection).getCodec();
+        }
+
+        Gson gson = connection.getGson();
+        return gson != null ? new GsonCodec(gson) : new GsonCodec();
+    }
+}
@@ -6,12 +6,12 @@ See License.txt in the project root for license information.
 
 package microsoft.aspnet.signalr.client;
 
-import java.util.Date;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
 
@@ -19,15 +19,15 @@ import microsoft.aspnet.signalr.client.http.Request;
 import microsoft.aspnet.signalr.client.transport.AutomaticTransport;
 import microsoft.aspnet.signalr.client.transport.ClientTransport;
 import microsoft.aspnet.signalr.client.transport.ConnectionType;
-import microsoft.aspnet.signalr.client.transport.DataResultCallback;
 import microsoft.aspnet.signalr.client.transport.NegotiationResponse;
+import microsoft.aspnet.signalr.client.transport.StreamDataResultCallback;
 import microsoft.aspnet.signalr.client.transport.TransportHelper;
 import microsoft.aspnet.signalr.client.Logger;
 
 /**
  * Represents a basic SingalR connection
  */
-public class Connection implements ConnectionBase {
+public class Connection implements StreamingConnection, CodecConnection {
 
     public static final Version PROTOCOL_VERSION = new Version("1.3");
 
@@ -83,6 +83,8 @@ public class Connection implements ConnectionBase {
 
     protected Gson mGson;
 
+    protected JsonCodec mCodec;
+
     private Object mStateLock = new Object();
 
     private Object mStartLock = new Object();
@@ -145,16 +147,18 @@ public class Connection implements ConnectionBase {
         }
 
         log("Initialize the connection", LogLevel.Information);
-        log("Connection data: " + url + " - " + queryString == null ? "" : queryString, LogLevel.Verbose);
+        if (isLoggable(LogLevel.Verbose)) {
+            log("Connection data: " + url + " - " + (queryString == null ? "" : queryString), LogLevel.Verbose);
+        }
 
         mUrl = url;
         mQueryString = queryString;
         mLogger = logger;
         mJsonParser = new JsonParser();
 
-        GsonBuilder gsonBuilder = new GsonBuilder();
-        gsonBuilder.registerTypeAdapter(Date.class, new DateSerializer());
-        mGson = gsonBuilder.create();
+        GsonCodec codec = new GsonCodec();
+        mGson = codec.getGson();
+        mCodec = codec;
         mState = ConnectionState.Disconnected;
     }
 
@@ -277,7 +281,7 @@ public class Connection implements ConnectionBase {
             if (object instanceof JsonElement) {
                 data = object.toString();
             } else {
-                data = mGson.toJson(object);
+                data = mCodec.toJson(object);
             }
         }
 
@@ -286,7 +290,11 @@ public class Connection implements ConnectionBase {
 
     @Override
     public SignalRFuture<Void> send(String data) {
-        log("Sending: " + data, LogLevel.Information);
+        if (isPayloadLoggable(LogLevel.Information)) {
+            log("Sending: " + data, LogLevel.Information);
+        } else {
+            log("Sending data", LogLevel.Information);
+        }
 
         if (mState == ConnectionState.Disconnected || mState == ConnectionState.Connecting) {
             onError(new InvalidStateException(mState), false);
@@ -296,12 +304,17 @@ public class Connection implements ConnectionBase {
         final Connection that = this;
 
         log("Invoking send on transport", LogLevel.Verbose);
-        SignalRFuture<Void> future = mTransport.send(this, data, new DataResultCallback() {
+        SignalRFuture<Void> future = mTransport.send(this, data, new StreamDataResultCallback() {
 
             @Override
             public void onData(String data) {
                 that.processReceivedData(data);
             }
+
+            @Override
+            public void onData(InputStream data) throws IOException {
+                that.processReceivedData(data);
+            }
         });
 
         handleFutureError(future, false);
@@ -337,7 +350,9 @@ public class Connection implements ConnectionBase {
                 return mConnectionFuture;
             }
 
-            log("Start the connection, using " + transport.getName() + " transport", LogLevel.Information);
+            if (isLoggable(LogLevel.Information)) {
+                log("Start the connection, using " + transport.getName() + " transport", LogLevel.Information);
+            }
 
             mTransport = transport;
             mConnectionFuture = new UpdateableCancellableFuture<Void>(null);
@@ -361,12 +376,16 @@ public class Connection implements ConnectionBase {
 
                         mConnectionId = negotiationResponse.getConnectionId();
                         mConnectionToken = negotiationResponse.getConnectionToken();
-                        log("ConnectionId: " + mConnectionId, LogLevel.Verbose);
-                        log("ConnectionToken: " + mConnectionToken, LogLevel.Verbose);
+                        if (isLoggable(LogLevel.Verbose)) {
+                            log("ConnectionId: " + mConnectionId, LogLevel.Verbose);
+                            log("ConnectionToken: " + mConnectionToken, LogLevel.Verbose);
+                        }
 
                         KeepAliveData keepAliveData = null;
                         if (negotiationResponse.getKeepAliveTimeout() > 0) {
-                            log("Keep alive timeout: " + negotiationResponse.getKeepAliveTimeout(), LogLevel.Verbose);
+                            if (isLoggable(LogLevel.Verbose)) {
+                                log("Keep alive timeout: " + negotiationResponse.getKeepAliveTimeout(), LogLevel.Verbose);
+                            }
                             keepAliveData = new KeepAliveData((long) (negotiationResponse.getKeepAliveTimeout() * 1000));
                         }
 
@@ -558,7 +577,32 @@ public class Connection implements ConnectionBase {
 
     @Override
     public void setGson(Gson gson) {
+        if (gson == null) {
+            throw new IllegalArgumentException("gson");
+        }
+
+        // a custom codec, including a subclass of GsonCodec, would be lost
+        if (mCodec.getClass() != GsonCodec.class) {
+            throw new IllegalStateException("The connection uses a custom codec, use setCodec to replace it");
+        }
+
         mGson = gson;
+        mCodec = new GsonCodec(gson);
+    }
+
+    @Override
+    public JsonCodec getCodec() {
+        return mCodec;
+    }
+
+    @Override
+    public void setCodec(JsonCodec codec) {
+        if (codec == null) {
+            throw new IllegalArgumentException("codec");
+        }
+
+        mGson = codec instanceof GsonCodec ? ((GsonCodec) codec).getGson() : null;
+        mCodec = codec;
     }
 
     @Override
@@ -669,13 +713,21 @@ public class Connection implements ConnectionBase {
 
             ConnectionType connectionType = isReconnecting ? ConnectionType.Reconnection : ConnectionType.InitialConnection;
 
-            log("Starting transport for " + connectionType.toString(), LogLevel.Verbose);
-            SignalRFuture<Void> future = mTransport.start(this, connectionType, new DataResultCallback() {
+            if (isLoggable(LogLevel.Verbose)) {
+                log("Starting transport for " + connectionType.toString(), LogLevel.Verbose);
+            }
+            SignalRFuture<Void> future = mTransport.start(this, connectionType, new StreamDataResultCallback() {
                 @Override
                 public void onData(String data) {
                     log("Received data: ", LogLevel.Verbose);
                     processReceivedData(data);
                 }
+
+                @Override
+                public void onData(InputStream data) throws IOException {
+                    log("Received data stream", LogLevel.Verbose);
+                    processReceivedData(data);
+                }
             });
 
             handleFutureError(future, true);
@@ -698,7 +750,9 @@ public class Connection implements ConnectionBase {
                     public void run(Void obj) throws Exception {
                         synchronized (mStartLock) {
                             log("Entered startLock after transport was started", LogLevel.Verbose);
-                            log("Current state: " + mState, LogLevel.Verbose);
+                            if (isLoggable(LogLevel.Verbose)) {
+                                log("Current state: " + mState, LogLevel.Verbose);
+                            }
                             if (changeState(ConnectionState.Reconnecting, ConnectionState.Connected)) {
 
                                 log("Starting Heartbeat monitor", LogLevel.Verbose);
@@ -748,6 +802,32 @@ public class Connection implements ConnectionBase {
         }
     }
 
+    /**
+     * Parses the received data while it is read from the stream and triggers
+     * the OnReceived event for each message
+     * 
+     * @param data
+     *            The stream with the received data
+     * @throws IOException
+     *             If reading the stream fails
+     */
+    private void processReceivedData(InputStream data) throws IOException {
+        if (mHeartbeatMonitor != null) {
+            mHeartbeatMonitor.beat();
+        }
+
+        MessageResult result = TransportHelper.processReceivedData(data, this);
+
+        if (result.disconnect()) {
+            disconnect();
+            return;
+        }
+
+        if (result.reconnect()) {
+            reconnect();
+        }
+    }
+
     /**
      * Processes a received message
      * 
@@ -805,23 +885,54 @@ public class Connection implements ConnectionBase {
     }
 
     protected void log(String message, LogLevel level) {
-        if (message != null & mLogger != null) {
+        if (message != null && isLoggable(level)) {
             mLogger.log(getSourceNameForLog() + " - " + message, level);
         }
     }
 
     protected void log(Throwable error) {
-        mLogger.log(getSourceNameForLog() + " - Error: " + error.toString(), LogLevel.Critical);
+        if (isLoggable(LogLevel.Critical)) {
+            mLogger.log(getSourceNameForLog() + " - Error: " + error.toString(), LogLevel.Critical);
+        }
+    }
+
+    /**
+     * Returns true if the messages of a level are logged
+     */
+    protected boolean isLoggable(LogLevel level) {
+        return LogHelper.isLoggable(mLogger, level);
+    }
+
+    /**
+     * Returns true if the messages of a level are logged with the data
+     * exchanged with the server
+     */
+    protected boolean isPayloadLoggable(LogLevel level) {
+        return LogHelper.isPayloadLoggable(mLogger, level);
     }
 
     protected String getSourceNameForLog() {
         return "Connection";
     }
 
+    @Override
+    public void onReceived(JsonStreamReader message) throws IOException {
+        onReceived(GsonValue.readElement(message));
+    }
+
+    /**
+     * Returns true if a handler for the "Received" event is set
+     */
+    protected boolean hasReceivedHandler() {
+        return mOnReceived != null;
+    }
+
     @Override
     public void onReceived(JsonElement message) {
         if (mOnReceived != null && getState() == ConnectionState.Connected) {
-            log("Invoking messageReceived with: " + message, LogLevel.Verbose);
+            if (isPayloadLoggable(LogLevel.Verbose)) {
+                log("Invoking messageReceived with: " + message, LogLevel.Verbose);
+            }
             try {
                 mOnReceived.onMessageReceived(message);
             } catch (Throwable error) {
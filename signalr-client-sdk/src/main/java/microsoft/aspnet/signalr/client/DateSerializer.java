@@ -8,10 +8,7 @@ package microsoft.aspnet.signalr.client;
 
 import java.lang.reflect.Type;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Locale;
-import java.util.TimeZone;
 
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonDeserializer;
@@ -22,11 +19,18 @@ import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
 
 /**
- * Date Serializer/Deserializer to make .NET and Java dates compatible
+ * Date Serializer/Deserializer to make .NET and Java dates compatible.
+ * 
+ * Dates are read and written in ISO-8601 without a formatter, using the
+ * proleptic Gregorian calendar like .NET. The fraction of the seconds can have
+ * any number of digits and is truncated to milliseconds. A date without time
+ * zone is read as UTC.
  */
 public class DateSerializer implements JsonSerializer<Date>, JsonDeserializer<Date> {
 
-    private static final int THREE_MILLISECONDS_DATE_FORMAT_LENGTH = 29;
+    private static final long MILLISECONDS_PER_DAY = 24 * 60 * 60 * 1000;
+
+    private static final int SERIALIZED_DATE_LENGTH = 24;
 
     /**
      * Deserializes a JsonElement containing an ISO-8601 formatted date
@@ -55,67 +59,236 @@ public class DateSerializer implements JsonSerializer<Date>, JsonDeserializer<Da
      * Deserializes an ISO-8601 formatted date
      */
     public static Date deserialize(String strVal) throws ParseException {
-        
-    	String s;
-    	
-    	if(strVal.contains("+00:00")){
-    		strVal = strVal.replace("+00:00", "");
-    	}
-    	
-    	if(strVal.length() == 19){// adapt from format yyyy-MM-ddTHH:mm:dd
-    		s = strVal + ".+00:00";
-    	}else if(strVal.contains(".Z")){
-    		// Change .Z to +00:00 to adapt the string to a format
-            // that can be parsed in Java
-    		s = strVal.replace(".Z", ".+00:00");
-    	}else{ 
-    		// Change Z to +00:00 to adapt the string to a format
-            // that can be parsed in Java
-    		s = strVal.replace("Z", ".+00:00");
-    	}
-    	     
-        try {
-            // Remove the ":" character to adapt the string to a
-            // format
-            // that can be parsed in Java
-
-            if (s.length() > THREE_MILLISECONDS_DATE_FORMAT_LENGTH) { // yyyy-MM-ddTHH:mm:dd.SSS+00:00
-                // remove the extra milliseconds characters
-                s = s.substring(0, 23) + s.substring(s.length() - 6);
-            } else if (s.length() < THREE_MILLISECONDS_DATE_FORMAT_LENGTH) {
-                // add extra milliseconds characters
-                int dif = (THREE_MILLISECONDS_DATE_FORMAT_LENGTH - s.length());
-
-                String zeros = "";
-                for (int i = 0; i < dif; i++) {
-                    zeros += "0";
+        return new Date(deserializeMillis(strVal));
+    }
+
+    /**
+     * Serializes a Date object to an ISO-8601 formatted date string
+     */
+    public static String serialize(Date date) {
+        return serialize(date.getTime());
+    }
+
+    /**
+     * Deserializes an ISO-8601 formatted date to milliseconds since the epoch
+     */
+    static long deserializeMillis(String s) throws ParseException {
+        int length = s.length();
+
+        // an expanded year has a sign and 4 to 9 digits
+        int yearStart = 0;
+        int yearEnd = 4;
+        if (length > 0 && (s.charAt(0) == '+' || s.charAt(0) == '-')) {
+            yearStart = 1;
+            yearEnd = s.indexOf('-', 1);
+
+            if (yearEnd < 5 || yearEnd > 10) {
+                throw new ParseException("Invalid date: " + s, 0);
+            }
+        }
+
+        // yyyy-MM-ddTHH:mm:ss
+        int i = yearEnd;
+        if (length < i + 15 || s.charAt(i) != '-' || s.charAt(i + 3) != '-' || (s.charAt(i + 6) != 'T' && s.charAt(i + 6) != 't')
+                || s.charAt(i + 9) != ':' || s.charAt(i + 12) != ':') {
+            throw new ParseException("Invalid date: " + s, 0);
+        }
+
+        int year = parseDigits(s, yearStart, yearEnd - yearStart);
+        if (s.charAt(0) == '-') {
+            year = -year;
+        }
+
+        int month = parseDigits(s, i + 1, 2);
+        int day = parseDigits(s, i + 4, 2);
+        int hour = parseDigits(s, i + 7, 2);
+        int minute = parseDigits(s, i + 10, 2);
+        int second = parseDigits(s, i + 13, 2);
+
+        if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 60) {
+            throw new ParseException("Invalid date: " + s, 0);
+        }
+
+        int index = i + 15;
+        int milliseconds = 0;
+
+        if (index < length && s.charAt(index) == '.') {
+            index++;
+
+            int digits = 0;
+            while (index < length && isDigit(s.charAt(index))) {
+                if (digits < 3) {
+                    milliseconds = milliseconds * 10 + s.charAt(index) - '0';
+                }
+
+                digits++;
+                index++;
+            }
+
+            for (; digits < 3; digits++) {
+                milliseconds *= 10;
+            }
+        }
+
+        int offsetMinutes = 0;
+
+        if (index < length) {
+            char c = s.charAt(index);
+
+            if (c == 'Z' || c == 'z') {
+                index++;
+            } else if (c == '+' || c == '-') {
+                // +HH:mm, +HHmm or +HH
+                int offsetHours = parseDigits(s, index + 1, 2);
+                index += 3;
+
+                int offsetMinutesPart = 0;
+                if (index < length) {
+                    if (s.charAt(index) == ':') {
+                        index++;
+                    }
+
+                    offsetMinutesPart = parseDigits(s, index, 2);
+                    index += 2;
+                }
+
+                offsetMinutes = offsetHours * 60 + offsetMinutesPart;
+                if (c == '-') {
+                    offsetMinutes = -offsetMinutes;
                 }
-                s = s.substring(0, 20 + (3 - dif)) + zeros + s.substring(s.length() - 6);
             }
+        }
 
-            s = s.substring(0, 26) + s.substring(27);
-        } catch (IndexOutOfBoundsException e) {
-            throw new JsonParseException("Invalid length for: " + s);
+        if (index != length) {
+            throw new ParseException("Invalid date: " + s, index);
         }
 
-        // Parse the well-formatted date string
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'.'SSSZ");
-        dateFormat.setTimeZone(TimeZone.getDefault());
-        Date date = dateFormat.parse(s);
+        long days = daysFromCivil(year, month, day);
+        long minutes = (days * 24 + hour) * 60 + minute - offsetMinutes;
+        long seconds = minutes * 60 + second;
+
+        // the expanded years go beyond the range of a Date
+        boolean outOfRange = seconds >= 0 ? seconds > (Long.MAX_VALUE - milliseconds) / 1000
+                : seconds < Long.MIN_VALUE / 1000 - 1 || (seconds + 1) * 1000 < Long.MIN_VALUE + 1000 - milliseconds;
+
+        if (outOfRange) {
+            throw new ParseException("Invalid date: " + s, 0);
+        }
 
-        return date;
+        return seconds * 1000 + milliseconds;
     }
 
     /**
-     * Serializes a Date object to an ISO-8601 formatted date string
+     * Serializes milliseconds since the epoch to an ISO-8601 formatted date
+     * string in UTC, like yyyy-MM-ddTHH:mm:ss.SSSZ. Years out of 0-9999,
+     * which .NET can't represent, are written as ISO-8601 expanded years,
+     * like +10000 or -0001
      */
-    public static String serialize(Date date) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'.'SSS'Z'", Locale.getDefault());
-        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    static String serialize(long millis) {
+        long days = millis / MILLISECONDS_PER_DAY;
+        long remainder = millis % MILLISECONDS_PER_DAY;
+        if (remainder < 0) {
+            days--;
+            remainder += MILLISECONDS_PER_DAY;
+        }
+
+        int time = (int) remainder;
+
+        // civil date from days since the epoch, see daysFromCivil
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        boolean expandedYear = year < 0 || year > 9999;
+
+        char[] chars = new char[SERIALIZED_DATE_LENGTH];
+        if (!expandedYear) {
+            writeDigits(chars, 0, (int) year, 4);
+        }
+        chars[4] = '-';
+        writeDigits(chars, 5, month, 2);
+        chars[7] = '-';
+        writeDigits(chars, 8, day, 2);
+        chars[10] = 'T';
+        writeDigits(chars, 11, time / 3600000, 2);
+        chars[13] = ':';
+        writeDigits(chars, 14, time / 60000 % 60, 2);
+        chars[16] = ':';
+        writeDigits(chars, 17, time / 1000 % 60, 2);
+        chars[19] = '.';
+        writeDigits(chars, 20, time % 1000, 3);
+        chars[23] = 'Z';
+
+        if (expandedYear) {
+            return formatExpandedYear(year) + new String(chars, 4, SERIALIZED_DATE_LENGTH - 4);
+        }
+
+        return new String(chars);
+    }
+
+    private static String formatExpandedYear(long year) {
+        String digits = Long.toString(Math.abs(year));
+
+        StringBuilder sb = new StringBuilder(digits.length() + 4);
+        sb.append(year < 0 ? '-' : '+');
+        for (int i = digits.length(); i < 4; i++) {
+            sb.append('0');
+        }
+        sb.append(digits);
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns the days since the epoch of a date of the proleptic Gregorian
+     * calendar. The years start on March so that the leap day is the last day
+     * of the year, and eras are 400 years long
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        if (month <= 2) {
+            year--;
+        }
 
-        String formatted = dateFormat.format(date);
+        int era = (year >= 0 ? year : year - 399) / 400;
+        int yearOfEra = year - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
 
-        return formatted;
+        return era * 146097L + dayOfEra - 719468;
     }
 
+    private static int parseDigits(String s, int index, int count) throws ParseException {
+        if (index + count > s.length()) {
+            throw new ParseException("Invalid date: " + s, index);
+        }
+
+        int value = 0;
+        for (int i = index; i < index + count; i++) {
+            char c = s.charAt(i);
+            if (!isDigit(c)) {
+                throw new ParseException("Invalid date: " + s, i);
+            }
+
+            value = value * 10 + c - '0';
+        }
+
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static void writeDigits(char[] chars, int index, int value, int count) {
+        for (int i = index + count - 1; i >= index; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
 }
@@ -0,0 +1,28 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+/**
+ * Logger that tells which messages it logs, so the messages it would discard
+ * are not built
+ */
+public interface FilteredLogger extends Logger {
+    /**
+     * Returns true if the messages of a level are logged
+     * 
+     * @param level
+     *            Message level
+     */
+    public boolean isLoggable(LogLevel level);
+
+    /**
+     * Returns true if the logged messages include the data exchanged with the
+     * server, like sent and received messages, hub arguments and request
+     * contents
+     */
+    public boolean isPayloadLoggable();
+}
@@ -0,0 +1,83 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.util.Date;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * JsonCodec based on Gson. This is the codec used by default
+ */
+public class GsonCodec implements JsonCodec {
+
+    private Gson mGson;
+
+    /**
+     * Initializes the codec with a Gson instance that serializes dates in the
+     * format used by the server
+     */
+    public GsonCodec() {
+        GsonBuilder gsonBuilder = new GsonBuilder();
+        gsonBuilder.registerTypeAdapter(Date.class, new DateSerializer());
+        mGson = gsonBuilder.create();
+    }
+
+    /**
+     * Initializes the codec with a Gson instance
+     * 
+     * @param gson
+     *            The Gson instance used to encode and decode values
+     */
+    public GsonCodec(Gson gson) {
+        if (gson == null) {
+            throw new IllegalArgumentException("gson");
+        }
+
+        mGson = gson;
+    }
+
+    /**
+     * Returns the Gson instance used to encode and decode values
+     */
+    public Gson getGson() {
+        return mGson;
+    }
+
+    @Override
+    public JsonStreamReader newReader(Reader data) {
+        JsonReader reader = new JsonReader(data);
+        reader.setLenient(true);
+
+        return new GsonStreamReader(reader);
+    }
+
+    @Override
+    public JsonValue readValue(JsonStreamReader reader) throws IOException {
+        return new GsonValue(GsonValue.readElement(reader));
+    }
+
+    @Override
+    public String toJson(Object value) {
+        return mGson.toJson(value);
+    }
+
+    @Override
+    public <T> T fromJson(String json, Type type) {
+        return mGson.fromJson(json, type);
+    }
+
+    @Override
+    public <T> T fromJson(JsonValue value, Type type) {
+        return mGson.fromJson(GsonValue.toElement(value), type);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import java.io.IOException;
+
+import com.google.gson.stream.JsonReader;
+
+/**
+ * JsonStreamReader based on the JsonReader of Gson
+ */
+public class GsonStreamReader implements JsonStreamReader {
+
+    private JsonReader mReader;
+
+    /**
+     * Initializes the reader
+     * 
+     * @param reader
+     *            The Gson reader the tokens are read from
+     */
+    public GsonStreamReader(JsonReader reader) {
+        if (reader == null) {
+            throw new IllegalArgumentException("reader");
+        }
+
+        mReader = reader;
+    }
+
+    /**
+     * Returns the Gson reader the tokens are read from
+     */
+    public JsonReader getReader() {
+        return mReader;
+    }
+
+    @Override
+    public JsonStreamToken peek() throws IOException {
+        switch (mReader.peek()) {
+        case BEGIN_ARRAY:
+            return JsonStreamToken.BeginArray;
+        case END_ARRAY:
+            return JsonStreamToken.EndArray;
+        case BEGIN_OBJECT:
+            return JsonStreamToken.BeginObject;
+        case END_OBJECT:
+            return JsonStreamToken.EndObject;
+        case NAME:
+            return JsonStreamToken.Name;
+        case STRING:
+            return JsonStreamToken.String;
+        case NUMBER:
+            return JsonStreamToken.Number;
+        case BOOLEAN:
+            return JsonStreamToken.Boolean;
+        case NULL:
+            return JsonStreamToken.Null;
+        default:
+            return JsonStreamToken.EndDocument;
+        }
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+        mReader.beginArray();
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        mReader.endArray();
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+        mReader.beginObject();
+    }
+
+    @Override
+    public void endObject() throws IOException {
+        mReader.endObject();
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        return mReader.hasNext();
+    }
+
+    @Override
+    public String nextName() throws IOException {
+        return mReader.nextName();
+    }
+
+    @Override
+    public String nextString() throws IOException {
+        return mReader.nextString();
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException {
+        return mReader.nextBoolean();
+    }
+
+    @Override
+    public void nextNull() throws IOException {
+        mReader.nextNull();
+    }
+
+    @Override
+    public void skipValue() throws IOException {
+        mReader.skipValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+}
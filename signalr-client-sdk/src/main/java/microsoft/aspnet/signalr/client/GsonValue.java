@@ -0,0 +1,144 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import java.io.IOException;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * JsonValue holding a Gson tree.
+ * 
+ * It also builds the Gson trees that the public API exposes from the reader
+ * of any codec.
+ */
+public class GsonValue implements JsonValue {
+
+    private static final JsonParser PARSER = new JsonParser();
+
+    private JsonElement mElement;
+
+    /**
+     * Initializes the value
+     * 
+     * @param element
+     *            The tree, or null for a JSON null
+     */
+    public GsonValue(JsonElement element) {
+        mElement = element != null ? element : JsonNull.INSTANCE;
+    }
+
+    /**
+     * Returns the tree of the value
+     */
+    public JsonElement getElement() {
+        return mElement;
+    }
+
+    @Override
+    public String toJson() {
+        return mElement.toString();
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    /**
+     * Returns a value as a Gson tree. The values of other codecs are parsed
+     * from their JSON text
+     * 
+     * @param value
+     *            The value
+     * @return The tree
+     */
+    public static JsonElement toElement(JsonValue value) {
+        if (value == null) {
+            return JsonNull.INSTANCE;
+        }
+
+        if (value instanceof GsonValue) {
+            return ((GsonValue) value).getElement();
+        }
+
+        return PARSER.parse(value.toJson());
+    }
+
+    /**
+     * Reads the next value of a reader as a Gson tree
+     * 
+     * @param reader
+     *            The reader, positioned at the start of the value
+     * @return The tree
+     * @throws IOException
+     *             If reading the value fails
+     */
+    public static JsonElement readElement(JsonStreamReader reader) throws IOException {
+        if (reader instanceof GsonStreamReader) {
+            try {
+                return PARSER.parse(((GsonStreamReader) reader).getReader());
+            } catch (JsonParseException e) {
+                // the reader errors are reported as they are by the other
+                // readers
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+
+                throw e;
+            }
+        }
+
+        switch (reader.peek()) {
+        case BeginArray:
+            JsonArray array = new JsonArray();
+
+            reader.beginArray();
+            while (reader.hasNext()) {
+                array.add(readElement(reader));
+            }
+            reader.endArray();
+
+            return array;
+
+        case BeginObject:
+            JsonObject object = new JsonObject();
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                object.add(name, readElement(reader));
+            }
+            reader.endObject();
+
+            return object;
+
+        case String:
+            return new JsonPrimitive(reader.nextString());
+
+        case Number:
+            // the number keeps the text it was written with
+            return PARSER.parse(reader.nextString());
+
+        case Boolean:
+            return new JsonPrimitive(reader.nextBoolean());
+
+        case Null:
+            reader.nextNull();
+            return JsonNull.INSTANCE;
+
+        default:
+            throw new IllegalStateException("Unexpected token: " + reader.peek());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+
+/**
+ * Reads and writes the JSON exchanged with the server.
+ * 
+ * The codec only deals with its own readers and values, so it can be based
+ * on any JSON library. The values that the public API exposes as Gson trees,
+ * like the received messages and the hub state, are built by the connection
+ * from the reader of the codec.
+ */
+public interface JsonCodec {
+
+    /**
+     * Creates a reader for data received from the server
+     * 
+     * @param data
+     *            The received data
+     * @return The reader
+     */
+    JsonStreamReader newReader(Reader data);
+
+    /**
+     * Reads the next value of a reader created by the codec
+     * 
+     * @param reader
+     *            The reader, positioned at the start of the value
+     * @return The value
+     * @throws IOException
+     *             If reading the value fails
+     */
+    JsonValue readValue(JsonStreamReader reader) throws IOException;
+
+    /**
+     * Encodes a value as JSON text
+     * 
+     * @param value
+     *            The value, or null
+     * @return The JSON text
+     */
+    String toJson(Object value);
+
+    /**
+     * Decodes JSON text
+     * 
+     * @param json
+     *            The JSON text
+     * @param type
+     *            The type to decode
+     * @return The decoded value
+     */
+    <T> T fromJson(String json, Type type);
+
+    /**
+     * Decodes a value. Values that were not read by the codec are decoded from
+     * their JSON text
+     * 
+     * @param value
+     *            The value
+     * @param type
+     *            The type to decode
+     * @return The decoded value
+     */
+    <T> T fromJson(JsonValue value, Type type);
+}
@@ -0,0 +1,75 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the JSON received from the server one token at a time. It is created
+ * by a JsonCodec, usually over the streaming parser of its JSON library.
+ * 
+ * The methods throw an IOException if the data can't be read or is not valid
+ * JSON, and an EOFException if the data ends before the value does.
+ */
+public interface JsonStreamReader extends Closeable {
+
+    /**
+     * Returns the kind of the next token, without consuming it
+     */
+    JsonStreamToken peek() throws IOException;
+
+    /**
+     * Consumes the beginning of an array
+     */
+    void beginArray() throws IOException;
+
+    /**
+     * Consumes the end of an array
+     */
+    void endArray() throws IOException;
+
+    /**
+     * Consumes the beginning of an object
+     */
+    void beginObject() throws IOException;
+
+    /**
+     * Consumes the end of an object
+     */
+    void endObject() throws IOException;
+
+    /**
+     * Returns true if the current array or object has another element
+     */
+    boolean hasNext() throws IOException;
+
+    /**
+     * Consumes the name of the next member of an object
+     */
+    String nextName() throws IOException;
+
+    /**
+     * Consumes a string, or a number and returns it as it was written
+     */
+    String nextString() throws IOException;
+
+    /**
+     * Consumes a boolean
+     */
+    boolean nextBoolean() throws IOException;
+
+    /**
+     * Consumes a null
+     */
+    void nextNull() throws IOException;
+
+    /**
+     * Skips the next value, including the nested arrays and objects
+     */
+    void skipValue() throws IOException;
+}
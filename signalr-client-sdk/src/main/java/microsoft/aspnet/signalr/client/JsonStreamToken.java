@@ -0,0 +1,14 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+/**
+ * Represents the kind of the next token of a JsonStreamReader
+ */
+public enum JsonStreamToken {
+    BeginArray, EndArray, BeginObject, EndObject, Name, String, Number, Boolean, Null, EndDocument
+}
@@ -0,0 +1,18 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+/**
+ * JSON value read by a JsonCodec, in the representation of its JSON library
+ */
+public interface JsonValue {
+
+    /**
+     * Returns the JSON text of the value
+     */
+    String toJson();
+}
@@ -0,0 +1,46 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+/**
+ * Helper for logging. Loggers that are not a FilteredLogger log every message
+ */
+public class LogHelper {
+
+    /**
+     * Returns true if a logger logs the messages of a level
+     * 
+     * @param logger
+     *            The logger, or null
+     * @param level
+     *            Message level
+     */
+    public static boolean isLoggable(Logger logger, LogLevel level) {
+        if (logger == null) {
+            return false;
+        }
+
+        return !(logger instanceof FilteredLogger) || ((FilteredLogger) logger).isLoggable(level);
+    }
+
+    /**
+     * Returns true if a logger logs the messages of a level that include the
+     * data exchanged with the server
+     * 
+     * @param logger
+     *            The logger, or null
+     * @param level
+     *            Message level
+     */
+    public static boolean isPayloadLoggable(Logger logger, LogLevel level) {
+        if (!isLoggable(logger, level)) {
+            return false;
+        }
+
+        return !(logger instanceof FilteredLogger) || ((FilteredLogger) logger).isPayloadLoggable();
+    }
+}
@@ -9,9 +9,19 @@ package microsoft.aspnet.signalr.client;
 /**
  * Null logger implementation
  */
-public class NullLogger implements Logger {
+public class NullLogger implements FilteredLogger {
 
     @Override
     public void log(String message, LogLevel level) {
     }
+
+    @Override
+    public boolean isLoggable(LogLevel level) {
+        return false;
+    }
+
+    @Override
+    public boolean isPayloadLoggable() {
+        return false;
+    }
 }
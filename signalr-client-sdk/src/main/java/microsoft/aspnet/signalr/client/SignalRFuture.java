@@ -108,6 +108,9 @@ public class SignalRFuture<V> implements Future<V> {
     @Override
     public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
         if (mResultSemaphore.tryAcquire(timeout, unit)) {
+            // the permit is given back, so that every call to get returns
+            mResultSemaphore.release();
+
             if (errorWasTriggered()) {
                 throw new ExecutionException(mLastError);
             } else if (isCancelled()) {
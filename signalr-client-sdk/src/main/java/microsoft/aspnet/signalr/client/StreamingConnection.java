@@ -0,0 +1,28 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import java.io.IOException;
+
+/**
+ * Connection that reads the received messages straight from the stream of
+ * the transport. The transports hand the messages to the other connections
+ * as JsonElement trees
+ */
+public interface StreamingConnection extends ConnectionBase {
+
+    /**
+     * Triggers the "OnReceived" event for a message that is read from a
+     * stream. Exactly one JSON value is consumed from the reader
+     * 
+     * @param message
+     *            The reader, positioned at the start of the message
+     * @throws IOException
+     *             If reading the message fails
+     */
+    public void onReceived(JsonStreamReader message) throws IOException;
+}
@@ -0,0 +1,42 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Response that gives access to the raw bytes of its body. The transports
+ * read the other responses with readAllBytes or readLine
+ */
+public interface ByteResponse extends Response {
+
+    /**
+     * Reads bytes from the response stream into a buffer
+     * 
+     * @param buffer
+     *            The buffer to fill, from its position up to its limit
+     * @return The number of bytes read, or -1 if the end of the stream was
+     *         reached
+     * @throws java.io.IOException
+     */
+    public int read(ByteBuffer buffer) throws IOException;
+
+    /**
+     * Returns the raw response stream. It can't be used once the response
+     * was read with readLine
+     */
+    public InputStream getInputStream();
+
+    /**
+     * Returns the response stream as a channel. It can't be used once the
+     * response was read with readLine
+     */
+    public ReadableByteChannel getChannel();
+}
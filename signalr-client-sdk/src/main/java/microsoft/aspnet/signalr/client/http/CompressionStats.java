@@ -0,0 +1,73 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the compressed responses read by a connection. Comparing the
+ * compressed and uncompressed byte counts shows how much bandwidth the
+ * compression saves
+ */
+public class CompressionStats {
+
+    private AtomicLong mCompressedResponses = new AtomicLong(0);
+
+    private AtomicLong mCompressedBytes = new AtomicLong(0);
+
+    private AtomicLong mUncompressedBytes = new AtomicLong(0);
+
+    /**
+     * Returns the number of compressed responses received
+     */
+    public long getCompressedResponseCount() {
+        return mCompressedResponses.get();
+    }
+
+    /**
+     * Returns the number of bytes read from the network for compressed
+     * responses
+     */
+    public long getCompressedBytes() {
+        return mCompressedBytes.get();
+    }
+
+    /**
+     * Returns the number of bytes the compressed responses were decompressed
+     * to
+     */
+    public long getUncompressedBytes() {
+        return mUncompressedBytes.get();
+    }
+
+    /**
+     * Resets all the counters
+     */
+    public void reset() {
+        mCompressedResponses.set(0);
+        mCompressedBytes.set(0);
+        mUncompressedBytes.set(0);
+    }
+
+    void onCompressedResponse() {
+        mCompressedResponses.incrementAndGet();
+    }
+
+    void addCompressedBytes(long count) {
+        mCompressedBytes.addAndGet(count);
+    }
+
+    void addUncompressedBytes(long count) {
+        mUncompressedBytes.addAndGet(count);
+    }
+
+    @Override
+    public String toString() {
+        return "Compressed responses: " + getCompressedResponseCount() + ", compressed bytes: " + getCompressedBytes() + ", uncompressed bytes: "
+                + getUncompressedBytes();
+    }
+}
@@ -0,0 +1,216 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Stream that decodes a gzip or deflate response body as it is read.
+ * 
+ * The decoder is created on the first read, since it must read the
+ * compression header, so creating the stream never blocks. The decoder is
+ * released as soon as the end of the body is reached
+ */
+class DecompressingInputStream extends InputStream {
+
+    /**
+     * gzip content encoding
+     */
+    static final String GZIP_ENCODING = "gzip";
+
+    /**
+     * deflate content encoding
+     */
+    static final String DEFLATE_ENCODING = "deflate";
+
+    private static final int DECODER_BUFFER_SIZE = 4096;
+
+    private CountingInputStream mRawStream;
+
+    private String mEncoding;
+
+    private CompressionStats mStats;
+
+    private InputStream mDecoder = null;
+
+    private boolean mEnded = false;
+
+    private byte[] mSingleByte = new byte[1];
+
+    /**
+     * Initializes the stream
+     * 
+     * @param rawStream
+     *            The compressed body
+     * @param encoding
+     *            The content encoding, gzip or deflate
+     * @param stats
+     *            Counters to update, or null
+     */
+    DecompressingInputStream(InputStream rawStream, String encoding, CompressionStats stats) {
+        mRawStream = new CountingInputStream(rawStream);
+        mEncoding = encoding;
+        mStats = stats;
+
+        if (mStats != null) {
+            mStats.onCompressedResponse();
+        }
+    }
+
+    /**
+     * Indicates if a content encoding can be decoded
+     */
+    static boolean isSupportedEncoding(String encoding) {
+        if (encoding == null) {
+            return false;
+        }
+
+        String lowerEncoding = encoding.trim().toLowerCase(Locale.US);
+        return lowerEncoding.equals(GZIP_ENCODING) || lowerEncoding.equals(DEFLATE_ENCODING);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int read = read(mSingleByte, 0, 1);
+
+        return read == -1 ? -1 : mSingleByte[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (mEnded) {
+            return -1;
+        }
+
+        if (length == 0) {
+            return 0;
+        }
+
+        if (mDecoder == null) {
+            mDecoder = createDecoder();
+
+            if (mDecoder == null) {
+                end();
+                return -1;
+            }
+        }
+
+        int read = mDecoder.read(buffer, offset, length);
+
+        if (read == -1) {
+            end();
+        } else if (read > 0 && mStats != null) {
+            mStats.addUncompressedBytes(read);
+        }
+
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        end();
+        mRawStream.mDetached = false;
+        mRawStream.close();
+    }
+
+    /**
+     * Creates the decoder, or returns null if the body is empty
+     */
+    private InputStream createDecoder() throws IOException {
+        PushbackInputStream stream = new PushbackInputStream(mRawStream, 2);
+
+        byte[] header = new byte[2];
+        int headerLength = 0;
+        while (headerLength < header.length) {
+            int read = stream.read(header, headerLength, header.length - headerLength);
+            if (read == -1) {
+                break;
+            }
+
+            headerLength += read;
+        }
+
+        if (headerLength == 0) {
+            return null;
+        }
+
+        stream.unread(header, 0, headerLength);
+
+        if (mEncoding.trim().toLowerCase(Locale.US).equals(GZIP_ENCODING)) {
+            return new GZIPInputStream(stream, DECODER_BUFFER_SIZE);
+        }
+
+        // "deflate" should be a zlib stream, but some servers send raw deflate
+        // data
+        boolean zlibHeader = headerLength == 2 && (header[0] & 0x0f) == 8 && (((header[0] & 0xff) << 8) | (header[1] & 0xff)) % 31 == 0;
+
+        return new InflaterInputStream(stream, new Inflater(!zlibHeader), DECODER_BUFFER_SIZE);
+    }
+
+    /**
+     * Releases the decoder once the whole body was read. The raw stream is
+     * left open, since it belongs to the connection
+     */
+    private void end() {
+        mEnded = true;
+
+        if (mDecoder != null) {
+            mRawStream.mDetached = true;
+
+            try {
+                // the inflater holds native memory until it is ended
+                mDecoder.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Stream that counts the compressed bytes
+     */
+    private class CountingInputStream extends FilterInputStream {
+        private boolean mDetached = false;
+
+        CountingInputStream(InputStream stream) {
+            super(stream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read != -1 && mStats != null) {
+                mStats.addCompressedBytes(1);
+            }
+
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0 && mStats != null) {
+                mStats.addCompressedBytes(read);
+            }
+
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!mDetached) {
+                super.close();
+            }
+        }
+    }
+}
@@ -69,4 +69,34 @@ public class HttpConnectionFuture extends SignalRFuture<Void> {
         public void onResponse(Response response) throws Exception;
     }
 
+    /**
+     * ResponseCallback that can receive the body of a streamed response as it
+     * arrives. HttpConnections that read without blocking a thread push the
+     * body to it, the others call onResponse with a readable response
+     */
+    public interface StreamingResponseCallback extends ResponseCallback {
+        /**
+         * Callback invoked when the headers of a streamed response arrive.
+         * The body of the response is not readable, it is passed to
+         * onStreamData
+         * 
+         * @param response
+         *            The returned response
+         */
+        public void onStreamStarted(Response response) throws Exception;
+
+        /**
+         * Callback invoked with each part of the body of a streamed response,
+         * in order. The data is only valid during the call
+         * 
+         * @param data
+         *            Buffer with the received bytes
+         * @param offset
+         *            Offset of the received bytes in the buffer
+         * @param length
+         *            Number of received bytes
+         */
+        public void onStreamData(byte[] data, int offset, int length) throws Exception;
+    }
+
 }
@@ -6,6 +6,10 @@ See License.txt in the project root for license information.
 
 package microsoft.aspnet.signalr.client.http;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
@@ -13,6 +17,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.zip.GZIPOutputStream;
 
 import microsoft.aspnet.signalr.client.*;
 
@@ -21,10 +26,48 @@ import microsoft.aspnet.signalr.client.*;
  */
 public class Request {
 
+    /**
+     * Header used to indicate the content encoding
+     */
+    public static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+
+    /**
+     * Content encoding of gzipped content
+     */
+    public static final String GZIP_ENCODING = "gzip";
+
+    /**
+     * Header used to advertise the content encodings accepted in the response
+     */
+    public static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+
+    /**
+     * Response content encodings that StreamResponse can decompress
+     */
+    public static final String COMPRESSED_RESPONSE_ENCODINGS = "gzip, deflate";
+
+    private static final int COPY_BUFFER_SIZE = 8 * 1024;
+
     private String mVerb;
 
     private String mContent;
 
+    private byte[] mContentBytes;
+
+    private byte[] mEncodedContent;
+
+    private InputStream mContentStream;
+
+    private long mContentStreamLength = -1;
+
+    private boolean mGzipContent = false;
+
+    private int mConnectTimeoutMillis = 0;
+
+    private int mReadTimeoutMillis = 0;
+
+    private int mTotalTimeoutMillis = 0;
+
     private HashMap<String, String> mHeaders = new HashMap<String, String>();
 
     private String mUrl;
@@ -40,19 +83,147 @@ public class Request {
     }
 
     /**
-     * Sets the request content
+     * Sets the request content. It is sent encoded as UTF-8
      */
     public void setContent(String content) {
+        clearContent();
         mContent = content;
     }
 
     /**
-     * Returns the request content
+     * Sets the request content as raw bytes
+     * 
+     * @param content
+     *            The bytes to send
+     */
+    public void setContent(byte[] content) {
+        clearContent();
+        mContentBytes = content;
+    }
+
+    /**
+     * Sets a stream as the request content. The stream is read while the
+     * request is sent and closed afterwards, so a request with stream content
+     * can only be executed once
+     * 
+     * @param content
+     *            The stream to send
+     * @param length
+     *            The number of bytes of the stream, or -1 if unknown. Content
+     *            of unknown length is sent chunked
+     */
+    public void setContent(InputStream content, long length) {
+        if (length < -1) {
+            throw new IllegalArgumentException("length");
+        }
+
+        clearContent();
+        mContentStream = content;
+        mContentStreamLength = content != null ? length : -1;
+    }
+
+    /**
+     * Returns the request content, if it was set as a String
      */
     public String getContent() {
         return mContent;
     }
 
+    /**
+     * Returns the request content, if it was set as a stream
+     */
+    public InputStream getContentStream() {
+        return mContentStream;
+    }
+
+    /**
+     * Indicates if the request has content to send
+     */
+    public boolean hasContent() {
+        return mContent != null || mContentBytes != null || mContentStream != null;
+    }
+
+    /**
+     * Sets whether the content is compressed with gzip before sending it. The
+     * server must accept a gzip Content-Encoding in requests
+     */
+    public void setGzipContent(boolean gzipContent) {
+        mGzipContent = gzipContent;
+    }
+
+    /**
+     * Indicates if the content is compressed with gzip before sending it
+     */
+    public boolean isGzipContent() {
+        return mGzipContent;
+    }
+
+    /**
+     * Returns the number of bytes that are sent as content, or -1 if it is
+     * not known before sending it, which is the case for compressed content
+     * and streams of unknown length
+     */
+    public long getContentLength() {
+        if (!hasContent()) {
+            return 0;
+        }
+
+        if (mGzipContent) {
+            return -1;
+        }
+
+        if (mContentStream != null) {
+            return mContentStreamLength;
+        }
+
+        return getRawContentBytes().length;
+    }
+
+    /**
+     * Writes the content as it must be sent, compressing it if needed. The
+     * output stream is not closed
+     * 
+     * @param output
+     *            The stream to write the content to
+     * @throws IOException
+     */
+    public void writeContent(OutputStream output) throws IOException {
+        if (!hasContent()) {
+            return;
+        }
+
+        if (mGzipContent) {
+            GZIPOutputStream gzipOutput = new GZIPOutputStream(output, COPY_BUFFER_SIZE);
+            writeRawContent(gzipOutput);
+            gzipOutput.finish();
+        } else {
+            writeRawContent(output);
+        }
+    }
+
+    /**
+     * Returns the content as it must be sent, compressing it if needed, or
+     * null if there is no content. Stream content is consumed, so this is
+     * meant for connections that can't send the content as it is read
+     * 
+     * @throws IOException
+     */
+    public byte[] getContentBytes() throws IOException {
+        if (!hasContent()) {
+            return null;
+        }
+
+        if (!mGzipContent && mContentStream == null) {
+            return getRawContentBytes();
+        }
+
+        long length = getContentLength();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(length > 0 && length < Integer.MAX_VALUE ? (int) length : COPY_BUFFER_SIZE);
+        writeContent(output);
+
+        return output.toByteArray();
+    }
+
     /**
      * Sets the request content with a single name-value pair, using form
      * encoding
@@ -87,7 +258,7 @@ public class Request {
             }
         }
 
-        mContent = sb.toString();
+        setContent(sb.toString());
     }
 
     /**
@@ -123,6 +294,20 @@ public class Request {
         mHeaders.put(name, value);
     }
 
+    /**
+     * Advertises the response encodings that StreamResponse can decompress,
+     * unless the request already specifies the accepted encodings
+     */
+    public void acceptCompressedResponse() {
+        for (String key : mHeaders.keySet()) {
+            if (key.equalsIgnoreCase(ACCEPT_ENCODING_HEADER)) {
+                return;
+            }
+        }
+
+        mHeaders.put(ACCEPT_ENCODING_HEADER, COMPRESSED_RESPONSE_ENCODINGS);
+    }
+
     /**
      * Removes a header
      * 
@@ -147,6 +332,79 @@ public class Request {
         return mVerb;
     }
 
+    /**
+     * Sets the maximum time to establish the connection. A timeout makes the
+     * HttpConnectionFuture trigger its timeout callback
+     * 
+     * @param connectTimeoutMillis
+     *            The timeout in milliseconds, or 0 to use the default of the
+     *            HttpConnection
+     */
+    public void setConnectTimeout(int connectTimeoutMillis) {
+        if (connectTimeoutMillis < 0) {
+            throw new IllegalArgumentException("connectTimeoutMillis");
+        }
+
+        mConnectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * Returns the maximum time to establish the connection, or 0 for the
+     * default of the HttpConnection
+     */
+    public int getConnectTimeout() {
+        return mConnectTimeoutMillis;
+    }
+
+    /**
+     * Sets the maximum time to wait for data from the server, either the
+     * response headers or the next part of the body. A timeout makes the
+     * HttpConnectionFuture trigger its timeout callback, or the response
+     * stream fail with a SocketTimeoutException if it was already handed to
+     * the response callback
+     * 
+     * @param readTimeoutMillis
+     *            The timeout in milliseconds, or 0 to wait indefinitely
+     */
+    public void setReadTimeout(int readTimeoutMillis) {
+        if (readTimeoutMillis < 0) {
+            throw new IllegalArgumentException("readTimeoutMillis");
+        }
+
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Returns the maximum time to wait for data from the server, or 0 if it
+     * waits indefinitely
+     */
+    public int getReadTimeout() {
+        return mReadTimeoutMillis;
+    }
+
+    /**
+     * Sets the deadline of the whole request, from the moment it starts until
+     * the response is read. When the deadline expires the connection is
+     * closed and the HttpConnectionFuture triggers its timeout callback
+     * 
+     * @param totalTimeoutMillis
+     *            The timeout in milliseconds, or 0 for no deadline
+     */
+    public void setTotalTimeout(int totalTimeoutMillis) {
+        if (totalTimeoutMillis < 0) {
+            throw new IllegalArgumentException("totalTimeoutMillis");
+        }
+
+        mTotalTimeoutMillis = totalTimeoutMillis;
+    }
+
+    /**
+     * Returns the deadline of the whole request, or 0 if there is no deadline
+     */
+    public int getTotalTimeout() {
+        return mTotalTimeoutMillis;
+    }
+
     /**
      * Sets the request URL
      */
@@ -168,14 +426,74 @@ public class Request {
      *            the provided logger
      */
     public void log(Logger logger) {
-        if (logger != null) {
+        if (LogHelper.isLoggable(logger, LogLevel.Verbose)) {
             logger.log("URL: " + getUrl(), LogLevel.Verbose);
             logger.log("VERB: " + getVerb(), LogLevel.Verbose);
 
             for (String key : mHeaders.keySet()) {
                 logger.log("Header " + key + ": " + mHeaders.get(key), LogLevel.Verbose);
             }
-            logger.log("CONTENT: " + getContent(), LogLevel.Verbose);
+
+            if (mContent != null && LogHelper.isPayloadLoggable(logger, LogLevel.Verbose)) {
+                logger.log("CONTENT: " + mContent, LogLevel.Verbose);
+            } else if (mContent != null) {
+                logger.log("CONTENT: " + mContent.length() + " chars", LogLevel.Verbose);
+            } else if (hasContent()) {
+                logger.log("CONTENT: " + (mContentBytes != null ? mContentBytes.length + " bytes" : "stream"), LogLevel.Verbose);
+            } else {
+                logger.log("CONTENT: null", LogLevel.Verbose);
+            }
+
+            if (mGzipContent) {
+                logger.log("CONTENT ENCODING: " + GZIP_ENCODING, LogLevel.Verbose);
+            }
+
+            if (mConnectTimeoutMillis > 0 || mReadTimeoutMillis > 0 || mTotalTimeoutMillis > 0) {
+                logger.log("TIMEOUTS: connect " + mConnectTimeoutMillis + "ms, read " + mReadTimeoutMillis + "ms, total " + mTotalTimeoutMillis + "ms",
+                        LogLevel.Verbose);
+            }
+        }
+    }
+
+    private void clearContent() {
+        mContent = null;
+        mContentBytes = null;
+        mEncodedContent = null;
+        mContentStream = null;
+        mContentStreamLength = -1;
+    }
+
+    private byte[] getRawContentBytes() {
+        if (mContentBytes != null) {
+            return mContentBytes;
+        }
+
+        try {
+            if (mEncodedContent == null) {
+                mEncodedContent = mContent.getBytes(Constants.UTF8_NAME);
+            }
+
+            return mEncodedContent;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeRawContent(OutputStream output) throws IOException {
+        if (mContentStream == null) {
+            output.write(getRawContentBytes());
+            return;
+        }
+
+        try {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+
+            while ((read = mContentStream.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+        } finally {
+            mContentStream.close();
         }
     }
 }
@@ -0,0 +1,36 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Helper for reading the bytes of any Response
+ */
+public class ResponseHelper {
+
+    /**
+     * Returns the response stream. The body of a Response that is not a
+     * ByteResponse is read to the end first
+     * 
+     * @param response
+     *            The response to read
+     * @return The response stream
+     * @throws IOException
+     *             If reading the body fails
+     */
+    public static InputStream getInputStream(Response response) throws IOException {
+        if (response instanceof ByteResponse) {
+            return ((ByteResponse) response).getInputStream();
+        }
+
+        byte[] body = response.readAllBytes();
+        return new ByteArrayInputStream(body != null ? body : new byte[0]);
+    }
+}
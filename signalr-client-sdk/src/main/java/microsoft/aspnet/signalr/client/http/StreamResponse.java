@@ -10,7 +10,9 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -20,10 +22,21 @@ import microsoft.aspnet.signalr.client.Constants;
 /**
  * Response implementation based on an InputStream
  */
-public class StreamResponse implements Response {
+public class StreamResponse implements ByteResponse {
+    private static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    private static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+
+    /**
+     * Largest Content-Length used to size the buffer of readAllBytes upfront
+     */
+    private static final int MAX_INITIAL_BUFFER_SIZE = 1024 * 1024;
+
     private BufferedReader mReader;
     private int mStatus;
     private InputStream mOriginalStream;
+    private boolean mCompressed = false;
+    private ReadableByteChannel mChannel;
     Map<String, List<String>> mHeaders;
 
     /**
@@ -35,46 +48,80 @@ public class StreamResponse implements Response {
      *            HTTP status code
      */
     public StreamResponse(InputStream stream, int status, Map<String, List<String>> headers) {
-        mOriginalStream = stream;
-        mReader = new BufferedReader(new InputStreamReader(mOriginalStream, Constants.UTF8));
+        this(stream, status, headers, null);
+    }
+
+    /**
+     * Initializes the StreamResponse. A gzip or deflate body is decompressed
+     * as it is read
+     * 
+     * @param stream
+     *            stream to read
+     * @param status
+     *            HTTP status code
+     * @param stats
+     *            counters updated while reading a compressed body, or null
+     */
+    public StreamResponse(InputStream stream, int status, Map<String, List<String>> headers, CompressionStats stats) {
         mHeaders = new HashMap<String, List<String>>(headers);
         mStatus = status;
+
+        String encoding = getFirstHeaderValue(CONTENT_ENCODING_HEADER);
+        if (DecompressingInputStream.isSupportedEncoding(encoding)) {
+            mCompressed = true;
+            mOriginalStream = new DecompressingInputStream(stream, encoding, stats);
+        } else {
+            mOriginalStream = stream;
+        }
+    }
+
+    /**
+     * Indicates if the body is compressed and is decompressed while it is
+     * read
+     */
+    public boolean isCompressed() {
+        return mCompressed;
     }
 
     public byte[] readAllBytes() throws IOException {
-        List<Byte> bytes = new ArrayList<Byte>();
+        if (mReader != null) {
+            // part of the stream is already buffered by the reader
+            return readRemainingText().getBytes(Constants.UTF8_NAME);
+        }
 
-        int bufferSize = 1024;
-        byte[] buffer = new byte[bufferSize];
+        byte[] buffer = new byte[getInitialBufferSize()];
+        int length = 0;
 
-        int bytesRead = mOriginalStream.read(buffer, 0, bufferSize);
+        int bytesRead = mOriginalStream.read(buffer, 0, buffer.length);
         while (bytesRead != -1) {
-            for (int i = 0; i < bytesRead; i++) {
-                bytes.add(buffer[i]);
+            length += bytesRead;
+
+            if (length == buffer.length) {
+                byte[] grown = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, grown, 0, length);
+                buffer = grown;
             }
 
-            bytesRead = mOriginalStream.read(buffer, 0, bufferSize);
+            bytesRead = mOriginalStream.read(buffer, length, buffer.length - length);
         }
 
-        byte[] byteArray = new byte[bytes.size()];
-
-        for (int i = 0; i < bytes.size(); i++) {
-            byteArray[i] = bytes.get(i).byteValue();
+        if (length == buffer.length) {
+            return buffer;
         }
 
+        byte[] byteArray = new byte[length];
+        System.arraycopy(buffer, 0, byteArray, 0, length);
+
         return byteArray;
     }
 
     @Override
     public String readToEnd() throws IOException {
-        StringBuilder sb = new StringBuilder();
-        String line = null;
-        while ((line = mReader.readLine()) != null) {
-            sb.append(line);
-            sb.append("\n");
+        if (mReader != null) {
+            return readRemainingText();
         }
 
-        return sb.toString();
+        return new String(readAllBytes(), Constants.UTF8_NAME);
     }
 
     @Override
@@ -84,9 +131,36 @@ public class StreamResponse implements Response {
 
     @Override
     public String readLine() throws IOException {
+        if (mReader == null) {
+            mReader = new BufferedReader(new InputStreamReader(mOriginalStream, Constants.UTF8));
+        }
+
         return mReader.readLine();
     }
 
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+        return getChannel().read(buffer);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        if (mReader != null) {
+            throw new IllegalStateException("The response is already being read by lines");
+        }
+
+        return mOriginalStream;
+    }
+
+    @Override
+    public synchronized ReadableByteChannel getChannel() {
+        if (mChannel == null) {
+            mChannel = Channels.newChannel(getInputStream());
+        }
+
+        return mChannel;
+    }
+
     @Override
     public Map<String, List<String>> getHeaders() {
         return new HashMap<String, List<String>>(mHeaders);
@@ -96,4 +170,54 @@ public class StreamResponse implements Response {
     public List<String> getHeader(String headerName) {
         return mHeaders.get(headerName);
     }
+
+    private String readRemainingText() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[DEFAULT_BUFFER_SIZE];
+
+        int charsRead = mReader.read(buffer);
+        while (charsRead != -1) {
+            sb.append(buffer, 0, charsRead);
+            charsRead = mReader.read(buffer);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Uses the Content-Length, if any, to avoid growing the buffer while
+     * reading the whole response
+     */
+    private int getInitialBufferSize() {
+        // the length of a compressed body says little about its decompressed
+        // length
+        String value = mCompressed ? null : getFirstHeaderValue("Content-Length");
+
+        if (value != null) {
+            try {
+                long contentLength = Long.parseLong(value.trim());
+                if (contentLength > 0 && contentLength < MAX_INITIAL_BUFFER_SIZE) {
+                    // one spare byte avoids growing the buffer just to
+                    // detect the end of the stream
+                    return (int) contentLength + 1;
+                }
+            } catch (NumberFormatException e) {
+            }
+        }
+
+        return DEFAULT_BUFFER_SIZE;
+    }
+
+    /**
+     * Returns the first value of a header, ignoring the case of its name
+     */
+    private String getFirstHeaderValue(String headerName) {
+        for (Map.Entry<String, List<String>> header : mHeaders.entrySet()) {
+            if (header.getKey() != null && header.getKey().equalsIgnoreCase(headerName) && header.getValue() != null && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+
+        return null;
+    }
 }
@@ -0,0 +1,149 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.http.java;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Connection settings shared by the JavaHttpConnection instances.
+ * 
+ * Idle sockets are kept by the HttpURLConnection keep-alive cache, which is
+ * global to the process and keyed by host and port. The pool doesn't change
+ * that cache: its size is set by the application with the
+ * "http.maxConnections" system property, and its idle timeout is fixed by the
+ * runtime. The maximum number of concurrent connections per route is
+ * enforced by the pool itself.
+ */
+public class HttpConnectionPool {
+
+    /**
+     * Value that disables the limit of concurrent connections per route
+     */
+    public static final int UNLIMITED = 0;
+
+    private static HttpConnectionPool mDefaultPool = null;
+
+    private int mMaxPerRoute;
+    private Map<String, Semaphore> mRoutePermits = new HashMap<String, Semaphore>();
+
+    /**
+     * Initializes the pool with no limit of concurrent connections per route
+     */
+    public HttpConnectionPool() {
+        this(UNLIMITED);
+    }
+
+    /**
+     * Initializes the pool
+     * 
+     * @param maxPerRoute
+     *            Maximum number of concurrent connections per route, or
+     *            UNLIMITED. Requests over the limit wait for a connection to
+     *            be released, so the limit must leave room for the long
+     *            running receive requests
+     */
+    public HttpConnectionPool(int maxPerRoute) {
+        if (maxPerRoute < 0) {
+            throw new IllegalArgumentException("maxPerRoute");
+        }
+
+        mMaxPerRoute = maxPerRoute;
+    }
+
+    /**
+     * Returns the pool shared by the JavaHttpConnection instances that were
+     * not given a specific one
+     */
+    public static synchronized HttpConnectionPool getDefault() {
+        if (mDefaultPool == null) {
+            mDefaultPool = new HttpConnectionPool();
+        }
+
+        return mDefaultPool;
+    }
+
+    /**
+     * Replaces the shared pool. Connections created afterwards use the new
+     * pool
+     * 
+     * @param pool
+     *            The pool to share
+     */
+    public static synchronized void setDefault(HttpConnectionPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("pool");
+        }
+
+        mDefaultPool = pool;
+    }
+
+    /**
+     * Returns the maximum number of concurrent connections per route
+     */
+    public int getMaxPerRoute() {
+        return mMaxPerRoute;
+    }
+
+    /**
+     * Waits until a connection to the URL route can be opened
+     * 
+     * @param url
+     *            The request URL
+     * @throws InterruptedException
+     */
+    void acquire(URL url) throws InterruptedException {
+        Semaphore permits = getPermits(url);
+
+        if (permits != null) {
+            permits.acquire();
+        }
+    }
+
+    /**
+     * Releases a connection acquired for the URL route
+     * 
+     * @param url
+     *            The request URL
+     */
+    void release(URL url) {
+        Semaphore permits = getPermits(url);
+
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    private Semaphore getPermits(URL url) {
+        if (mMaxPerRoute == UNLIMITED) {
+            return null;
+        }
+
+        String route = getRoute(url);
+
+        synchronized (mRoutePermits) {
+            Semaphore permits = mRoutePermits.get(route);
+            if (permits == null) {
+                permits = new Semaphore(mMaxPerRoute, true);
+                mRoutePermits.put(route, permits);
+            }
+
+            return permits;
+        }
+    }
+
+    /**
+     * Returns the route of an URL, made of its protocol, host and port
+     */
+    static String getRoute(URL url) {
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+
+        return url.getProtocol() + "://" + url.getHost().toLowerCase() + ":" + port;
+    }
+}
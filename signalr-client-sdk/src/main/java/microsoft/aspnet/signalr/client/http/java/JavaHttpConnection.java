@@ -6,13 +6,15 @@ See License.txt in the project root for license information.
 
 package microsoft.aspnet.signalr.client.http.java;
 
+import java.util.concurrent.RejectedExecutionException;
+
 import microsoft.aspnet.signalr.client.*;
 import microsoft.aspnet.signalr.client.http.*;
 import microsoft.aspnet.signalr.client.http.HttpConnectionFuture.ResponseCallback;
 
 /**
- * Java HttpConnection implementation, based on HttpURLConnection and threads
- * async operations
+ * Java HttpConnection implementation, based on HttpURLConnection and a pool of
+ * network threads for async operations
  */
 public class JavaHttpConnection implements HttpConnection {
 
@@ -23,14 +25,79 @@ public class JavaHttpConnection implements HttpConnection {
 
     private Logger mLogger;
 
+    private NetworkExecutor mExecutor;
+
+    private HttpConnectionPool mPool;
+
+    private volatile boolean mCompressionEnabled = false;
+
+    private CompressionStats mCompressionStats = new CompressionStats();
+
     /**
-     * Initializes the JavaHttpConnection
+     * Initializes the JavaHttpConnection with the shared NetworkExecutor and
+     * HttpConnectionPool
      * 
      * @param logger
      *            logger to log activity
      */
     public JavaHttpConnection(Logger logger) {
+        this(logger, NetworkExecutor.getDefault());
+    }
+
+    /**
+     * Initializes the JavaHttpConnection with the shared HttpConnectionPool
+     * 
+     * @param logger
+     *            logger to log activity
+     * @param executor
+     *            executor that runs the network operations
+     */
+    public JavaHttpConnection(Logger logger, NetworkExecutor executor) {
+        this(logger, executor, HttpConnectionPool.getDefault());
+    }
+
+    /**
+     * Initializes the JavaHttpConnection
+     * 
+     * @param logger
+     *            logger to log activity
+     * @param executor
+     *            executor that runs the network operations
+     * @param pool
+     *            pool that keeps the connections alive between requests, or
+     *            null to close each connection after its request
+     */
+    public JavaHttpConnection(Logger logger, NetworkExecutor executor, HttpConnectionPool pool) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor");
+        }
+
         mLogger = logger;
+        mExecutor = executor;
+        mPool = pool;
+    }
+
+    /**
+     * Sets whether the requests ask the server for gzip or deflate compressed
+     * responses. Compressed responses are always decompressed as they are
+     * read. Disabled by default
+     */
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        mCompressionEnabled = compressionEnabled;
+    }
+
+    /**
+     * Indicates if the requests ask the server for compressed responses
+     */
+    public boolean isCompressionEnabled() {
+        return mCompressionEnabled;
+    }
+
+    /**
+     * Returns the counters of the compressed responses read by this connection
+     */
+    public CompressionStats getCompressionStats() {
+        return mCompressionStats;
     }
 
     @Override
@@ -38,30 +105,36 @@ public class JavaHttpConnection implements HttpConnection {
 
         request.addHeader(USER_AGENT_HEADER, Platform.getUserAgent());
 
-        mLogger.log("Create new thread for HTTP Connection", LogLevel.Verbose);
+        if (mCompressionEnabled) {
+            request.acceptCompressedResponse();
+        }
+
+        mLogger.log("Queue the HTTP Connection on the network executor", LogLevel.Verbose);
 
         HttpConnectionFuture future = new HttpConnectionFuture();
 
-        final NetworkRunnable target = new NetworkRunnable(mLogger, request, future, callback);
-        final NetworkThread networkThread = new NetworkThread(target) {
-            @Override
-            void releaseAndStop() {
-                try {
-                    target.closeStreamAndConnection();
-                } catch (Throwable error) {
-                }
-            }
-        };
+        final NetworkRunnable target = new NetworkRunnable(mLogger, request, future, callback, mPool, mCompressionStats);
 
         future.onCancelled(new Runnable() {
 
             @Override
             public void run() {
-                networkThread.releaseAndStop();
+                // a request still waiting for a thread never opens a connection
+                mExecutor.remove(target);
+
+                try {
+                    target.closeStreamAndConnection();
+                } catch (Throwable error) {
+                }
             }
         });
 
-        networkThread.start();
+        try {
+            mExecutor.execute(target);
+        } catch (RejectedExecutionException e) {
+            mLogger.log("The network executor rejected the request: " + e.getMessage(), LogLevel.Critical);
+            future.triggerError(e);
+        }
 
         return future;
     }
@@ -0,0 +1,212 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.http.java;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of reusable daemon threads that executes the network operations of a
+ * JavaHttpConnection.
+ * 
+ * Long polling and Server Sent Events requests keep their thread busy for as
+ * long as the request is open, so a bounded pool must have room for every
+ * concurrent stream, otherwise the queued requests wait until a stream ends.
+ */
+public class NetworkExecutor implements Executor {
+
+    /**
+     * Default time an idle thread is kept alive before being released
+     */
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 60 * 1000;
+
+    /**
+     * Prefix used to name the threads created by the executor
+     */
+    public static final String THREAD_NAME_PREFIX = "SignalR-Network-";
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger(1);
+
+    private static NetworkExecutor mDefaultExecutor = null;
+
+    private ThreadPoolExecutor mExecutor;
+
+    /**
+     * Policy applied when a request is submitted and the pool and its queue
+     * are both full
+     */
+    public enum RejectionPolicy {
+        /**
+         * The request fails with a RejectedExecutionException
+         */
+        Fail,
+
+        /**
+         * The request is executed in the thread that submitted it
+         */
+        CallerRuns
+    }
+
+    /**
+     * Initializes an unbounded executor that reuses idle threads and creates
+     * new ones on demand
+     */
+    public NetworkExecutor() {
+        this(0, Integer.MAX_VALUE, DEFAULT_KEEP_ALIVE_MILLIS, 0, RejectionPolicy.Fail);
+    }
+
+    /**
+     * Initializes the executor
+     * 
+     * @param corePoolSize
+     *            Number of threads kept alive even when idle
+     * @param maximumPoolSize
+     *            Maximum number of threads
+     * @param keepAliveMillis
+     *            Time an idle thread above the core size is kept alive
+     * @param queueCapacity
+     *            Number of requests that can wait for a thread. With 0, a
+     *            request is handed off directly to a thread or rejected
+     * @param rejectionPolicy
+     *            Policy applied when the pool and its queue are full
+     */
+    public NetworkExecutor(int corePoolSize, int maximumPoolSize, long keepAliveMillis, int queueCapacity, RejectionPolicy rejectionPolicy) {
+        if (corePoolSize < 0) {
+            throw new IllegalArgumentException("corePoolSize");
+        }
+
+        if (maximumPoolSize <= 0 || maximumPoolSize < corePoolSize) {
+            throw new IllegalArgumentException("maximumPoolSize");
+        }
+
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("queueCapacity");
+        }
+
+        if (rejectionPolicy == null) {
+            throw new IllegalArgumentException("rejectionPolicy");
+        }
+
+        BlockingQueue<Runnable> queue;
+        if (queueCapacity == 0) {
+            queue = new SynchronousQueue<Runnable>();
+        } else {
+            queue = new ArrayBlockingQueue<Runnable>(queueCapacity);
+        }
+
+        RejectedExecutionHandler rejectionHandler;
+        if (rejectionPolicy == RejectionPolicy.CallerRuns) {
+            rejectionHandler = new ThreadPoolExecutor.CallerRunsPolicy();
+        } else {
+            rejectionHandler = new ThreadPoolExecutor.AbortPolicy();
+        }
+
+        mExecutor = new ThreadPoolExecutor(corePoolSize, maximumPoolSize, keepAliveMillis, TimeUnit.MILLISECONDS, queue, new NetworkThreadFactory(),
+                rejectionHandler);
+    }
+
+    /**
+     * Returns the executor shared by the JavaHttpConnection instances that
+     * were not given a specific one
+     */
+    public static synchronized NetworkExecutor getDefault() {
+        if (mDefaultExecutor == null) {
+            mDefaultExecutor = new NetworkExecutor();
+        }
+
+        return mDefaultExecutor;
+    }
+
+    /**
+     * Replaces the shared executor. Connections created afterwards use the
+     * new executor
+     * 
+     * @param executor
+     *            The executor to share
+     */
+    public static synchronized void setDefault(NetworkExecutor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor");
+        }
+
+        mDefaultExecutor = executor;
+    }
+
+    /**
+     * Queues a network operation
+     * 
+     * @param runnable
+     *            The operation to execute
+     * @throws java.util.concurrent.RejectedExecutionException
+     *             If the operation cannot be accepted
+     */
+    @Override
+    public void execute(Runnable runnable) {
+        mExecutor.execute(runnable);
+    }
+
+    /**
+     * Removes an operation that is still waiting for a thread
+     * 
+     * @param runnable
+     *            The operation to remove
+     */
+    void remove(Runnable runnable) {
+        mExecutor.remove(runnable);
+    }
+
+    /**
+     * Returns the number of threads currently in the pool
+     */
+    public int getPoolSize() {
+        return mExecutor.getPoolSize();
+    }
+
+    /**
+     * Returns the number of threads that are executing a request
+     */
+    public int getActiveCount() {
+        return mExecutor.getActiveCount();
+    }
+
+    /**
+     * Returns the number of requests waiting for a thread
+     */
+    public int getQueuedCount() {
+        return mExecutor.getQueue().size();
+    }
+
+    /**
+     * Stops accepting new requests. Requests in progress are not interrupted
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Creates named daemon threads
+     */
+    private static class NetworkThreadFactory implements ThreadFactory {
+        private final String mPrefix = THREAD_NAME_PREFIX + POOL_COUNTER.getAndIncrement() + "-";
+        private final AtomicInteger mThreadCounter = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, mPrefix + mThreadCounter.getAndIncrement());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
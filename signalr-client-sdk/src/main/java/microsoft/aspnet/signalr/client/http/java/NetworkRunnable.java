@@ -8,13 +8,21 @@ package microsoft.aspnet.signalr.client.http.java;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import microsoft.aspnet.signalr.client.LogHelper;
 import microsoft.aspnet.signalr.client.LogLevel;
 import microsoft.aspnet.signalr.client.Logger;
+import microsoft.aspnet.signalr.client.http.CompressionStats;
 import microsoft.aspnet.signalr.client.http.HttpConnectionFuture;
 import microsoft.aspnet.signalr.client.http.Request;
 import microsoft.aspnet.signalr.client.http.StreamResponse;
@@ -25,12 +33,34 @@ import microsoft.aspnet.signalr.client.http.HttpConnectionFuture.ResponseCallbac
  */
 class NetworkRunnable implements Runnable {
 
-    HttpURLConnection mConnection = null;
-    InputStream mResponseStream = null;
+    /**
+     * Maximum number of unread response bytes discarded to keep a connection
+     * alive. Longer responses close the connection instead
+     */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    /**
+     * Name of the thread that expires the request deadlines
+     */
+    private static final String DEADLINE_THREAD_NAME = "SignalR-Deadlines";
+
+    /**
+     * Connect timeout used when the request doesn't specify one
+     */
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+
+    private static ScheduledThreadPoolExecutor mDeadlineTimer = null;
+
+    volatile HttpURLConnection mConnection = null;
+    volatile InputStream mResponseStream = null;
     Logger mLogger;
     Request mRequest;
     HttpConnectionFuture mFuture;
     ResponseCallback mCallback;
+    HttpConnectionPool mPool;
+    CompressionStats mCompressionStats;
+
+    AtomicBoolean mTimedOut = new AtomicBoolean(false);
 
     Object mCloseLock = new Object();
 
@@ -45,16 +75,28 @@ class NetworkRunnable implements Runnable {
      *            Future for the operation
      * @param callback
      *            Callback to invoke after the request execution
+     * @param pool
+     *            Pool that keeps the connection alive after the request, or
+     *            null to close the connection
+     * @param compressionStats
+     *            Counters updated while reading a compressed response
      */
-    public NetworkRunnable(Logger logger, Request request, HttpConnectionFuture future, ResponseCallback callback) {
+    public NetworkRunnable(Logger logger, Request request, HttpConnectionFuture future, ResponseCallback callback, HttpConnectionPool pool,
+            CompressionStats compressionStats) {
         mLogger = logger;
         mRequest = request;
         mFuture = future;
         mCallback = callback;
+        mPool = pool;
+        mCompressionStats = compressionStats;
     }
 
     @Override
     public void run() {
+        URL acquiredRoute = null;
+        boolean canKeepAlive = false;
+        ScheduledFuture<?> deadline = null;
+
         try {
             int responseCode = -1;
             if (!mFuture.isCancelled()) {
@@ -63,10 +105,32 @@ class NetworkRunnable implements Runnable {
                     return;
                 }
 
+                if (mRequest.getTotalTimeout() > 0) {
+                    deadline = scheduleDeadline(mRequest.getTotalTimeout());
+                }
+
+                if (mPool != null) {
+                    URL url = new URL(mRequest.getUrl());
+                    mPool.acquire(url);
+                    acquiredRoute = url;
+
+                    // the request may have been cancelled while it waited
+                    // for the route
+                    if (mFuture.isCancelled()) {
+                        return;
+                    }
+                }
+
                 mLogger.log("Execute the HTTP Request", LogLevel.Verbose);
                 mRequest.log(mLogger);
                 mConnection = createHttpURLConnection(mRequest);
 
+                if (mTimedOut.get()) {
+                    // the deadline expired before there was a connection to
+                    // close
+                    return;
+                }
+
                 mLogger.log("Request executed", LogLevel.Verbose);
 
                 responseCode = mConnection.getResponseCode();
@@ -78,24 +142,109 @@ class NetworkRunnable implements Runnable {
                 }
             }
         
-            if (mResponseStream != null && !mFuture.isCancelled()) {
-                mCallback.onResponse(new StreamResponse(mResponseStream, responseCode, mConnection.getHeaderFields()));
-                mFuture.setResult(null);
+            if (mResponseStream != null && !mFuture.isCancelled() && !mTimedOut.get()) {
+                mCallback.onResponse(new StreamResponse(mResponseStream, responseCode, mConnection.getHeaderFields(), mCompressionStats));
+
+                if (!mTimedOut.get()) {
+                    mFuture.setResult(null);
+                }
             }
-        } catch (Throwable e) {
+
+            canKeepAlive = mPool != null && !mFuture.isCancelled() && !mTimedOut.get();
+        } catch (SocketTimeoutException e) {
             if (!mFuture.isCancelled()) {
                 if (mConnection != null) {
                     mConnection.disconnect();
                 }
 
+                mLogger.log("Timeout executing request: " + e.getMessage(), LogLevel.Information);
+                triggerTimeout(e);
+            }
+        } catch (Throwable e) {
+            // an error caused by closing the connection after the deadline
+            // was already reported as a timeout
+            if (!mFuture.isCancelled() && !mTimedOut.get()) {
+                if (mConnection != null) {
+                    mConnection.disconnect();
+                }
+
                 mLogger.log("Error executing request: " + e.getMessage(), LogLevel.Critical);
                 mFuture.triggerError(e);
             }
         } finally {
-            closeStreamAndConnection();
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+
+            if (canKeepAlive) {
+                releaseStreamAndConnection();
+            } else {
+                closeStreamAndConnection();
+            }
+
+            if (acquiredRoute != null) {
+                mPool.release(acquiredRoute);
+            }
         }
     }
 
+    /**
+     * Triggers the timeout of the future, only once
+     * 
+     * @return true if the timeout was triggered
+     */
+    private boolean triggerTimeout(Throwable error) {
+        if (mTimedOut.compareAndSet(false, true)) {
+            mFuture.triggerTimeout(error);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Schedules the expiration of the request deadline, which closes the
+     * connection to unblock the network thread
+     */
+    private ScheduledFuture<?> scheduleDeadline(final int totalTimeoutMillis) {
+        return getDeadlineTimer().schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                if (mFuture.isCancelled()) {
+                    return;
+                }
+
+                if (LogHelper.isLoggable(mLogger, LogLevel.Information)) {
+                    mLogger.log("The request deadline of " + totalTimeoutMillis + "ms expired", LogLevel.Information);
+                }
+
+                if (triggerTimeout(new SocketTimeoutException("The request deadline expired"))) {
+                    closeStreamAndConnection();
+                }
+            }
+        }, totalTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the timer shared by all the request deadlines
+     */
+    private static synchronized ScheduledThreadPoolExecutor getDeadlineTimer() {
+        if (mDeadlineTimer == null) {
+            mDeadlineTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, DEADLINE_THREAD_NAME);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return mDeadlineTimer;
+    }
+
     /**
      * Closes the stream and connection, if possible
      */
@@ -113,6 +262,38 @@ class NetworkRunnable implements Runnable {
         }
     }
 
+    /**
+     * Reads the rest of the response and closes the stream without
+     * disconnecting, so the underlying socket can be reused by the next
+     * request to the same host
+     */
+    void releaseStreamAndConnection() {
+        InputStream stream = mResponseStream;
+
+        if (stream == null) {
+            return;
+        }
+
+        try {
+            byte[] buffer = new byte[1024];
+            int drained = 0;
+            int read;
+
+            while ((read = stream.read(buffer)) != -1) {
+                drained += read;
+                if (drained > MAX_DRAIN_BYTES) {
+                    mLogger.log("Response too long to keep the connection alive", LogLevel.Verbose);
+                    closeStreamAndConnection();
+                    return;
+                }
+            }
+
+            stream.close();
+        } catch (IOException e) {
+            closeStreamAndConnection();
+        }
+    }
+
     /**
      * Creates an HttpURLConnection
      * 
@@ -125,7 +306,8 @@ class NetworkRunnable implements Runnable {
         URL url = new URL(request.getUrl());
         
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setConnectTimeout(15 * 1000);
+        connection.setConnectTimeout(request.getConnectTimeout() > 0 ? request.getConnectTimeout() : DEFAULT_CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(request.getReadTimeout());
         connection.setRequestMethod(request.getVerb());
 
         Map<String, String> headers = request.getHeaders();
@@ -134,12 +316,27 @@ class NetworkRunnable implements Runnable {
             connection.setRequestProperty(key, headers.get(key));
         }
 
-        if (request.getContent() != null) {
+        if (request.hasContent()) {
+            if (request.isGzipContent()) {
+                connection.setRequestProperty(Request.CONTENT_ENCODING_HEADER, Request.GZIP_ENCODING);
+            }
+
+            // stream the content instead of letting the connection buffer it
+            // to compute its length
+            long contentLength = request.getContentLength();
+            if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+                connection.setFixedLengthStreamingMode((int) contentLength);
+            } else {
+                connection.setChunkedStreamingMode(0);
+            }
+
             connection.setDoOutput(true);
-            OutputStreamWriter out = new OutputStreamWriter(connection.getOutputStream());
-            String requestContent = request.getContent();
-            out.write(requestContent);
-            out.close();
+            OutputStream out = connection.getOutputStream();
+            try {
+                request.writeContent(out);
+            } finally {
+                out.close();
+            }
         }
 
         return connection;
@@ -0,0 +1,177 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.http.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+
+/**
+ * InputStream fed with the body pieces received by a selector loop. Reads
+ * block until data arrives, the body ends or the request fails
+ */
+class BodyInputStream extends InputStream {
+
+    private LinkedList<byte[]> mChunks = new LinkedList<byte[]>();
+    private int mChunkPosition = 0;
+    private int mBufferedBytes = 0;
+    private boolean mEnded = false;
+    private boolean mClosed = false;
+    private IOException mError = null;
+
+    private int mLowWatermark = 0;
+    private Runnable mDrainedListener = null;
+    private Runnable mClosedListener = null;
+
+    /**
+     * Sets the listener invoked once the stream is closed by its reader
+     */
+    synchronized void setClosedListener(Runnable listener) {
+        mClosedListener = listener;
+    }
+
+    /**
+     * Adds data to the stream
+     */
+    synchronized void append(byte[] data) {
+        if (mClosed || data.length == 0) {
+            return;
+        }
+
+        mChunks.add(data);
+        mBufferedBytes += data.length;
+        notifyAll();
+    }
+
+    /**
+     * Marks the end of the body
+     */
+    synchronized void end() {
+        mEnded = true;
+        notifyAll();
+    }
+
+    /**
+     * Makes the pending and following reads fail
+     */
+    synchronized void fail(IOException error) {
+        if (!mEnded) {
+            mError = error;
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Returns the number of bytes received but not read yet
+     */
+    synchronized int getBufferedBytes() {
+        return mBufferedBytes;
+    }
+
+    /**
+     * Invokes the listener once the unread data falls below the watermark
+     */
+    synchronized void notifyWhenDrained(int lowWatermark, Runnable listener) {
+        mLowWatermark = lowWatermark;
+        mDrainedListener = listener;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+
+        return read == -1 ? -1 : (single[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+
+        Runnable drainedListener = null;
+        int read = 0;
+
+        synchronized (this) {
+            while (mChunks.isEmpty()) {
+                if (mClosed) {
+                    throw new IOException("Stream closed");
+                }
+
+                if (mError != null) {
+                    throw mError;
+                }
+
+                if (mEnded) {
+                    return -1;
+                }
+
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for data");
+                }
+            }
+
+            while (read < length && !mChunks.isEmpty()) {
+                byte[] chunk = mChunks.getFirst();
+                int count = Math.min(length - read, chunk.length - mChunkPosition);
+
+                System.arraycopy(chunk, mChunkPosition, buffer, offset + read, count);
+                read += count;
+                mChunkPosition += count;
+
+                if (mChunkPosition == chunk.length) {
+                    mChunks.removeFirst();
+                    mChunkPosition = 0;
+                }
+            }
+
+            mBufferedBytes -= read;
+
+            if (mDrainedListener != null && mBufferedBytes <= mLowWatermark) {
+                drainedListener = mDrainedListener;
+                mDrainedListener = null;
+            }
+        }
+
+        if (drainedListener != null) {
+            drainedListener.run();
+        }
+
+        return read;
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+        return mBufferedBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        Runnable closedListener;
+
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+
+            mClosed = true;
+            mChunks.clear();
+            mBufferedBytes = 0;
+            closedListener = mClosedListener;
+            notifyAll();
+        }
+
+        if (closedListener != null) {
+            closedListener.run();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.http.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+
+/**
+ * Handles the I/O events of a channel registered in a SelectorLoop. The
+ * methods are always invoked in the loop thread and must not block
+ */
+public interface ChannelHandler {
+
+    /**
+     * Invoked when the channel is ready for one of the operations it was
+     * registered for
+     * 
+     * @param key
+     *            The selection key of the channel
+     * @throws IOException
+     *             If the operation fails. The key is cancelled and onError is
+     *             invoked
+     */
+    public void onReady(SelectionKey key) throws IOException;
+
+    /**
+     * Invoked when handling an event failed or the loop is shut down
+     * 
+     * @param error
+     *            The error
+     */
+    public void onError(Throwable error);
+}
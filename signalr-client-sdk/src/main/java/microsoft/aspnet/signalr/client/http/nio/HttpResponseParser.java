@@ -0,0 +1,366 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.http.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Incremental HTTP/1.1 response parser. The response can be fed in pieces of
+ * any size as they are read from the channel. Bodies delimited by
+ * Content-Length, chunked bodies and bodies that end with the connection are
+ * supported
+ */
+class HttpResponseParser {
+
+    /**
+     * Receives the parts of the response as they are parsed
+     */
+    interface Listener {
+        /**
+         * Invoked once the status line and the headers are parsed
+         */
+        void onHeaders(int status, Map<String, List<String>> headers) throws IOException;
+
+        /**
+         * Invoked with a piece of the body. The data must be copied if it is
+         * used after the method returns
+         */
+        void onBody(byte[] data, int offset, int length) throws IOException;
+
+        /**
+         * Invoked when the response is complete
+         */
+        void onComplete() throws IOException;
+    }
+
+    private static final int MAX_LINE_LENGTH = 16 * 1024;
+
+    private enum State {
+        StatusLine, Headers, FixedBody, ChunkSize, ChunkData, ChunkDataEnd, Trailers, BodyUntilClose, Done
+    }
+
+    private Listener mListener;
+    private boolean mHeadRequest;
+    private State mState = State.StatusLine;
+    private ByteArrayOutputStream mLine = new ByteArrayOutputStream();
+    private int mStatus;
+    private boolean mHttp10;
+    private Map<String, List<String>> mHeaders;
+    private long mRemaining;
+    private boolean mKeepAlive = true;
+    private boolean mReceivedData = false;
+
+    /**
+     * Initializes the parser
+     * 
+     * @param listener
+     *            The listener for the response parts
+     * @param headRequest
+     *            Indicates if the response belongs to a HEAD request, which
+     *            has no body
+     */
+    public HttpResponseParser(Listener listener, boolean headRequest) {
+        mListener = listener;
+        mHeadRequest = headRequest;
+    }
+
+    /**
+     * Indicates if the response is complete
+     */
+    public boolean isComplete() {
+        return mState == State.Done;
+    }
+
+    /**
+     * Indicates if any byte of the response was received
+     */
+    public boolean hasReceivedData() {
+        return mReceivedData;
+    }
+
+    /**
+     * Indicates if the connection can be reused once the response is complete
+     */
+    public boolean canKeepAlive() {
+        return mKeepAlive && mState == State.Done;
+    }
+
+    /**
+     * Parses the available bytes of the buffer
+     * 
+     * @param buffer
+     *            A heap buffer with data read from the channel
+     * @throws IOException
+     *             If the response is malformed
+     */
+    public void parse(ByteBuffer buffer) throws IOException {
+        if (buffer.hasRemaining()) {
+            mReceivedData = true;
+        }
+
+        while (buffer.hasRemaining() && mState != State.Done) {
+            switch (mState) {
+            case StatusLine:
+            case Headers:
+            case ChunkSize:
+            case ChunkDataEnd:
+            case Trailers:
+                String line = readLine(buffer);
+                if (line != null) {
+                    onLine(line);
+                }
+                break;
+
+            case FixedBody:
+            case ChunkData:
+                int length = (int) Math.min(mRemaining, buffer.remaining());
+                deliverBody(buffer, length);
+                mRemaining -= length;
+
+                if (mRemaining == 0) {
+                    if (mState == State.FixedBody) {
+                        complete();
+                    } else {
+                        mState = State.ChunkDataEnd;
+                    }
+                }
+                break;
+
+            case BodyUntilClose:
+                deliverBody(buffer, buffer.remaining());
+                break;
+
+            default:
+                break;
+            }
+        }
+
+        if (buffer.hasRemaining()) {
+            // unexpected data after the response, the connection can't be
+            // trusted anymore
+            mKeepAlive = false;
+            buffer.position(buffer.limit());
+        }
+    }
+
+    /**
+     * Notifies the parser that the server closed the connection
+     * 
+     * @throws IOException
+     *             If the response was not complete
+     */
+    public void onEndOfStream() throws IOException {
+        mKeepAlive = false;
+
+        if (mState == State.BodyUntilClose) {
+            complete();
+        } else if (mState != State.Done) {
+            throw new EOFException("The connection was closed before the response was complete");
+        }
+    }
+
+    private void deliverBody(ByteBuffer buffer, int length) throws IOException {
+        int position = buffer.position();
+        mListener.onBody(buffer.array(), buffer.arrayOffset() + position, length);
+        buffer.position(position + length);
+    }
+
+    /**
+     * Reads a line, without its CRLF terminator. Returns null if the line is
+     * not complete yet
+     */
+    private String readLine(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+
+            if (b == '\n') {
+                byte[] bytes = mLine.toByteArray();
+                mLine.reset();
+
+                int length = bytes.length;
+                if (length > 0 && bytes[length - 1] == '\r') {
+                    length--;
+                }
+
+                return new String(bytes, 0, length, "ISO-8859-1");
+            }
+
+            if (mLine.size() >= MAX_LINE_LENGTH) {
+                throw new IOException("Response line too long");
+            }
+
+            mLine.write(b);
+        }
+
+        return null;
+    }
+
+    private void onLine(String line) throws IOException {
+        switch (mState) {
+        case StatusLine:
+            if (line.length() == 0) {
+                // tolerate empty lines before the status line
+                return;
+            }
+
+            parseStatusLine(line);
+            mHeaders = new LinkedHashMap<String, List<String>>();
+            mState = State.Headers;
+            break;
+
+        case Headers:
+            if (line.length() == 0) {
+                onHeadersComplete();
+            } else {
+                parseHeader(line);
+            }
+            break;
+
+        case ChunkSize:
+            int extension = line.indexOf(';');
+            String size = (extension >= 0 ? line.substring(0, extension) : line).trim();
+
+            try {
+                mRemaining = Long.parseLong(size, 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid chunk size: " + size);
+            }
+
+            if (mRemaining < 0) {
+                throw new IOException("Invalid chunk size: " + size);
+            }
+
+            mState = mRemaining == 0 ? State.Trailers : State.ChunkData;
+            break;
+
+        case ChunkDataEnd:
+            if (line.length() != 0) {
+                throw new IOException("Invalid chunk terminator");
+            }
+
+            mState = State.ChunkSize;
+            break;
+
+        case Trailers:
+            if (line.length() == 0) {
+                complete();
+            }
+            break;
+
+        default:
+            break;
+        }
+    }
+
+    private void parseStatusLine(String line) throws IOException {
+        String[] parts = line.split(" ", 3);
+
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("Invalid status line: " + line);
+        }
+
+        mHttp10 = parts[0].equals("HTTP/1.0");
+
+        try {
+            mStatus = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid status line: " + line);
+        }
+    }
+
+    private void parseHeader(String line) throws IOException {
+        int separator = line.indexOf(':');
+
+        if (separator <= 0) {
+            throw new IOException("Invalid header: " + line);
+        }
+
+        String name = line.substring(0, separator).trim();
+        String value = line.substring(separator + 1).trim();
+
+        List<String> values = mHeaders.get(name);
+        if (values == null) {
+            values = new ArrayList<String>();
+            mHeaders.put(name, values);
+        }
+
+        values.add(value);
+    }
+
+    private void onHeadersComplete() throws IOException {
+        if (mStatus >= 100 && mStatus < 200) {
+            // interim response, the final one follows
+            mState = State.StatusLine;
+            return;
+        }
+
+        String connection = getHeaderValue("Connection");
+        if (mHttp10 || (connection != null && connection.toLowerCase(Locale.US).contains("close"))) {
+            mKeepAlive = false;
+        }
+
+        String transferEncoding = getHeaderValue("Transfer-Encoding");
+        boolean chunked = transferEncoding != null && transferEncoding.toLowerCase(Locale.US).contains("chunked");
+
+        String contentLength = getHeaderValue("Content-Length");
+        long length = -1;
+
+        if (contentLength != null && !chunked) {
+            try {
+                length = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid Content-Length: " + contentLength);
+            }
+
+            if (length < 0) {
+                throw new IOException("Invalid Content-Length: " + contentLength);
+            }
+        }
+
+        mListener.onHeaders(mStatus, mHeaders);
+
+        if (mHeadRequest || mStatus == 204 || mStatus == 304) {
+            complete();
+        } else if (chunked) {
+            mState = State.ChunkSize;
+        } else if (length >= 0) {
+            mRemaining = length;
+
+            if (mRemaining == 0) {
+                complete();
+            } else {
+                mState = State.FixedBody;
+            }
+        } else {
+            mKeepAlive = false;
+            mState = State.BodyUntilClose;
+        }
+    }
+
+    private void complete() throws IOException {
+        mState = State.Done;
+        mListener.onComplete();
+    }
+
+    private String getHeaderValue(String name) {
+        for (Map.Entry<String, List<String>> entry : mHeaders.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(name) && !entry.getValue().isEmpty()) {
+                return entry.getValue().get(0);
+            }
+        }
+
+        return null;
+    }
+}
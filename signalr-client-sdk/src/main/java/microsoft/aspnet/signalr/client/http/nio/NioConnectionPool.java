@@ -0,0 +1,159 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.http.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Idle keep-alive connections of a SelectorLoop, by route. Must only be used
+ * in the loop thread
+ */
+class NioConnectionPool {
+
+    /**
+     * Maximum number of idle connections kept per route
+     */
+    static final int MAX_IDLE_PER_ROUTE = 5;
+
+    /**
+     * Time an idle connection is kept before being closed
+     */
+    static final long IDLE_TIMEOUT_MILLIS = 5 * 1000;
+
+    private static final Map<SelectorLoop, NioConnectionPool> mPools = new HashMap<SelectorLoop, NioConnectionPool>();
+
+    private SelectorLoop mLoop;
+
+    private Map<String, LinkedList<IdleChannel>> mIdleChannels = new HashMap<String, LinkedList<IdleChannel>>();
+
+    private NioConnectionPool(SelectorLoop loop) {
+        mLoop = loop;
+    }
+
+    /**
+     * Returns the pool of a loop
+     */
+    static NioConnectionPool forLoop(SelectorLoop loop) {
+        synchronized (mPools) {
+            NioConnectionPool pool = mPools.get(loop);
+            if (pool == null) {
+                pool = new NioConnectionPool(loop);
+                mPools.put(loop, pool);
+            }
+
+            return pool;
+        }
+    }
+
+    /**
+     * Takes an idle connection to the route, or returns null if there is none
+     */
+    SocketChannel take(String route) {
+        LinkedList<IdleChannel> channels = mIdleChannels.get(route);
+
+        while (channels != null && !channels.isEmpty()) {
+            IdleChannel idle = channels.removeLast();
+            idle.mTimeout.cancel();
+
+            if (idle.mChannel.isOpen() && idle.mKey.isValid()) {
+                return idle.mChannel;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Keeps a connection whose response is complete, so it can be reused by
+     * the next request to the route
+     */
+    void release(String route, SocketChannel channel, SelectionKey key) {
+        LinkedList<IdleChannel> channels = mIdleChannels.get(route);
+        if (channels == null) {
+            channels = new LinkedList<IdleChannel>();
+            mIdleChannels.put(route, channels);
+        }
+
+        if (channels.size() >= MAX_IDLE_PER_ROUTE || !key.isValid()) {
+            closeQuietly(channel);
+            return;
+        }
+
+        final IdleChannel idle = new IdleChannel(route, channel, key);
+        idle.mTimeout = mLoop.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                idle.close();
+            }
+        }, IDLE_TIMEOUT_MILLIS);
+
+        // the server closing the connection makes it readable
+        key.attach(idle);
+        key.interestOps(SelectionKey.OP_READ);
+
+        channels.add(idle);
+    }
+
+    static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * An idle connection, closed when the server closes it, when it sends
+     * unexpected data or after the idle timeout
+     */
+    private class IdleChannel implements ChannelHandler {
+        private String mRoute;
+        private SocketChannel mChannel;
+        private SelectionKey mKey;
+        private SelectorLoop.ScheduledTask mTimeout;
+
+        IdleChannel(String route, SocketChannel channel, SelectionKey key) {
+            mRoute = route;
+            mChannel = channel;
+            mKey = key;
+        }
+
+        @Override
+        public void onReady(SelectionKey key) throws IOException {
+            ByteBuffer buffer = mLoop.getReadBuffer();
+            mChannel.read(buffer);
+            close();
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            close();
+        }
+
+        void close() {
+            mTimeout.cancel();
+            closeQuietly(mChannel);
+
+            LinkedList<IdleChannel> channels = mIdleChannels.get(mRoute);
+            if (channels != null) {
+                Iterator<IdleChannel> iterator = channels.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next() == this) {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+    }
+}
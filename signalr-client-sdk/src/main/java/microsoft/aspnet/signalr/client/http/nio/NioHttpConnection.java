@@ -0,0 +1,147 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.http.nio;
+
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import microsoft.aspnet.signalr.client.*;
+import microsoft.aspnet.signalr.client.http.*;
+import microsoft.aspnet.signalr.client.http.HttpConnectionFuture.ResponseCallback;
+import microsoft.aspnet.signalr.client.http.java.JavaHttpConnection;
+import microsoft.aspnet.signalr.client.http.java.NetworkExecutor;
+
+/**
+ * HttpConnection implementation based on non-blocking SocketChannels
+ * multiplexed by a few SelectorLoops.
+ * 
+ * Responses are parsed incrementally in the loop threads, so pending long
+ * polling requests don't hold any thread and the number of I/O threads
+ * doesn't grow with the number of connections. Response callbacks run on the
+ * callback executor.
+ * 
+ * The loops only speak plain HTTP. HTTPS requests are executed by the HTTPS
+ * connection, a JavaHttpConnection by default, which uses a thread for each
+ * request. Without an HTTPS connection, HTTPS requests fail.
+ */
+public class NioHttpConnection implements HttpConnection {
+
+    /**
+     * User agent header name
+     */
+    private static final String USER_AGENT_HEADER = "User-Agent";
+
+    private Logger mLogger;
+
+    private SelectorLoop mLoop;
+
+    private Executor mCallbackExecutor;
+
+    private HttpConnection mHttpsConnection;
+
+    /**
+     * Initializes the NioHttpConnection with a loop of the shared
+     * SelectorLoopGroup and the shared NetworkExecutor. HTTPS requests are
+     * executed by a JavaHttpConnection
+     * 
+     * @param logger
+     *            logger to log activity
+     */
+    public NioHttpConnection(Logger logger) {
+        this(logger, SelectorLoopGroup.getDefault().next(), NetworkExecutor.getDefault(), new JavaHttpConnection(logger));
+    }
+
+    /**
+     * Initializes the NioHttpConnection
+     * 
+     * @param logger
+     *            logger to log activity
+     * @param loop
+     *            loop that executes the I/O of the requests
+     * @param callbackExecutor
+     *            executor that invokes the response callbacks
+     */
+    public NioHttpConnection(Logger logger, SelectorLoop loop, Executor callbackExecutor) {
+        this(logger, loop, callbackExecutor, null);
+    }
+
+    /**
+     * Initializes the NioHttpConnection
+     * 
+     * @param logger
+     *            logger to log activity
+     * @param loop
+     *            loop that executes the I/O of the requests
+     * @param callbackExecutor
+     *            executor that invokes the response callbacks
+     * @param httpsConnection
+     *            connection that executes the HTTPS requests, or null to
+     *            fail them
+     */
+    public NioHttpConnection(Logger logger, SelectorLoop loop, Executor callbackExecutor, HttpConnection httpsConnection) {
+        if (loop == null) {
+            throw new IllegalArgumentException("loop");
+        }
+
+        if (callbackExecutor == null) {
+            throw new IllegalArgumentException("callbackExecutor");
+        }
+
+        mLogger = logger;
+        mLoop = loop;
+        mCallbackExecutor = callbackExecutor;
+        mHttpsConnection = httpsConnection;
+    }
+
+    @Override
+    public HttpConnectionFuture execute(final Request request, final ResponseCallback callback) {
+
+        if (mHttpsConnection != null && request.getUrl() != null && request.getUrl().toLowerCase(Locale.US).startsWith("https:")) {
+            return mHttpsConnection.execute(request, callback);
+        }
+
+        request.addHeader(USER_AGENT_HEADER, Platform.getUserAgent());
+
+        mLogger.log("Queue the HTTP Request on the selector loop", LogLevel.Verbose);
+        request.log(mLogger);
+
+        HttpConnectionFuture future = new HttpConnectionFuture();
+
+        final NioHttpExchange exchange;
+        try {
+            exchange = new NioHttpExchange(mLogger, mLoop, mCallbackExecutor, request, future, callback);
+        } catch (Throwable e) {
+            mLogger.log("Error creating request: " + e.getMessage(), LogLevel.Critical);
+            future.triggerError(e);
+            return future;
+        }
+
+        future.onCancelled(new Runnable() {
+
+            @Override
+            public void run() {
+                exchange.cancel();
+            }
+        });
+
+        try {
+            mLoop.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    exchange.start();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            mLogger.log("The selector loop rejected the request: " + e.getMessage(), LogLevel.Critical);
+            future.triggerError(e);
+        }
+
+        return future;
+    }
+}
@@ -0,0 +1,724 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.http.nio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import microsoft.aspnet.signalr.client.Constants;
+import microsoft.aspnet.signalr.client.LogHelper;
+import microsoft.aspnet.signalr.client.LogLevel;
+import microsoft.aspnet.signalr.client.Logger;
+import microsoft.aspnet.signalr.client.http.HttpConnectionFuture;
+import microsoft.aspnet.signalr.client.http.HttpConnectionFuture.ResponseCallback;
+import microsoft.aspnet.signalr.client.http.HttpConnectionFuture.StreamingResponseCallback;
+import microsoft.aspnet.signalr.client.http.Request;
+import microsoft.aspnet.signalr.client.http.StreamResponse;
+
+/**
+ * A request executed on a SelectorLoop, from the connection to the end of the
+ * response. The I/O happens in the loop thread and the response callback is
+ * invoked on the callback executor.
+ * 
+ * Regular responses are buffered and handed to the callback once complete, so
+ * no thread is used while the server holds the request. Server Sent Events
+ * responses are handed to the callback as soon as the headers arrive. A
+ * StreamingResponseCallback gets the body pushed to it as it arrives, so an
+ * open stream doesn't hold a thread either. Other callbacks read the body
+ * from a blocking stream, which holds a callback thread until the stream
+ * ends.
+ */
+class NioHttpExchange implements ChannelHandler, HttpResponseParser.Listener {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+
+    /**
+     * Unread streamed bytes above which the exchange stops reading from the
+     * channel
+     */
+    private static final int STREAM_HIGH_WATERMARK = 256 * 1024;
+
+    /**
+     * Unread streamed bytes below which the exchange resumes reading
+     */
+    private static final int STREAM_LOW_WATERMARK = 64 * 1024;
+
+    private Logger mLogger;
+    private SelectorLoop mLoop;
+    private NioConnectionPool mPool;
+    private Executor mCallbackExecutor;
+    private Request mRequest;
+    private HttpConnectionFuture mFuture;
+    private ResponseCallback mCallback;
+
+    private URL mUrl;
+    private String mRoute;
+    private boolean mStreaming;
+
+    private SocketChannel mChannel;
+    private SelectionKey mKey;
+    private boolean mReusedChannel = false;
+    private SelectorLoop.ScheduledTask mConnectTimeout;
+    private SelectorLoop.ScheduledTask mReadTimeout;
+    private SelectorLoop.ScheduledTask mDeadline;
+    private long mLastReadTime;
+    private ByteBuffer mRequestBuffer;
+    private HttpResponseParser mParser;
+    private boolean mFinished = false;
+    private boolean mPaused = false;
+
+    private int mStatus;
+    private Map<String, List<String>> mHeaders;
+    private ByteArrayOutputStream mBufferedBody;
+    private BodyInputStream mBodyStream;
+
+    private StreamingResponseCallback mStreamCallback = null;
+    private SerialExecutor mStreamExecutor;
+    private AtomicInteger mUndeliveredBytes = new AtomicInteger(0);
+    private AtomicBoolean mResumeWhenDelivered = new AtomicBoolean(false);
+    private volatile boolean mStreamFailed = false;
+
+    NioHttpExchange(Logger logger, SelectorLoop loop, Executor callbackExecutor, Request request, HttpConnectionFuture future, ResponseCallback callback)
+            throws IOException {
+        mLogger = logger;
+        mLoop = loop;
+        mPool = NioConnectionPool.forLoop(loop);
+        mCallbackExecutor = callbackExecutor;
+        mRequest = request;
+        mFuture = future;
+        mCallback = callback;
+
+        mUrl = new URL(request.getUrl());
+        if (!"http".equalsIgnoreCase(mUrl.getProtocol())) {
+            throw new IOException("Unsupported protocol: " + mUrl.getProtocol());
+        }
+
+        mRoute = mUrl.getHost().toLowerCase(Locale.US) + ":" + getPort();
+        mRequestBuffer = ByteBuffer.wrap(createRequestBytes());
+
+        String accept = request.getHeaders().get("Accept");
+        mStreaming = accept != null && accept.toLowerCase(Locale.US).contains("text/event-stream");
+
+        if (mStreaming && callback instanceof StreamingResponseCallback) {
+            mStreamCallback = (StreamingResponseCallback) callback;
+            mStreamExecutor = new SerialExecutor(callbackExecutor);
+        }
+    }
+
+    /**
+     * Starts the exchange. Must be called in the loop thread
+     */
+    void start() {
+        if (mFinished) {
+            return;
+        }
+
+        if (mRequest.getTotalTimeout() > 0) {
+            mDeadline = mLoop.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    onTimeout(new SocketTimeoutException("The request deadline expired"));
+                }
+            }, mRequest.getTotalTimeout());
+        }
+
+        SocketChannel idleChannel = mPool.take(mRoute);
+
+        if (idleChannel != null) {
+            if (LogHelper.isLoggable(mLogger, LogLevel.Verbose)) {
+                mLogger.log("Reusing an idle connection to " + mRoute, LogLevel.Verbose);
+            }
+            mReusedChannel = true;
+            mChannel = idleChannel;
+
+            try {
+                mKey = mLoop.register(mChannel, SelectionKey.OP_WRITE, this);
+            } catch (IOException e) {
+                retryOnNewConnection();
+            }
+        } else {
+            openConnection();
+        }
+    }
+
+    /**
+     * Cancels the exchange and closes its connection. Can be called from any
+     * thread
+     */
+    void cancel() {
+        try {
+            mLoop.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    finish(false);
+
+                    if (mBodyStream != null) {
+                        mBodyStream.fail(new IOException("Request cancelled"));
+                    }
+
+                    mStreamFailed = true;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the loop already closed the connection
+        }
+    }
+
+    private void openConnection() {
+        // the host is resolved out of the loop, since it may block
+        mCallbackExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                final InetSocketAddress address = new InetSocketAddress(mUrl.getHost(), getPort());
+
+                mLoop.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        connect(address);
+                    }
+                });
+            }
+        });
+    }
+
+    private void connect(InetSocketAddress address) {
+        if (mFinished) {
+            return;
+        }
+
+        try {
+            if (address.isUnresolved()) {
+                throw new IOException("Unable to resolve host " + address.getHostName());
+            }
+
+            mChannel = SocketChannel.open();
+            mChannel.configureBlocking(false);
+            mChannel.socket().setTcpNoDelay(true);
+
+            if (mChannel.connect(address)) {
+                mKey = mLoop.register(mChannel, SelectionKey.OP_WRITE, this);
+            } else {
+                mKey = mLoop.register(mChannel, SelectionKey.OP_CONNECT, this);
+
+                int connectTimeout = mRequest.getConnectTimeout() > 0 ? mRequest.getConnectTimeout() : CONNECT_TIMEOUT_MILLIS;
+
+                mConnectTimeout = mLoop.schedule(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        onTimeout(new SocketTimeoutException("connect timed out"));
+                    }
+                }, connectTimeout);
+            }
+        } catch (Throwable e) {
+            onError(e);
+        }
+    }
+
+    /**
+     * Indicates if the request can be sent again on a new connection, after
+     * the reused one failed. Once the whole request was written the server
+     * may have executed it, so only idempotent requests are sent again
+     */
+    private boolean canRetry() {
+        if (!mReusedChannel || (mParser != null && mParser.hasReceivedData())) {
+            return false;
+        }
+
+        String verb = mRequest.getVerb();
+        return mRequestBuffer.hasRemaining() || Constants.HTTP_GET.equalsIgnoreCase(verb) || "HEAD".equalsIgnoreCase(verb);
+    }
+
+    private void retryOnNewConnection() {
+        if (LogHelper.isLoggable(mLogger, LogLevel.Verbose)) {
+            mLogger.log("The idle connection was closed by the server, opening a new one", LogLevel.Verbose);
+        }
+
+        if (mReadTimeout != null) {
+            mReadTimeout.cancel();
+            mReadTimeout = null;
+        }
+
+        NioConnectionPool.closeQuietly(mChannel);
+        mReusedChannel = false;
+        mChannel = null;
+        mKey = null;
+        mRequestBuffer.rewind();
+
+        openConnection();
+    }
+
+    @Override
+    public void onReady(SelectionKey key) throws IOException {
+        if (mFinished) {
+            return;
+        }
+
+        try {
+            if (key.isConnectable()) {
+                mChannel.finishConnect();
+                mConnectTimeout.cancel();
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+
+            if (key.isWritable()) {
+                mChannel.write(mRequestBuffer);
+
+                if (!mRequestBuffer.hasRemaining()) {
+                    mParser = new HttpResponseParser(this, "HEAD".equalsIgnoreCase(mRequest.getVerb()));
+                    key.interestOps(SelectionKey.OP_READ);
+
+                    mLastReadTime = System.currentTimeMillis();
+                    if (mRequest.getReadTimeout() > 0) {
+                        scheduleReadTimeout(mRequest.getReadTimeout());
+                    }
+                }
+                return;
+            }
+
+            if (key.isReadable()) {
+                ByteBuffer buffer = mLoop.getReadBuffer();
+                int read = mChannel.read(buffer);
+
+                if (read == -1) {
+                    if (canRetry()) {
+                        retryOnNewConnection();
+                    } else {
+                        mParser.onEndOfStream();
+                    }
+                } else if (read > 0) {
+                    mLastReadTime = System.currentTimeMillis();
+                    buffer.flip();
+                    mParser.parse(buffer);
+                }
+            }
+        } catch (IOException e) {
+            if (canRetry()) {
+                key.cancel();
+                retryOnNewConnection();
+            } else {
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        if (mFinished) {
+            return;
+        }
+
+        finish(false);
+
+        if (mBodyStream != null) {
+            IOException streamError = error instanceof IOException ? (IOException) error : new IOException(error.getMessage());
+            mBodyStream.fail(streamError);
+        } else if (mStreamCallback != null && mHeaders != null) {
+            // the error follows the data that was already received
+            deliverStreamEnd(error, false);
+        } else if (!mFuture.isCancelled()) {
+            mLogger.log("Error executing request: " + error.getMessage(), LogLevel.Critical);
+            mFuture.triggerError(error);
+        }
+    }
+
+    /**
+     * Ends the exchange because of a timeout. Must be called in the loop
+     * thread
+     */
+    private void onTimeout(SocketTimeoutException error) {
+        if (mFinished) {
+            return;
+        }
+
+        finish(false);
+
+        if (mBodyStream != null) {
+            // the response was already handed to the callback
+            mBodyStream.fail(error);
+        } else if (mStreamCallback != null && mHeaders != null) {
+            deliverStreamEnd(error, true);
+        } else if (!mFuture.isCancelled()) {
+            mLogger.log("Timeout executing request: " + error.getMessage(), LogLevel.Information);
+            mFuture.triggerTimeout(error);
+        }
+    }
+
+    private void scheduleReadTimeout(long delayMillis) {
+        mReadTimeout = mLoop.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                checkReadTimeout();
+            }
+        }, delayMillis);
+    }
+
+    /**
+     * Checks if the server sent nothing during the read timeout. A single
+     * timer is rescheduled instead of creating one for each read
+     */
+    private void checkReadTimeout() {
+        if (mFinished) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        int readTimeout = mRequest.getReadTimeout();
+
+        if (mPaused) {
+            // the exchange is not reading, so the server cannot be blamed
+            mLastReadTime = now;
+        }
+
+        long elapsed = now - mLastReadTime;
+        if (elapsed >= readTimeout) {
+            onTimeout(new SocketTimeoutException("Read timed out"));
+        } else {
+            scheduleReadTimeout(readTimeout - elapsed);
+        }
+    }
+
+    @Override
+    public void onHeaders(int status, Map<String, List<String>> headers) throws IOException {
+        mStatus = status;
+        mHeaders = headers;
+
+        if (mStreamCallback != null) {
+            deliverStreamStart();
+        } else if (mStreaming) {
+            mBodyStream = new BodyInputStream();
+            mBodyStream.setClosedListener(new Runnable() {
+
+                @Override
+                public void run() {
+                    // the reader is done with the stream
+                    cancel();
+                }
+            });
+
+            deliverResponse(mBodyStream);
+        } else {
+            mBufferedBody = new ByteArrayOutputStream();
+        }
+    }
+
+    @Override
+    public void onBody(byte[] data, int offset, int length) throws IOException {
+        if (mStreamCallback != null) {
+            byte[] copy = new byte[length];
+            System.arraycopy(data, offset, copy, 0, length);
+            deliverStreamData(copy);
+
+            if (!mPaused && mUndeliveredBytes.get() > STREAM_HIGH_WATERMARK) {
+                pauseStreamReading();
+            }
+        } else if (mBodyStream != null) {
+            byte[] copy = new byte[length];
+            System.arraycopy(data, offset, copy, 0, length);
+            mBodyStream.append(copy);
+
+            if (!mPaused && mBodyStream.getBufferedBytes() > STREAM_HIGH_WATERMARK) {
+                pauseReading();
+            }
+        } else {
+            mBufferedBody.write(data, offset, length);
+        }
+    }
+
+    @Override
+    public void onComplete() throws IOException {
+        finish(mParser.canKeepAlive());
+
+        if (mStreamCallback != null) {
+            deliverStreamEnd(null, false);
+        } else if (mBodyStream != null) {
+            mBodyStream.end();
+        } else {
+            deliverResponse(new ByteArrayInputStream(mBufferedBody.toByteArray()));
+        }
+    }
+
+    private void pauseReading() {
+        mPaused = true;
+        mKey.interestOps(0);
+
+        mBodyStream.notifyWhenDrained(STREAM_LOW_WATERMARK, new Runnable() {
+
+            @Override
+            public void run() {
+                mLoop.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        mPaused = false;
+                        if (!mFinished && mKey.isValid()) {
+                            mKey.interestOps(SelectionKey.OP_READ);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stops reading until the stream callback received most of the pending
+     * data. Must be called in the loop thread
+     */
+    private void pauseStreamReading() {
+        mPaused = true;
+        mKey.interestOps(0);
+        mResumeWhenDelivered.set(true);
+
+        // the data may have been delivered before the flag was set
+        resumeIfDelivered();
+    }
+
+    private void resumeIfDelivered() {
+        if (mUndeliveredBytes.get() < STREAM_LOW_WATERMARK && mResumeWhenDelivered.compareAndSet(true, false)) {
+            try {
+                mLoop.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        mPaused = false;
+                        if (!mFinished && mKey.isValid()) {
+                            mKey.interestOps(SelectionKey.OP_READ);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the loop already closed the connection
+            }
+        }
+    }
+
+    private void deliverStreamStart() {
+        mStreamExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                if (mFuture.isCancelled() || mStreamFailed) {
+                    return;
+                }
+
+                try {
+                    mStreamCallback.onStreamStarted(new StreamResponse(new ByteArrayInputStream(new byte[0]), mStatus, mHeaders));
+                } catch (Throwable e) {
+                    onStreamCallbackError(e);
+                }
+            }
+        });
+    }
+
+    private void deliverStreamData(final byte[] data) {
+        mUndeliveredBytes.addAndGet(data.length);
+
+        mStreamExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    if (!mFuture.isCancelled() && !mStreamFailed) {
+                        mStreamCallback.onStreamData(data, 0, data.length);
+                    }
+                } catch (Throwable e) {
+                    onStreamCallbackError(e);
+                } finally {
+                    mUndeliveredBytes.addAndGet(-data.length);
+                    resumeIfDelivered();
+                }
+            }
+        });
+    }
+
+    /**
+     * Completes the future once the data received before the end of the
+     * stream was delivered
+     * 
+     * @param error
+     *            The error that ended the stream, or null if it ended normally
+     * @param timeout
+     *            Indicates if the error is a timeout
+     */
+    private void deliverStreamEnd(final Throwable error, final boolean timeout) {
+        mStreamExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                if (mFuture.isCancelled() || mStreamFailed) {
+                    return;
+                }
+
+                if (error == null) {
+                    mFuture.setResult(null);
+                } else if (timeout) {
+                    mLogger.log("Timeout executing request: " + error.getMessage(), LogLevel.Information);
+                    mFuture.triggerTimeout(error);
+                } else {
+                    mLogger.log("Error executing request: " + error.getMessage(), LogLevel.Critical);
+                    mFuture.triggerError(error);
+                }
+            }
+        });
+    }
+
+    /**
+     * Fails the request once, and closes its connection, when the stream
+     * callback throws
+     */
+    private void onStreamCallbackError(Throwable error) {
+        if (mStreamFailed || mFuture.isCancelled()) {
+            return;
+        }
+
+        mStreamFailed = true;
+        mLogger.log("Error executing request: " + error.getMessage(), LogLevel.Critical);
+        mFuture.triggerError(error);
+        cancel();
+    }
+
+    /**
+     * Ends the exchange, keeping the connection alive if possible
+     */
+    private void finish(boolean keepAlive) {
+        if (mFinished) {
+            return;
+        }
+
+        mFinished = true;
+
+        if (mConnectTimeout != null) {
+            mConnectTimeout.cancel();
+        }
+
+        if (mReadTimeout != null) {
+            mReadTimeout.cancel();
+        }
+
+        if (mDeadline != null) {
+            mDeadline.cancel();
+        }
+
+        if (mChannel == null) {
+            return;
+        }
+
+        if (keepAlive && !mFuture.isCancelled() && mKey != null) {
+            mPool.release(mRoute, mChannel, mKey);
+        } else {
+            if (mKey != null) {
+                mKey.cancel();
+            }
+
+            NioConnectionPool.closeQuietly(mChannel);
+        }
+    }
+
+    private void deliverResponse(final InputStream body) {
+        mCallbackExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                if (mFuture.isCancelled()) {
+                    return;
+                }
+
+                try {
+                    mCallback.onResponse(new StreamResponse(body, mStatus, mHeaders));
+                    mFuture.setResult(null);
+                } catch (Throwable e) {
+                    if (!mFuture.isCancelled()) {
+                        mLogger.log("Error executing request: " + e.getMessage(), LogLevel.Critical);
+                        mFuture.triggerError(e);
+                    }
+                } finally {
+                    try {
+                        body.close();
+                    } catch (IOException e) {
+                    }
+                }
+            }
+        });
+    }
+
+    private int getPort() {
+        return mUrl.getPort() == -1 ? mUrl.getDefaultPort() : mUrl.getPort();
+    }
+
+    private byte[] createRequestBytes() throws IOException {
+        String path = mUrl.getPath();
+        if (path == null || path.length() == 0) {
+            path = "/";
+        }
+
+        if (mUrl.getQuery() != null) {
+            path += "?" + mUrl.getQuery();
+        }
+
+        StringBuilder head = new StringBuilder();
+        head.append(mRequest.getVerb()).append(' ').append(path).append(" HTTP/1.1\r\n");
+
+        head.append("Host: ").append(mUrl.getHost());
+        if (mUrl.getPort() != -1) {
+            head.append(':').append(mUrl.getPort());
+        }
+        head.append("\r\n");
+
+        Map<String, String> headers = mRequest.getHeaders();
+        for (String key : headers.keySet()) {
+            String lowerKey = key.toLowerCase(Locale.US);
+            if (!lowerKey.equals("host") && !lowerKey.equals("content-length") && !lowerKey.equals("connection")) {
+                head.append(key).append(": ").append(headers.get(key)).append("\r\n");
+            }
+        }
+
+        // the whole request is written from a single buffer, so stream
+        // content is read here
+        byte[] content = mRequest.getContentBytes();
+        if (content != null && mRequest.isGzipContent()) {
+            head.append(Request.CONTENT_ENCODING_HEADER).append(": ").append(Request.GZIP_ENCODING).append("\r\n");
+        }
+
+        if (content != null || !"GET".equalsIgnoreCase(mRequest.getVerb())) {
+            head.append("Content-Length: ").append(content != null ? content.length : 0).append("\r\n");
+        }
+
+        head.append("\r\n");
+
+        byte[] headBytes = head.toString().getBytes(Constants.UTF8);
+        if (content == null) {
+            return headBytes;
+        }
+
+        byte[] requestBytes = new byte[headBytes.length + content.length];
+        System.arraycopy(headBytes, 0, requestBytes, 0, headBytes.length);
+        System.arraycopy(content, 0, requestBytes, headBytes.length, content.length);
+
+        return requestBytes;
+    }
+}
@@ -0,0 +1,33 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.http.nio;
+
+import java.util.Locale;
+
+import microsoft.aspnet.signalr.client.Logger;
+import microsoft.aspnet.signalr.client.PlatformComponent;
+import microsoft.aspnet.signalr.client.http.HttpConnection;
+
+/**
+ * PlatformComponent that executes the HTTP requests with a NioHttpConnection.
+ * To use it, call Platform.loadPlatformComponent(new NioPlatformComponent())
+ * before creating the connections. HTTPS requests are not executed on the
+ * selector loops, they use a JavaHttpConnection
+ */
+public class NioPlatformComponent implements PlatformComponent {
+
+    @Override
+    public HttpConnection createHttpConnection(Logger logger) {
+        return new NioHttpConnection(logger);
+    }
+
+    @Override
+    public String getOSName() {
+        return System.getProperty("os.name").toLowerCase(Locale.getDefault());
+    }
+
+}
@@ -0,0 +1,979 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.http.nio;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.java_websocket.util.Base64;
+
+import microsoft.aspnet.signalr.client.Constants;
+import microsoft.aspnet.signalr.client.LogHelper;
+import microsoft.aspnet.signalr.client.LogLevel;
+import microsoft.aspnet.signalr.client.Logger;
+import microsoft.aspnet.signalr.client.SignalRFuture;
+import microsoft.aspnet.signalr.client.http.java.NetworkExecutor;
+import microsoft.aspnet.signalr.client.http.nio.WebSocketFrameParser.WebSocketException;
+
+/**
+ * Client WebSocket (RFC 6455) running on a SelectorLoop.
+ * 
+ * The handshake, the framing and masking of the sent messages, the parsing of
+ * the received frames and the answers to pings all happen in the loop thread,
+ * so an idle WebSocket doesn't hold any thread. The listener is invoked in
+ * order on the callback executor, and the future of each sent message
+ * completes once the message was written to the socket. Only plain ws:// (or
+ * http://) URIs are supported.
+ */
+public class NioWebSocket {
+
+    /**
+     * Close code of a normal closure
+     */
+    public static final int CLOSE_NORMAL = 1000;
+
+    /**
+     * Close code sent when the server violates the protocol
+     */
+    public static final int CLOSE_PROTOCOL_ERROR = 1002;
+
+    /**
+     * Close code reported when the connection was lost without a close frame
+     */
+    public static final int CLOSE_ABNORMAL = 1006;
+
+    /**
+     * Close code sent when a text message is not valid UTF-8
+     */
+    public static final int CLOSE_INVALID_DATA = 1007;
+
+    /**
+     * Close code sent when a message exceeds the maximum size
+     */
+    public static final int CLOSE_TOO_BIG = 1009;
+
+    /**
+     * Default maximum size in bytes of a received message
+     */
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 4 * 1024 * 1024;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+
+    private static final int CLOSE_TIMEOUT_MILLIS = 5 * 1000;
+
+    private static final int MAX_HANDSHAKE_RESPONSE_SIZE = 16 * 1024;
+
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+
+    /**
+     * Receives the events of a WebSocket. The methods are invoked in order,
+     * one at a time
+     */
+    public interface Listener {
+        /**
+         * Invoked when the handshake completes
+         */
+        public void onOpen();
+
+        /**
+         * Invoked when a text message is received
+         */
+        public void onMessage(String message);
+
+        /**
+         * Invoked once, when the WebSocket is closed for any reason
+         */
+        public void onClose(int code, String reason);
+
+        /**
+         * Invoked when the connection fails. onClose is invoked afterwards
+         */
+        public void onError(Throwable error);
+    }
+
+    private enum State {
+        Created, Connecting, Open, Closing, Closed
+    }
+
+    private URI mUri;
+    private Map<String, String> mHeaders;
+    private Listener mListener;
+    private Logger mLogger;
+    private SelectorLoop mLoop;
+    private Executor mExecutor;
+    private Executor mListenerExecutor;
+    private Random mRandom = new SecureRandom();
+
+    private volatile long mPingIntervalMillis = 0;
+    private volatile int mMaxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+
+    // the following fields are only accessed in the loop thread
+    private volatile State mState = State.Created;
+    private SocketChannel mChannel;
+    private SelectionKey mKey;
+    private SelectorLoop.ScheduledTask mConnectTimeout;
+    private SelectorLoop.ScheduledTask mCloseTimeout;
+    private SelectorLoop.ScheduledTask mPingTimer;
+    private long mLastReadTime;
+
+    private String mHandshakeKey;
+    private ByteBuffer mHandshakeRequest;
+    private byte[] mHandshakeResponse = new byte[1024];
+    private int mHandshakeResponseLength = 0;
+
+    private WebSocketFrameParser mParser;
+    private CharsetDecoder mDecoder;
+    private int mMessageOpcode = -1;
+    private byte[] mMessage = null;
+    private int mMessageLength = 0;
+
+    private LinkedList<PendingWrite> mWrites = new LinkedList<PendingWrite>();
+    private boolean mCloseAfterFlush = false;
+    private int mCloseCode = CLOSE_ABNORMAL;
+    private String mCloseReason = "";
+    private boolean mCloseNotified = false;
+
+    /**
+     * Initializes the WebSocket with a loop of the shared SelectorLoopGroup
+     * and the shared NetworkExecutor
+     * 
+     * @param uri
+     *            The ws:// URI to connect to
+     * @param headers
+     *            Additional headers of the handshake request, or null
+     * @param listener
+     *            The listener of the WebSocket events
+     * @param logger
+     *            logger to log activity
+     */
+    public NioWebSocket(URI uri, Map<String, String> headers, Listener listener, Logger logger) {
+        this(uri, headers, listener, logger, SelectorLoopGroup.getDefault().next(), NetworkExecutor.getDefault());
+    }
+
+    /**
+     * Initializes the WebSocket
+     * 
+     * @param uri
+     *            The ws:// URI to connect to
+     * @param headers
+     *            Additional headers of the handshake request, or null
+     * @param listener
+     *            The listener of the WebSocket events
+     * @param logger
+     *            logger to log activity
+     * @param loop
+     *            loop that executes the I/O of the WebSocket
+     * @param callbackExecutor
+     *            executor that invokes the listener and completes the send
+     *            futures
+     */
+    public NioWebSocket(URI uri, Map<String, String> headers, Listener listener, Logger logger, SelectorLoop loop, Executor callbackExecutor) {
+        if (uri == null) {
+            throw new IllegalArgumentException("uri");
+        }
+
+        if (listener == null) {
+            throw new IllegalArgumentException("listener");
+        }
+
+        if (logger == null) {
+            throw new IllegalArgumentException("logger");
+        }
+
+        if (loop == null) {
+            throw new IllegalArgumentException("loop");
+        }
+
+        if (callbackExecutor == null) {
+            throw new IllegalArgumentException("callbackExecutor");
+        }
+
+        mUri = uri;
+        mHeaders = headers != null ? new HashMap<String, String>(headers) : new HashMap<String, String>();
+        mListener = listener;
+        mLogger = logger;
+        mLoop = loop;
+        mExecutor = callbackExecutor;
+        mListenerExecutor = new SerialExecutor(callbackExecutor);
+
+        mDecoder = Constants.UTF8.newDecoder();
+        mDecoder.onMalformedInput(CodingErrorAction.REPORT);
+        mDecoder.onUnmappableCharacter(CodingErrorAction.REPORT);
+    }
+
+    /**
+     * Sets the interval in milliseconds between the pings sent to the server,
+     * or 0 to send none. The WebSocket fails if the server sends nothing for
+     * two intervals
+     */
+    public void setPingInterval(long pingIntervalMillis) {
+        if (pingIntervalMillis < 0) {
+            throw new IllegalArgumentException("pingIntervalMillis");
+        }
+
+        mPingIntervalMillis = pingIntervalMillis;
+    }
+
+    /**
+     * Returns the interval in milliseconds between the pings sent to the
+     * server
+     */
+    public long getPingInterval() {
+        return mPingIntervalMillis;
+    }
+
+    /**
+     * Sets the maximum size in bytes of a received message. Bigger messages
+     * close the WebSocket
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        if (maxMessageSize <= 0) {
+            throw new IllegalArgumentException("maxMessageSize");
+        }
+
+        mMaxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * Returns the maximum size in bytes of a received message
+     */
+    public int getMaxMessageSize() {
+        return mMaxMessageSize;
+    }
+
+    /**
+     * Indicates if the handshake completed and the WebSocket is not closing
+     */
+    public boolean isOpen() {
+        return mState == State.Open;
+    }
+
+    /**
+     * Starts connecting. The listener is notified when the WebSocket opens or
+     * the connection fails
+     */
+    public void connect() {
+        try {
+            mLoop.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    start();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            notifyError(e);
+            notifyClose(CLOSE_ABNORMAL, e.getMessage());
+        }
+    }
+
+    /**
+     * Sends a text message
+     * 
+     * @param message
+     *            The message to send
+     * @return A future that completes when the message was written to the
+     *         socket, or fails if the WebSocket is not open
+     */
+    public SignalRFuture<Void> send(final String message) {
+        if (message == null) {
+            throw new IllegalArgumentException("message");
+        }
+
+        final SignalRFuture<Void> future = new SignalRFuture<Void>();
+
+        try {
+            mLoop.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (mState != State.Open) {
+                        future.triggerError(new IOException("The WebSocket is not open"));
+                        return;
+                    }
+
+                    try {
+                        queueFrame(WebSocketFrameParser.OPCODE_TEXT, message.getBytes(Constants.UTF8_NAME), future);
+                    } catch (IOException e) {
+                        fail(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.triggerError(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * Starts the close handshake. The listener is notified once the
+     * WebSocket is closed
+     */
+    public void close() {
+        try {
+            mLoop.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (mState == State.Open) {
+                        startClose(CLOSE_NORMAL, "");
+                    } else if (mState == State.Created || mState == State.Connecting) {
+                        finishClose(CLOSE_NORMAL, "The WebSocket was closed before it opened");
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the loop already closed the channel
+        }
+    }
+
+    private void start() {
+        if (mState != State.Created) {
+            return;
+        }
+
+        mState = State.Connecting;
+
+        String scheme = mUri.getScheme() != null ? mUri.getScheme().toLowerCase(Locale.US) : "";
+        if (!scheme.equals("ws") && !scheme.equals("http")) {
+            fail(new IOException("Unsupported protocol: " + mUri.getScheme()));
+            return;
+        }
+
+        if (mUri.getHost() == null) {
+            fail(new IOException("Invalid WebSocket URI: " + mUri));
+            return;
+        }
+
+        mConnectTimeout = mLoop.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                fail(new SocketTimeoutException("The WebSocket handshake timed out"));
+            }
+        }, CONNECT_TIMEOUT_MILLIS);
+
+        // the host is resolved out of the loop, since it may block
+        try {
+            mExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    final InetSocketAddress address = new InetSocketAddress(mUri.getHost(), getPort());
+
+                    try {
+                        mLoop.execute(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                connect(address);
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        notifyError(e);
+                        notifyClose(CLOSE_ABNORMAL, e.getMessage());
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            fail(e);
+        }
+    }
+
+    private void connect(InetSocketAddress address) {
+        if (mState != State.Connecting) {
+            return;
+        }
+
+        try {
+            if (address.isUnresolved()) {
+                throw new IOException("Unable to resolve host " + address.getHostName());
+            }
+
+            mHandshakeRequest = ByteBuffer.wrap(createHandshakeRequest());
+
+            mChannel = SocketChannel.open();
+            mChannel.configureBlocking(false);
+            mChannel.socket().setTcpNoDelay(true);
+
+            if (mChannel.connect(address)) {
+                mKey = mLoop.register(mChannel, SelectionKey.OP_WRITE, mHandler);
+            } else {
+                mKey = mLoop.register(mChannel, SelectionKey.OP_CONNECT, mHandler);
+            }
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+    private ChannelHandler mHandler = new ChannelHandler() {
+
+        @Override
+        public void onReady(SelectionKey key) throws IOException {
+            if (mState == State.Closed) {
+                return;
+            }
+
+            if (key.isConnectable()) {
+                mChannel.finishConnect();
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+
+            if (key.isWritable()) {
+                onWritable();
+            }
+
+            if (key.isValid() && key.isReadable()) {
+                onReadable();
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            fail(error);
+        }
+    };
+
+    private void onWritable() throws IOException {
+        if (mHandshakeRequest.hasRemaining()) {
+            mChannel.write(mHandshakeRequest);
+
+            if (!mHandshakeRequest.hasRemaining()) {
+                mKey.interestOps(SelectionKey.OP_READ);
+            }
+        } else {
+            flushWrites();
+        }
+    }
+
+    private void onReadable() throws IOException {
+        ByteBuffer buffer = mLoop.getReadBuffer();
+        int read = mChannel.read(buffer);
+
+        if (read == -1) {
+            onEndOfStream();
+            return;
+        }
+
+        if (read == 0) {
+            return;
+        }
+
+        mLastReadTime = System.currentTimeMillis();
+        buffer.flip();
+
+        if (mState == State.Connecting) {
+            readHandshakeResponse(buffer);
+        }
+
+        if (mParser == null || !buffer.hasRemaining()) {
+            return;
+        }
+
+        try {
+            mParser.parse(buffer);
+        } catch (WebSocketException e) {
+            // further data is ignored until the server closes
+            mParser = null;
+            notifyError(e);
+            startClose(e.getCloseCode(), e.getMessage());
+        }
+    }
+
+    private void onEndOfStream() throws IOException {
+        if (mState == State.Connecting) {
+            throw new IOException("The server closed the connection during the WebSocket handshake");
+        }
+
+        if (mState == State.Closing) {
+            finishClose(mCloseCode, mCloseReason);
+        } else {
+            finishClose(CLOSE_ABNORMAL, "The server closed the connection");
+        }
+    }
+
+    private void readHandshakeResponse(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (mHandshakeResponseLength == mHandshakeResponse.length) {
+                if (mHandshakeResponse.length >= MAX_HANDSHAKE_RESPONSE_SIZE) {
+                    throw new ProtocolException("The WebSocket handshake response is too big");
+                }
+
+                byte[] newResponse = new byte[mHandshakeResponse.length * 2];
+                System.arraycopy(mHandshakeResponse, 0, newResponse, 0, mHandshakeResponseLength);
+                mHandshakeResponse = newResponse;
+            }
+
+            mHandshakeResponse[mHandshakeResponseLength++] = buffer.get();
+
+            if (endsWithEmptyLine()) {
+                onHandshakeResponse(new String(mHandshakeResponse, 0, mHandshakeResponseLength, "ISO-8859-1"));
+                return;
+            }
+        }
+    }
+
+    private boolean endsWithEmptyLine() {
+        int length = mHandshakeResponseLength;
+
+        return length >= 4 && mHandshakeResponse[length - 4] == '\r' && mHandshakeResponse[length - 3] == '\n' && mHandshakeResponse[length - 2] == '\r'
+                && mHandshakeResponse[length - 1] == '\n';
+    }
+
+    private void onHandshakeResponse(String response) throws IOException {
+        String[] lines = response.split("\r\n");
+        String[] statusLine = lines[0].split(" ");
+
+        if (statusLine.length < 2 || !statusLine[1].equals("101")) {
+            throw new ProtocolException("The server refused the WebSocket handshake: " + lines[0]);
+        }
+
+        Map<String, String> headers = new HashMap<String, String>();
+        for (int i = 1; i < lines.length; i++) {
+            int separator = lines[i].indexOf(':');
+            if (separator > 0) {
+                headers.put(lines[i].substring(0, separator).trim().toLowerCase(Locale.US), lines[i].substring(separator + 1).trim());
+            }
+        }
+
+        String upgrade = headers.get("upgrade");
+        String connection = headers.get("connection");
+        if (upgrade == null || !upgrade.equalsIgnoreCase("websocket") || connection == null || !connection.toLowerCase(Locale.US).contains("upgrade")) {
+            throw new ProtocolException("Invalid WebSocket handshake response");
+        }
+
+        if (!getExpectedAccept().equals(headers.get("sec-websocket-accept"))) {
+            throw new ProtocolException("Invalid Sec-WebSocket-Accept header");
+        }
+
+        mConnectTimeout.cancel();
+        mHandshakeResponse = null;
+        mParser = new WebSocketFrameParser(new WebSocketFrameParser.Listener() {
+
+            @Override
+            public void onFrame(int opcode, boolean fin, byte[] payload) throws IOException {
+                NioWebSocket.this.onFrame(opcode, fin, payload);
+            }
+        }, mMaxMessageSize);
+
+        mState = State.Open;
+        if (LogHelper.isLoggable(mLogger, LogLevel.Verbose)) {
+            mLogger.log("WebSocket opened to " + mUri.getHost(), LogLevel.Verbose);
+        }
+
+        schedulePing();
+
+        dispatch(mListenerExecutor, new Runnable() {
+
+            @Override
+            public void run() {
+                mListener.onOpen();
+            }
+        });
+    }
+
+    private void onFrame(int opcode, boolean fin, byte[] payload) throws IOException {
+        switch (opcode) {
+        case WebSocketFrameParser.OPCODE_TEXT:
+        case WebSocketFrameParser.OPCODE_BINARY:
+            if (mMessageOpcode != -1) {
+                throw new WebSocketException(CLOSE_PROTOCOL_ERROR, "New message before the previous one was complete");
+            }
+
+            if (fin) {
+                // unfragmented messages are not copied
+                onMessage(opcode, payload, payload.length);
+            } else {
+                mMessageOpcode = opcode;
+                appendFragment(payload);
+            }
+            break;
+
+        case WebSocketFrameParser.OPCODE_CONTINUATION:
+            if (mMessageOpcode == -1) {
+                throw new WebSocketException(CLOSE_PROTOCOL_ERROR, "Continuation frame without a message");
+            }
+
+            appendFragment(payload);
+
+            if (fin) {
+                int messageOpcode = mMessageOpcode;
+                byte[] message = mMessage;
+                int length = mMessageLength;
+
+                mMessageOpcode = -1;
+                mMessage = null;
+                mMessageLength = 0;
+
+                onMessage(messageOpcode, message, length);
+            }
+            break;
+
+        case WebSocketFrameParser.OPCODE_PING:
+            queueFrame(WebSocketFrameParser.OPCODE_PONG, payload, null);
+            break;
+
+        case WebSocketFrameParser.OPCODE_PONG:
+            // the read time is already updated
+            break;
+
+        case WebSocketFrameParser.OPCODE_CLOSE:
+            onCloseFrame(payload);
+            break;
+
+        default:
+            throw new WebSocketException(CLOSE_PROTOCOL_ERROR, "Unexpected opcode " + opcode);
+        }
+    }
+
+    private void appendFragment(byte[] payload) throws IOException {
+        if (payload.length > mMaxMessageSize - mMessageLength) {
+            throw new WebSocketException(CLOSE_TOO_BIG, "The message exceeds the maximum size of " + mMaxMessageSize + " bytes");
+        }
+
+        int requiredLength = mMessageLength + payload.length;
+        if (mMessage == null || requiredLength > mMessage.length) {
+            byte[] newMessage = new byte[Math.max(requiredLength, mMessage == null ? 0 : Math.min(mMaxMessageSize, mMessage.length * 2))];
+            if (mMessage != null) {
+                System.arraycopy(mMessage, 0, newMessage, 0, mMessageLength);
+            }
+
+            mMessage = newMessage;
+        }
+
+        System.arraycopy(payload, 0, mMessage, mMessageLength, payload.length);
+        mMessageLength = requiredLength;
+    }
+
+    private void onMessage(int opcode, byte[] data, int length) throws IOException {
+        if (opcode != WebSocketFrameParser.OPCODE_TEXT) {
+            mLogger.log("Ignoring a binary WebSocket message", LogLevel.Verbose);
+            return;
+        }
+
+        final String message;
+        try {
+            mDecoder.reset();
+            CharBuffer chars = mDecoder.decode(ByteBuffer.wrap(data, 0, length));
+            message = chars.toString();
+        } catch (CharacterCodingException e) {
+            throw new WebSocketException(CLOSE_INVALID_DATA, "The message is not valid UTF-8");
+        }
+
+        dispatch(mListenerExecutor, new Runnable() {
+
+            @Override
+            public void run() {
+                mListener.onMessage(message);
+            }
+        });
+    }
+
+    private void onCloseFrame(byte[] payload) throws IOException {
+        int code = CLOSE_NORMAL;
+        String reason = "";
+
+        if (payload.length >= 2) {
+            code = ((payload[0] & 0xff) << 8) | (payload[1] & 0xff);
+            reason = new String(payload, 2, payload.length - 2, Constants.UTF8_NAME);
+        }
+
+        if (mState == State.Closing) {
+            // answer to the close frame sent by the client
+            finishClose(mCloseCode, mCloseReason);
+            return;
+        }
+
+        // echo the close frame and close the connection once it was written
+        mCloseCode = code;
+        mCloseReason = reason;
+        mState = State.Closing;
+        mCloseAfterFlush = true;
+        scheduleCloseTimeout();
+
+        queueFrame(WebSocketFrameParser.OPCODE_CLOSE, payload.length >= 2 ? createClosePayload(code, "") : EMPTY_PAYLOAD, null);
+    }
+
+    private void startClose(int code, String reason) {
+        if (mState != State.Open) {
+            return;
+        }
+
+        mState = State.Closing;
+        mCloseCode = code;
+        mCloseReason = reason != null ? reason : "";
+        scheduleCloseTimeout();
+
+        try {
+            queueFrame(WebSocketFrameParser.OPCODE_CLOSE, createClosePayload(code, mCloseReason), null);
+        } catch (IOException e) {
+            finishClose(CLOSE_ABNORMAL, e.getMessage());
+        }
+    }
+
+    private void scheduleCloseTimeout() {
+        mCloseTimeout = mLoop.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                finishClose(mCloseCode, mCloseReason);
+            }
+        }, CLOSE_TIMEOUT_MILLIS);
+    }
+
+    private byte[] createClosePayload(int code, String reason) throws UnsupportedEncodingException {
+        byte[] reasonBytes = reason.getBytes(Constants.UTF8_NAME);
+
+        // control frames are limited to 125 bytes
+        int reasonLength = Math.min(reasonBytes.length, 123);
+        byte[] payload = new byte[2 + reasonLength];
+        payload[0] = (byte) (code >> 8);
+        payload[1] = (byte) code;
+        System.arraycopy(reasonBytes, 0, payload, 2, reasonLength);
+
+        return payload;
+    }
+
+    private void schedulePing() {
+        final long interval = mPingIntervalMillis;
+        if (interval <= 0) {
+            return;
+        }
+
+        mPingTimer = mLoop.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                if (mState != State.Open) {
+                    return;
+                }
+
+                if (System.currentTimeMillis() - mLastReadTime >= 2 * interval) {
+                    fail(new SocketTimeoutException("The server did not answer the WebSocket pings"));
+                    return;
+                }
+
+                try {
+                    queueFrame(WebSocketFrameParser.OPCODE_PING, EMPTY_PAYLOAD, null);
+                    schedulePing();
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }, interval);
+    }
+
+    private void queueFrame(int opcode, byte[] payload, SignalRFuture<Void> future) throws IOException {
+        mWrites.addLast(new PendingWrite(WebSocketFrameParser.encode(opcode, payload, mRandom), future));
+        flushWrites();
+    }
+
+    private void flushWrites() throws IOException {
+        while (!mWrites.isEmpty()) {
+            PendingWrite write = mWrites.getFirst();
+            mChannel.write(write.mBuffer);
+
+            if (write.mBuffer.hasRemaining()) {
+                break;
+            }
+
+            mWrites.removeFirst();
+
+            if (write.mFuture != null) {
+                final SignalRFuture<Void> future = write.mFuture;
+                dispatch(mExecutor, new Runnable() {
+
+                    @Override
+                    public void run() {
+                        future.setResult(null);
+                    }
+                });
+            }
+        }
+
+        if (mWrites.isEmpty() && mCloseAfterFlush) {
+            finishClose(mCloseCode, mCloseReason);
+        } else if (mKey.isValid()) {
+            mKey.interestOps(SelectionKey.OP_READ | (mWrites.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+        }
+    }
+
+    /**
+     * Closes the connection after an error
+     */
+    private void fail(Throwable error) {
+        if (mState == State.Closed) {
+            return;
+        }
+
+        mLogger.log("WebSocket error: " + error.getMessage(), LogLevel.Critical);
+        notifyError(error);
+        finishClose(CLOSE_ABNORMAL, error.getMessage());
+    }
+
+    private void finishClose(int code, String reason) {
+        if (mState == State.Closed) {
+            return;
+        }
+
+        mState = State.Closed;
+
+        if (mConnectTimeout != null) {
+            mConnectTimeout.cancel();
+        }
+
+        if (mCloseTimeout != null) {
+            mCloseTimeout.cancel();
+        }
+
+        if (mPingTimer != null) {
+            mPingTimer.cancel();
+        }
+
+        if (mKey != null) {
+            mKey.cancel();
+        }
+
+        if (mChannel != null) {
+            NioConnectionPool.closeQuietly(mChannel);
+        }
+
+        IOException error = new IOException("The WebSocket was closed");
+        for (PendingWrite write : mWrites) {
+            if (write.mFuture != null) {
+                write.mFuture.triggerError(error);
+            }
+        }
+        mWrites.clear();
+
+        notifyClose(code, reason);
+    }
+
+    private void notifyError(final Throwable error) {
+        dispatch(mListenerExecutor, new Runnable() {
+
+            @Override
+            public void run() {
+                mListener.onError(error);
+            }
+        });
+    }
+
+    private void notifyClose(final int code, final String reason) {
+        dispatch(mListenerExecutor, new Runnable() {
+
+            @Override
+            public void run() {
+                if (mCloseNotified) {
+                    return;
+                }
+
+                mCloseNotified = true;
+                mListener.onClose(code, reason);
+            }
+        });
+    }
+
+    /**
+     * Executes a callback, unless the executor was shut down
+     */
+    private void dispatch(Executor executor, Runnable callback) {
+        try {
+            executor.execute(callback);
+        } catch (RejectedExecutionException e) {
+            mLogger.log("The callback executor rejected a WebSocket callback", LogLevel.Verbose);
+        }
+    }
+
+    private int getPort() {
+        return mUri.getPort() == -1 ? 80 : mUri.getPort();
+    }
+
+    private byte[] createHandshakeRequest() throws IOException {
+        byte[] keyBytes = new byte[16];
+        mRandom.nextBytes(keyBytes);
+        mHandshakeKey = Base64.encodeBytes(keyBytes);
+
+        String path = mUri.getRawPath();
+        if (path == null || path.length() == 0) {
+            path = "/";
+        }
+
+        if (mUri.getRawQuery() != null) {
+            path += "?" + mUri.getRawQuery();
+        }
+
+        StringBuilder request = new StringBuilder();
+        request.append("GET ").append(path).append(" HTTP/1.1\r\n");
+
+        request.append("Host: ").append(mUri.getHost());
+        if (mUri.getPort() != -1) {
+            request.append(':').append(mUri.getPort());
+        }
+        request.append("\r\n");
+
+        request.append("Upgrade: websocket\r\n");
+        request.append("Connection: Upgrade\r\n");
+        request.append("Sec-WebSocket-Key: ").append(mHandshakeKey).append("\r\n");
+        request.append("Sec-WebSocket-Version: 13\r\n");
+
+        for (String key : mHeaders.keySet()) {
+            String lowerKey = key.toLowerCase(Locale.US);
+            if (!lowerKey.equals("host") && !lowerKey.equals("upgrade") && !lowerKey.equals("connection") && !lowerKey.startsWith("sec-websocket-")) {
+                request.append(key).append(": ").append(mHeaders.get(key)).append("\r\n");
+            }
+        }
+
+        request.append("\r\n");
+
+        return request.toString().getBytes(Constants.UTF8_NAME);
+    }
+
+    private String getExpectedAccept() throws IOException {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return Base64.encodeBytes(sha1.digest((mHandshakeKey + ACCEPT_GUID).getBytes(Constants.UTF8_NAME)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-1 is not available");
+        }
+    }
+
+    private static class PendingWrite {
+        ByteBuffer mBuffer;
+        SignalRFuture<Void> mFuture;
+
+        PendingWrite(ByteBuffer buffer, SignalRFuture<Void> future) {
+            mBuffer = buffer;
+            mFuture = future;
+        }
+    }
+}
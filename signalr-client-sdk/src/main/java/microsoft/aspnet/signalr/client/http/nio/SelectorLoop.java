@@ -0,0 +1,310 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.http.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread that multiplexes the I/O of many non-blocking channels with a single
+ * Selector.
+ * 
+ * Channels are registered with a ChannelHandler that is invoked in the loop
+ * thread when they are ready. Tasks and timers can be queued from any thread
+ * and are also executed in the loop thread, so the state of the handlers
+ * doesn't need to be synchronized as long as it is only accessed from the
+ * loop.
+ */
+public class SelectorLoop {
+
+    /**
+     * Prefix used to name the loop threads
+     */
+    public static final String THREAD_NAME_PREFIX = "SignalR-Selector-";
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static final AtomicInteger LOOP_COUNTER = new AtomicInteger(1);
+
+    private Selector mSelector;
+
+    private Thread mThread;
+
+    private volatile boolean mRunning = true;
+
+    private Queue<Runnable> mTasks = new ConcurrentLinkedQueue<Runnable>();
+
+    private PriorityQueue<ScheduledTask> mTimers = new PriorityQueue<ScheduledTask>();
+
+    private ByteBuffer mReadBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    /**
+     * Initializes and starts the loop
+     * 
+     * @throws IOException
+     *             If the selector cannot be opened
+     */
+    public SelectorLoop() throws IOException {
+        mSelector = Selector.open();
+
+        mThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                runLoop();
+            }
+        }, THREAD_NAME_PREFIX + LOOP_COUNTER.getAndIncrement());
+
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Indicates if the current thread is the loop thread
+     */
+    public boolean inLoop() {
+        return Thread.currentThread() == mThread;
+    }
+
+    /**
+     * Queues a task to be executed in the loop thread
+     * 
+     * @param task
+     *            The task to execute
+     * @throws RejectedExecutionException
+     *             If the loop was shut down
+     */
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new IllegalArgumentException("task");
+        }
+
+        if (!mRunning) {
+            throw new RejectedExecutionException("The selector loop was shut down");
+        }
+
+        mTasks.add(task);
+        mSelector.wakeup();
+    }
+
+    /**
+     * Executes a task in the loop thread after a delay
+     * 
+     * @param task
+     *            The task to execute
+     * @param delayMillis
+     *            The delay in milliseconds
+     * @return A handle to cancel the task
+     */
+    public ScheduledTask schedule(Runnable task, long delayMillis) {
+        if (task == null) {
+            throw new IllegalArgumentException("task");
+        }
+
+        final ScheduledTask scheduledTask = new ScheduledTask(task, System.currentTimeMillis() + Math.max(0, delayMillis));
+
+        if (inLoop()) {
+            mTimers.add(scheduledTask);
+        } else {
+            execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    mTimers.add(scheduledTask);
+                }
+            });
+        }
+
+        return scheduledTask;
+    }
+
+    /**
+     * Registers a channel in the loop. Must be called in the loop thread
+     * 
+     * @param channel
+     *            The non-blocking channel to register
+     * @param ops
+     *            The operations of interest
+     * @param handler
+     *            The handler for the channel events
+     * @return The selection key of the channel
+     * @throws ClosedChannelException
+     *             If the channel is closed
+     */
+    public SelectionKey register(SelectableChannel channel, int ops, ChannelHandler handler) throws ClosedChannelException {
+        checkInLoop();
+
+        return channel.register(mSelector, ops, handler);
+    }
+
+    /**
+     * Returns a buffer to read from the channels, shared by all the handlers of
+     * the loop. Must be called in the loop thread and the data must be
+     * consumed before returning to the loop
+     */
+    public ByteBuffer getReadBuffer() {
+        checkInLoop();
+
+        mReadBuffer.clear();
+        return mReadBuffer;
+    }
+
+    /**
+     * Stops the loop. The handlers of the registered channels are notified
+     * with an error and the channels are closed
+     */
+    public void shutdown() {
+        mRunning = false;
+        mSelector.wakeup();
+    }
+
+    private void checkInLoop() {
+        if (!inLoop()) {
+            throw new IllegalStateException("Must be called in the selector loop thread");
+        }
+    }
+
+    private void runLoop() {
+        while (mRunning) {
+            try {
+                long timeout = getSelectTimeout();
+
+                if (timeout < 0) {
+                    mSelector.selectNow();
+                } else {
+                    mSelector.select(timeout);
+                }
+            } catch (IOException e) {
+                continue;
+            }
+
+            Iterator<SelectionKey> iterator = mSelector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+
+                ChannelHandler handler = (ChannelHandler) key.attachment();
+
+                try {
+                    if (key.isValid()) {
+                        handler.onReady(key);
+                    }
+                } catch (Throwable e) {
+                    key.cancel();
+                    handler.onError(e);
+                }
+            }
+
+            runTasks();
+            runTimers();
+        }
+
+        closeChannels();
+    }
+
+    /**
+     * Returns 0 to block until a channel is ready, a negative value if there
+     * is pending work, or the time until the next timer
+     */
+    private long getSelectTimeout() {
+        if (!mTasks.isEmpty()) {
+            return -1;
+        }
+
+        ScheduledTask next = mTimers.peek();
+        if (next == null) {
+            return 0;
+        }
+
+        long delay = next.mDueTime - System.currentTimeMillis();
+        return delay > 0 ? delay : -1;
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = mTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                // a failing task must not stop the loop
+            }
+        }
+    }
+
+    private void runTimers() {
+        long now = System.currentTimeMillis();
+
+        while (!mTimers.isEmpty() && mTimers.peek().mDueTime <= now) {
+            ScheduledTask timer = mTimers.poll();
+
+            if (!timer.mCancelled) {
+                try {
+                    timer.mTask.run();
+                } catch (Throwable e) {
+                    // a failing timer must not stop the loop
+                }
+            }
+        }
+    }
+
+    private void closeChannels() {
+        IOException error = new IOException("The selector loop was shut down");
+
+        for (SelectionKey key : mSelector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+            }
+
+            ((ChannelHandler) key.attachment()).onError(error);
+        }
+
+        try {
+            mSelector.close();
+        } catch (IOException e) {
+        }
+
+        mTasks.clear();
+        mTimers.clear();
+    }
+
+    /**
+     * A task scheduled in the loop
+     */
+    public static class ScheduledTask implements Comparable<ScheduledTask> {
+        private Runnable mTask;
+        private long mDueTime;
+        private volatile boolean mCancelled = false;
+
+        ScheduledTask(Runnable task, long dueTime) {
+            mTask = task;
+            mDueTime = dueTime;
+        }
+
+        /**
+         * Prevents the task from running, if it didn't run yet
+         */
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            return mDueTime < other.mDueTime ? -1 : (mDueTime == other.mDueTime ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.http.nio;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed set of SelectorLoops. Channels are spread among the loops in a
+ * round-robin fashion, so the number of I/O threads doesn't depend on the
+ * number of connections
+ */
+public class SelectorLoopGroup {
+
+    /**
+     * Maximum number of loops of the default group
+     */
+    private static final int MAX_DEFAULT_LOOPS = 4;
+
+    private static SelectorLoopGroup mDefaultGroup = null;
+
+    private SelectorLoop[] mLoops;
+
+    private AtomicInteger mNext = new AtomicInteger(0);
+
+    /**
+     * Initializes the group and starts its loops
+     * 
+     * @param loopCount
+     *            Number of loops (and threads) of the group
+     * @throws IOException
+     *             If a selector cannot be opened
+     */
+    public SelectorLoopGroup(int loopCount) throws IOException {
+        if (loopCount <= 0) {
+            throw new IllegalArgumentException("loopCount");
+        }
+
+        mLoops = new SelectorLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            mLoops[i] = new SelectorLoop();
+        }
+    }
+
+    /**
+     * Returns the group shared by the connections that were not given a
+     * specific one. It has a loop per processor, up to 4
+     */
+    public static synchronized SelectorLoopGroup getDefault() {
+        if (mDefaultGroup == null) {
+            int loopCount = Math.min(MAX_DEFAULT_LOOPS, Runtime.getRuntime().availableProcessors());
+
+            try {
+                mDefaultGroup = new SelectorLoopGroup(loopCount);
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to open the selectors", e);
+            }
+        }
+
+        return mDefaultGroup;
+    }
+
+    /**
+     * Replaces the shared group. Connections created afterwards use the new
+     * group
+     * 
+     * @param group
+     *            The group to share
+     */
+    public static synchronized void setDefault(SelectorLoopGroup group) {
+        if (group == null) {
+            throw new IllegalArgumentException("group");
+        }
+
+        mDefaultGroup = group;
+    }
+
+    /**
+     * Returns the next loop
+     */
+    public SelectorLoop next() {
+        int index = (mNext.getAndIncrement() & Integer.MAX_VALUE) % mLoops.length;
+
+        return mLoops[index];
+    }
+
+    /**
+     * Returns the number of loops
+     */
+    public int getLoopCount() {
+        return mLoops.length;
+    }
+
+    /**
+     * Stops all the loops
+     */
+    public void shutdown() {
+        for (SelectorLoop loop : mLoops) {
+            loop.shutdown();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.http.nio;
+
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Executor that runs its tasks one at a time and in order on another
+ * executor, without holding any of its threads while there is nothing to run
+ */
+class SerialExecutor implements Executor {
+
+    private Executor mExecutor;
+
+    private LinkedList<Runnable> mTasks = new LinkedList<Runnable>();
+
+    private boolean mDraining = false;
+
+    SerialExecutor(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor");
+        }
+
+        mExecutor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        synchronized (mTasks) {
+            mTasks.addLast(task);
+
+            if (mDraining) {
+                return;
+            }
+
+            mDraining = true;
+        }
+
+        try {
+            mExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    drain();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (mTasks) {
+                mTasks.clear();
+                mDraining = false;
+            }
+
+            throw e;
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Runnable task;
+
+            synchronized (mTasks) {
+                task = mTasks.poll();
+
+                if (task == null) {
+                    mDraining = false;
+                    return;
+                }
+            }
+
+            try {
+                task.run();
+            } catch (Throwable e) {
+                // a failing task must not stop the following ones
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.http.nio;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Incremental parser and encoder of RFC 6455 frames for the client side of a
+ * WebSocket. Data can be fed in pieces of any size, and the payload of each
+ * frame is read straight into an array of its final size
+ */
+class WebSocketFrameParser {
+
+    static final int OPCODE_CONTINUATION = 0x0;
+    static final int OPCODE_TEXT = 0x1;
+    static final int OPCODE_BINARY = 0x2;
+    static final int OPCODE_CLOSE = 0x8;
+    static final int OPCODE_PING = 0x9;
+    static final int OPCODE_PONG = 0xa;
+
+    private static final int MAX_CONTROL_PAYLOAD = 125;
+
+    private static final int MAX_HEADER_SIZE = 14;
+
+    /**
+     * Receives the parsed frames
+     */
+    interface Listener {
+        void onFrame(int opcode, boolean fin, byte[] payload) throws IOException;
+    }
+
+    private Listener mListener;
+
+    private int mMaxFrameSize;
+
+    private byte[] mHeader = new byte[MAX_HEADER_SIZE];
+
+    private int mHeaderLength = 0;
+
+    private int mHeaderSize = 2;
+
+    private byte[] mPayload = null;
+
+    private int mPayloadLength = 0;
+
+    WebSocketFrameParser(Listener listener, int maxFrameSize) {
+        mListener = listener;
+        mMaxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Parses the data, notifying the complete frames
+     */
+    void parse(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            if (mPayload == null) {
+                mHeader[mHeaderLength++] = data.get();
+
+                if (mHeaderLength == 2) {
+                    mHeaderSize = getHeaderSize();
+                }
+
+                if (mHeaderLength == mHeaderSize) {
+                    onHeader();
+                }
+            } else {
+                int count = Math.min(data.remaining(), mPayload.length - mPayloadLength);
+                data.get(mPayload, mPayloadLength, count);
+                mPayloadLength += count;
+
+                if (mPayloadLength == mPayload.length) {
+                    onFrameComplete();
+                }
+            }
+        }
+    }
+
+    private int getHeaderSize() throws IOException {
+        int opcode = mHeader[0] & 0x0f;
+        boolean fin = (mHeader[0] & 0x80) != 0;
+
+        if ((mHeader[0] & 0x70) != 0) {
+            throw new ProtocolException("Unexpected reserved bits in a WebSocket frame");
+        }
+
+        if ((mHeader[1] & 0x80) != 0) {
+            throw new ProtocolException("The server sent a masked WebSocket frame");
+        }
+
+        if (opcode >= OPCODE_CLOSE) {
+            if (opcode > OPCODE_PONG) {
+                throw new ProtocolException("Unknown WebSocket opcode " + opcode);
+            }
+
+            if (!fin || (mHeader[1] & 0x7f) > MAX_CONTROL_PAYLOAD) {
+                throw new ProtocolException("Invalid WebSocket control frame");
+            }
+        } else if (opcode > OPCODE_BINARY) {
+            throw new ProtocolException("Unknown WebSocket opcode " + opcode);
+        }
+
+        int length = mHeader[1] & 0x7f;
+        return length == 126 ? 4 : (length == 127 ? 10 : 2);
+    }
+
+    private void onHeader() throws IOException {
+        long length = mHeader[1] & 0x7f;
+
+        if (length == 126) {
+            length = ((mHeader[2] & 0xff) << 8) | (mHeader[3] & 0xff);
+        } else if (length == 127) {
+            length = 0;
+            for (int i = 2; i < 10; i++) {
+                length = (length << 8) | (mHeader[i] & 0xff);
+            }
+        }
+
+        if (length < 0 || length > mMaxFrameSize) {
+            throw new WebSocketException(NioWebSocket.CLOSE_TOO_BIG, "The WebSocket frame exceeds the maximum size of " + mMaxFrameSize + " bytes");
+        }
+
+        mPayload = new byte[(int) length];
+        mPayloadLength = 0;
+
+        if (length == 0) {
+            onFrameComplete();
+        }
+    }
+
+    private void onFrameComplete() throws IOException {
+        int opcode = mHeader[0] & 0x0f;
+        boolean fin = (mHeader[0] & 0x80) != 0;
+        byte[] payload = mPayload;
+
+        mPayload = null;
+        mHeaderLength = 0;
+        mHeaderSize = 2;
+
+        mListener.onFrame(opcode, fin, payload);
+    }
+
+    /**
+     * Encodes a final frame with a masked payload, as clients must send them
+     */
+    static ByteBuffer encode(int opcode, byte[] payload, Random random) {
+        int length = payload.length;
+        int lengthSize = length <= 125 ? 0 : (length <= 0xffff ? 2 : 8);
+
+        ByteBuffer frame = ByteBuffer.allocate(2 + lengthSize + 4 + length);
+        frame.put((byte) (0x80 | opcode));
+
+        if (lengthSize == 0) {
+            frame.put((byte) (0x80 | length));
+        } else if (lengthSize == 2) {
+            frame.put((byte) (0x80 | 126));
+            frame.putShort((short) length);
+        } else {
+            frame.put((byte) (0x80 | 127));
+            frame.putLong(length);
+        }
+
+        byte[] mask = new byte[4];
+        random.nextBytes(mask);
+        frame.put(mask);
+
+        for (int i = 0; i < length; i++) {
+            frame.put((byte) (payload[i] ^ mask[i & 3]));
+        }
+
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Error that closes the WebSocket with a specific close code
+     */
+    static class WebSocketException extends ProtocolException {
+        private static final long serialVersionUID = 1L;
+
+        private int mCloseCode;
+
+        WebSocketException(int closeCode, String message) {
+            super(message);
+            mCloseCode = closeCode;
+        }
+
+        int getCloseCode() {
+            return mCloseCode;
+        }
+    }
+}
@@ -6,8 +6,11 @@ See License.txt in the project root for license information.
 
 package microsoft.aspnet.signalr.client.hubs;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -17,7 +20,11 @@ import com.google.gson.JsonObject;
 
 import microsoft.aspnet.signalr.client.Action;
 import microsoft.aspnet.signalr.client.ConnectionState;
+import microsoft.aspnet.signalr.client.GsonValue;
 import microsoft.aspnet.signalr.client.InvalidStateException;
+import microsoft.aspnet.signalr.client.JsonStreamReader;
+import microsoft.aspnet.signalr.client.JsonStreamToken;
+import microsoft.aspnet.signalr.client.JsonValue;
 import microsoft.aspnet.signalr.client.LogLevel;
 import microsoft.aspnet.signalr.client.Logger;
 import microsoft.aspnet.signalr.client.Connection;
@@ -74,57 +81,263 @@ public class HubConnection extends Connection {
         super.onReceived(message);
 
         log("Processing message", LogLevel.Information);
-        if (getState() == ConnectionState.Connected) {
-            if (message.isJsonObject() && message.getAsJsonObject().has("I")) {
+        if (getState() == ConnectionState.Connected && message.isJsonObject()) {
+            JsonObject object = message.getAsJsonObject();
+
+            // the payloads are decoded by the codec
+            if (object.has("I")) {
                 log("Getting HubResult from message", LogLevel.Verbose);
-                HubResult result = mGson.fromJson(message, HubResult.class);
-    
-                String id = result.getId().toLowerCase(Locale.getDefault());
-                log("Result Id: " + id, LogLevel.Verbose);
-                log("Result Data: " + result.getResult(), LogLevel.Verbose);
-    
-                if (mCallbacks.containsKey(id)) {
-                    log("Get and remove callback with id: " + id, LogLevel.Verbose);
-                    Action<HubResult> callback = mCallbacks.remove(id);
-    
-                    try {
-                        log("Execute callback for message", LogLevel.Verbose);
-                        callback.run(result);
-                    } catch (Exception e) {
-                        onError(e, false);
-                    }
+
+                HubResult hubResult = new HubResult();
+                hubResult.setId(getString(object, "I"));
+                hubResult.setResult(getElement(object, "R"));
+                hubResult.setIsHubException(object.has("H") && isBoolean(object.get("H")) && object.get("H").getAsBoolean());
+                hubResult.setError(getString(object, "E"));
+                hubResult.setState(getHubState(object));
+
+                JsonElement errorData = getElement(object, "D");
+                if (errorData != null) {
+                    hubResult.setErrorData(mCodec.fromJson(new GsonValue(errorData), Object.class));
                 }
+
+                onHubResult(hubResult);
             } else {
-                HubInvocation invocation = mGson.fromJson(message, HubInvocation.class);
                 log("Getting HubInvocation from message", LogLevel.Verbose);
-    
-                String hubName = invocation.getHub().toLowerCase(Locale.getDefault());
-                log("Message for: " + hubName, LogLevel.Verbose);
-    
-                if (mHubs.containsKey(hubName)) {
-                    HubProxy hubProxy = mHubs.get(hubName);
-                    if (invocation.getState() != null) {
-                        for (String key : invocation.getState().keySet()) {
-                            JsonElement value = invocation.getState().get(key);
-                            log("Setting state for hub: " + key + " -> " + value, LogLevel.Verbose);
-                            hubProxy.setState(key, value);
-                        }
+
+                String hubName = getString(object, "H");
+                String method = getString(object, "M");
+
+                JsonArgument[] args = new JsonArgument[0];
+                JsonElement elements = getElement(object, "A");
+                if (elements != null && elements.isJsonArray()) {
+                    JsonArray array = elements.getAsJsonArray();
+                    args = new JsonArgument[array.size()];
+                    for (int i = 0; i < args.length; i++) {
+                        args[i] = new JsonArgument(array.get(i));
                     }
-    
-                    String eventName = invocation.getMethod().toLowerCase(Locale.getDefault());
-                    log("Invoking event: " + eventName + " with arguments " + arrayToString(invocation.getArgs()), LogLevel.Verbose);
-    
-                    try {
-                        hubProxy.invokeEvent(eventName, invocation.getArgs());
-                    } catch (Exception e) {
-                        onError(e, false);
+                }
+
+                if (hubName != null && method != null) {
+                    onHubInvocation(hubName, method, args, getHubState(object));
+                }
+            }
+        }
+    }
+
+    private static JsonElement getElement(JsonObject object, String name) {
+        JsonElement element = object.get(name);
+
+        return element == null || element.isJsonNull() ? null : element;
+    }
+
+    private static String getString(JsonObject object, String name) {
+        JsonElement element = getElement(object, name);
+
+        return element != null && element.isJsonPrimitive() ? element.getAsString() : null;
+    }
+
+    private static boolean isBoolean(JsonElement element) {
+        return element.isJsonPrimitive() && element.getAsJsonPrimitive().isBoolean();
+    }
+
+    private static Map<String, JsonElement> getHubState(JsonObject object) {
+        JsonElement element = getElement(object, "S");
+
+        if (element == null || !element.isJsonObject()) {
+            return null;
+        }
+
+        Map<String, JsonElement> state = new HashMap<String, JsonElement>();
+        for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+            state.put(entry.getKey(), entry.getValue());
+        }
+
+        return state;
+    }
+
+    /**
+     * Decodes a hub message while it is read, without building a tree of the
+     * whole message. The arguments of events that have no subscription are
+     * skipped when the hub and method names come first, as the server sends
+     * them
+     */
+    @Override
+    public void onReceived(JsonStreamReader message) throws IOException {
+        // the received handler gets the whole message
+        if (hasReceivedHandler()) {
+            super.onReceived(message);
+            return;
+        }
+
+        if (getState() != ConnectionState.Connected) {
+            message.skipValue();
+            return;
+        }
+
+        log("Processing message", LogLevel.Information);
+
+        String callbackId = null;
+        String hubName = null;
+        String method = null;
+        JsonArgument[] args = null;
+        Map<String, JsonElement> state = null;
+        JsonElement result = null;
+        boolean isHubException = false;
+        String error = null;
+        JsonValue errorData = null;
+
+        message.beginObject();
+        while (message.hasNext()) {
+            String name = message.nextName();
+            JsonStreamToken token = message.peek();
+
+            if (token == JsonStreamToken.Null) {
+                message.nextNull();
+            } else if (name.equals("I")) {
+                callbackId = message.nextString();
+            } else if (name.equals("H") && token == JsonStreamToken.Boolean) {
+                isHubException = message.nextBoolean();
+            } else if (name.equals("H") && token == JsonStreamToken.String) {
+                hubName = message.nextString();
+            } else if (name.equals("M") && token == JsonStreamToken.String) {
+                method = message.nextString();
+            } else if (name.equals("A") && token == JsonStreamToken.BeginArray) {
+                if (callbackId == null && hubName != null && method != null && !hasSubscription(hubName, method)) {
+                    if (isLoggable(LogLevel.Verbose)) {
+                        log("No subscription for: " + hubName + "." + method, LogLevel.Verbose);
                     }
+                    message.skipValue();
+                } else {
+                    // the arguments are kept as text until a handler decodes
+                    // them
+                    args = readArgs(message);
                 }
+            } else if (name.equals("S") && token == JsonStreamToken.BeginObject) {
+                state = readState(message);
+            } else if (name.equals("R")) {
+                result = GsonValue.readElement(message);
+            } else if (name.equals("E") && token == JsonStreamToken.String) {
+                error = message.nextString();
+            } else if (name.equals("D")) {
+                errorData = mCodec.readValue(message);
+            } else {
+                message.skipValue();
             }
         }
+        message.endObject();
+
+        if (callbackId != null) {
+            HubResult hubResult = new HubResult();
+            hubResult.setId(callbackId);
+            hubResult.setResult(result);
+            hubResult.setIsHubException(isHubException);
+            hubResult.setError(error);
+            hubResult.setState(state);
+
+            if (errorData != null) {
+                hubResult.setErrorData(mCodec.fromJson(errorData, Object.class));
+            }
+
+            onHubResult(hubResult);
+        } else if (hubName != null && method != null) {
+            onHubInvocation(hubName, method, args == null ? new JsonArgument[0] : args, state);
+        }
+    }
+
+    private boolean hasSubscription(String hubName, String method) {
+        HubProxy hubProxy = mHubs.get(hubName.toLowerCase(Locale.getDefault()));
+
+        return hubProxy != null && hubProxy.hasSubscription(method);
     }
 
-    private static String arrayToString(JsonElement[] args) {
+    /**
+     * Reads the arguments of an event as JSON text that is only decoded if a
+     * handler needs it
+     */
+    private JsonArgument[] readArgs(JsonStreamReader reader) throws IOException {
+        List<JsonArgument> args = new ArrayList<JsonArgument>();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            args.add(JsonArgument.read(reader));
+        }
+        reader.endArray();
+
+        return args.toArray(new JsonArgument[args.size()]);
+    }
+
+    private Map<String, JsonElement> readState(JsonStreamReader reader) throws IOException {
+        Map<String, JsonElement> state = new HashMap<String, JsonElement>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            state.put(key, GsonValue.readElement(reader));
+        }
+        reader.endObject();
+
+        return state;
+    }
+
+    private void onHubResult(HubResult result) {
+        String id = result.getId().toLowerCase(Locale.getDefault());
+        if (isLoggable(LogLevel.Verbose)) {
+            log("Result Id: " + id, LogLevel.Verbose);
+        }
+
+        if (isPayloadLoggable(LogLevel.Verbose)) {
+            log("Result Data: " + result.getResult(), LogLevel.Verbose);
+        }
+
+        if (mCallbacks.containsKey(id)) {
+            if (isLoggable(LogLevel.Verbose)) {
+                log("Get and remove callback with id: " + id, LogLevel.Verbose);
+            }
+            Action<HubResult> callback = mCallbacks.remove(id);
+
+            try {
+                log("Execute callback for message", LogLevel.Verbose);
+                callback.run(result);
+            } catch (Exception e) {
+                onError(e, false);
+            }
+        }
+    }
+
+    private void onHubInvocation(String hub, String method, JsonArgument[] args, Map<String, JsonElement> state) {
+        String hubName = hub.toLowerCase(Locale.getDefault());
+        if (isLoggable(LogLevel.Verbose)) {
+            log("Message for: " + hubName, LogLevel.Verbose);
+        }
+
+        if (mHubs.containsKey(hubName)) {
+            HubProxy hubProxy = mHubs.get(hubName);
+            if (state != null) {
+                for (String key : state.keySet()) {
+                    JsonElement value = state.get(key);
+                    if (isPayloadLoggable(LogLevel.Verbose)) {
+                        log("Setting state for hub: " + key + " -> " + value, LogLevel.Verbose);
+                    }
+                    hubProxy.setState(key, value);
+                }
+            }
+
+            String eventName = method.toLowerCase(Locale.getDefault());
+            if (isPayloadLoggable(LogLevel.Verbose)) {
+                log("Invoking event: " + eventName + " with arguments " + arrayToString(args), LogLevel.Verbose);
+            } else if (isLoggable(LogLevel.Verbose)) {
+                log("Invoking event: " + eventName, LogLevel.Verbose);
+            }
+
+            try {
+                hubProxy.invokeEvent(eventName, args);
+            } catch (Exception e) {
+                onError(e, false);
+            }
+        }
+    }
+
+    private static String arrayToString(JsonArgument[] args) {
         StringBuilder sb = new StringBuilder();
 
         sb.append("[");
@@ -154,7 +367,9 @@ public class HubConnection extends Connection {
 
         String connectionData = jsonArray.toString();
 
-        log("Getting connection data: " + connectionData, LogLevel.Verbose);
+        if (isLoggable(LogLevel.Verbose)) {
+            log("Getting connection data: " + connectionData, LogLevel.Verbose);
+        }
         return connectionData;
     }
 
@@ -165,13 +380,17 @@ public class HubConnection extends Connection {
     }
 
     private void clearInvocationCallbacks(String error) {
-        log("Clearing invocation callbacks: " + error, LogLevel.Verbose);
+        if (isLoggable(LogLevel.Verbose)) {
+            log("Clearing invocation callbacks: " + error, LogLevel.Verbose);
+        }
         HubResult result = new HubResult();
         result.setError(error);
 
         for (String key : mCallbacks.keySet()) {
             try {
-                log("Invoking callback with empty result: " + key, LogLevel.Verbose);
+                if (isLoggable(LogLevel.Verbose)) {
+                    log("Invoking callback with empty result: " + key, LogLevel.Verbose);
+                }
                 mCallbacks.get(key).run(result);
             } catch (Exception e) {
             }
@@ -207,7 +426,9 @@ public class HubConnection extends Connection {
 
         String hubNameLower = hubName.toLowerCase(Locale.getDefault());
 
-        log("Creating hub proxy: " + hubNameLower, LogLevel.Information);
+        if (isLoggable(LogLevel.Information)) {
+            log("Creating hub proxy: " + hubNameLower, LogLevel.Information);
+        }
 
         HubProxy proxy = null;
         if (mHubs.containsKey(hubNameLower)) {
@@ -229,7 +450,9 @@ public class HubConnection extends Connection {
      */
     String registerCallback(Action<HubResult> callback) {
         String id = mCallbackId.toString().toLowerCase(Locale.getDefault());
-        log("Registering callback: " + id, LogLevel.Verbose);
+        if (isLoggable(LogLevel.Verbose)) {
+            log("Registering callback: " + id, LogLevel.Verbose);
+        }
         mCallbacks.put(id, callback);
         mCallbackId++;
         return id;
@@ -242,7 +465,9 @@ public class HubConnection extends Connection {
      *            Id for the callback to remove
      */
     void removeCallback(String callbackId) {
-        log("Removing callback: " + callbackId, LogLevel.Verbose);
+        if (isLoggable(LogLevel.Verbose)) {
+            log("Removing callback: " + callbackId, LogLevel.Verbose);
+        }
         mCallbacks.remove(callbackId.toLowerCase(Locale.getDefault()));
     }
 
@@ -17,6 +17,9 @@ import java.util.Map;
 
 import microsoft.aspnet.signalr.client.Action;
 import microsoft.aspnet.signalr.client.ErrorCallback;
+import microsoft.aspnet.signalr.client.GsonValue;
+import microsoft.aspnet.signalr.client.JsonCodec;
+import microsoft.aspnet.signalr.client.LogHelper;
 import microsoft.aspnet.signalr.client.LogLevel;
 import microsoft.aspnet.signalr.client.Logger;
 import microsoft.aspnet.signalr.client.SignalRFuture;
@@ -41,8 +44,6 @@ public class HubProxy {
     private static final List<String> EXCLUDED_METHODS = Arrays.asList(new String[] { "equals", "getClass", "hashCode", "notify", "notifyAll", "toString",
             "wait" });
 
-    private static final String SUBSCRIPTION_HANDLER_METHOD = "run";
-
     /**
      * Initializes the HubProxy
      * 
@@ -89,7 +90,7 @@ public class HubProxy {
      * @return
      */
     public <E> E getValue(String key, Class<E> clazz) {
-        return mConnection.getGson().fromJson(getState(key), clazz);
+        return mConnection.getCodec().fromJson(new GsonValue(getState(key)), clazz);
     }
 
     /**
@@ -100,7 +101,9 @@ public class HubProxy {
      * @return The subscription object
      */
     public Subscription subscribe(String eventName) {
-        log("Subscribe to event " + eventName, LogLevel.Information);
+        if (isLoggable(LogLevel.Information)) {
+            log("Subscribe to event " + eventName, LogLevel.Information);
+        }
         if (eventName == null) {
             throw new IllegalArgumentException("eventName cannot be null");
         }
@@ -109,10 +112,14 @@ public class HubProxy {
 
         Subscription subscription;
         if (mSubscriptions.containsKey(eventName)) {
-            log("Adding event to existing subscription: " + eventName, LogLevel.Information);
+            if (isLoggable(LogLevel.Information)) {
+                log("Adding event to existing subscription: " + eventName, LogLevel.Information);
+            }
             subscription = mSubscriptions.get(eventName);
         } else {
-            log("Creating new subscription for: " + eventName, LogLevel.Information);
+            if (isLoggable(LogLevel.Information)) {
+                log("Creating new subscription for: " + eventName, LogLevel.Information);
+            }
             subscription = new Subscription();
             mSubscriptions.put(eventName, subscription);
         }
@@ -137,13 +144,18 @@ public class HubProxy {
             final Method method = methods[j];
 
             if (!EXCLUDED_METHODS.contains(method.getName())) {
+                // the method is resolved once, when subscribing
+                final Class<?>[] parameterTypes = method.getParameterTypes();
+                method.setAccessible(true);
+
                 Subscription subscription = subscribe(method.getName());
-                subscription.addReceivedHandler(new Action<JsonElement[]>() {
+                subscription.addRawReceivedHandler(new Action<JsonArgument[]>() {
 
                     @Override
-                    public void run(JsonElement[] eventParameters) throws Exception {
-                        log("Handling dynamic subscription: " + method.getName(), LogLevel.Verbose);
-                        Class<?>[] parameterTypes = method.getParameterTypes();
+                    public void run(JsonArgument[] eventParameters) throws Exception {
+                        if (isLoggable(LogLevel.Verbose)) {
+                            log("Handling dynamic subscription: " + method.getName(), LogLevel.Verbose);
+                        }
                         if (parameterTypes.length != eventParameters.length) {
                             throw new RuntimeException("The handler has " + parameterTypes.length + " parameters, but there are " + eventParameters.length
                                     + " values.");
@@ -152,10 +164,12 @@ public class HubProxy {
                         Object[] parameters = new Object[parameterTypes.length];
 
                         for (int i = 0; i < eventParameters.length; i++) {
-                            parameters[i] = mConnection.getGson().fromJson(eventParameters[i], parameterTypes[i]);
+                            parameters[i] = eventParameters[i].getAs(parameterTypes[i], mConnection.getCodec());
+                        }
+
+                        if (isLoggable(LogLevel.Verbose)) {
+                            log("Invoking method for dynamic subscription: " + method.getName(), LogLevel.Verbose);
                         }
-                        method.setAccessible(true);
-                        log("Invoking method for dynamic subscription: " + method.getName(), LogLevel.Verbose);
                         method.invoke(handler, parameters);
                     }
                 });
@@ -206,12 +220,15 @@ public class HubProxy {
             throw new IllegalArgumentException("args cannot be null");
         }
 
-        log("Invoking method on hub: " + method, LogLevel.Information);
+        if (isLoggable(LogLevel.Information)) {
+            log("Invoking method on hub: " + method, LogLevel.Information);
+        }
 
-        JsonElement[] jsonArguments = new JsonElement[args.length];
+        JsonCodec codec = mConnection.getCodec();
+        String[] jsonArguments = new String[args.length];
 
         for (int i = 0; i < args.length; i++) {
-            jsonArguments[i] = mConnection.getGson().toJsonTree(args[i]);
+            jsonArguments[i] = codec.toJson(args[i]);
         }
 
         final SignalRFuture<E> resultFuture = new SignalRFuture<E>();
@@ -220,7 +237,9 @@ public class HubProxy {
 
             @Override
             public void run(HubResult result) {
-                log("Executing invocation callback for: " + method, LogLevel.Information);
+                if (isLoggable(LogLevel.Information)) {
+                    log("Executing invocation callback for: " + method, LogLevel.Information);
+                }
                 if (result != null) {
                     if (result.getError() != null) {
                         if (result.isHubException()) {
@@ -239,8 +258,10 @@ public class HubProxy {
                             }
 
                             if (result.getResult() != null && resultClass != null) {
-                                log("Found result invoking method on hub: " + result.getResult(), LogLevel.Information);
-                                resultObject = mConnection.getGson().fromJson(result.getResult(), resultClass);
+                                if (isPayloadLoggable(LogLevel.Information)) {
+                                    log("Found result invoking method on hub: " + result.getResult(), LogLevel.Information);
+                                }
+                                resultObject = mConnection.getCodec().fromJson(new GsonValue(result.getResult()), resultClass);
                             }
                         } catch (Exception e) {
                             errorHappened = true;
@@ -259,17 +280,7 @@ public class HubProxy {
             }
         });
 
-        HubInvocation hubData = new HubInvocation();
-        hubData.setHub(mHubName);
-        hubData.setMethod(method);
-        hubData.setArgs(jsonArguments);
-        hubData.setCallbackId(callbackId);
-
-        if (mState.size() != 0) {
-            hubData.setState(mState);
-        }
-
-        final SignalRFuture<Void> sendFuture = mConnection.send(hubData);
+        final SignalRFuture<Void> sendFuture = mConnection.send(writeInvocation(callbackId, method, jsonArguments));
 
         resultFuture.onCancelled(new Runnable() {
 
@@ -308,12 +319,15 @@ public class HubProxy {
             throw new IllegalArgumentException("args cannot be null");
         }
 
-        log("Invoking method on hub: " + method, LogLevel.Information);
+        if (isLoggable(LogLevel.Information)) {
+            log("Invoking method on hub: " + method, LogLevel.Information);
+        }
 
-        JsonElement[] jsonArguments = new JsonElement[args.length];
+        JsonCodec codec = mConnection.getCodec();
+        String[] jsonArguments = new String[args.length];
 
         for (int i = 0; i < args.length; i++) {
-            jsonArguments[i] = mConnection.getGson().toJsonTree(args[i]);
+            jsonArguments[i] = codec.toJson(args[i]);
         }
 
         final SignalRFuture<E> resultFuture = new SignalRFuture<E>();
@@ -322,7 +336,9 @@ public class HubProxy {
 
             @Override
             public void run(HubResult result) {
-                log("Executing invocation callback for: " + method, LogLevel.Information);
+                if (isLoggable(LogLevel.Information)) {
+                    log("Executing invocation callback for: " + method, LogLevel.Information);
+                }
                 if (result != null) {
                     if (result.getError() != null) {
                         if (result.isHubException()) {
@@ -341,8 +357,10 @@ public class HubProxy {
                             }
 
                             if (result.getResult() != null && resultType != null) {
-                                log("Found result invoking method on hub: " + result.getResult(), LogLevel.Information);
-                                resultObject = mConnection.getGson().fromJson(result.getResult(), resultType);
+                                if (isPayloadLoggable(LogLevel.Information)) {
+                                    log("Found result invoking method on hub: " + result.getResult(), LogLevel.Information);
+                                }
+                                resultObject = mConnection.getCodec().fromJson(new GsonValue(result.getResult()), resultType);
                             }
                         } catch (Exception e) {
                             errorHappened = true;
@@ -361,17 +379,7 @@ public class HubProxy {
             }
         });
 
-        HubInvocation hubData = new HubInvocation();
-        hubData.setHub(mHubName);
-        hubData.setMethod(method);
-        hubData.setArgs(jsonArguments);
-        hubData.setCallbackId(callbackId);
-
-        if (mState.size() != 0) {
-            hubData.setState(mState);
-        }
-
-        final SignalRFuture<Void> sendFuture = mConnection.send(hubData);
+        final SignalRFuture<Void> sendFuture = mConnection.send(writeInvocation(callbackId, method, jsonArguments));
 
         resultFuture.onCancelled(new Runnable() {
 
@@ -392,6 +400,57 @@ public class HubProxy {
         return resultFuture;
     }
 
+    /**
+     * Writes a hub invocation, with its arguments already encoded by the codec
+     */
+    private String writeInvocation(String callbackId, String method, String[] jsonArguments) {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("{\"I\":");
+        JsonArgument.appendString(callbackId, sb);
+        sb.append(",\"H\":");
+        JsonArgument.appendString(mHubName, sb);
+        sb.append(",\"M\":");
+        JsonArgument.appendString(method, sb);
+
+        sb.append(",\"A\":[");
+        for (int i = 0; i < jsonArguments.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+
+            sb.append(jsonArguments[i]);
+        }
+        sb.append(']');
+
+        synchronized (mState) {
+            if (mState.size() != 0) {
+                sb.append(",\"S\":{");
+
+                boolean first = true;
+                for (Map.Entry<String, JsonElement> entry : mState.entrySet()) {
+                    if (entry.getValue() == null || entry.getValue().isJsonNull()) {
+                        continue;
+                    }
+
+                    if (!first) {
+                        sb.append(',');
+                    }
+
+                    JsonArgument.appendString(entry.getKey(), sb);
+                    sb.append(':').append(entry.getValue().toString());
+                    first = false;
+                }
+
+                sb.append('}');
+            }
+        }
+
+        sb.append('}');
+
+        return sb.toString();
+    }
+
     /**
      * Invokes a hub event with argument
      * 
@@ -401,7 +460,7 @@ public class HubProxy {
      *            The event args
      * @throws Exception
      */
-    void invokeEvent(String eventName, JsonElement[] args) throws Exception {
+    void invokeEvent(String eventName, JsonArgument[] args) throws Exception {
         if (eventName == null) {
             throw new IllegalArgumentException("eventName cannot be null");
         }
@@ -414,40 +473,50 @@ public class HubProxy {
         }
     }
 
+    /**
+     * Returns true if the event has a subscription
+     * 
+     * @param eventName
+     *            The name of the event
+     */
+    boolean hasSubscription(String eventName) {
+        return mSubscriptions.containsKey(eventName.toLowerCase(Locale.getDefault()));
+    }
+
     private <E1, E2, E3, E4, E5> void on(String eventName, final SubscriptionHandler5<E1, E2, E3, E4, E5> handler, final Class<?>... parameterTypes) {
         if (handler == null) {
             throw new IllegalArgumentException("handler cannot be null");
         }
 
         Subscription subscription = subscribe(eventName);
-        subscription.addReceivedHandler(new Action<JsonElement[]>() {
+        subscription.addRawReceivedHandler(new Action<JsonArgument[]>() {
 
             @Override
-            public void run(JsonElement[] eventParameters) throws Exception {
-                Method method = null;
-
-                for (Method m : handler.getClass().getMethods()) {
-                    if (m.getName().equals(SUBSCRIPTION_HANDLER_METHOD)) {
-                        method = m;
-                        break;
-                    }
-                }
-
+            public void run(JsonArgument[] eventParameters) throws Exception {
                 if (parameterTypes.length != eventParameters.length) {
                     throw new RuntimeException("The handler has " + parameterTypes.length + " parameters, but there are " + eventParameters.length + " values.");
                 }
 
-                Object[] parameters = new Object[5];
-
-                for (int i = 0; i < eventParameters.length; i++) {
-                    parameters[i] = mConnection.getGson().fromJson(eventParameters[i], parameterTypes[i]);
-                }
-                method.setAccessible(true);
-                method.invoke(handler, parameters);
+                // the handler is called through its interface, the unused
+                // parameters are null
+                JsonCodec codec = mConnection.getCodec();
+                handler.run(HubProxy.<E1> getParameter(eventParameters, parameterTypes, 0, codec),
+                        HubProxy.<E2> getParameter(eventParameters, parameterTypes, 1, codec),
+                        HubProxy.<E3> getParameter(eventParameters, parameterTypes, 2, codec),
+                        HubProxy.<E4> getParameter(eventParameters, parameterTypes, 3, codec),
+                        HubProxy.<E5> getParameter(eventParameters, parameterTypes, 4, codec));
             }
         });
     }
 
+    private static <T> T getParameter(JsonArgument[] eventParameters, Class<?>[] parameterTypes, int index, JsonCodec codec) {
+        if (index >= eventParameters.length) {
+            return null;
+        }
+
+        return eventParameters[index].<T> getAs(parameterTypes[index], codec);
+    }
+
     public <E1, E2, E3, E4, E5> void on(String eventName, final SubscriptionHandler5<E1, E2, E3, E4, E5> handler, Class<E1> parameter1, Class<E2> parameter2,
             Class<E3> parameter3, Class<E4> parameter4, Class<E5> parameter5) {
         on(eventName, new SubscriptionHandler5<E1, E2, E3, E4, E5>() {
@@ -512,8 +581,23 @@ public class HubProxy {
     }
 
     protected void log(String message, LogLevel level) {
-        if (message != null & mLogger != null) {
+        if (message != null && isLoggable(level)) {
             mLogger.log("HubProxy " + mHubName + " - " + message, level);
         }
     }
+
+    /**
+     * Returns true if the messages of a level are logged
+     */
+    protected boolean isLoggable(LogLevel level) {
+        return LogHelper.isLoggable(mLogger, level);
+    }
+
+    /**
+     * Returns true if the messages of a level are logged with the data
+     * exchanged with the server
+     */
+    protected boolean isPayloadLoggable(LogLevel level) {
+        return LogHelper.isPayloadLoggable(mLogger, level);
+    }
 }
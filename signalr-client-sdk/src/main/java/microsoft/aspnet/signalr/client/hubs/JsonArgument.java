@@ -0,0 +1,239 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.hubs;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import microsoft.aspnet.signalr.client.GsonValue;
+import microsoft.aspnet.signalr.client.JsonCodec;
+import microsoft.aspnet.signalr.client.JsonStreamReader;
+
+/**
+ * Argument of a hub event, kept as the JSON text received from the server.
+ * 
+ * The argument is only decoded when a handler asks for it, straight from the
+ * text to the type of the handler parameter, so the arguments of the events
+ * nobody handles are never decoded.
+ */
+public class JsonArgument {
+
+    private static final char[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+    private String mJson;
+    private JsonElement mElement;
+
+    /**
+     * Initializes the argument with its JSON text
+     * 
+     * @param json
+     *            The JSON text of the argument
+     */
+    public JsonArgument(String json) {
+        if (json == null) {
+            throw new IllegalArgumentException("json");
+        }
+
+        mJson = json;
+    }
+
+    /**
+     * Initializes the argument with an already parsed value
+     * 
+     * @param element
+     *            The value of the argument
+     */
+    public JsonArgument(JsonElement element) {
+        if (element == null) {
+            throw new IllegalArgumentException("element");
+        }
+
+        mElement = element;
+    }
+
+    /**
+     * Returns the JSON text of the argument
+     */
+    public String getJson() {
+        if (mJson == null) {
+            mJson = mElement.toString();
+        }
+
+        return mJson;
+    }
+
+    /**
+     * Returns the argument as a JsonElement. The element is parsed once
+     */
+    public JsonElement getAsJsonElement() {
+        if (mElement == null) {
+            mElement = new JsonParser().parse(mJson);
+        }
+
+        return mElement;
+    }
+
+    /**
+     * Decodes the argument
+     * 
+     * @param type
+     *            The type to decode
+     * @param codec
+     *            The codec used to decode
+     * @return The decoded value
+     */
+    public <T> T getAs(Type type, JsonCodec codec) {
+        if (mElement != null) {
+            return codec.<T> fromJson(new GsonValue(mElement), type);
+        }
+
+        return codec.<T> fromJson(mJson, type);
+    }
+
+    @Override
+    public String toString() {
+        return getJson();
+    }
+
+    /**
+     * Reads the next value of a reader as an argument, copying its JSON text
+     * without building a tree
+     * 
+     * @param reader
+     *            The reader, positioned at the start of the value
+     * @return The argument
+     * @throws IOException
+     *             If reading the value fails
+     */
+    static JsonArgument read(JsonStreamReader reader) throws IOException {
+        switch (reader.peek()) {
+        case String:
+            // a primitive is no bigger than its text and is decoded without
+            // a new reader
+            return new JsonArgument(new JsonPrimitive(reader.nextString()));
+
+        case Boolean:
+            return new JsonArgument(new JsonPrimitive(reader.nextBoolean()));
+
+        case Null:
+            reader.nextNull();
+            return new JsonArgument(JsonNull.INSTANCE);
+
+        default:
+            StringBuilder json = new StringBuilder();
+            copyValue(reader, json);
+
+            return new JsonArgument(json.toString());
+        }
+    }
+
+    private static void copyValue(JsonStreamReader reader, StringBuilder json) throws IOException {
+        switch (reader.peek()) {
+        case BeginArray:
+            reader.beginArray();
+            json.append('[');
+
+            boolean first = true;
+            while (reader.hasNext()) {
+                if (!first) {
+                    json.append(',');
+                }
+
+                copyValue(reader, json);
+                first = false;
+            }
+
+            reader.endArray();
+            json.append(']');
+            break;
+
+        case BeginObject:
+            reader.beginObject();
+            json.append('{');
+
+            boolean firstMember = true;
+            while (reader.hasNext()) {
+                if (!firstMember) {
+                    json.append(',');
+                }
+
+                appendString(reader.nextName(), json);
+                json.append(':');
+                copyValue(reader, json);
+                firstMember = false;
+            }
+
+            reader.endObject();
+            json.append('}');
+            break;
+
+        case String:
+            appendString(reader.nextString(), json);
+            break;
+
+        case Number:
+            // the number is copied as it was written
+            json.append(reader.nextString());
+            break;
+
+        case Boolean:
+            json.append(reader.nextBoolean());
+            break;
+
+        case Null:
+            reader.nextNull();
+            json.append("null");
+            break;
+
+        default:
+            throw new IllegalStateException("Unexpected token: " + reader.peek());
+        }
+    }
+
+    /**
+     * Appends a string to JSON text, quoted and escaped
+     */
+    static void appendString(String value, StringBuilder json) {
+        json.append('"');
+
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+
+            switch (c) {
+            case '"':
+                json.append("\\\"");
+                break;
+            case '\\':
+                json.append("\\\\");
+                break;
+            case '\n':
+                json.append("\\n");
+                break;
+            case '\r':
+                json.append("\\r");
+                break;
+            case '\t':
+                json.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    json.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xf]);
+                } else {
+                    json.append(c);
+                }
+            }
+        }
+
+        json.append('"');
+    }
+}
@@ -17,7 +17,7 @@ import com.google.gson.JsonElement;
  * Represents a subscription to a message
  */
 public class Subscription {
-    private List<Action<JsonElement[]>> mReceived = new ArrayList<Action<JsonElement[]>>();
+    private List<Action<JsonArgument[]>> mReceived = new ArrayList<Action<JsonArgument[]>>();
 
     /**
      * Triggers the "Received" event
@@ -26,8 +26,8 @@ public class Subscription {
      *            Event data
      * @throws Exception
      */
-    void onReceived(JsonElement[] data) throws Exception {
-        for (Action<JsonElement[]> handler : mReceived) {
+    void onReceived(JsonArgument[] data) throws Exception {
+        for (Action<JsonArgument[]> handler : mReceived) {
             handler.run(data);
         }
     }
@@ -38,7 +38,29 @@ public class Subscription {
      * @param received
      *            Event handler
      */
-    public void addReceivedHandler(Action<JsonElement[]> received) {
+    public void addReceivedHandler(final Action<JsonElement[]> received) {
+        mReceived.add(new Action<JsonArgument[]>() {
+
+            @Override
+            public void run(JsonArgument[] data) throws Exception {
+                JsonElement[] elements = new JsonElement[data.length];
+                for (int i = 0; i < data.length; i++) {
+                    elements[i] = data[i].getAsJsonElement();
+                }
+
+                received.run(elements);
+            }
+        });
+    }
+
+    /**
+     * Add a handler to the "Received" event that gets the arguments
+     * undecoded, so it only decodes the ones it needs
+     * 
+     * @param received
+     *            Event handler
+     */
+    public void addRawReceivedHandler(Action<JsonArgument[]> received) {
         mReceived.add(received);
     }
 }
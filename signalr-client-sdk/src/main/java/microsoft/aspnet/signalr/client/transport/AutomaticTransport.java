@@ -6,25 +6,106 @@ See License.txt in the project root for license information.
 
 package microsoft.aspnet.signalr.client.transport;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import microsoft.aspnet.signalr.client.Action;
 import microsoft.aspnet.signalr.client.ErrorCallback;
 import microsoft.aspnet.signalr.client.LogLevel;
 import microsoft.aspnet.signalr.client.SignalRFuture;
+import microsoft.aspnet.signalr.client.Connection;
 import microsoft.aspnet.signalr.client.ConnectionBase;
 import microsoft.aspnet.signalr.client.Logger;
 import microsoft.aspnet.signalr.client.NullLogger;
 import microsoft.aspnet.signalr.client.http.HttpConnection;
 
 /**
- * ClientTransport implementation that selects the best available transport
+ * ClientTransport implementation that selects the best available transport.
+ * 
+ * The transports are tried in order, skipping WebSockets when the negotiation
+ * says the server doesn't support them, and each transport is only created
+ * when it is tried for the first time. The transport that connected to an
+ * endpoint is remembered and tried first on the next connections to it.
+ * 
+ * When racing is enabled, the next transport is started when the current one
+ * didn't connect within the stagger delay, without waiting for it to fail, and
+ * the first one to connect is used. The others are cancelled.
+ * 
+ * With a TransportSelectionCache, the choice also survives restarts. When the
+ * cached transport isn't the preferred one, the better transports are probed
+ * in the background from time to time, and the next connections use the
+ * first one that works.
  */
 public class AutomaticTransport extends HttpClientTransport {
 
-    private List<ClientTransport> mTransports;
-    private ClientTransport mRealTransport;
+    /**
+     * Default time to wait for a transport to connect before starting the
+     * next one when racing
+     */
+    public static final int DEFAULT_STAGGER_DELAY_MILLIS = 1000;
+
+    /**
+     * Time to wait for a probe connection to start
+     */
+    public static final int PROBE_TIMEOUT_MILLIS = 30 * 1000;
+
+    private static final String STAGGER_THREAD_NAME = "SignalR-AutomaticTransport-Stagger";
+
+    private static final String PROBE_THREAD_NAME = "SignalR-AutomaticTransport-Probe";
+
+    private static final String WEBSOCKETS_TRANSPORT_NAME = "webSockets";
+
+    /**
+     * Number of endpoints whose winning transport is remembered. The ones
+     * used least recently are forgotten first
+     */
+    public static final int MAX_WINNING_TRANSPORTS = 64;
+
+    private static Map<String, String> mWinningTransports = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_WINNING_TRANSPORTS;
+        }
+    };
+
+    private static ScheduledThreadPoolExecutor mStaggerTimer = null;
+
+    /**
+     * Creates the transports tried by an AutomaticTransport
+     */
+    public interface TransportFactory {
+        /**
+         * Returns the name of the transports created by the factory
+         */
+        public String getTransportName();
+
+        /**
+         * Creates a transport
+         * 
+         * @param logger
+         *            The logger of the transport
+         */
+        public ClientTransport createTransport(Logger logger);
+    }
+
+    private Logger mLogger;
+    private List<TransportFactory> mFactories;
+    private ClientTransport[] mTransports;
+    private volatile ClientTransport mRealTransport;
+    private volatile boolean mTryWebSockets = true;
+    private volatile boolean mRacing = false;
+    private volatile int mStaggerDelayMillis = DEFAULT_STAGGER_DELAY_MILLIS;
+    private volatile TransportSelectionCache mSelectionCache = null;
 
     /**
      * Initializes the transport with a NullLogger
@@ -41,7 +122,7 @@ public class AutomaticTransport extends HttpClientTransport {
      */
     public AutomaticTransport(Logger logger) {
         super(logger);
-        initialize(logger);
+        initialize(logger, getDefaultFactories());
     }
 
     /**
@@ -53,102 +134,206 @@ public class AutomaticTransport extends HttpClientTransport {
      *            the httpConnection
      */
     public AutomaticTransport(Logger logger, HttpConnection httpConnection) {
-        super(logger, httpConnection);
-        initialize(logger);
+        this(logger, httpConnection, getDefaultFactories());
     }
 
-    private void initialize(Logger logger) {
-        mTransports = new ArrayList<ClientTransport>();
-        mTransports.add(new WebsocketTransport(logger));
-        mTransports.add(new ServerSentEventsTransport(logger));
-        mTransports.add(new LongPollingTransport(logger));
+    /**
+     * Initializes the transport with a logger, an httpConnection and the
+     * transports to try
+     * 
+     * @param logger
+     *            the logger
+     * @param httpConnection
+     *            the httpConnection
+     * @param factories
+     *            the factories of the transports to try, in order
+     */
+    public AutomaticTransport(Logger logger, HttpConnection httpConnection, List<TransportFactory> factories) {
+        super(logger, httpConnection);
+        initialize(logger, factories);
     }
 
-    @Override
-    public String getName() {
-        if (mRealTransport == null) {
-            return "AutomaticTransport";
+    private void initialize(Logger logger, List<TransportFactory> factories) {
+        if (factories == null || factories.isEmpty()) {
+            throw new IllegalArgumentException("factories");
         }
 
-        return mRealTransport.getName();
+        mLogger = logger;
+        mFactories = new ArrayList<TransportFactory>(factories);
+        mTransports = new ClientTransport[mFactories.size()];
     }
 
-    @Override
-    public boolean supportKeepAlive() {
-        if (mRealTransport != null) {
-            return mRealTransport.supportKeepAlive();
-        }
+    private static List<TransportFactory> getDefaultFactories() {
+        List<TransportFactory> factories = new ArrayList<TransportFactory>();
 
-        return false;
-    }
+        factories.add(new TransportFactory() {
+
+            @Override
+            public String getTransportName() {
+                return WEBSOCKETS_TRANSPORT_NAME;
+            }
 
-    private void resolveTransport(final ConnectionBase connection, final ConnectionType connectionType, final DataResultCallback callback,
-            final int currentTransportIndex, final SignalRFuture<Void> startFuture) {
-        final ClientTransport currentTransport = mTransports.get(currentTransportIndex);
+            @Override
+            public ClientTransport createTransport(Logger logger) {
+                return new WebsocketTransport(logger);
+            }
+        });
 
-        final SignalRFuture<Void> transportStart = currentTransport.start(connection, connectionType, callback);
+        factories.add(new TransportFactory() {
 
-        transportStart.done(new Action<Void>() {
+            @Override
+            public String getTransportName() {
+                return "serverSentEvents";
+            }
 
             @Override
-            public void run(Void obj) throws Exception {
-                // set the real transport and trigger end the start future
-                mRealTransport = currentTransport;
-                startFuture.setResult(null);
+            public ClientTransport createTransport(Logger logger) {
+                return new ServerSentEventsTransport(logger);
             }
         });
 
-        final ErrorCallback handleError = new ErrorCallback() {
+        factories.add(new TransportFactory() {
 
             @Override
-            public void onError(Throwable error) {
-
-                // if the transport is already started, forward the error
-                if (mRealTransport != null) {
-                    startFuture.triggerError(error);
-                    return;
-                }
+            public String getTransportName() {
+                return "longPolling";
+            }
 
-                log(String.format("Auto: Faild to connect using transport %s. %s", currentTransport.getName(), error.toString()), LogLevel.Information);
-                int next = currentTransportIndex + 1;
-                if (next < mTransports.size()) {
-                    resolveTransport(connection, connectionType, callback, next, startFuture);
-                } else {
-                    startFuture.triggerError(error);
-                }
+            @Override
+            public ClientTransport createTransport(Logger logger) {
+                return new LongPollingTransport(logger);
             }
-        };
+        });
 
-        transportStart.onError(handleError);
-        
-        startFuture.onCancelled(new Runnable() {
+        return factories;
+    }
 
-            @Override
-            public void run() {
-                // if the transport is already started, forward the cancellation
-                if (mRealTransport != null) {
-                    transportStart.cancel();
-                    return;
-                }
+    /**
+     * Sets whether the transports are raced. When they are, the next
+     * transport is started when the current one didn't connect within the
+     * stagger delay
+     * 
+     * @param racing
+     *            True to race the transports
+     */
+    public void setRacing(boolean racing) {
+        mRacing = racing;
+    }
+
+    /**
+     * Returns whether the transports are raced
+     */
+    public boolean isRacing() {
+        return mRacing;
+    }
+
+    /**
+     * Sets the time to wait for a transport to connect before starting the
+     * next one when racing
+     * 
+     * @param staggerDelayMillis
+     *            The delay in milliseconds
+     */
+    public void setStaggerDelay(int staggerDelayMillis) {
+        if (staggerDelayMillis < 0) {
+            throw new IllegalArgumentException("staggerDelayMillis");
+        }
+
+        mStaggerDelayMillis = staggerDelayMillis;
+    }
+
+    /**
+     * Returns the time to wait for a transport to connect before starting the
+     * next one when racing
+     */
+    public int getStaggerDelay() {
+        return mStaggerDelayMillis;
+    }
+
+    /**
+     * Sets the cache that persists the transport chosen for each endpoint
+     * 
+     * @param selectionCache
+     *            The cache, or null to only remember the choices in memory
+     */
+    public void setSelectionCache(TransportSelectionCache selectionCache) {
+        mSelectionCache = selectionCache;
+    }
+
+    /**
+     * Returns the cache that persists the transport chosen for each endpoint,
+     * or null
+     */
+    public TransportSelectionCache getSelectionCache() {
+        return mSelectionCache;
+    }
+
+    /**
+     * Forgets the transports that connected to each endpoint. They are kept
+     * for the last MAX_WINNING_TRANSPORTS endpoints used by the process, so
+     * an app that stops using a set of endpoints can free them earlier
+     */
+    public static void clearWinningTransports() {
+        synchronized (mWinningTransports) {
+            mWinningTransports.clear();
+        }
+    }
 
-                handleError.onError(new Exception("Operation cancelled"));
+    @Override
+    public String getName() {
+        ClientTransport realTransport = mRealTransport;
+        if (realTransport == null) {
+            return "AutomaticTransport";
+        }
+
+        return realTransport.getName();
+    }
+
+    @Override
+    public boolean supportKeepAlive() {
+        ClientTransport realTransport = mRealTransport;
+        if (realTransport != null) {
+            return realTransport.supportKeepAlive();
+        }
+
+        return false;
+    }
+
+    @Override
+    public SignalRFuture<NegotiationResponse> negotiate(ConnectionBase connection) {
+        SignalRFuture<NegotiationResponse> negotiationFuture = super.negotiate(connection);
+
+        negotiationFuture.done(new Action<NegotiationResponse>() {
+
+            @Override
+            public void run(NegotiationResponse negotiationResponse) throws Exception {
+                mTryWebSockets = negotiationResponse.shouldTryWebSockets();
             }
         });
+
+        return negotiationFuture;
     }
 
     @Override
     public SignalRFuture<Void> start(final ConnectionBase connection, final ConnectionType connectionType, final DataResultCallback callback) {
         SignalRFuture<Void> startFuture = new SignalRFuture<Void>();
 
-        resolveTransport(connection, connectionType, callback, 0, startFuture);
+        List<Integer> candidates = getCandidates(connection.getUrl());
+        if (candidates.isEmpty()) {
+            startFuture.triggerError(new Exception("There are no transports to try"));
+            return startFuture;
+        }
+
+        new Race(connection, connectionType, callback, candidates, startFuture).startNext();
 
         return startFuture;
     }
 
     @Override
     public SignalRFuture<Void> send(ConnectionBase connection, String data, DataResultCallback callback) {
-        if (mRealTransport != null) {
-            return mRealTransport.send(connection, data, callback);
+        ClientTransport realTransport = mRealTransport;
+        if (realTransport != null) {
+            return realTransport.send(connection, data, callback);
         }
 
         return null;
@@ -156,10 +341,386 @@ public class AutomaticTransport extends HttpClientTransport {
 
     @Override
     public SignalRFuture<Void> abort(ConnectionBase connection) {
-        if (mRealTransport != null) {
-            return mRealTransport.abort(connection);
+        ClientTransport realTransport = mRealTransport;
+        if (realTransport != null) {
+            return realTransport.abort(connection);
         }
 
         return null;
     }
+
+    /**
+     * Returns the indexes of the transports to try, starting with the one that
+     * last connected to the endpoint
+     */
+    private List<Integer> getCandidates(String endpoint) {
+        String winner = null;
+
+        TransportSelectionCache selectionCache = mSelectionCache;
+        if (selectionCache != null) {
+            winner = selectionCache.getTransport(endpoint);
+        }
+
+        if (winner == null) {
+            synchronized (mWinningTransports) {
+                winner = mWinningTransports.get(endpoint);
+            }
+        }
+
+        List<Integer> candidates = new ArrayList<Integer>();
+
+        for (int i = 0; i < mFactories.size(); i++) {
+            String name = mFactories.get(i).getTransportName();
+
+            if (!mTryWebSockets && WEBSOCKETS_TRANSPORT_NAME.equals(name)) {
+                if (isLoggable(LogLevel.Verbose)) {
+                    log("Auto: Skipping " + name + " because the server doesn't support it", LogLevel.Verbose);
+                }
+                continue;
+            }
+
+            if (name.equals(winner)) {
+                candidates.add(0, i);
+            } else {
+                candidates.add(i);
+            }
+        }
+
+        return candidates;
+    }
+
+    /**
+     * Probes, on a background thread, the transports preferred to the one
+     * that connected. The first one that works is stored in the cache and
+     * used by the next connections
+     */
+    private void probeBetterTransports(final ConnectionBase connection, String connectedTransport, final TransportSelectionCache selectionCache) {
+        final List<TransportFactory> betterFactories = new ArrayList<TransportFactory>();
+
+        for (TransportFactory factory : mFactories) {
+            if (factory.getTransportName().equals(connectedTransport)) {
+                break;
+            }
+
+            if (mTryWebSockets || !WEBSOCKETS_TRANSPORT_NAME.equals(factory.getTransportName())) {
+                betterFactories.add(factory);
+            }
+        }
+
+        if (betterFactories.isEmpty() || !selectionCache.startProbe(connection.getUrl())) {
+            return;
+        }
+
+        Thread probeThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                for (TransportFactory factory : betterFactories) {
+                    if (isLoggable(LogLevel.Verbose)) {
+                        log("Auto: Probing transport " + factory.getTransportName(), LogLevel.Verbose);
+                    }
+
+                    if (probeTransport(connection, factory.createTransport(mLogger))) {
+                        if (isLoggable(LogLevel.Information)) {
+                            log("Auto: Transport " + factory.getTransportName() + " works again", LogLevel.Information);
+                        }
+                        selectionCache.onConnected(connection.getUrl(), factory.getTransportName());
+                        return;
+                    }
+                }
+            }
+        }, PROBE_THREAD_NAME);
+
+        probeThread.setDaemon(true);
+        probeThread.start();
+    }
+
+    /**
+     * Checks if a transport can connect to the endpoint of a connection, with
+     * a separate connection that is stopped right away
+     * 
+     * @param connection
+     *            The connection whose endpoint is probed
+     * @param transport
+     *            The transport to probe
+     * @return True if the transport connected
+     */
+    protected boolean probeTransport(ConnectionBase connection, ClientTransport transport) {
+        Connection probe = new Connection(connection.getUrl(), connection.getQueryString(), mLogger);
+        probe.setCredentials(connection.getCredentials());
+        probe.getHeaders().putAll(connection.getHeaders());
+
+        try {
+            probe.start(transport).get(PROBE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (Exception e) {
+            return false;
+        } finally {
+            probe.stop();
+        }
+    }
+
+    private synchronized ClientTransport getTransport(int index) {
+        if (mTransports[index] == null) {
+            mTransports[index] = mFactories.get(index).createTransport(mLogger);
+        }
+
+        return mTransports[index];
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getStaggerTimer() {
+        if (mStaggerTimer == null) {
+            mStaggerTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, STAGGER_THREAD_NAME);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return mStaggerTimer;
+    }
+
+    /**
+     * Start of the candidate transports for one connection attempt
+     */
+    private class Race {
+        private ConnectionBase mConnection;
+        private ConnectionType mConnectionType;
+        private DataResultCallback mCallback;
+        private List<Integer> mCandidates;
+        private SignalRFuture<Void> mStartFuture;
+
+        private Object mLock = new Object();
+        private int mNextCandidate = 0;
+        private int mPendingCount = 0;
+        private boolean mFinished = false;
+        private ClientTransport mWinner = null;
+        private ScheduledFuture<?> mStaggerTask = null;
+        private List<SignalRFuture<Void>> mPendingStarts = new ArrayList<SignalRFuture<Void>>();
+
+        Race(ConnectionBase connection, ConnectionType connectionType, DataResultCallback callback, List<Integer> candidates, SignalRFuture<Void> startFuture) {
+            mConnection = connection;
+            mConnectionType = connectionType;
+            mCallback = callback;
+            mCandidates = candidates;
+            mStartFuture = startFuture;
+
+            startFuture.onCancelled(new Runnable() {
+
+                @Override
+                public void run() {
+                    List<SignalRFuture<Void>> pendingStarts;
+
+                    // if the transport is already started, the cancellation
+                    // is forwarded to it. Otherwise every pending start is
+                    // cancelled
+                    synchronized (mLock) {
+                        if (mFinished && mWinner == null) {
+                            return;
+                        }
+
+                        mFinished = true;
+                        cancelStaggerTask();
+                        pendingStarts = new ArrayList<SignalRFuture<Void>>(mPendingStarts);
+                    }
+
+                    for (SignalRFuture<Void> pendingStart : pendingStarts) {
+                        pendingStart.cancel();
+                    }
+                }
+            });
+        }
+
+        void startNext() {
+            final ClientTransport transport;
+
+            synchronized (mLock) {
+                if (mFinished || mNextCandidate == mCandidates.size()) {
+                    return;
+                }
+
+                transport = getTransport(mCandidates.get(mNextCandidate++));
+                mPendingCount++;
+
+                if (mRacing && mNextCandidate < mCandidates.size()) {
+                    scheduleNext();
+                }
+            }
+
+            if (isLoggable(LogLevel.Verbose)) {
+                log("Auto: Trying transport " + transport.getName(), LogLevel.Verbose);
+            }
+
+            final SignalRFuture<Void> transportStart = transport.start(mConnection, mConnectionType, createCallback(transport));
+
+            synchronized (mLock) {
+                mPendingStarts.add(transportStart);
+            }
+
+            transportStart.done(new Action<Void>() {
+
+                @Override
+                public void run(Void obj) throws Exception {
+                    onStarted(transport, transportStart);
+                }
+            });
+
+            transportStart.onError(new ErrorCallback() {
+
+                @Override
+                public void onError(Throwable error) {
+                    onFailed(transport, transportStart, error);
+                }
+            });
+        }
+
+        /**
+         * Creates the callback of a candidate, which ignores the data
+         * received by the candidates that lost the race
+         */
+        private DataResultCallback createCallback(final ClientTransport transport) {
+            if (mCallback instanceof StreamDataResultCallback) {
+                final StreamDataResultCallback streamCallback = (StreamDataResultCallback) mCallback;
+
+                return new StreamDataResultCallback() {
+
+                    @Override
+                    public void onData(String data) {
+                        if (isCurrent(transport)) {
+                            streamCallback.onData(data);
+                        }
+                    }
+
+                    @Override
+                    public void onData(InputStream data) throws IOException {
+                        if (isCurrent(transport)) {
+                            streamCallback.onData(data);
+                        }
+                    }
+                };
+            }
+
+            return new DataResultCallback() {
+
+                @Override
+                public void onData(String data) {
+                    if (isCurrent(transport)) {
+                        mCallback.onData(data);
+                    }
+                }
+            };
+        }
+
+        private boolean isCurrent(ClientTransport transport) {
+            synchronized (mLock) {
+                return mWinner == null || mWinner == transport;
+            }
+        }
+
+        private void scheduleNext() {
+            mStaggerTask = getStaggerTimer().schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (isLoggable(LogLevel.Verbose)) {
+                        log("Auto: No transport connected within " + mStaggerDelayMillis + "ms, starting the next one", LogLevel.Verbose);
+                    }
+                    startNext();
+                }
+            }, mStaggerDelayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void cancelStaggerTask() {
+            if (mStaggerTask != null) {
+                mStaggerTask.cancel(false);
+                mStaggerTask = null;
+            }
+        }
+
+        private void onStarted(ClientTransport transport, SignalRFuture<Void> transportStart) {
+            List<SignalRFuture<Void>> losers;
+
+            synchronized (mLock) {
+                mPendingStarts.remove(transportStart);
+
+                if (mFinished) {
+                    // another transport won the race
+                    transportStart.cancel();
+                    return;
+                }
+
+                mFinished = true;
+                cancelStaggerTask();
+
+                // set the real transport and trigger end the start future
+                mWinner = transport;
+                mRealTransport = transport;
+
+                losers = new ArrayList<SignalRFuture<Void>>(mPendingStarts);
+                mPendingStarts.clear();
+                mPendingStarts.add(transportStart);
+            }
+
+            synchronized (mWinningTransports) {
+                mWinningTransports.put(mConnection.getUrl(), transport.getName());
+            }
+
+            TransportSelectionCache selectionCache = mSelectionCache;
+            if (selectionCache != null) {
+                selectionCache.onConnected(mConnection.getUrl(), transport.getName());
+                probeBetterTransports(mConnection, transport.getName(), selectionCache);
+            }
+
+            for (SignalRFuture<Void> loser : losers) {
+                loser.cancel();
+            }
+
+            if (isLoggable(LogLevel.Information)) {
+                log("Auto: Connected using transport " + transport.getName(), LogLevel.Information);
+            }
+            mStartFuture.setResult(null);
+        }
+
+        private void onFailed(ClientTransport transport, SignalRFuture<Void> transportStart, Throwable error) {
+            boolean startNext = false;
+            boolean failed = false;
+
+            synchronized (mLock) {
+                // if the transport is already started, forward the error
+                if (mWinner == transport) {
+                    failed = true;
+                } else if (!mFinished) {
+                    if (isLoggable(LogLevel.Information)) {
+                        log(String.format("Auto: Faild to connect using transport %s. %s", transport.getName(), error.toString()), LogLevel.Information);
+                    }
+
+                    TransportSelectionCache selectionCache = mSelectionCache;
+                    if (selectionCache != null) {
+                        selectionCache.onFailed(mConnection.getUrl(), transport.getName());
+                    }
+
+                    mPendingStarts.remove(transportStart);
+                    mPendingCount--;
+
+                    if (mNextCandidate < mCandidates.size()) {
+                        cancelStaggerTask();
+                        startNext = true;
+                    } else if (mPendingCount == 0) {
+                        mFinished = true;
+                        failed = true;
+                    }
+                }
+            }
+
+            if (startNext) {
+                startNext();
+            } else if (failed) {
+                mStartFuture.triggerError(error);
+            }
+        }
+    }
 }
@@ -7,11 +7,16 @@ See License.txt in the project root for license information.
 package microsoft.aspnet.signalr.client.transport;
 
 import java.io.IOException;
+import java.util.LinkedList;
 
+import microsoft.aspnet.signalr.client.Action;
+import microsoft.aspnet.signalr.client.CodecHelper;
+import microsoft.aspnet.signalr.client.ErrorCallback;
 import microsoft.aspnet.signalr.client.FutureHelper;
 import microsoft.aspnet.signalr.client.SignalRFuture;
 import microsoft.aspnet.signalr.client.ConnectionBase;
 import microsoft.aspnet.signalr.client.Constants;
+import microsoft.aspnet.signalr.client.LogHelper;
 import microsoft.aspnet.signalr.client.LogLevel;
 import microsoft.aspnet.signalr.client.Logger;
 import microsoft.aspnet.signalr.client.Platform;
@@ -21,6 +26,7 @@ import microsoft.aspnet.signalr.client.http.HttpConnectionFuture.ResponseCallbac
 import microsoft.aspnet.signalr.client.http.InvalidHttpStatusCodeException;
 import microsoft.aspnet.signalr.client.http.Request;
 import microsoft.aspnet.signalr.client.http.Response;
+import microsoft.aspnet.signalr.client.http.ResponseHelper;
 
 /**
  * ClientTransport base implementation over Http
@@ -28,12 +34,23 @@ import microsoft.aspnet.signalr.client.http.Response;
 public abstract class HttpClientTransport implements ClientTransport {
     protected static final int BUFFER_SIZE = 1024;
 
+    /**
+     * Default maximum number of send requests in flight
+     */
+    public static final int DEFAULT_SEND_WINDOW = 4;
+
     protected HttpConnection mHttpConnection;
     protected boolean mStartedAbort = false;
     protected SignalRFuture<Void> mAbortFuture = null;
 
     private Logger mLogger;
 
+    private Object mSendLock = new Object();
+    private LinkedList<PendingSend> mPendingSends = new LinkedList<PendingSend>();
+    private int mSendsInFlight = 0;
+    private int mSendWindow = DEFAULT_SEND_WINDOW;
+    private boolean mStartingSends = false;
+
     /**
      * Initializes the HttpClientTransport with a logger
      * 
@@ -53,6 +70,47 @@ public abstract class HttpClientTransport implements ClientTransport {
         mLogger = logger;
     }
 
+    /**
+     * Sets the maximum number of send requests in flight. The requests are
+     * handed to the HttpConnection in the order the messages were sent, and
+     * the messages sent while the window is full are queued. Concurrent
+     * requests can reach the server out of order, and a window of 1 makes
+     * the messages reach the server in order, each send waiting for the
+     * previous one to complete
+     * 
+     * @param sendWindow
+     *            The maximum number of send requests in flight
+     */
+    public void setSendWindow(int sendWindow) {
+        if (sendWindow <= 0) {
+            throw new IllegalArgumentException("sendWindow");
+        }
+
+        synchronized (mSendLock) {
+            mSendWindow = sendWindow;
+        }
+
+        startPendingSends();
+    }
+
+    /**
+     * Returns the maximum number of send requests in flight
+     */
+    public int getSendWindow() {
+        synchronized (mSendLock) {
+            return mSendWindow;
+        }
+    }
+
+    /**
+     * Returns the number of messages waiting for room in the send window
+     */
+    public int getQueuedSendCount() {
+        synchronized (mSendLock) {
+            return mPendingSends.size();
+        }
+    }
+
     @Override
     public SignalRFuture<NegotiationResponse> negotiate(final ConnectionBase connection) {
         log("Start the negotiation with the server", LogLevel.Information);
@@ -78,8 +136,10 @@ public abstract class HttpClientTransport implements ClientTransport {
                     log("Read response data to the end", LogLevel.Verbose);
                     String negotiationContent = response.readToEnd();
 
-                    log("Trigger onSuccess with negotiation data: " + negotiationContent, LogLevel.Verbose);
-                    negotiationFuture.setResult(new NegotiationResponse(negotiationContent, connection.getJsonParser()));
+                    if (isPayloadLoggable(LogLevel.Verbose)) {
+                        log("Trigger onSuccess with negotiation data: " + negotiationContent, LogLevel.Verbose);
+                    }
+                    negotiationFuture.setResult(new NegotiationResponse(negotiationContent, CodecHelper.getCodec(connection)));
 
                 } catch (Throwable e) {
                     log(e);
@@ -96,7 +156,9 @@ public abstract class HttpClientTransport implements ClientTransport {
     @Override
     public SignalRFuture<Void> send(ConnectionBase connection, String data, final DataResultCallback callback) {
         try {
-            log("Start sending data to the server: " + data, LogLevel.Information);
+            if (isPayloadLoggable(LogLevel.Information)) {
+                log("Start sending data to the server: " + data, LogLevel.Information);
+            }
 
             Request post = new Request(Constants.HTTP_POST);
             post.setFormContent("data", data);
@@ -106,25 +168,40 @@ public abstract class HttpClientTransport implements ClientTransport {
 
             connection.prepareRequest(post);
 
-            log("Execute the request", LogLevel.Verbose);
-            HttpConnectionFuture future = mHttpConnection.execute(post, new ResponseCallback() {
+            ResponseCallback responseCallback = new ResponseCallback() {
 
                 @Override
                 public void onResponse(Response response) throws Exception {
                     log("Response received", LogLevel.Verbose);
                     throwOnInvalidStatusCode(response);
 
+                    if (callback instanceof StreamDataResultCallback) {
+                        log("Trigger onData with the response stream", LogLevel.Verbose);
+                        ((StreamDataResultCallback) callback).onData(ResponseHelper.getInputStream(response));
+                        return;
+                    }
+
                     log("Read response to the end", LogLevel.Verbose);
                     String data = response.readToEnd();
 
                     if (data != null) {
-                        log("Trigger onData with data: " + data, LogLevel.Verbose);
+                        if (isPayloadLoggable(LogLevel.Verbose)) {
+                            log("Trigger onData with data: " + data, LogLevel.Verbose);
+                        }
                         callback.onData(data);
                     }
                 }
-            });
+            };
 
-            return future;
+            PendingSend send = new PendingSend(post, responseCallback);
+
+            synchronized (mSendLock) {
+                mPendingSends.addLast(send);
+            }
+
+            startPendingSends();
+
+            return send.mFuture;
         } catch (Throwable e) {
             log(e);
 
@@ -137,6 +214,8 @@ public abstract class HttpClientTransport implements ClientTransport {
 
     @Override
     public SignalRFuture<Void> abort(ConnectionBase connection) {
+        failPendingSends(new IOException("The transport was aborted"));
+
         synchronized (this) {
             if (!mStartedAbort) {
                 log("Started aborting", LogLevel.Information);
@@ -179,6 +258,126 @@ public abstract class HttpClientTransport implements ClientTransport {
         }
     }
 
+    /**
+     * Executes the queued sends while there is room in the send window. A
+     * single thread at a time hands the requests to the HttpConnection, out
+     * of the lock, so they are executed in order
+     */
+    private void startPendingSends() {
+        synchronized (mSendLock) {
+            if (mStartingSends) {
+                // the thread starting the sends picks up the new ones
+                return;
+            }
+
+            mStartingSends = true;
+        }
+
+        while (true) {
+            PendingSend send = null;
+
+            synchronized (mSendLock) {
+                while (send == null && mSendsInFlight < mSendWindow && !mPendingSends.isEmpty()) {
+                    send = mPendingSends.removeFirst();
+
+                    if (send.mFuture.isCancelled()) {
+                        send = null;
+                    }
+                }
+
+                if (send == null) {
+                    mStartingSends = false;
+                    return;
+                }
+
+                mSendsInFlight++;
+            }
+
+            executeSend(send);
+        }
+    }
+
+    /**
+     * Fails the sends waiting for room in the send window. The ones in
+     * flight complete with their requests
+     */
+    private void failPendingSends(Throwable error) {
+        LinkedList<PendingSend> failedSends;
+
+        synchronized (mSendLock) {
+            failedSends = mPendingSends;
+            mPendingSends = new LinkedList<PendingSend>();
+        }
+
+        for (PendingSend send : failedSends) {
+            send.mFuture.triggerError(error);
+        }
+    }
+
+    private void executeSend(final PendingSend send) {
+        log("Execute the request", LogLevel.Verbose);
+
+        final HttpConnectionFuture future;
+        try {
+            future = mHttpConnection.execute(send.mRequest, send.mCallback);
+        } catch (Throwable e) {
+            log(e);
+            onSendFinished(send);
+            send.mFuture.triggerError(e);
+            return;
+        }
+
+        send.mFuture.onCancelled(new Runnable() {
+
+            @Override
+            public void run() {
+                future.cancel();
+            }
+        });
+
+        future.onCancelled(new Runnable() {
+
+            @Override
+            public void run() {
+                onSendFinished(send);
+            }
+        });
+
+        ErrorCallback errorCallback = new ErrorCallback() {
+
+            @Override
+            public void onError(Throwable error) {
+                onSendFinished(send);
+                send.mFuture.triggerError(error);
+            }
+        };
+
+        future.onError(errorCallback);
+        future.onTimeout(errorCallback);
+
+        future.done(new Action<Void>() {
+
+            @Override
+            public void run(Void obj) throws Exception {
+                onSendFinished(send);
+                send.mFuture.setResult(null);
+            }
+        });
+    }
+
+    private void onSendFinished(PendingSend send) {
+        synchronized (mSendLock) {
+            if (send.mFinished) {
+                return;
+            }
+
+            send.mFinished = true;
+            mSendsInFlight--;
+        }
+
+        startPendingSends();
+    }
+
     protected void throwOnInvalidStatusCode(Response response) throws InvalidHttpStatusCodeException {
         if (response.getStatus() < 200 || response.getStatus() > 299) {
             String responseContent;
@@ -209,11 +408,41 @@ public abstract class HttpClientTransport implements ClientTransport {
     }
 
     protected void log(String message, LogLevel level) {
-        mLogger.log(getName() + " - " + message, level);
+        if (isLoggable(level)) {
+            mLogger.log(getName() + " - " + message, level);
+        }
     }
 
     protected void log(Throwable error) {
-        mLogger.log(getName() + " - Error: " + error.toString(), LogLevel.Critical);
+        if (isLoggable(LogLevel.Critical)) {
+            mLogger.log(getName() + " - Error: " + error.toString(), LogLevel.Critical);
+        }
+    }
+
+    /**
+     * Returns true if the messages of a level are logged
+     */
+    protected boolean isLoggable(LogLevel level) {
+        return LogHelper.isLoggable(mLogger, level);
+    }
+
+    /**
+     * Returns true if the messages of a level are logged with the data
+     * exchanged with the server
+     */
+    protected boolean isPayloadLoggable(LogLevel level) {
+        return LogHelper.isPayloadLoggable(mLogger, level);
     }
 
+    private static class PendingSend {
+        Request mRequest;
+        ResponseCallback mCallback;
+        SignalRFuture<Void> mFuture = new SignalRFuture<Void>();
+        boolean mFinished = false;
+
+        PendingSend(Request request, ResponseCallback callback) {
+            mRequest = request;
+            mCallback = callback;
+        }
+    }
 }
@@ -6,6 +6,18 @@ See License.txt in the project root for license information.
 
 package microsoft.aspnet.signalr.client.transport;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
 import microsoft.aspnet.signalr.client.ConnectionState;
 import microsoft.aspnet.signalr.client.ErrorCallback;
 import microsoft.aspnet.signalr.client.SignalRFuture;
@@ -19,13 +31,36 @@ import microsoft.aspnet.signalr.client.http.HttpConnectionFuture;
 import microsoft.aspnet.signalr.client.http.HttpConnectionFuture.ResponseCallback;
 import microsoft.aspnet.signalr.client.http.Request;
 import microsoft.aspnet.signalr.client.http.Response;
+import microsoft.aspnet.signalr.client.http.ResponseHelper;
 
 /**
  * HttpClientTransport implementation over long polling
  */
 public class LongPollingTransport extends HttpClientTransport {
+
+    /**
+     * Default time to wait for the server to answer a poll. The server holds
+     * each poll for up to 110 seconds by default
+     */
+    public static final int DEFAULT_POLL_TIMEOUT_MILLIS = 120 * 1000;
+
+    /**
+     * Prefix used to name the threads that process the pipelined batches
+     */
+    public static final String DISPATCH_THREAD_NAME_PREFIX = "SignalR-LongPolling-Dispatch-";
+
+    private static final int DISPATCH_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    private static final AtomicInteger DISPATCHER_COUNTER = new AtomicInteger(1);
+
     private UpdateableCancellableFuture<Void> mConnectionFuture;
     private Object mPollSync = new Object();
+    private volatile int mPollTimeoutMillis = DEFAULT_POLL_TIMEOUT_MILLIS;
+    private volatile boolean mPipelined = false;
+    private Executor mDispatcher = null;
+    private volatile String mReceivedMessageId = null;
+    private volatile String mReceivedGroupsToken = null;
+    private int mPendingBatches = 0;
 
     /**
      * Initializes the transport
@@ -49,6 +84,57 @@ public class LongPollingTransport extends HttpClientTransport {
         super(logger, httpConnection);
     }
 
+    /**
+     * Sets the time to wait for the server to answer a poll. A poll that
+     * times out is replaced by a new one, so a half-open connection doesn't
+     * stall the transport
+     * 
+     * @param pollTimeoutMillis
+     *            The timeout in milliseconds, or 0 to wait indefinitely
+     */
+    public void setPollTimeout(int pollTimeoutMillis) {
+        if (pollTimeoutMillis < 0) {
+            throw new IllegalArgumentException("pollTimeoutMillis");
+        }
+
+        mPollTimeoutMillis = pollTimeoutMillis;
+    }
+
+    /**
+     * Returns the time to wait for the server to answer a poll
+     */
+    public int getPollTimeout() {
+        return mPollTimeoutMillis;
+    }
+
+    /**
+     * Sets whether the polls are pipelined. When they are, the next poll is
+     * sent as soon as the response of the current one was read, and the
+     * received batches are processed in order on a separate thread. A slow
+     * handler then no longer delays the next poll. Batches that ask the
+     * client to disconnect or reconnect are still processed before polling
+     * again
+     * 
+     * @param pipelined
+     *            True to pipeline the polls
+     */
+    public void setPipelined(boolean pipelined) {
+        synchronized (mPollSync) {
+            mPipelined = pipelined;
+
+            if (!pipelined) {
+                clearReceivedMessageIds();
+            }
+        }
+    }
+
+    /**
+     * Returns whether the polls are pipelined
+     */
+    public boolean isPipelined() {
+        return mPipelined;
+    }
+
     @Override
     public String getName() {
         return "longPolling";
@@ -61,6 +147,10 @@ public class LongPollingTransport extends HttpClientTransport {
 
     @Override
     public SignalRFuture<Void> start(ConnectionBase connection, ConnectionType connectionType, DataResultCallback callback) {
+        synchronized (mPollSync) {
+            clearReceivedMessageIds();
+        }
+
         return poll(connection, connectionType == ConnectionType.InitialConnection ? "connect" : "reconnect", callback);
     }
 
@@ -78,12 +168,18 @@ public class LongPollingTransport extends HttpClientTransport {
     private SignalRFuture<Void> poll(final ConnectionBase connection, final String connectionUrl, final DataResultCallback callback) {
         synchronized (mPollSync) {
             log("Start the communication with the server", LogLevel.Information);
-            String url = connection.getUrl() + connectionUrl + TransportHelper.getReceiveQueryString(this, connection);
+            // a pipelined poll is sent before the previous batch updated the
+            // connection, so it uses the ids of the last batch received
+            String messageId = mPipelined && mReceivedMessageId != null ? mReceivedMessageId : connection.getMessageId();
+            String groupsToken = mPipelined && mReceivedGroupsToken != null ? mReceivedGroupsToken : connection.getGroupsToken();
+
+            String url = connection.getUrl() + connectionUrl + TransportHelper.getReceiveQueryString(this, connection, messageId, groupsToken);
 
             Request get = new Request(Constants.HTTP_GET);
 
             get.setUrl(url);
             get.setHeaders(connection.getHeaders());
+            get.setReadTimeout(mPollTimeoutMillis);
 
             connection.prepareRequest(get);
 
@@ -103,19 +199,28 @@ public class LongPollingTransport extends HttpClientTransport {
                             }
                             log("Response received", LogLevel.Verbose);
 
-                            log("Read response to the end", LogLevel.Verbose);
-                            String responseData = response.readToEnd();
-                            if (responseData != null) {
-                                responseData = responseData.trim();
+                            if (mPipelined) {
+                                pipelineResponse(connection, response, callback);
+                                return;
                             }
 
-                            log("Trigger onData with data: " + responseData, LogLevel.Verbose);
-                            callback.onData(responseData);
+                            if (callback instanceof StreamDataResultCallback) {
+                                log("Trigger onData with the response stream", LogLevel.Verbose);
+                                ((StreamDataResultCallback) callback).onData(ResponseHelper.getInputStream(response));
+                            } else {
+                                log("Read response to the end", LogLevel.Verbose);
+                                String responseData = response.readToEnd();
+                                if (responseData != null) {
+                                    responseData = responseData.trim();
+                                }
 
-                            if (!mConnectionFuture.isCancelled() && connection.getState() == ConnectionState.Connected) {
-                                log("Continue polling", LogLevel.Verbose);
-                                mConnectionFuture.setFuture(poll(connection, "poll", callback));
+                                if (isPayloadLoggable(LogLevel.Verbose)) {
+                                    log("Trigger onData with data: " + responseData, LogLevel.Verbose);
+                                }
+                                callback.onData(responseData);
                             }
+
+                            continuePolling(connection, callback);
                         } catch (Throwable e) {
                             if (!mConnectionFuture.isCancelled()) {
                                 log(e);
@@ -156,4 +261,170 @@ public class LongPollingTransport extends HttpClientTransport {
             return mConnectionFuture;
         }
     }
+
+    /**
+     * Sends the next poll, unless the connection was stopped
+     */
+    private void continuePolling(ConnectionBase connection, DataResultCallback callback) {
+        synchronized (mPollSync) {
+            if (!mConnectionFuture.isCancelled() && connection.getState() == ConnectionState.Connected) {
+                log("Continue polling", LogLevel.Verbose);
+                mConnectionFuture.setFuture(poll(connection, "poll", callback));
+            }
+        }
+    }
+
+    /**
+     * Reads a poll response, sends the next poll and queues the batch to be
+     * processed on the dispatch thread
+     */
+    private void pipelineResponse(final ConnectionBase connection, Response response, final DataResultCallback callback) throws Exception {
+        final UpdateableCancellableFuture<Void> pollFuture = mConnectionFuture;
+
+        log("Read response to the end", LogLevel.Verbose);
+        final byte[] content = response.readAllBytes();
+
+        mPendingBatches++;
+        final boolean pollNow = readMessageIds(content);
+        if (pollNow) {
+            continuePolling(connection, callback);
+        }
+
+        getDispatcher().execute(new Runnable() {
+
+            @Override
+            public void run() {
+                boolean dispatched = dispatchBatch(pollFuture, content, callback);
+
+                synchronized (mPollSync) {
+                    // once every batch received updated the connection, its
+                    // ids are the latest ones
+                    mPendingBatches--;
+                    if (mPendingBatches == 0) {
+                        clearReceivedMessageIds();
+                    }
+                }
+
+                if (dispatched && !pollNow) {
+                    continuePolling(connection, callback);
+                }
+            }
+        });
+    }
+
+    /**
+     * Processes a batch on the dispatch thread
+     * 
+     * @return True if the batch was processed, false if the poll was
+     *         cancelled or the batch could not be processed
+     */
+    private boolean dispatchBatch(UpdateableCancellableFuture<Void> pollFuture, byte[] content, DataResultCallback callback) {
+        if (pollFuture.isCancelled()) {
+            return false;
+        }
+
+        try {
+            if (callback instanceof StreamDataResultCallback) {
+                log("Trigger onData with the response stream", LogLevel.Verbose);
+                ((StreamDataResultCallback) callback).onData(new ByteArrayInputStream(content));
+            } else {
+                String responseData = new String(content, Constants.UTF8_NAME).trim();
+
+                if (isPayloadLoggable(LogLevel.Verbose)) {
+                    log("Trigger onData with data: " + responseData, LogLevel.Verbose);
+                }
+                callback.onData(responseData);
+            }
+        } catch (Throwable e) {
+            if (!pollFuture.isCancelled()) {
+                log(e);
+                pollFuture.triggerError(e);
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Forgets the ids of the batches received, so that the polls use the ids
+     * of the connection
+     */
+    private void clearReceivedMessageIds() {
+        mReceivedMessageId = null;
+        mReceivedGroupsToken = null;
+    }
+
+    /**
+     * Reads the message id and groups token of a batch, without parsing its
+     * messages
+     * 
+     * @return True if the next poll can be sent before the batch is
+     *         processed, false if the batch asks the client to disconnect or
+     *         reconnect, or can't be read
+     */
+    private boolean readMessageIds(byte[] content) {
+        String messageId = null;
+        String groupsToken = null;
+
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(content), Constants.UTF8_NAME));
+
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return false;
+            }
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+
+                if (name.equals("C") && reader.peek() == JsonToken.STRING) {
+                    messageId = reader.nextString();
+                } else if (name.equals("G") && reader.peek() == JsonToken.STRING) {
+                    groupsToken = reader.nextString();
+                } else if ((name.equals("D") || name.equals("T")) && reader.peek() == JsonToken.NUMBER) {
+                    if (reader.nextInt() == 1) {
+                        return false;
+                    }
+                } else {
+                    reader.skipValue();
+                }
+            }
+        } catch (Exception e) {
+            // the error is reported when the batch is processed
+            return false;
+        }
+
+        if (messageId != null) {
+            mReceivedMessageId = messageId;
+        }
+
+        if (groupsToken != null) {
+            mReceivedGroupsToken = groupsToken;
+        }
+
+        return true;
+    }
+
+    private synchronized Executor getDispatcher() {
+        if (mDispatcher == null) {
+            final String threadName = DISPATCH_THREAD_NAME_PREFIX + DISPATCHER_COUNTER.getAndIncrement();
+
+            // a single thread keeps the batches in order, and it stops while
+            // there is nothing to process
+            mDispatcher = new ThreadPoolExecutor(0, 1, DISPATCH_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, threadName);
+                            thread.setDaemon(true);
+
+                            return thread;
+                        }
+                    });
+        }
+
+        return mDispatcher;
+    }
 }
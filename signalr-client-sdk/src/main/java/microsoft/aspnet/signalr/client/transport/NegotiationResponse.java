@@ -6,10 +6,17 @@ See License.txt in the project root for license information.
 
 package microsoft.aspnet.signalr.client.transport;
 
+import java.io.IOException;
+import java.io.StringReader;
+
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
 
+import microsoft.aspnet.signalr.client.GsonValue;
+import microsoft.aspnet.signalr.client.JsonCodec;
+
 /**
  * Represents the negotiation response sent by the server in the handshake
  */
@@ -35,8 +42,30 @@ public class NegotiationResponse {
             return;
         }
 
-        JsonObject json = parser.parse(jsonContent).getAsJsonObject();
+        initialize(parser.parse(jsonContent).getAsJsonObject());
+    }
+
+    /**
+     * Initializes the negotiation response with Json data
+     * 
+     * @param jsonContent
+     *            Json data
+     * @param codec
+     *            The codec used to parse the data
+     */
+    public NegotiationResponse(String jsonContent, JsonCodec codec) {
+        if (jsonContent == null || "".equals(jsonContent)) {
+            return;
+        }
+
+        try {
+            initialize(GsonValue.readElement(codec.newReader(new StringReader(jsonContent))).getAsJsonObject());
+        } catch (IOException e) {
+            throw new JsonParseException(e);
+        }
+    }
 
+    private void initialize(JsonObject json) {
         setConnectionId(json.get("ConnectionId").getAsString());
         setConnectionToken(json.get("ConnectionToken").getAsString());
         setUrl(json.get("Url").getAsString());
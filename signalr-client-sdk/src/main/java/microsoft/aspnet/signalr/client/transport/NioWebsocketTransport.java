@@ -0,0 +1,228 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.transport;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.Executor;
+
+import microsoft.aspnet.signalr.client.ConnectionBase;
+import microsoft.aspnet.signalr.client.LogLevel;
+import microsoft.aspnet.signalr.client.Logger;
+import microsoft.aspnet.signalr.client.SignalRFuture;
+import microsoft.aspnet.signalr.client.UpdateableCancellableFuture;
+import microsoft.aspnet.signalr.client.http.HttpConnection;
+import microsoft.aspnet.signalr.client.http.java.NetworkExecutor;
+import microsoft.aspnet.signalr.client.http.nio.NioWebSocket;
+import microsoft.aspnet.signalr.client.http.nio.SelectorLoopGroup;
+
+/**
+ * WebSocket transport that runs on the shared SelectorLoops instead of
+ * creating a client with its own threads for each connection, so idle
+ * connections don't cost any thread. Only plain ws:// connections are
+ * supported
+ */
+public class NioWebsocketTransport extends HttpClientTransport {
+
+    private Logger mLogger;
+
+    /**
+     * Loops of the WebSockets, or null to use the shared group
+     */
+    private SelectorLoopGroup mLoopGroup = null;
+
+    private Executor mCallbackExecutor = null;
+
+    private volatile NioWebSocket mWebSocket;
+
+    private volatile long mPingInterval = 0;
+
+    private volatile int mMaxMessageSize = NioWebSocket.DEFAULT_MAX_MESSAGE_SIZE;
+
+    /**
+     * Initializes the transport with the shared SelectorLoopGroup and
+     * NetworkExecutor
+     * 
+     * @param logger
+     *            logger to log actions
+     */
+    public NioWebsocketTransport(Logger logger) {
+        super(logger);
+        mLogger = logger;
+    }
+
+    /**
+     * Initializes the transport with the shared SelectorLoopGroup and
+     * NetworkExecutor
+     * 
+     * @param logger
+     *            logger to log actions
+     * @param httpConnection
+     *            connection used for the negotiation, the sends before the
+     *            WebSocket opens and the abort
+     */
+    public NioWebsocketTransport(Logger logger, HttpConnection httpConnection) {
+        super(logger, httpConnection);
+        mLogger = logger;
+    }
+
+    /**
+     * Initializes the transport
+     * 
+     * @param logger
+     *            logger to log actions
+     * @param httpConnection
+     *            connection used for the negotiation and the abort
+     * @param loopGroup
+     *            loops that execute the I/O of the WebSockets
+     * @param callbackExecutor
+     *            executor that delivers the received messages
+     */
+    public NioWebsocketTransport(Logger logger, HttpConnection httpConnection, SelectorLoopGroup loopGroup, Executor callbackExecutor) {
+        super(logger, httpConnection);
+
+        if (loopGroup == null) {
+            throw new IllegalArgumentException("loopGroup");
+        }
+
+        if (callbackExecutor == null) {
+            throw new IllegalArgumentException("callbackExecutor");
+        }
+
+        mLogger = logger;
+        mLoopGroup = loopGroup;
+        mCallbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Sets the interval in milliseconds between the pings sent to the server
+     * by the WebSockets started afterwards, or 0 to send none
+     */
+    public void setPingInterval(long pingIntervalMillis) {
+        if (pingIntervalMillis < 0) {
+            throw new IllegalArgumentException("pingIntervalMillis");
+        }
+
+        mPingInterval = pingIntervalMillis;
+    }
+
+    /**
+     * Sets the maximum size in bytes of a received message for the WebSockets
+     * started afterwards
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        if (maxMessageSize <= 0) {
+            throw new IllegalArgumentException("maxMessageSize");
+        }
+
+        mMaxMessageSize = maxMessageSize;
+    }
+
+    @Override
+    public String getName() {
+        return "webSockets";
+    }
+
+    @Override
+    public boolean supportKeepAlive() {
+        return true;
+    }
+
+    @Override
+    public SignalRFuture<Void> start(ConnectionBase connection, ConnectionType connectionType, final DataResultCallback callback) {
+        final UpdateableCancellableFuture<Void> connectionFuture = new UpdateableCancellableFuture<Void>(null);
+
+        URI uri;
+        try {
+            uri = new URI(WebsocketTransport.getConnectUrl(connection, connectionType, getName()));
+        } catch (Exception e) {
+            connectionFuture.triggerError(e);
+            return connectionFuture;
+        }
+
+        NioWebSocket.Listener listener = new NioWebSocket.Listener() {
+
+            @Override
+            public void onOpen() {
+                connectionFuture.setResult(null);
+            }
+
+            @Override
+            public void onMessage(String message) {
+                callback.onData(message);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                if (!connectionFuture.isDone()) {
+                    connectionFuture.triggerError(error);
+                }
+            }
+
+            @Override
+            public void onClose(int code, String reason) {
+                if (isLoggable(LogLevel.Information)) {
+                    log("WebSocket closed: " + code + " " + reason, LogLevel.Information);
+                }
+
+                if (!connectionFuture.isDone()) {
+                    connectionFuture.triggerError(new IOException("The WebSocket was closed before it opened"));
+                }
+            }
+        };
+
+        final NioWebSocket webSocket;
+        if (mLoopGroup != null) {
+            webSocket = new NioWebSocket(uri, connection.getHeaders(), listener, mLogger, mLoopGroup.next(), mCallbackExecutor);
+        } else {
+            webSocket = new NioWebSocket(uri, connection.getHeaders(), listener, mLogger, SelectorLoopGroup.getDefault().next(),
+                    NetworkExecutor.getDefault());
+        }
+
+        webSocket.setPingInterval(mPingInterval);
+        webSocket.setMaxMessageSize(mMaxMessageSize);
+
+        NioWebSocket previous = mWebSocket;
+        if (previous != null) {
+            previous.close();
+        }
+
+        mWebSocket = webSocket;
+        webSocket.connect();
+
+        connectionFuture.onCancelled(new Runnable() {
+
+            @Override
+            public void run() {
+                webSocket.close();
+            }
+        });
+
+        connection.closed(new Runnable() {
+
+            @Override
+            public void run() {
+                webSocket.close();
+            }
+        });
+
+        return connectionFuture;
+    }
+
+    @Override
+    public SignalRFuture<Void> send(ConnectionBase connection, String data, DataResultCallback callback) {
+        NioWebSocket webSocket = mWebSocket;
+
+        if (webSocket == null) {
+            SignalRFuture<Void> future = new SignalRFuture<Void>();
+            future.triggerError(new IllegalStateException("The transport was not started"));
+            return future;
+        }
+
+        return webSocket.send(data);
+    }
+}
@@ -0,0 +1,611 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.transport;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_17;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.exceptions.InvalidFrameException;
+import org.java_websocket.exceptions.InvalidHandshakeException;
+import org.java_websocket.exceptions.LimitExedeedException;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.CloseFrameBuilder;
+import org.java_websocket.framing.FrameBuilder;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.Framedata.Opcode;
+import org.java_websocket.framing.FramedataImpl1;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ClientHandshakeBuilder;
+import org.java_websocket.handshake.ServerHandshake;
+
+import microsoft.aspnet.signalr.client.Constants;
+
+/**
+ * RFC 6455 draft that negotiates the permessage-deflate extension (RFC 7692).
+ * 
+ * The extension is offered in the handshake and used only if the server
+ * accepts it. Text messages above the compression threshold are compressed
+ * and flagged with the RSV1 bit, and received messages flagged with it are
+ * decompressed frame by frame, so fragmented messages are still delivered
+ * fragment by fragment. The client compressor always uses a 15 bits window,
+ * so client_max_window_bits is never offered.
+ * 
+ * Frames are sent from a single thread and received from another one, as the
+ * WebSocket client does.
+ */
+public class PerMessageDeflateDraft extends Draft_17 {
+
+    /**
+     * Name of the extension
+     */
+    public static final String EXTENSION_NAME = "permessage-deflate";
+
+    /**
+     * Handshake header that negotiates the extensions
+     */
+    public static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+
+    static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+    static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+    static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+    static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+
+    /**
+     * Bytes a sync flush ends with. They are removed from the sent payloads
+     * and appended to the received messages before decompressing them
+     */
+    private static final byte[] FLUSH_TRAILER = new byte[] { 0x00, 0x00, (byte) 0xff, (byte) 0xff };
+
+    private static final int RSV1 = 0x40;
+    private static final int RSV2_RSV3 = 0x30;
+
+    private static final int BUFFER_SIZE = 4 * 1024;
+
+    /**
+     * Size above which the decompression buffer is released once a message
+     * was received
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private PerMessageDeflateOptions mOptions;
+
+    private PerMessageDeflateStats mStats;
+
+    private int mMaxMessageSize;
+
+    private volatile boolean mNegotiated = false;
+
+    private boolean mClientNoContextTakeover = false;
+
+    private boolean mServerNoContextTakeover = false;
+
+    private Object mDeflateLock = new Object();
+
+    private Object mInflateLock = new Object();
+
+    private Deflater mDeflater;
+
+    private Inflater mInflater;
+
+    private byte[] mDeflateBuffer = new byte[BUFFER_SIZE];
+
+    private byte[] mInflateBuffer = new byte[BUFFER_SIZE];
+
+    private boolean mReceivingCompressedMessage = false;
+
+    private int mInflatedMessageLength = 0;
+
+    private ByteBuffer mIncompleteFrame = null;
+
+    /**
+     * Initializes the draft
+     * 
+     * @param options
+     *            The options of the extension offered to the server
+     * @param stats
+     *            The counters updated with the compressed messages
+     */
+    public PerMessageDeflateDraft(PerMessageDeflateOptions options, PerMessageDeflateStats stats) {
+        this(options, stats, WebsocketMessageAssembler.DEFAULT_MAX_MESSAGE_SIZE);
+    }
+
+    /**
+     * Initializes the draft
+     * 
+     * @param options
+     *            The options of the extension offered to the server
+     * @param stats
+     *            The counters updated with the compressed messages
+     * @param maxMessageSize
+     *            Maximum size in bytes of a decompressed message. Bigger
+     *            messages close the WebSocket
+     */
+    public PerMessageDeflateDraft(PerMessageDeflateOptions options, PerMessageDeflateStats stats, int maxMessageSize) {
+        if (options == null) {
+            throw new IllegalArgumentException("options");
+        }
+
+        if (stats == null) {
+            throw new IllegalArgumentException("stats");
+        }
+
+        if (maxMessageSize <= 0) {
+            throw new IllegalArgumentException("maxMessageSize");
+        }
+
+        mOptions = new PerMessageDeflateOptions(options);
+        mStats = stats;
+        mMaxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * Returns true if the server accepted the extension
+     */
+    public boolean isNegotiated() {
+        return mNegotiated;
+    }
+
+    /**
+     * Returns the counters updated with the compressed messages
+     */
+    public PerMessageDeflateStats getStats() {
+        return mStats;
+    }
+
+    @Override
+    public ClientHandshakeBuilder postProcessHandshakeRequestAsClient(ClientHandshakeBuilder request) {
+        super.postProcessHandshakeRequestAsClient(request);
+        request.put(EXTENSIONS_HEADER, mOptions.toExtensionOffer());
+        return request;
+    }
+
+    @Override
+    public HandshakeState acceptHandshakeAsClient(ClientHandshake request, ServerHandshake response) throws InvalidHandshakeException {
+        HandshakeState state = super.acceptHandshakeAsClient(request, response);
+
+        if (state != HandshakeState.MATCHED) {
+            return state;
+        }
+
+        String extensions = response.getFieldValue(EXTENSIONS_HEADER);
+        if (extensions == null || extensions.trim().length() == 0) {
+            // the server declined the extension
+            mNegotiated = false;
+            return state;
+        }
+
+        return acceptExtensions(extensions) ? HandshakeState.MATCHED : HandshakeState.NOT_MATCHED;
+    }
+
+    /**
+     * Applies the extensions accepted by the server
+     * 
+     * @return false if the server accepted extensions or parameters that were
+     *         not offered
+     */
+    boolean acceptExtensions(String extensions) {
+        boolean clientNoContextTakeover = mOptions.getClientNoContextTakeover();
+        boolean serverNoContextTakeover = mOptions.getServerNoContextTakeover();
+        boolean accepted = false;
+
+        for (String extension : extensions.split(",")) {
+            String[] parameters = extension.split(";");
+
+            if (!EXTENSION_NAME.equalsIgnoreCase(parameters[0].trim()) || accepted) {
+                return false;
+            }
+
+            accepted = true;
+
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                String value = null;
+
+                int separator = parameter.indexOf('=');
+                if (separator >= 0) {
+                    value = parameter.substring(separator + 1).trim();
+                    parameter = parameter.substring(0, separator).trim();
+
+                    if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+                        value = value.substring(1, value.length() - 1);
+                    }
+                }
+
+                if (CLIENT_NO_CONTEXT_TAKEOVER.equalsIgnoreCase(parameter) && value == null) {
+                    clientNoContextTakeover = true;
+                } else if (SERVER_NO_CONTEXT_TAKEOVER.equalsIgnoreCase(parameter) && value == null) {
+                    serverNoContextTakeover = true;
+                } else if (SERVER_MAX_WINDOW_BITS.equalsIgnoreCase(parameter) && isValidWindowBits(value)) {
+                    // the decompressor accepts any window size
+                } else {
+                    // includes client_max_window_bits, which was not offered
+                    return false;
+                }
+            }
+        }
+
+        mClientNoContextTakeover = clientNoContextTakeover;
+        mServerNoContextTakeover = serverNoContextTakeover;
+        mNegotiated = accepted;
+
+        return true;
+    }
+
+    private boolean isValidWindowBits(String value) {
+        if (value == null) {
+            return false;
+        }
+
+        try {
+            int windowBits = Integer.parseInt(value);
+            if (windowBits < PerMessageDeflateOptions.MIN_WINDOW_BITS || windowBits > PerMessageDeflateOptions.MAX_WINDOW_BITS) {
+                return false;
+            }
+
+            // the server may not use a bigger window than requested
+            return mOptions.getServerMaxWindowBits() == 0 || windowBits <= mOptions.getServerMaxWindowBits();
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public List<Framedata> createFrames(String text, boolean mask) {
+        if (!mNegotiated) {
+            return super.createFrames(text, mask);
+        }
+
+        byte[] bytes;
+        try {
+            bytes = text.getBytes(Constants.UTF8_NAME);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        if (bytes.length < mOptions.getCompressionThreshold()) {
+            return super.createFrames(text, mask);
+        }
+
+        ByteBuffer payload = deflate(bytes);
+        mStats.onMessageSent(bytes.length, payload.remaining());
+
+        CompressedFrame frame = new CompressedFrame();
+        try {
+            frame.setPayload(payload);
+        } catch (InvalidDataException e) {
+            throw new IllegalStateException(e);
+        }
+
+        frame.setFin(true);
+        frame.setTransferemasked(mask);
+
+        List<Framedata> frames = new ArrayList<Framedata>(1);
+        frames.add(frame);
+        return frames;
+    }
+
+    @Override
+    public ByteBuffer createBinaryFrame(Framedata framedata) {
+        ByteBuffer frame = super.createBinaryFrame(framedata);
+
+        if (framedata instanceof CompressedFrame) {
+            frame.put(0, (byte) (frame.get(0) | RSV1));
+        }
+
+        return frame;
+    }
+
+    private ByteBuffer deflate(byte[] bytes) {
+        synchronized (mDeflateLock) {
+            return deflateLocked(bytes);
+        }
+    }
+
+    private ByteBuffer deflateLocked(byte[] bytes) {
+        if (mDeflater == null) {
+            mDeflater = new Deflater(mOptions.getCompressionLevel(), true);
+        }
+
+        mDeflater.setInput(bytes);
+
+        int length = 0;
+        while (true) {
+            int deflated = mDeflater.deflate(mDeflateBuffer, length, mDeflateBuffer.length - length, Deflater.SYNC_FLUSH);
+            length += deflated;
+
+            if (length < mDeflateBuffer.length) {
+                break;
+            }
+
+            mDeflateBuffer = grow(mDeflateBuffer, length);
+        }
+
+        if (mClientNoContextTakeover) {
+            mDeflater.reset();
+        }
+
+        if (endsWithFlushTrailer(mDeflateBuffer, length)) {
+            length -= FLUSH_TRAILER.length;
+        }
+
+        byte[] payload = new byte[length];
+        System.arraycopy(mDeflateBuffer, 0, payload, 0, length);
+        return ByteBuffer.wrap(payload);
+    }
+
+    private static boolean endsWithFlushTrailer(byte[] buffer, int length) {
+        if (length < FLUSH_TRAILER.length) {
+            return false;
+        }
+
+        for (int i = 0; i < FLUSH_TRAILER.length; i++) {
+            if (buffer[length - FLUSH_TRAILER.length + i] != FLUSH_TRAILER[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public List<Framedata> translateFrame(ByteBuffer buffer) throws InvalidDataException {
+        // Draft_10 rejects the RSV1 bit, so the frames are parsed here
+        ByteBuffer source = mIncompleteFrame != null ? concat(mIncompleteFrame, buffer) : buffer;
+        mIncompleteFrame = null;
+
+        List<Framedata> frames = new LinkedList<Framedata>();
+        Framedata frame;
+
+        while ((frame = readFrame(source)) != null) {
+            frames.add(frame);
+        }
+
+        if (source.hasRemaining()) {
+            mIncompleteFrame = concat(null, source);
+        }
+
+        return frames;
+    }
+
+    /**
+     * Reads a frame from the buffer
+     * 
+     * @return The frame, or null if the buffer does not contain a complete
+     *         frame, in which case the buffer position is not changed
+     */
+    private Framedata readFrame(ByteBuffer buffer) throws InvalidDataException {
+        int start = buffer.position();
+
+        if (buffer.remaining() < 2) {
+            return null;
+        }
+
+        byte b1 = buffer.get();
+        byte b2 = buffer.get();
+
+        boolean fin = (b1 & 0x80) != 0;
+        boolean compressed = (b1 & RSV1) != 0;
+        Opcode opcode = toOpcode(b1 & 0x0f);
+        boolean masked = (b2 & 0x80) != 0;
+        boolean control = opcode == Opcode.PING || opcode == Opcode.PONG || opcode == Opcode.CLOSING;
+
+        if ((b1 & RSV2_RSV3) != 0 || (compressed && (!mNegotiated || control || opcode == Opcode.CONTINUOUS))) {
+            throw new InvalidFrameException("bad rsv " + ((b1 & 0x70) >> 4));
+        }
+
+        long payloadLength = b2 & 0x7f;
+        if (payloadLength == 126) {
+            if (buffer.remaining() < 2) {
+                buffer.position(start);
+                return null;
+            }
+
+            payloadLength = buffer.getShort() & 0xffff;
+        } else if (payloadLength == 127) {
+            if (buffer.remaining() < 8) {
+                buffer.position(start);
+                return null;
+            }
+
+            payloadLength = buffer.getLong();
+            if (payloadLength < 0 || payloadLength > Integer.MAX_VALUE) {
+                throw new LimitExedeedException("Payloadsize is to big...");
+            }
+        }
+
+        if (control && (!fin || payloadLength > 125)) {
+            throw new InvalidFrameException("invalid control frame");
+        }
+
+        if (buffer.remaining() < (masked ? 4 : 0) + payloadLength) {
+            buffer.position(start);
+            return null;
+        }
+
+        byte[] maskKey = null;
+        if (masked) {
+            maskKey = new byte[4];
+            buffer.get(maskKey);
+        }
+
+        byte[] payload = new byte[checkAlloc((int) payloadLength)];
+        buffer.get(payload);
+
+        if (masked) {
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] = (byte) (payload[i] ^ maskKey[i % 4]);
+            }
+        }
+
+        if (opcode == Opcode.TEXT || opcode == Opcode.BINARY) {
+            mReceivingCompressedMessage = compressed;
+        }
+
+        if (!control && mReceivingCompressedMessage) {
+            payload = inflate(payload, fin);
+        }
+
+        FrameBuilder frame;
+        if (opcode == Opcode.CLOSING) {
+            frame = new CloseFrameBuilder();
+        } else {
+            frame = new FramedataImpl1();
+            frame.setFin(fin);
+            frame.setOptcode(opcode);
+        }
+
+        frame.setPayload(ByteBuffer.wrap(payload));
+        return frame;
+    }
+
+    private byte[] inflate(byte[] payload, boolean fin) throws InvalidDataException {
+        synchronized (mInflateLock) {
+            return inflateLocked(payload, fin);
+        }
+    }
+
+    private byte[] inflateLocked(byte[] payload, boolean fin) throws InvalidDataException {
+        if (mInflater == null) {
+            mInflater = new Inflater(true);
+        }
+
+        try {
+            int length = inflate(payload, 0);
+            if (fin) {
+                length = inflate(FLUSH_TRAILER, length);
+
+                mStats.onMessageReceived();
+                mReceivingCompressedMessage = false;
+
+                // a final deflate block also ends the context
+                if (mServerNoContextTakeover || mInflater.finished()) {
+                    mInflater.reset();
+                }
+            }
+
+            mStats.onFrameReceived(payload.length, length);
+
+            byte[] inflated = new byte[length];
+            System.arraycopy(mInflateBuffer, 0, inflated, 0, length);
+
+            if (fin) {
+                mInflatedMessageLength = 0;
+
+                if (mInflateBuffer.length > MAX_RETAINED_BUFFER_SIZE) {
+                    mInflateBuffer = new byte[BUFFER_SIZE];
+                }
+            } else {
+                mInflatedMessageLength += length;
+            }
+
+            return inflated;
+        } catch (DataFormatException e) {
+            throw new InvalidDataException(CloseFrame.PROTOCOL_ERROR, e);
+        }
+    }
+
+    private int inflate(byte[] input, int length) throws DataFormatException, InvalidDataException {
+        mInflater.setInput(input);
+
+        while (true) {
+            int inflated = mInflater.inflate(mInflateBuffer, length, mInflateBuffer.length - length);
+            length += inflated;
+
+            // checked while inflating, so a small payload can't expand
+            // without bounds
+            if (length > mMaxMessageSize - mInflatedMessageLength) {
+                throw new InvalidDataException(CloseFrame.TOOBIG, "The message exceeds the maximum size of " + mMaxMessageSize + " bytes");
+            }
+
+            if (length == mInflateBuffer.length) {
+                mInflateBuffer = grow(mInflateBuffer, length);
+            } else if (inflated == 0 || mInflater.needsInput()) {
+                return length;
+            }
+        }
+    }
+
+    private static byte[] grow(byte[] buffer, int length) {
+        byte[] newBuffer = new byte[buffer.length * 2];
+        System.arraycopy(buffer, 0, newBuffer, 0, length);
+        return newBuffer;
+    }
+
+    private static ByteBuffer concat(ByteBuffer first, ByteBuffer second) {
+        ByteBuffer result = ByteBuffer.allocate((first == null ? 0 : first.remaining()) + second.remaining());
+        if (first != null) {
+            result.put(first);
+        }
+
+        result.put(second);
+        result.flip();
+        return result;
+    }
+
+    private static Opcode toOpcode(int opcode) throws InvalidFrameException {
+        switch (opcode) {
+        case 0:
+            return Opcode.CONTINUOUS;
+        case 1:
+            return Opcode.TEXT;
+        case 2:
+            return Opcode.BINARY;
+        case 8:
+            return Opcode.CLOSING;
+        case 9:
+            return Opcode.PING;
+        case 10:
+            return Opcode.PONG;
+        default:
+            throw new InvalidFrameException("unknow optcode " + opcode);
+        }
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        mIncompleteFrame = null;
+        mReceivingCompressedMessage = false;
+        mInflatedMessageLength = 0;
+
+        // the draft is reset when the WebSocket closes, possibly while a
+        // message is being compressed
+        synchronized (mDeflateLock) {
+            if (mDeflater != null) {
+                mDeflater.end();
+                mDeflater = null;
+            }
+        }
+
+        synchronized (mInflateLock) {
+            if (mInflater != null) {
+                mInflater.end();
+                mInflater = null;
+            }
+        }
+    }
+
+    @Override
+    public Draft copyInstance() {
+        return new PerMessageDeflateDraft(mOptions, mStats, mMaxMessageSize);
+    }
+
+    private static class CompressedFrame extends FramedataImpl1 {
+        public CompressedFrame() {
+            super(Opcode.TEXT);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.transport;
+
+import java.util.zip.Deflater;
+
+/**
+ * Options of the permessage-deflate WebSocket extension (RFC 7692) offered by
+ * the client
+ */
+public class PerMessageDeflateOptions {
+
+    /**
+     * Smallest window size a server may be asked to use
+     */
+    public static final int MIN_WINDOW_BITS = 8;
+
+    /**
+     * Largest window size, which is also the one used by the client compressor
+     */
+    public static final int MAX_WINDOW_BITS = 15;
+
+    /**
+     * Default size in bytes below which messages are sent uncompressed
+     */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 64;
+
+    private boolean mClientNoContextTakeover = false;
+
+    private boolean mServerNoContextTakeover = false;
+
+    private int mServerMaxWindowBits = 0;
+
+    private int mCompressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    private int mCompressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+    /**
+     * Initializes the options with context takeover in both directions and
+     * the default window sizes
+     */
+    public PerMessageDeflateOptions() {
+    }
+
+    /**
+     * Initializes a copy of the given options
+     */
+    public PerMessageDeflateOptions(PerMessageDeflateOptions options) {
+        if (options == null) {
+            throw new IllegalArgumentException("options");
+        }
+
+        mClientNoContextTakeover = options.mClientNoContextTakeover;
+        mServerNoContextTakeover = options.mServerNoContextTakeover;
+        mServerMaxWindowBits = options.mServerMaxWindowBits;
+        mCompressionLevel = options.mCompressionLevel;
+        mCompressionThreshold = options.mCompressionThreshold;
+    }
+
+    /**
+     * Sets whether the client resets its compressor after each message. This
+     * uses less memory but compresses similar messages worse
+     */
+    public void setClientNoContextTakeover(boolean clientNoContextTakeover) {
+        mClientNoContextTakeover = clientNoContextTakeover;
+    }
+
+    /**
+     * Returns whether the client resets its compressor after each message
+     */
+    public boolean getClientNoContextTakeover() {
+        return mClientNoContextTakeover;
+    }
+
+    /**
+     * Sets whether the server is asked to reset its compressor after each
+     * message
+     */
+    public void setServerNoContextTakeover(boolean serverNoContextTakeover) {
+        mServerNoContextTakeover = serverNoContextTakeover;
+    }
+
+    /**
+     * Returns whether the server is asked to reset its compressor after each
+     * message
+     */
+    public boolean getServerNoContextTakeover() {
+        return mServerNoContextTakeover;
+    }
+
+    /**
+     * Sets the base-2 logarithm of the largest window the server is asked to
+     * use, between 8 and 15, or 0 to let the server choose
+     */
+    public void setServerMaxWindowBits(int serverMaxWindowBits) {
+        if (serverMaxWindowBits != 0 && (serverMaxWindowBits < MIN_WINDOW_BITS || serverMaxWindowBits > MAX_WINDOW_BITS)) {
+            throw new IllegalArgumentException("serverMaxWindowBits");
+        }
+
+        mServerMaxWindowBits = serverMaxWindowBits;
+    }
+
+    /**
+     * Returns the base-2 logarithm of the largest window the server is asked
+     * to use, or 0 if the server chooses
+     */
+    public int getServerMaxWindowBits() {
+        return mServerMaxWindowBits;
+    }
+
+    /**
+     * Sets the compression level of the sent messages, from 0 to 9, or -1 for
+     * the default level
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("compressionLevel");
+        }
+
+        mCompressionLevel = compressionLevel;
+    }
+
+    /**
+     * Returns the compression level of the sent messages
+     */
+    public int getCompressionLevel() {
+        return mCompressionLevel;
+    }
+
+    /**
+     * Sets the size in bytes below which messages are sent uncompressed
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        if (compressionThreshold < 0) {
+            throw new IllegalArgumentException("compressionThreshold");
+        }
+
+        mCompressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Returns the size in bytes below which messages are sent uncompressed
+     */
+    public int getCompressionThreshold() {
+        return mCompressionThreshold;
+    }
+
+    /**
+     * Returns the value of the Sec-WebSocket-Extensions header that offers
+     * the extension with these options
+     */
+    public String toExtensionOffer() {
+        StringBuilder offer = new StringBuilder(PerMessageDeflateDraft.EXTENSION_NAME);
+
+        if (mClientNoContextTakeover) {
+            offer.append("; ").append(PerMessageDeflateDraft.CLIENT_NO_CONTEXT_TAKEOVER);
+        }
+
+        if (mServerNoContextTakeover) {
+            offer.append("; ").append(PerMessageDeflateDraft.SERVER_NO_CONTEXT_TAKEOVER);
+        }
+
+        if (mServerMaxWindowBits != 0) {
+            offer.append("; ").append(PerMessageDeflateDraft.SERVER_MAX_WINDOW_BITS).append('=').append(mServerMaxWindowBits);
+        }
+
+        return offer.toString();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.transport;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the WebSocket messages compressed with permessage-deflate.
+ * Comparing the compressed and uncompressed byte counts of each direction
+ * shows how much bandwidth the extension saves
+ */
+public class PerMessageDeflateStats {
+
+    private AtomicLong mSentMessages = new AtomicLong(0);
+
+    private AtomicLong mSentUncompressedBytes = new AtomicLong(0);
+
+    private AtomicLong mSentCompressedBytes = new AtomicLong(0);
+
+    private AtomicLong mReceivedMessages = new AtomicLong(0);
+
+    private AtomicLong mReceivedCompressedBytes = new AtomicLong(0);
+
+    private AtomicLong mReceivedUncompressedBytes = new AtomicLong(0);
+
+    /**
+     * Returns the number of compressed messages sent
+     */
+    public long getSentMessageCount() {
+        return mSentMessages.get();
+    }
+
+    /**
+     * Returns the size in bytes of the sent messages before compression
+     */
+    public long getSentUncompressedBytes() {
+        return mSentUncompressedBytes.get();
+    }
+
+    /**
+     * Returns the size in bytes of the sent messages after compression
+     */
+    public long getSentCompressedBytes() {
+        return mSentCompressedBytes.get();
+    }
+
+    /**
+     * Returns the number of compressed messages received
+     */
+    public long getReceivedMessageCount() {
+        return mReceivedMessages.get();
+    }
+
+    /**
+     * Returns the size in bytes of the compressed payloads received
+     */
+    public long getReceivedCompressedBytes() {
+        return mReceivedCompressedBytes.get();
+    }
+
+    /**
+     * Returns the size in bytes of the received payloads after decompression
+     */
+    public long getReceivedUncompressedBytes() {
+        return mReceivedUncompressedBytes.get();
+    }
+
+    /**
+     * Resets all the counters
+     */
+    public void reset() {
+        mSentMessages.set(0);
+        mSentUncompressedBytes.set(0);
+        mSentCompressedBytes.set(0);
+        mReceivedMessages.set(0);
+        mReceivedCompressedBytes.set(0);
+        mReceivedUncompressedBytes.set(0);
+    }
+
+    void onMessageSent(long uncompressedBytes, long compressedBytes) {
+        mSentMessages.incrementAndGet();
+        mSentUncompressedBytes.addAndGet(uncompressedBytes);
+        mSentCompressedBytes.addAndGet(compressedBytes);
+    }
+
+    void onMessageReceived() {
+        mReceivedMessages.incrementAndGet();
+    }
+
+    void onFrameReceived(long compressedBytes, long uncompressedBytes) {
+        mReceivedCompressedBytes.addAndGet(compressedBytes);
+        mReceivedUncompressedBytes.addAndGet(uncompressedBytes);
+    }
+
+    @Override
+    public String toString() {
+        return "Sent messages: " + getSentMessageCount() + ", sent bytes: " + getSentUncompressedBytes() + " -> " + getSentCompressedBytes()
+                + ", received messages: " + getReceivedMessageCount() + ", received bytes: " + getReceivedCompressedBytes() + " -> "
+                + getReceivedUncompressedBytes();
+    }
+}
@@ -0,0 +1,311 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.transport;
+
+import java.io.UnsupportedEncodingException;
+
+import microsoft.aspnet.signalr.client.Constants;
+
+/**
+ * Incremental parser of a Server-Sent Events stream.
+ * 
+ * The raw bytes of the stream are scanned as they arrive. Complete lines are
+ * parsed in place, and only a line split between two reads is copied. The data
+ * lines of an event are appended to a buffer that is reused for all the
+ * events, and the text is decoded only once the event is complete. Data must
+ * be parsed from a single thread.
+ */
+public class ServerSentEventParser {
+
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+    private static final byte COLON = ':';
+    private static final byte SPACE = ' ';
+
+    private static final byte[] DATA_FIELD = { 'd', 'a', 't', 'a' };
+    private static final byte[] EVENT_FIELD = { 'e', 'v', 'e', 'n', 't' };
+    private static final byte[] ID_FIELD = { 'i', 'd' };
+    private static final byte[] RETRY_FIELD = { 'r', 'e', 't', 'r', 'y' };
+
+    private static final byte[] BOM = { (byte) 0xef, (byte) 0xbb, (byte) 0xbf };
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    /**
+     * Largest buffer kept between events. Bigger buffers are released once
+     * their event is complete
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Receives the events of the stream
+     */
+    public interface EventListener {
+        /**
+         * Called when an event with data is complete
+         * 
+         * @param eventType
+         *            The type of the event, or null if it had no event field
+         * @param data
+         *            The data of the event, with its lines joined by line
+         *            feeds
+         * @param lastEventId
+         *            The last event id received in the stream, or null
+         */
+        public void onEvent(String eventType, String data, String lastEventId) throws Exception;
+    }
+
+    private EventListener mListener;
+
+    private byte[] mLine = new byte[INITIAL_BUFFER_SIZE];
+    private int mLineLength = 0;
+
+    private byte[] mData = new byte[INITIAL_BUFFER_SIZE];
+    private int mDataLength = 0;
+    private boolean mHasData = false;
+
+    private String mEventType = null;
+    private String mLastEventId = null;
+    private long mRetry = -1;
+
+    private boolean mSkipLineFeed = false;
+    private int mBomPosition = 0;
+
+    /**
+     * Initializes the parser
+     * 
+     * @param listener
+     *            The listener of the events
+     */
+    public ServerSentEventParser(EventListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener");
+        }
+
+        mListener = listener;
+    }
+
+    /**
+     * Parses bytes of the stream, notifying the events completed by them
+     * 
+     * @param buffer
+     *            The bytes
+     * @param offset
+     *            Offset of the first byte to parse
+     * @param length
+     *            Number of bytes to parse
+     * @throws Exception
+     *             If the listener fails
+     */
+    public void parse(byte[] buffer, int offset, int length) throws Exception {
+        int end = offset + length;
+        int position = offset;
+
+        // the byte order mark is only allowed at the start of the stream
+        while (mBomPosition < BOM.length && position < end) {
+            if (buffer[position] != BOM[mBomPosition]) {
+                if (mBomPosition > 0) {
+                    appendToLine(BOM, 0, mBomPosition);
+                }
+                mBomPosition = BOM.length;
+                break;
+            }
+
+            mBomPosition++;
+            position++;
+        }
+
+        if (mSkipLineFeed && position < end) {
+            mSkipLineFeed = false;
+            if (buffer[position] == LF) {
+                position++;
+            }
+        }
+
+        int lineStart = position;
+
+        while (position < end) {
+            byte b = buffer[position];
+
+            if (b != LF && b != CR) {
+                position++;
+                continue;
+            }
+
+            if (mLineLength > 0) {
+                appendToLine(buffer, lineStart, position - lineStart);
+                processLine(mLine, 0, mLineLength);
+                mLineLength = 0;
+            } else {
+                processLine(buffer, lineStart, position);
+            }
+
+            position++;
+
+            if (b == CR) {
+                if (position == end) {
+                    mSkipLineFeed = true;
+                } else if (buffer[position] == LF) {
+                    position++;
+                }
+            }
+
+            lineStart = position;
+        }
+
+        if (lineStart < end) {
+            appendToLine(buffer, lineStart, end - lineStart);
+        }
+    }
+
+    /**
+     * Returns the last event id received in the stream, or null
+     */
+    public String getLastEventId() {
+        return mLastEventId;
+    }
+
+    /**
+     * Returns the reconnection time in milliseconds sent by the server, or -1
+     * if it was not sent
+     */
+    public long getRetry() {
+        return mRetry;
+    }
+
+    private void processLine(byte[] line, int start, int end) throws Exception {
+        if (start == end) {
+            dispatchEvent();
+            return;
+        }
+
+        // comment line
+        if (line[start] == COLON) {
+            return;
+        }
+
+        int colon = start;
+        while (colon < end && line[colon] != COLON) {
+            colon++;
+        }
+
+        int valueStart = colon;
+        if (colon < end) {
+            valueStart++;
+            if (valueStart < end && line[valueStart] == SPACE) {
+                valueStart++;
+            }
+        }
+
+        if (fieldEquals(DATA_FIELD, line, start, colon)) {
+            int valueLength = end - valueStart;
+            mData = ensureCapacity(mData, mDataLength, valueLength + 1);
+
+            if (mHasData) {
+                mData[mDataLength++] = LF;
+            }
+
+            System.arraycopy(line, valueStart, mData, mDataLength, valueLength);
+            mDataLength += valueLength;
+            mHasData = true;
+        } else if (fieldEquals(EVENT_FIELD, line, start, colon)) {
+            mEventType = decode(line, valueStart, end - valueStart);
+        } else if (fieldEquals(ID_FIELD, line, start, colon)) {
+            mLastEventId = decode(line, valueStart, end - valueStart);
+        } else if (fieldEquals(RETRY_FIELD, line, start, colon)) {
+            long retry = parseRetry(line, valueStart, end);
+            if (retry >= 0) {
+                mRetry = retry;
+            }
+        }
+
+        // other fields are ignored
+    }
+
+    private void dispatchEvent() throws Exception {
+        if (!mHasData) {
+            mEventType = null;
+            return;
+        }
+
+        String data = decode(mData, 0, mDataLength);
+        String eventType = mEventType;
+
+        mHasData = false;
+        mDataLength = 0;
+        mEventType = null;
+
+        if (mData.length > MAX_RETAINED_BUFFER_SIZE) {
+            mData = new byte[INITIAL_BUFFER_SIZE];
+        }
+
+        if (mLine.length > MAX_RETAINED_BUFFER_SIZE) {
+            mLine = new byte[INITIAL_BUFFER_SIZE];
+        }
+
+        mListener.onEvent(eventType, data, mLastEventId);
+    }
+
+    private void appendToLine(byte[] buffer, int offset, int length) {
+        mLine = ensureCapacity(mLine, mLineLength, length);
+        System.arraycopy(buffer, offset, mLine, mLineLength, length);
+        mLineLength += length;
+    }
+
+    private static byte[] ensureCapacity(byte[] buffer, int length, int additionalLength) {
+        int requiredLength = length + additionalLength;
+
+        if (requiredLength <= buffer.length) {
+            return buffer;
+        }
+
+        int newLength = buffer.length;
+        while (newLength < requiredLength) {
+            newLength *= 2;
+        }
+
+        byte[] newBuffer = new byte[newLength];
+        System.arraycopy(buffer, 0, newBuffer, 0, length);
+
+        return newBuffer;
+    }
+
+    private static boolean fieldEquals(byte[] field, byte[] line, int start, int end) {
+        if (end - start != field.length) {
+            return false;
+        }
+
+        for (int i = 0; i < field.length; i++) {
+            if (line[start + i] != field[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static long parseRetry(byte[] line, int start, int end) {
+        if (start == end || end - start > 18) {
+            return -1;
+        }
+
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            if (line[i] < '0' || line[i] > '9') {
+                return -1;
+            }
+
+            value = value * 10 + (line[i] - '0');
+        }
+
+        return value;
+    }
+
+    private static String decode(byte[] buffer, int offset, int length) throws UnsupportedEncodingException {
+        return new String(buffer, offset, length, Constants.UTF8_NAME);
+    }
+}
@@ -6,13 +6,16 @@ See License.txt in the project root for license information.
 
 package microsoft.aspnet.signalr.client.transport;
 
+import java.io.InputStream;
+
 import microsoft.aspnet.signalr.client.SignalRFuture;
 import microsoft.aspnet.signalr.client.ConnectionBase;
 import microsoft.aspnet.signalr.client.Constants;
 import microsoft.aspnet.signalr.client.LogLevel;
 import microsoft.aspnet.signalr.client.Logger;
+import microsoft.aspnet.signalr.client.http.ByteResponse;
 import microsoft.aspnet.signalr.client.http.HttpConnection;
-import microsoft.aspnet.signalr.client.http.HttpConnectionFuture.ResponseCallback;
+import microsoft.aspnet.signalr.client.http.HttpConnectionFuture.StreamingResponseCallback;
 import microsoft.aspnet.signalr.client.http.Request;
 import microsoft.aspnet.signalr.client.http.Response;
 
@@ -21,9 +24,8 @@ import microsoft.aspnet.signalr.client.http.Response;
  */
 public class ServerSentEventsTransport extends HttpClientTransport {
 
-    private static final int SSE_DATA_PREFIX_LENGTH = 6;
-    private static final String DATA_INITIALIZED = "data: initialized";
-    private static final String END_OF_SSE_MESSAGE = "\n\n";
+    private static final String INITIALIZED_DATA = "initialized";
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
 
     private SignalRFuture<Void> mConnectionFuture;
 
@@ -73,38 +75,44 @@ public class ServerSentEventsTransport extends HttpClientTransport {
 
         connection.prepareRequest(get);
 
+        final ServerSentEventParser parser = new ServerSentEventParser(new ServerSentEventParser.EventListener() {
+
+            @Override
+            public void onEvent(String eventType, String data, String lastEventId) {
+                if (data.equals(INITIALIZED_DATA)) {
+                    log("Initialization message found", LogLevel.Verbose);
+                } else {
+                    if (isPayloadLoggable(LogLevel.Verbose)) {
+                        log("Trigger onData: " + data, LogLevel.Verbose);
+                    }
+                    callback.onData(data);
+                }
+            }
+        });
+
         log("Execute the request", LogLevel.Verbose);
-        mConnectionFuture = mHttpConnection.execute(get, new ResponseCallback() {
+        mConnectionFuture = mHttpConnection.execute(get, new StreamingResponseCallback() {
 
             @Override
             public void onResponse(Response response) {
                 try {
-                    log("Response received", LogLevel.Verbose);
-                    throwOnInvalidStatusCode(response);
-
-                    mConnectionFuture.setResult(null);
-
-                    StringBuilder buffer = new StringBuilder();
-                    String line = null;
-
-                    log("Read the response content by line", LogLevel.Verbose);
-                    while ((line = response.readLine()) != null) {
-                        buffer.append(line);
-                        buffer.append("\n");
-                        String currentData = buffer.toString();
-                        if (currentData.endsWith(END_OF_SSE_MESSAGE)) {
-                            currentData = currentData.trim();
-                            log("Found new data: " + currentData, LogLevel.Verbose);
-                            if (currentData.equals(DATA_INITIALIZED)) {
-                                log("Initialization message found", LogLevel.Verbose);
-                            } else {
-                                String content = currentData.substring(SSE_DATA_PREFIX_LENGTH).trim();
-
-                                log("Trigger onData: " + content, LogLevel.Verbose);
-                                callback.onData(content);
-                            }
-
-                            buffer = new StringBuilder();
+                    onStreamStarted(response);
+
+                    log("Read the response content", LogLevel.Verbose);
+                    if (response instanceof ByteResponse) {
+                        InputStream stream = ((ByteResponse) response).getInputStream();
+                        byte[] buffer = new byte[READ_BUFFER_SIZE];
+                        int read;
+
+                        while ((read = stream.read(buffer)) != -1) {
+                            parser.parse(buffer, 0, read);
+                        }
+                    } else {
+                        // the other responses give the events line by line
+                        String line;
+                        while ((line = response.readLine()) != null) {
+                            byte[] bytes = (line + "\n").getBytes(Constants.UTF8);
+                            parser.parse(bytes, 0, bytes.length);
                         }
                     }
 
@@ -115,6 +123,21 @@ public class ServerSentEventsTransport extends HttpClientTransport {
                     }
                 }
             }
+
+            @Override
+            public void onStreamStarted(Response response) throws Exception {
+                log("Response received", LogLevel.Verbose);
+                throwOnInvalidStatusCode(response);
+
+                mConnectionFuture.setResult(null);
+            }
+
+            @Override
+            public void onStreamData(byte[] data, int offset, int length) throws Exception {
+                // the connection pushes the content as it arrives, so no
+                // thread waits for the next event
+                parser.parse(data, offset, length);
+            }
         });
 
         return mConnectionFuture;
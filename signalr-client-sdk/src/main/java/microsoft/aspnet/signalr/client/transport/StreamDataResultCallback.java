@@ -0,0 +1,29 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Callback for data result operations that can consume the data directly from
+ * the response stream. Transports that support it pass the stream instead of
+ * reading the whole response into a String
+ */
+public interface StreamDataResultCallback extends DataResultCallback {
+
+    /**
+     * Callback invoked when there is new data from the server
+     * 
+     * @param data
+     *            stream with the data, encoded as UTF-8. It must be consumed
+     *            before the method returns
+     * @throws IOException
+     *             If reading the stream fails
+     */
+    public void onData(InputStream data) throws IOException;
+}
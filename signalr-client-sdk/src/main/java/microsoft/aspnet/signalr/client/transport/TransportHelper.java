@@ -6,106 +6,228 @@ See License.txt in the project root for license information.
 
 package microsoft.aspnet.signalr.client.transport;
 
+import java.io.EOFException;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 
-import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
+import microsoft.aspnet.signalr.client.CodecHelper;
 import microsoft.aspnet.signalr.client.Connection;
 import microsoft.aspnet.signalr.client.ConnectionBase;
 import microsoft.aspnet.signalr.client.Constants;
+import microsoft.aspnet.signalr.client.GsonValue;
+import microsoft.aspnet.signalr.client.JsonStreamReader;
+import microsoft.aspnet.signalr.client.JsonStreamToken;
+import microsoft.aspnet.signalr.client.LogHelper;
 import microsoft.aspnet.signalr.client.LogLevel;
 import microsoft.aspnet.signalr.client.Logger;
 import microsoft.aspnet.signalr.client.MessageResult;
+import microsoft.aspnet.signalr.client.StreamingConnection;
 
 public class TransportHelper {
+    /**
+     * Processes the data received from the server. The data is read in a
+     * single pass, and each element of the "M" array is handed to the
+     * connection without building the whole response in memory
+     * 
+     * @param data
+     *            The received data
+     * @param connection
+     *            The connection that receives the messages
+     * @return The result of the processing
+     */
     public static MessageResult processReceivedData(String data, ConnectionBase connection) {
-        Logger logger = connection.getLogger();
         MessageResult result = new MessageResult();
-        
+
         if (data == null) {
             return result;
         }
 
-        data = data.trim();
+        JsonStreamReader reader = CodecHelper.getCodec(connection).newReader(new StringReader(data));
 
-        if ("".equals(data)) {
+        try {
+            processReceivedData(reader, connection, connection.getLogger(), result);
+        } catch (Exception e) {
+            connection.onError(e, false);
+        }
+
+        return result;
+    }
+
+    /**
+     * Processes the data received from the server while it is read from the
+     * stream. Each element of the "M" array is dispatched as soon as it is
+     * parsed, without building the whole response in memory
+     * 
+     * @param data
+     *            The response stream, encoded as UTF-8
+     * @param connection
+     *            The connection that receives the messages
+     * @return The result of the processing
+     * @throws IOException
+     *             If reading the stream fails
+     */
+    public static MessageResult processReceivedData(InputStream data, ConnectionBase connection) throws IOException {
+        Logger logger = connection.getLogger();
+        MessageResult result = new MessageResult();
+
+        if (data == null) {
             return result;
         }
 
-        JsonObject json = null;
+        // the errors of the stream are told apart from invalid data, whatever
+        // exceptions the codec reports them with
+        StreamReader streamReader = new StreamReader(new InputStreamReader(data, Constants.UTF8));
+        JsonStreamReader reader = CodecHelper.getCodec(connection).newReader(streamReader);
 
         try {
-            json = connection.getJsonParser().parse(data).getAsJsonObject();
-        } catch (Exception e) {
+            processReceivedData(reader, connection, logger, result);
+        } catch (EOFException e) {
+            // the response was cut
+            throw e;
+        } catch (IOException e) {
+            streamReader.throwStreamError();
+            connection.onError(e, false);
+        } catch (RuntimeException e) {
+            streamReader.throwStreamError();
             connection.onError(e, false);
-            return result;
         }
 
-        if (json.entrySet().size() == 0) {
-            return result;
+        return result;
+    }
+
+    /**
+     * Reader of a response stream that remembers the errors of the stream
+     */
+    private static class StreamReader extends FilterReader {
+
+        private IOException mStreamError;
+
+        StreamReader(Reader reader) {
+            super(reader);
         }
 
-        if (json.get("I") != null) {
-            logger.log("Invoking message received with: " + json.toString(), LogLevel.Verbose);
-            connection.onReceived(json);
-        } else {
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                mStreamError = e;
+                throw e;
+            }
+        }
 
-            // disconnected
-            if (json.get("D") != null) {
-                if (json.get("D").getAsInt() == 1) {
-                    logger.log("Disconnect message received", LogLevel.Verbose);
-                    result.setDisconnect(true);
-                    return result;
-                }
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            try {
+                return super.read(buffer, offset, length);
+            } catch (IOException e) {
+                mStreamError = e;
+                throw e;
             }
+        }
 
-            // should reconnect
-            if (json.get("T") != null) {
-                if (json.get("T").getAsInt() == 1) {
-                    logger.log("Reconnect message received", LogLevel.Verbose);
-                    result.setReconnect(true);
-                }
+        void throwStreamError() throws IOException {
+            if (mStreamError != null) {
+                throw mStreamError;
             }
+        }
+    }
 
-            if (json.get("G") != null) {
-                String groupsToken = json.get("G").getAsString();
-                logger.log("Group token received: " + groupsToken, LogLevel.Verbose);
-                connection.setGroupsToken(groupsToken);
+    private static void processReceivedData(JsonStreamReader reader, ConnectionBase connection, Logger logger, MessageResult result)
+            throws IOException {
+        try {
+            if (reader.peek() != JsonStreamToken.BeginObject) {
+                throw new IllegalStateException("The received data is not a JSON Object: " + reader.peek());
             }
+        } catch (EOFException e) {
+            // empty response
+            return;
+        }
+
+        JsonObject envelope = new JsonObject();
+        String messageId = null;
+        boolean receivedMessages = false;
 
-            JsonElement messages = json.get("M");
-            if (messages != null && messages.isJsonArray()) {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
 
-                if (json.get("C") != null) {
-                    String messageId = json.get("C").getAsString();
-                    logger.log("MessageId received: " + messageId, LogLevel.Verbose);
+            if ("M".equals(name) && reader.peek() == JsonStreamToken.BeginArray) {
+                if (messageId != null) {
+                    if (LogHelper.isLoggable(logger, LogLevel.Verbose)) {
+                        logger.log("MessageId received: " + messageId, LogLevel.Verbose);
+                    }
                     connection.setMessageId(messageId);
                 }
 
-                JsonArray messagesArray = messages.getAsJsonArray();
-                int size = messagesArray.size();
+                receivedMessages = true;
 
-                for (int i = 0; i < size; i++) {
-                    JsonElement message = messagesArray.get(i);
-                    JsonElement processedMessage = null;
-
-                    logger.log("Invoking OnReceived with: " + processedMessage, LogLevel.Verbose);
-                    connection.onReceived(message);
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    logger.log("Invoking OnReceived", LogLevel.Verbose);
+                    if (connection instanceof StreamingConnection) {
+                        ((StreamingConnection) connection).onReceived(reader);
+                    } else {
+                        connection.onReceived(GsonValue.readElement(reader));
+                    }
                 }
+                reader.endArray();
+
+                continue;
             }
 
-            if (json.get("S") != null) {
-                if (json.get("S").getAsInt() == 1) {
-                    logger.log("Initialization message received", LogLevel.Information);
-                    result.setInitialize(true);
+            JsonElement value = GsonValue.readElement(reader);
+            envelope.add(name, value);
+
+            if (envelope.has("I") || !value.isJsonPrimitive()) {
+                // hub results are dispatched once complete
+                continue;
+            }
+
+            if ("D".equals(name) && value.getAsInt() == 1) {
+                logger.log("Disconnect message received", LogLevel.Verbose);
+                result.setDisconnect(true);
+                return;
+            } else if ("T".equals(name) && value.getAsInt() == 1) {
+                logger.log("Reconnect message received", LogLevel.Verbose);
+                result.setReconnect(true);
+            } else if ("G".equals(name)) {
+                String groupsToken = value.getAsString();
+                if (LogHelper.isLoggable(logger, LogLevel.Verbose)) {
+                    logger.log("Group token received: " + groupsToken, LogLevel.Verbose);
                 }
+                connection.setGroupsToken(groupsToken);
+            } else if ("C".equals(name)) {
+                messageId = value.getAsString();
+
+                if (receivedMessages) {
+                    if (LogHelper.isLoggable(logger, LogLevel.Verbose)) {
+                        logger.log("MessageId received: " + messageId, LogLevel.Verbose);
+                    }
+                    connection.setMessageId(messageId);
+                }
+            } else if ("S".equals(name) && value.getAsInt() == 1) {
+                logger.log("Initialization message received", LogLevel.Information);
+                result.setInitialize(true);
             }
         }
+        reader.endObject();
 
-        return result;
+        if (envelope.has("I")) {
+            if (LogHelper.isPayloadLoggable(logger, LogLevel.Verbose)) {
+                logger.log("Invoking message received with: " + envelope.toString(), LogLevel.Verbose);
+            }
+            connection.onReceived(envelope);
+        }
     }
 
     /**
@@ -118,18 +240,36 @@ public class TransportHelper {
      * @return The querystring
      */
     public static String getReceiveQueryString(ClientTransport transport, ConnectionBase connection) {
+        return getReceiveQueryString(transport, connection, connection.getMessageId(), connection.getGroupsToken());
+    }
+
+    /**
+     * Creates the query string used on receive, with a message id and groups
+     * token that may be ahead of the ones of the connection
+     * 
+     * @param transport
+     *            Transport to use
+     * @param connection
+     *            Current connection
+     * @param messageId
+     *            The message id, or null
+     * @param groupsToken
+     *            The groups token, or null
+     * @return The querystring
+     */
+    public static String getReceiveQueryString(ClientTransport transport, ConnectionBase connection, String messageId, String groupsToken) {
         StringBuilder qsBuilder = new StringBuilder();
 
         qsBuilder.append("?transport=" + transport.getName()).append("&connectionToken=" + urlEncode(connection.getConnectionToken()));
 
         qsBuilder.append("&connectionId=" + urlEncode(connection.getConnectionId()));
 
-        if (connection.getMessageId() != null) {
-            qsBuilder.append("&messageId=" + urlEncode(connection.getMessageId()));
+        if (messageId != null) {
+            qsBuilder.append("&messageId=" + urlEncode(messageId));
         }
 
-        if (connection.getGroupsToken() != null) {
-            qsBuilder.append("&groupsToken=" + urlEncode(connection.getGroupsToken()));
+        if (groupsToken != null) {
+            qsBuilder.append("&groupsToken=" + urlEncode(groupsToken));
         }
 
         String connectionData = connection.getConnectionData();
@@ -0,0 +1,410 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.transport;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import microsoft.aspnet.signalr.client.Constants;
+
+/**
+ * File backed cache of the transport that last connected to each endpoint.
+ * 
+ * AutomaticTransport starts with the cached transport, so the transports that
+ * don't work for an endpoint aren't tried again after a restart. An entry
+ * expires after its time to live, and it is dropped after too many failures
+ * of its transport. The changes are written to the file on a background
+ * thread, several changes made while a write is pending being written at
+ * once, and the cache works in memory if the file can't be read or written.
+ */
+public class TransportSelectionCache {
+
+    /**
+     * Default time to live of an entry
+     */
+    public static final long DEFAULT_TTL_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Default number of failures after which an entry is dropped
+     */
+    public static final int DEFAULT_MAX_FAILURES = 3;
+
+    /**
+     * Default minimum time between two probes of the better transports of an
+     * endpoint
+     */
+    public static final long DEFAULT_PROBE_INTERVAL_MILLIS = 60 * 60 * 1000L;
+
+    /**
+     * Prefix used to name the threads writing the file
+     */
+    public static final String THREAD_NAME_PREFIX = "SignalR-TransportCache-";
+
+    private static final AtomicInteger CACHE_COUNTER = new AtomicInteger(1);
+
+    private static final int WRITER_THREAD_KEEP_ALIVE_SECONDS = 5;
+
+    private static final String SEPARATOR = "\t";
+
+    private File mFile;
+
+    private long mTtlMillis;
+
+    private int mMaxFailures;
+
+    private long mProbeIntervalMillis;
+
+    private Map<String, Entry> mEntries = null;
+
+    private boolean mDirty = false;
+
+    private boolean mSaveScheduled = false;
+
+    private Object mWriteLock = new Object();
+
+    private Executor mWriter = null;
+
+    /**
+     * Initializes the cache with the default limits
+     * 
+     * @param file
+     *            The file of the cache
+     */
+    public TransportSelectionCache(File file) {
+        this(file, DEFAULT_TTL_MILLIS, DEFAULT_MAX_FAILURES, DEFAULT_PROBE_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Initializes the cache
+     * 
+     * @param file
+     *            The file of the cache
+     * @param ttlMillis
+     *            Time to live of an entry
+     * @param maxFailures
+     *            Number of failures of the cached transport after which an
+     *            entry is dropped
+     * @param probeIntervalMillis
+     *            Minimum time between two probes of the better transports of
+     *            an endpoint
+     */
+    public TransportSelectionCache(File file, long ttlMillis, int maxFailures, long probeIntervalMillis) {
+        if (file == null) {
+            throw new IllegalArgumentException("file");
+        }
+
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("ttlMillis");
+        }
+
+        if (maxFailures <= 0) {
+            throw new IllegalArgumentException("maxFailures");
+        }
+
+        if (probeIntervalMillis < 0) {
+            throw new IllegalArgumentException("probeIntervalMillis");
+        }
+
+        mFile = file;
+        mTtlMillis = ttlMillis;
+        mMaxFailures = maxFailures;
+        mProbeIntervalMillis = probeIntervalMillis;
+    }
+
+    /**
+     * Returns the transport that last connected to an endpoint, or null if
+     * there is none or its entry expired
+     * 
+     * @param endpoint
+     *            The endpoint URL
+     */
+    public synchronized String getTransport(String endpoint) {
+        Entry entry = getEntries().get(endpoint);
+
+        if (entry == null) {
+            return null;
+        }
+
+        if (System.currentTimeMillis() - entry.mUpdated > mTtlMillis) {
+            mEntries.remove(endpoint);
+            save();
+            return null;
+        }
+
+        return entry.mTransport;
+    }
+
+    /**
+     * Records that a transport connected to an endpoint
+     * 
+     * @param endpoint
+     *            The endpoint URL
+     * @param transport
+     *            The transport name
+     */
+    public synchronized void onConnected(String endpoint, String transport) {
+        Entry entry = getEntries().get(endpoint);
+
+        long now = System.currentTimeMillis();
+
+        // a new choice isn't probed before the probe interval elapses
+        if (entry == null || !entry.mTransport.equals(transport)) {
+            entry = new Entry(transport);
+            entry.mProbed = now;
+            mEntries.put(endpoint, entry);
+        }
+
+        entry.mUpdated = now;
+        entry.mFailures = 0;
+        save();
+    }
+
+    /**
+     * Records that a transport failed to connect to an endpoint. The entry
+     * is dropped once its transport failed too many times in a row
+     * 
+     * @param endpoint
+     *            The endpoint URL
+     * @param transport
+     *            The transport name
+     */
+    public synchronized void onFailed(String endpoint, String transport) {
+        Entry entry = getEntries().get(endpoint);
+
+        if (entry == null || !entry.mTransport.equals(transport)) {
+            return;
+        }
+
+        entry.mFailures++;
+        if (entry.mFailures >= mMaxFailures) {
+            mEntries.remove(endpoint);
+        }
+
+        save();
+    }
+
+    /**
+     * Returns whether the better transports of an endpoint should be probed,
+     * and if so records the probe
+     * 
+     * @param endpoint
+     *            The endpoint URL
+     */
+    public synchronized boolean startProbe(String endpoint) {
+        Entry entry = getEntries().get(endpoint);
+        long now = System.currentTimeMillis();
+
+        if (entry == null || now - entry.mProbed < mProbeIntervalMillis) {
+            return false;
+        }
+
+        entry.mProbed = now;
+        save();
+
+        return true;
+    }
+
+    /**
+     * Removes all the entries
+     */
+    public synchronized void clear() {
+        if (getEntries().isEmpty()) {
+            return;
+        }
+
+        mEntries.clear();
+        save();
+    }
+
+    /**
+     * Writes the pending changes to the file, without waiting for the
+     * background thread
+     */
+    public void flush() {
+        synchronized (mWriteLock) {
+            String content;
+
+            synchronized (this) {
+                mSaveScheduled = false;
+
+                if (!mDirty) {
+                    return;
+                }
+
+                content = format();
+                mDirty = false;
+            }
+
+            write(content);
+        }
+    }
+
+    private Map<String, Entry> getEntries() {
+        if (mEntries == null) {
+            mEntries = new HashMap<String, Entry>();
+            load();
+        }
+
+        return mEntries;
+    }
+
+    private void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(mFile), Constants.UTF8_NAME));
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(SEPARATOR);
+
+                // malformed lines are skipped
+                if (fields.length != 5) {
+                    continue;
+                }
+
+                try {
+                    Entry entry = new Entry(fields[1]);
+                    entry.mUpdated = Long.parseLong(fields[2]);
+                    entry.mFailures = Integer.parseInt(fields[3]);
+                    entry.mProbed = Long.parseLong(fields[4]);
+
+                    mEntries.put(fields[0], entry);
+                } catch (NumberFormatException e) {
+                }
+            }
+        } catch (IOException e) {
+            // the cache starts empty
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Schedules the write of the entries. It is called with the cache lock
+     * held
+     */
+    private void save() {
+        mDirty = true;
+
+        if (mSaveScheduled) {
+            return;
+        }
+
+        mSaveScheduled = true;
+        getWriter().execute(new Runnable() {
+
+            @Override
+            public void run() {
+                flush();
+            }
+        });
+    }
+
+    private String format() {
+        StringBuilder content = new StringBuilder();
+
+        for (Map.Entry<String, Entry> item : mEntries.entrySet()) {
+            Entry entry = item.getValue();
+
+            content.append(item.getKey()).append(SEPARATOR).append(entry.mTransport).append(SEPARATOR).append(entry.mUpdated).append(SEPARATOR)
+                    .append(entry.mFailures).append(SEPARATOR).append(entry.mProbed).append('\n');
+        }
+
+        return content.toString();
+    }
+
+    private void write(String content) {
+        // the file is replaced at once, so a crash can't leave half of it.
+        // The temporary file has a unique name, so processes sharing the
+        // cache don't write to the same one
+        File tempFile = null;
+        Writer writer = null;
+
+        try {
+            tempFile = File.createTempFile(mFile.getName(), ".tmp", mFile.getAbsoluteFile().getParentFile());
+            writer = new OutputStreamWriter(new FileOutputStream(tempFile), Constants.UTF8_NAME);
+            writer.write(content);
+
+            writer.close();
+            writer = null;
+
+            if (!tempFile.renameTo(mFile)) {
+                mFile.delete();
+                tempFile.renameTo(mFile);
+            }
+        } catch (IOException e) {
+            // the entries are kept in memory
+        } finally {
+            closeQuietly(writer);
+
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private synchronized Executor getWriter() {
+        if (mWriter == null) {
+            final String threadName = THREAD_NAME_PREFIX + CACHE_COUNTER.getAndIncrement();
+
+            // a single thread keeps the writes in order, and it stops while
+            // there is nothing to write
+            mWriter = new ThreadPoolExecutor(0, 1, WRITER_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, threadName);
+                            thread.setDaemon(true);
+
+                            return thread;
+                        }
+                    });
+        }
+
+        return mWriter;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private static class Entry {
+        String mTransport;
+        long mUpdated = 0;
+        int mFailures = 0;
+        long mProbed = 0;
+
+        Entry(String transport) {
+            mTransport = transport;
+        }
+    }
+}
@@ -0,0 +1,949 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import microsoft.aspnet.signalr.client.Action;
+import microsoft.aspnet.signalr.client.ConnectionBase;
+import microsoft.aspnet.signalr.client.ConnectionState;
+import microsoft.aspnet.signalr.client.ErrorCallback;
+import microsoft.aspnet.signalr.client.LogLevel;
+import microsoft.aspnet.signalr.client.Logger;
+import microsoft.aspnet.signalr.client.NullLogger;
+import microsoft.aspnet.signalr.client.SignalRFuture;
+import microsoft.aspnet.signalr.client.http.HttpConnection;
+import microsoft.aspnet.signalr.client.transport.AutomaticTransport.TransportFactory;
+
+/**
+ * ClientTransport that connects right away using a fast transport, long
+ * polling by default, and then upgrades to a better one in the background.
+ * 
+ * To upgrade, the fast transport stops delivering data and is cancelled, so
+ * the message id and groups token of the connection don't change anymore.
+ * The better transports are then started as a reconnection from that
+ * position, and the first one that connects replaces the fast transport. If
+ * none of them connects, the fast transport is resumed from the same
+ * position. The server keeps the messages in the meantime, so none is lost or
+ * received twice.
+ * 
+ * If the connection keeps reconnecting after an upgrade, the transport
+ * downgrades to the fast transport for the rest of the connection.
+ */
+public class UpgradingTransport extends HttpClientTransport {
+
+    /**
+     * Default time to wait after the fast transport connected before
+     * upgrading
+     */
+    public static final int DEFAULT_UPGRADE_DELAY_MILLIS = 1000;
+
+    /**
+     * Default time to wait before trying to upgrade again when no better
+     * transport connected
+     */
+    public static final int DEFAULT_UPGRADE_RETRY_DELAY_MILLIS = 5 * 60 * 1000;
+
+    /**
+     * Default time to wait for a better transport to connect
+     */
+    public static final int DEFAULT_UPGRADE_TIMEOUT_MILLIS = 10 * 1000;
+
+    /**
+     * Default number of reconnections of the upgraded transport after which
+     * the transport downgrades
+     */
+    public static final int DEFAULT_MAX_RECONNECT_FAILURES = 3;
+
+    /**
+     * Default time within which the reconnections of the upgraded transport
+     * are counted
+     */
+    public static final int DEFAULT_RECONNECT_FAILURE_WINDOW_MILLIS = 60 * 1000;
+
+    private static final String UPGRADE_THREAD_NAME = "SignalR-UpgradingTransport-Upgrade";
+
+    private static final String WEBSOCKETS_TRANSPORT_NAME = "webSockets";
+
+    private static ScheduledThreadPoolExecutor mUpgradeTimer = null;
+
+    private Logger mLogger;
+    private TransportFactory mFastFactory;
+    private List<TransportFactory> mUpgradeFactories;
+    private volatile boolean mTryWebSockets = true;
+    private volatile int mUpgradeDelayMillis = DEFAULT_UPGRADE_DELAY_MILLIS;
+    private volatile int mUpgradeRetryDelayMillis = DEFAULT_UPGRADE_RETRY_DELAY_MILLIS;
+    private volatile int mUpgradeTimeoutMillis = DEFAULT_UPGRADE_TIMEOUT_MILLIS;
+    private volatile int mMaxReconnectFailures = DEFAULT_MAX_RECONNECT_FAILURES;
+    private volatile int mReconnectFailureWindowMillis = DEFAULT_RECONNECT_FAILURE_WINDOW_MILLIS;
+
+    /**
+     * Guards the state below. Transports are never called while it is held
+     */
+    private Object mLock = new Object();
+
+    /**
+     * Held while data is delivered, so the position of the connection doesn't
+     * change once an upgrade paused the fast transport
+     */
+    private Object mDeliveryLock = new Object();
+
+    /**
+     * Incremented every time the transport that may deliver data changes.
+     * Data and events from older generations are ignored
+     */
+    private int mGeneration = 0;
+
+    private ConnectionBase mConnection;
+    private DataResultCallback mCallback;
+    private SignalRFuture<Void> mStartFuture;
+    private volatile ClientTransport mCurrentTransport;
+    private SignalRFuture<Void> mCurrentStart;
+    private ClientTransport mFastTransport;
+    private ClientTransport mUpgradedTransport;
+    private SignalRFuture<Void> mUpgradeStart;
+    private ScheduledFuture<?> mUpgradeTask;
+    private int mNextUpgradeDelayMillis = DEFAULT_UPGRADE_DELAY_MILLIS;
+    private boolean mDowngraded = false;
+    private int mReconnectFailures = 0;
+    private long mLastReconnectFailure = 0;
+
+    /**
+     * Initializes the transport with a NullLogger
+     */
+    public UpgradingTransport() {
+        this(new NullLogger());
+    }
+
+    /**
+     * Initializes the transport with a logger
+     * 
+     * @param logger
+     *            logger to log actions
+     */
+    public UpgradingTransport(Logger logger) {
+        super(logger);
+        initialize(logger, getDefaultFastFactory(), getDefaultUpgradeFactories());
+    }
+
+    /**
+     * Initializes the transport with a logger and an httpConnection
+     * 
+     * @param logger
+     *            the logger
+     * @param httpConnection
+     *            the httpConnection
+     */
+    public UpgradingTransport(Logger logger, HttpConnection httpConnection) {
+        this(logger, httpConnection, getDefaultFastFactory(), getDefaultUpgradeFactories());
+    }
+
+    /**
+     * Initializes the transport with a logger, an httpConnection and the
+     * transports to use
+     * 
+     * @param logger
+     *            the logger
+     * @param httpConnection
+     *            the httpConnection
+     * @param fastFactory
+     *            the factory of the transport used to connect
+     * @param upgradeFactories
+     *            the factories of the transports to upgrade to, in order of
+     *            preference
+     */
+    public UpgradingTransport(Logger logger, HttpConnection httpConnection, TransportFactory fastFactory, List<TransportFactory> upgradeFactories) {
+        super(logger, httpConnection);
+        initialize(logger, fastFactory, upgradeFactories);
+    }
+
+    private void initialize(Logger logger, TransportFactory fastFactory, List<TransportFactory> upgradeFactories) {
+        if (fastFactory == null) {
+            throw new IllegalArgumentException("fastFactory");
+        }
+
+        if (upgradeFactories == null) {
+            throw new IllegalArgumentException("upgradeFactories");
+        }
+
+        mLogger = logger;
+        mFastFactory = fastFactory;
+        mUpgradeFactories = new ArrayList<TransportFactory>(upgradeFactories);
+    }
+
+    private static TransportFactory getDefaultFastFactory() {
+        return new TransportFactory() {
+
+            @Override
+            public String getTransportName() {
+                return "longPolling";
+            }
+
+            @Override
+            public ClientTransport createTransport(Logger logger) {
+                return new LongPollingTransport(logger);
+            }
+        };
+    }
+
+    private static List<TransportFactory> getDefaultUpgradeFactories() {
+        List<TransportFactory> factories = new ArrayList<TransportFactory>();
+
+        factories.add(new TransportFactory() {
+
+            @Override
+            public String getTransportName() {
+                return WEBSOCKETS_TRANSPORT_NAME;
+            }
+
+            @Override
+            public ClientTransport createTransport(Logger logger) {
+                return new WebsocketTransport(logger);
+            }
+        });
+
+        factories.add(new TransportFactory() {
+
+            @Override
+            public String getTransportName() {
+                return "serverSentEvents";
+            }
+
+            @Override
+            public ClientTransport createTransport(Logger logger) {
+                return new ServerSentEventsTransport(logger);
+            }
+        });
+
+        return factories;
+    }
+
+    /**
+     * Sets the time to wait after the fast transport connected before
+     * upgrading
+     * 
+     * @param upgradeDelayMillis
+     *            The delay in milliseconds
+     */
+    public void setUpgradeDelay(int upgradeDelayMillis) {
+        if (upgradeDelayMillis < 0) {
+            throw new IllegalArgumentException("upgradeDelayMillis");
+        }
+
+        mUpgradeDelayMillis = upgradeDelayMillis;
+    }
+
+    /**
+     * Returns the time to wait after the fast transport connected before
+     * upgrading
+     */
+    public int getUpgradeDelay() {
+        return mUpgradeDelayMillis;
+    }
+
+    /**
+     * Sets the time to wait before trying to upgrade again when no better
+     * transport connected
+     * 
+     * @param upgradeRetryDelayMillis
+     *            The delay in milliseconds
+     */
+    public void setUpgradeRetryDelay(int upgradeRetryDelayMillis) {
+        if (upgradeRetryDelayMillis < 0) {
+            throw new IllegalArgumentException("upgradeRetryDelayMillis");
+        }
+
+        mUpgradeRetryDelayMillis = upgradeRetryDelayMillis;
+    }
+
+    /**
+     * Returns the time to wait before trying to upgrade again when no better
+     * transport connected
+     */
+    public int getUpgradeRetryDelay() {
+        return mUpgradeRetryDelayMillis;
+    }
+
+    /**
+     * Sets the time to wait for a better transport to connect. The fast
+     * transport doesn't deliver data during that time
+     * 
+     * @param upgradeTimeoutMillis
+     *            The timeout in milliseconds
+     */
+    public void setUpgradeTimeout(int upgradeTimeoutMillis) {
+        if (upgradeTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("upgradeTimeoutMillis");
+        }
+
+        mUpgradeTimeoutMillis = upgradeTimeoutMillis;
+    }
+
+    /**
+     * Returns the time to wait for a better transport to connect
+     */
+    public int getUpgradeTimeout() {
+        return mUpgradeTimeoutMillis;
+    }
+
+    /**
+     * Sets the number of reconnections of the upgraded transport, within the
+     * failure window, after which the transport downgrades to the fast
+     * transport until the connection is restarted
+     * 
+     * @param maxReconnectFailures
+     *            The number of reconnections
+     */
+    public void setMaxReconnectFailures(int maxReconnectFailures) {
+        if (maxReconnectFailures <= 0) {
+            throw new IllegalArgumentException("maxReconnectFailures");
+        }
+
+        mMaxReconnectFailures = maxReconnectFailures;
+    }
+
+    /**
+     * Returns the number of reconnections of the upgraded transport after
+     * which the transport downgrades
+     */
+    public int getMaxReconnectFailures() {
+        return mMaxReconnectFailures;
+    }
+
+    /**
+     * Sets the time within which the reconnections of the upgraded transport
+     * are counted
+     * 
+     * @param reconnectFailureWindowMillis
+     *            The time in milliseconds
+     */
+    public void setReconnectFailureWindow(int reconnectFailureWindowMillis) {
+        if (reconnectFailureWindowMillis <= 0) {
+            throw new IllegalArgumentException("reconnectFailureWindowMillis");
+        }
+
+        mReconnectFailureWindowMillis = reconnectFailureWindowMillis;
+    }
+
+    /**
+     * Returns the time within which the reconnections of the upgraded
+     * transport are counted
+     */
+    public int getReconnectFailureWindow() {
+        return mReconnectFailureWindowMillis;
+    }
+
+    /**
+     * Returns true if a better transport replaced the fast transport
+     */
+    public boolean isUpgraded() {
+        synchronized (mLock) {
+            return mUpgradedTransport != null && mCurrentTransport == mUpgradedTransport;
+        }
+    }
+
+    /**
+     * Returns true if the transport downgraded after repeated reconnections
+     */
+    public boolean isDowngraded() {
+        synchronized (mLock) {
+            return mDowngraded;
+        }
+    }
+
+    @Override
+    public String getName() {
+        ClientTransport currentTransport = mCurrentTransport;
+        if (currentTransport == null) {
+            return "UpgradingTransport";
+        }
+
+        return currentTransport.getName();
+    }
+
+    @Override
+    public boolean supportKeepAlive() {
+        ClientTransport currentTransport = mCurrentTransport;
+        if (currentTransport != null) {
+            return currentTransport.supportKeepAlive();
+        }
+
+        return false;
+    }
+
+    @Override
+    public SignalRFuture<NegotiationResponse> negotiate(ConnectionBase connection) {
+        SignalRFuture<NegotiationResponse> negotiationFuture = super.negotiate(connection);
+
+        negotiationFuture.done(new Action<NegotiationResponse>() {
+
+            @Override
+            public void run(NegotiationResponse negotiationResponse) throws Exception {
+                mTryWebSockets = negotiationResponse.shouldTryWebSockets();
+            }
+        });
+
+        return negotiationFuture;
+    }
+
+    @Override
+    public SignalRFuture<Void> start(ConnectionBase connection, ConnectionType connectionType, DataResultCallback callback) {
+        final SignalRFuture<Void> startFuture = new SignalRFuture<Void>();
+        final ClientTransport transport;
+        final boolean fallBack;
+        SignalRFuture<Void> upgradeStart;
+        SignalRFuture<Void> replacedStart = null;
+
+        synchronized (mLock) {
+            upgradeStart = cancelUpgrade();
+
+            mConnection = connection;
+            mCallback = callback;
+            mStartFuture = startFuture;
+
+            if (connectionType == ConnectionType.InitialConnection) {
+                mUpgradedTransport = null;
+                mDowngraded = false;
+                mReconnectFailures = 0;
+                mNextUpgradeDelayMillis = mUpgradeDelayMillis;
+            } else if (mUpgradedTransport != null && mCurrentTransport == mUpgradedTransport) {
+                // the upgraded transport was lost
+                if (recordReconnectFailure()) {
+                    if (isLoggable(LogLevel.Information)) {
+                        log("Upgrading: Transport " + mUpgradedTransport.getName() + " keeps reconnecting, downgrading", LogLevel.Information);
+                    }
+                    mUpgradedTransport = null;
+                    mDowngraded = true;
+                }
+            }
+
+            if (mUpgradedTransport != null && mCurrentTransport == mUpgradedTransport) {
+                transport = mUpgradedTransport;
+                fallBack = true;
+            } else {
+                transport = getFastTransport();
+                fallBack = false;
+            }
+
+            // a transport that is restarted stops by itself, a replaced one
+            // is stopped here
+            if (mCurrentTransport != null && mCurrentTransport != transport) {
+                replacedStart = mCurrentStart;
+                mCurrentStart = null;
+            }
+        }
+
+        if (upgradeStart != null) {
+            upgradeStart.cancel();
+        }
+
+        if (replacedStart != null) {
+            replacedStart.cancel();
+        }
+
+        startFuture.onCancelled(new Runnable() {
+
+            @Override
+            public void run() {
+                onCancelled(startFuture);
+            }
+        });
+
+        connect(transport, connectionType, startFuture, fallBack);
+
+        return startFuture;
+    }
+
+    @Override
+    public SignalRFuture<Void> send(ConnectionBase connection, String data, DataResultCallback callback) {
+        ClientTransport currentTransport = mCurrentTransport;
+        if (currentTransport != null) {
+            return currentTransport.send(connection, data, callback);
+        }
+
+        return null;
+    }
+
+    @Override
+    public SignalRFuture<Void> abort(ConnectionBase connection) {
+        ClientTransport currentTransport = mCurrentTransport;
+        if (currentTransport != null) {
+            return currentTransport.abort(connection);
+        }
+
+        return null;
+    }
+
+    /**
+     * Starts a transport that becomes the current one
+     * 
+     * @param fallBack
+     *            True if the fast transport is started when the transport
+     *            fails to connect
+     */
+    private void connect(final ClientTransport transport, ConnectionType connectionType, final SignalRFuture<Void> startFuture, final boolean fallBack) {
+        final int generation;
+        ConnectionBase connection;
+
+        synchronized (mLock) {
+            if (startFuture != mStartFuture || startFuture.isCancelled()) {
+                return;
+            }
+
+            generation = ++mGeneration;
+            mCurrentTransport = transport;
+            connection = mConnection;
+        }
+
+        if (isLoggable(LogLevel.Verbose)) {
+            log("Upgrading: Starting transport " + transport.getName() + " for " + connectionType.toString(), LogLevel.Verbose);
+        }
+        final SignalRFuture<Void> transportStart = transport.start(connection, connectionType, createCallback(generation));
+
+        if (!setCurrentStart(generation, transportStart)) {
+            transportStart.cancel();
+            return;
+        }
+
+        final AtomicBoolean connected = new AtomicBoolean(false);
+
+        transportStart.done(new Action<Void>() {
+
+            @Override
+            public void run(Void obj) throws Exception {
+                connected.set(true);
+                onConnected(generation, transport, startFuture);
+            }
+        });
+
+        transportStart.onError(new ErrorCallback() {
+
+            @Override
+            public void onError(Throwable error) {
+                if (fallBack && !connected.get()) {
+                    onReconnectFailed(generation, transport, startFuture, error);
+                } else {
+                    onLost(generation, transport, error);
+                }
+            }
+        });
+    }
+
+    private boolean setCurrentStart(int generation, SignalRFuture<Void> transportStart) {
+        synchronized (mLock) {
+            if (generation != mGeneration) {
+                return false;
+            }
+
+            mCurrentStart = transportStart;
+            return true;
+        }
+    }
+
+    private void onConnected(int generation, ClientTransport transport, SignalRFuture<Void> startFuture) {
+        synchronized (mLock) {
+            if (generation != mGeneration) {
+                return;
+            }
+
+            if (transport != mUpgradedTransport && !mDowngraded && !mUpgradeFactories.isEmpty()) {
+                scheduleUpgrade(generation);
+            }
+        }
+
+        if (isLoggable(LogLevel.Information)) {
+            log("Upgrading: Connected using transport " + transport.getName(), LogLevel.Information);
+        }
+        startFuture.setResult(null);
+    }
+
+    private void onReconnectFailed(int generation, ClientTransport transport, SignalRFuture<Void> startFuture, Throwable error) {
+        synchronized (mLock) {
+            if (generation != mGeneration) {
+                return;
+            }
+
+            mUpgradedTransport = null;
+        }
+
+        if (isLoggable(LogLevel.Information)) {
+            log(String.format("Upgrading: Failed to reconnect using transport %s, falling back. %s", transport.getName(), error.toString()), LogLevel.Information);
+        }
+        connect(getFastTransportLocked(), ConnectionType.Reconnection, startFuture, false);
+    }
+
+    /**
+     * Forwards the error of the current transport to the connection
+     */
+    private void onLost(int generation, ClientTransport transport, Throwable error) {
+        SignalRFuture<Void> startFuture;
+
+        synchronized (mLock) {
+            if (generation != mGeneration || transport != mCurrentTransport) {
+                return;
+            }
+
+            startFuture = mStartFuture;
+        }
+
+        startFuture.triggerError(error);
+    }
+
+    private void onCancelled(SignalRFuture<Void> startFuture) {
+        List<SignalRFuture<Void>> starts = new ArrayList<SignalRFuture<Void>>();
+
+        synchronized (mLock) {
+            if (startFuture != mStartFuture) {
+                return;
+            }
+
+            mGeneration++;
+
+            SignalRFuture<Void> upgradeStart = cancelUpgrade();
+            if (upgradeStart != null) {
+                starts.add(upgradeStart);
+            }
+
+            if (mCurrentStart != null) {
+                starts.add(mCurrentStart);
+                mCurrentStart = null;
+            }
+        }
+
+        for (SignalRFuture<Void> start : starts) {
+            start.cancel();
+        }
+    }
+
+    /**
+     * Counts a reconnection of the upgraded transport
+     * 
+     * @return True if the transport must downgrade
+     */
+    private boolean recordReconnectFailure() {
+        long now = System.currentTimeMillis();
+
+        if (now - mLastReconnectFailure > mReconnectFailureWindowMillis) {
+            mReconnectFailures = 0;
+        }
+
+        mLastReconnectFailure = now;
+        mReconnectFailures++;
+
+        return mReconnectFailures >= mMaxReconnectFailures;
+    }
+
+    private void scheduleUpgrade(final int generation) {
+        mUpgradeTask = getUpgradeTimer().schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                upgrade(generation);
+            }
+        }, mNextUpgradeDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels the scheduled upgrade and returns the start of the transport
+     * being tried, which the caller must cancel once the lock is released
+     */
+    private SignalRFuture<Void> cancelUpgrade() {
+        if (mUpgradeTask != null) {
+            mUpgradeTask.cancel(false);
+            mUpgradeTask = null;
+        }
+
+        SignalRFuture<Void> upgradeStart = mUpgradeStart;
+        mUpgradeStart = null;
+
+        return upgradeStart;
+    }
+
+    /**
+     * Pauses the fast transport and tries the better transports. Runs on the
+     * upgrade thread
+     */
+    private void upgrade(int generation) {
+        SignalRFuture<Void> fastStart;
+        int upgradeGeneration;
+
+        // waits for the data being delivered, so the position of the
+        // connection is final once the generation changed
+        synchronized (mDeliveryLock) {
+            synchronized (mLock) {
+                mUpgradeTask = null;
+
+                if (generation != mGeneration || mConnection.getState() != ConnectionState.Connected) {
+                    return;
+                }
+
+                upgradeGeneration = ++mGeneration;
+                fastStart = mCurrentStart;
+                mCurrentStart = null;
+
+                // a cancelled transport can still be finishing its last
+                // request, so the fast transport is created again to resume
+                mFastTransport = null;
+            }
+        }
+
+        if (isLoggable(LogLevel.Verbose)) {
+            log("Upgrading: Pausing transport " + getName() + " to upgrade", LogLevel.Verbose);
+        }
+
+        if (fastStart != null) {
+            fastStart.cancel();
+        }
+
+        tryUpgrade(upgradeGeneration, 0);
+    }
+
+    /**
+     * Starts the better transport at the given index as a reconnection. Runs
+     * on the upgrade thread
+     */
+    private void tryUpgrade(int generation, int index) {
+        TransportFactory factory = null;
+        ConnectionBase connection;
+        final int attemptGeneration;
+
+        synchronized (mDeliveryLock) {
+            synchronized (mLock) {
+                if (generation != mGeneration) {
+                    return;
+                }
+
+                while (index < mUpgradeFactories.size() && !mTryWebSockets
+                        && WEBSOCKETS_TRANSPORT_NAME.equals(mUpgradeFactories.get(index).getTransportName())) {
+                    index++;
+                }
+
+                if (index < mUpgradeFactories.size()) {
+                    factory = mUpgradeFactories.get(index);
+                }
+
+                // each attempt has its own generation, so a transport that
+                // timed out can't deliver data anymore
+                attemptGeneration = ++mGeneration;
+                connection = mConnection;
+            }
+        }
+
+        if (factory == null) {
+            resume(attemptGeneration);
+            return;
+        }
+
+        final ClientTransport transport = factory.createTransport(mLogger);
+        final int nextIndex = index + 1;
+        final AtomicBoolean settled = new AtomicBoolean(false);
+
+        if (isLoggable(LogLevel.Verbose)) {
+            log("Upgrading: Trying transport " + transport.getName(), LogLevel.Verbose);
+        }
+        final SignalRFuture<Void> transportStart = transport.start(connection, ConnectionType.Reconnection, createCallback(attemptGeneration));
+
+        synchronized (mLock) {
+            if (attemptGeneration == mGeneration) {
+                mUpgradeStart = transportStart;
+            } else {
+                settled.set(true);
+            }
+        }
+
+        if (settled.get()) {
+            transportStart.cancel();
+            return;
+        }
+
+        final ScheduledFuture<?> timeoutTask = getUpgradeTimer().schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                if (settled.compareAndSet(false, true)) {
+                    if (isLoggable(LogLevel.Information)) {
+                        log("Upgrading: Transport " + transport.getName() + " didn't connect within " + mUpgradeTimeoutMillis + "ms", LogLevel.Information);
+                    }
+                    transportStart.cancel();
+                    tryUpgrade(attemptGeneration, nextIndex);
+                }
+            }
+        }, mUpgradeTimeoutMillis, TimeUnit.MILLISECONDS);
+
+        transportStart.done(new Action<Void>() {
+
+            @Override
+            public void run(Void obj) throws Exception {
+                if (settled.compareAndSet(false, true)) {
+                    timeoutTask.cancel(false);
+                    onUpgraded(attemptGeneration, transport, transportStart);
+                }
+            }
+        });
+
+        transportStart.onError(new ErrorCallback() {
+
+            @Override
+            public void onError(final Throwable error) {
+                if (!settled.compareAndSet(false, true)) {
+                    onLost(attemptGeneration, transport, error);
+                    return;
+                }
+
+                timeoutTask.cancel(false);
+
+                // the next attempt needs the delivery lock, which must not be
+                // taken on a thread of the transport
+                getUpgradeTimer().execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        if (isLoggable(LogLevel.Information)) {
+                            log(String.format("Upgrading: Failed to connect using transport %s. %s", transport.getName(), error.toString()),
+                                    LogLevel.Information);
+                        }
+                        tryUpgrade(attemptGeneration, nextIndex);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onUpgraded(int generation, ClientTransport transport, SignalRFuture<Void> transportStart) {
+        synchronized (mLock) {
+            if (generation != mGeneration) {
+                return;
+            }
+
+            mCurrentTransport = transport;
+            mCurrentStart = transportStart;
+            mUpgradedTransport = transport;
+            mUpgradeStart = null;
+        }
+
+        if (isLoggable(LogLevel.Information)) {
+            log("Upgrading: Upgraded to transport " + transport.getName(), LogLevel.Information);
+        }
+    }
+
+    /**
+     * Resumes the fast transport from the position where it was paused. Runs
+     * on the upgrade thread
+     */
+    private void resume(int generation) {
+        SignalRFuture<Void> startFuture;
+        ClientTransport transport;
+
+        synchronized (mLock) {
+            if (generation != mGeneration) {
+                return;
+            }
+
+            mUpgradeStart = null;
+            mNextUpgradeDelayMillis = mUpgradeRetryDelayMillis;
+            startFuture = mStartFuture;
+            transport = getFastTransport();
+        }
+
+        if (isLoggable(LogLevel.Information)) {
+            log("Upgrading: No better transport connected, resuming transport " + transport.getName(), LogLevel.Information);
+        }
+        connect(transport, ConnectionType.Reconnection, startFuture, false);
+    }
+
+    private ClientTransport getFastTransportLocked() {
+        synchronized (mLock) {
+            return getFastTransport();
+        }
+    }
+
+    private ClientTransport getFastTransport() {
+        if (mFastTransport == null) {
+            mFastTransport = mFastFactory.createTransport(mLogger);
+        }
+
+        return mFastTransport;
+    }
+
+    /**
+     * Creates the callback of a transport, which only delivers the data while
+     * the generation of the transport is the current one
+     */
+    private DataResultCallback createCallback(final int generation) {
+        final DataResultCallback callback;
+        synchronized (mLock) {
+            callback = mCallback;
+        }
+
+        if (callback instanceof StreamDataResultCallback) {
+            final StreamDataResultCallback streamCallback = (StreamDataResultCallback) callback;
+
+            return new StreamDataResultCallback() {
+
+                @Override
+                public void onData(String data) {
+                    synchronized (mDeliveryLock) {
+                        if (isCurrent(generation)) {
+                            streamCallback.onData(data);
+                        }
+                    }
+                }
+
+                @Override
+                public void onData(InputStream data) throws IOException {
+                    synchronized (mDeliveryLock) {
+                        if (isCurrent(generation)) {
+                            streamCallback.onData(data);
+                        }
+                    }
+                }
+            };
+        }
+
+        return new DataResultCallback() {
+
+            @Override
+            public void onData(String data) {
+                synchronized (mDeliveryLock) {
+                    if (isCurrent(generation)) {
+                        callback.onData(data);
+                    }
+                }
+            }
+        };
+    }
+
+    private boolean isCurrent(int generation) {
+        synchronized (mLock) {
+            return generation == mGeneration;
+        }
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getUpgradeTimer() {
+        if (mUpgradeTimer == null) {
+            mUpgradeTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, UPGRADE_THREAD_NAME);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return mUpgradeTimer;
+    }
+}
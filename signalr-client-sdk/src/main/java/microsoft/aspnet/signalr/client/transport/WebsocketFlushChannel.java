@@ -0,0 +1,149 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.util.LinkedList;
+
+import javax.net.ssl.SSLException;
+
+import org.java_websocket.WrappedByteChannel;
+
+/**
+ * Channel of a WebSocket that notifies when a given frame buffer was
+ * completely written to the socket.
+ * 
+ * The WebSocket writes its queued buffers in order, so the buffers tracked
+ * with {@link #onWritten(ByteBuffer, Runnable)} are matched by identity in the
+ * same order, without polling the write queue.
+ */
+public class WebsocketFlushChannel implements WrappedByteChannel {
+
+    private ByteChannel mChannel;
+
+    private Object mLock = new Object();
+
+    private LinkedList<TrackedBuffer> mTrackedBuffers = new LinkedList<TrackedBuffer>();
+
+    /**
+     * Initializes the channel
+     * 
+     * @param channel
+     *            The channel the data is written to
+     */
+    public WebsocketFlushChannel(ByteChannel channel) {
+        if (channel == null) {
+            throw new IllegalArgumentException("channel");
+        }
+
+        mChannel = channel;
+    }
+
+    /**
+     * Tracks a buffer. It must be called before the buffer is queued for
+     * writing
+     * 
+     * @param buffer
+     *            The buffer to track
+     * @param onWritten
+     *            Called on the writing thread once the buffer was written
+     */
+    public void onWritten(ByteBuffer buffer, Runnable onWritten) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("buffer");
+        }
+
+        if (onWritten == null) {
+            throw new IllegalArgumentException("onWritten");
+        }
+
+        synchronized (mLock) {
+            mTrackedBuffers.addLast(new TrackedBuffer(buffer, onWritten));
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int written = mChannel.write(src);
+
+        if (!src.hasRemaining()) {
+            Runnable onWritten = null;
+
+            synchronized (mLock) {
+                TrackedBuffer tracked = mTrackedBuffers.peek();
+                if (tracked != null && tracked.mBuffer == src) {
+                    mTrackedBuffers.removeFirst();
+                    onWritten = tracked.mOnWritten;
+                }
+            }
+
+            if (onWritten != null) {
+                onWritten.run();
+            }
+        }
+
+        return written;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return mChannel.read(dst);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mChannel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    @Override
+    public boolean isNeedWrite() {
+        return mChannel instanceof WrappedByteChannel && ((WrappedByteChannel) mChannel).isNeedWrite();
+    }
+
+    @Override
+    public void writeMore() throws IOException {
+        if (mChannel instanceof WrappedByteChannel) {
+            ((WrappedByteChannel) mChannel).writeMore();
+        }
+    }
+
+    @Override
+    public boolean isNeedRead() {
+        return mChannel instanceof WrappedByteChannel && ((WrappedByteChannel) mChannel).isNeedRead();
+    }
+
+    @Override
+    public int readMore(ByteBuffer dst) throws SSLException {
+        if (mChannel instanceof WrappedByteChannel) {
+            return ((WrappedByteChannel) mChannel).readMore(dst);
+        }
+
+        return 0;
+    }
+
+    @Override
+    public boolean isBlocking() {
+        return !(mChannel instanceof WrappedByteChannel) || ((WrappedByteChannel) mChannel).isBlocking();
+    }
+
+    private static class TrackedBuffer {
+        ByteBuffer mBuffer;
+        Runnable mOnWritten;
+
+        TrackedBuffer(ByteBuffer buffer, Runnable onWritten) {
+            mBuffer = buffer;
+            mOnWritten = onWritten;
+        }
+    }
+}
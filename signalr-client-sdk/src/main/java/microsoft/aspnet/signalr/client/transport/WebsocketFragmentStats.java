@@ -0,0 +1,74 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.transport;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the fragmented WebSocket messages. They add up the messages of
+ * all the assemblers that report to them
+ */
+public class WebsocketFragmentStats {
+
+    private AtomicLong mFragmentedMessages = new AtomicLong(0);
+
+    private AtomicLong mFragments = new AtomicLong(0);
+
+    private AtomicInteger mLargestMessageSize = new AtomicInteger(0);
+
+    /**
+     * Returns the number of fragmented messages completed
+     */
+    public long getFragmentedMessageCount() {
+        return mFragmentedMessages.get();
+    }
+
+    /**
+     * Returns the number of fragments received
+     */
+    public long getFragmentCount() {
+        return mFragments.get();
+    }
+
+    /**
+     * Returns the size in bytes of the largest fragmented message
+     */
+    public int getLargestMessageSize() {
+        return mLargestMessageSize.get();
+    }
+
+    /**
+     * Resets all the counters
+     */
+    public void reset() {
+        mFragmentedMessages.set(0);
+        mFragments.set(0);
+        mLargestMessageSize.set(0);
+    }
+
+    void onFragmentReceived() {
+        mFragments.incrementAndGet();
+    }
+
+    void onMessageCompleted(int size) {
+        mFragmentedMessages.incrementAndGet();
+
+        int largest;
+        while (size > (largest = mLargestMessageSize.get())) {
+            if (mLargestMessageSize.compareAndSet(largest, size)) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Fragmented messages: " + getFragmentedMessageCount() + ", fragments: " + getFragmentCount() + ", largest message: "
+                + getLargestMessageSize();
+    }
+}
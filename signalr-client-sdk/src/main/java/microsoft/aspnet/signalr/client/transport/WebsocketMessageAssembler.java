@@ -0,0 +1,229 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.transport;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.Framedata.Opcode;
+
+import microsoft.aspnet.signalr.client.Constants;
+
+/**
+ * Reassembles fragmented WebSocket messages.
+ * 
+ * The payload of each fragment is appended to a buffer that is reused for all
+ * the messages, and the text is decoded only once the final fragment arrives.
+ * Fragments must be received from a single thread, so each WebSocket has its
+ * own assembler. The counters can be shared by several assemblers.
+ */
+public class WebsocketMessageAssembler {
+
+    /**
+     * Default maximum size of a reassembled message
+     */
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 4 * 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+
+    /**
+     * Largest buffer kept between messages. Bigger buffers are released once
+     * their message is complete
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private volatile int mMaxMessageSize;
+
+    private byte[] mBuffer = null;
+
+    private int mLength = 0;
+
+    private Opcode mMessageOpcode = null;
+
+    private CharsetDecoder mDecoder;
+
+    private WebsocketFragmentStats mStats;
+
+    /**
+     * Initializes the assembler with the default maximum message size
+     */
+    public WebsocketMessageAssembler() {
+        this(DEFAULT_MAX_MESSAGE_SIZE);
+    }
+
+    /**
+     * Initializes the assembler
+     * 
+     * @param maxMessageSize
+     *            Maximum size in bytes of a reassembled message
+     */
+    public WebsocketMessageAssembler(int maxMessageSize) {
+        this(maxMessageSize, new WebsocketFragmentStats());
+    }
+
+    /**
+     * Initializes the assembler
+     * 
+     * @param maxMessageSize
+     *            Maximum size in bytes of a reassembled message
+     * @param stats
+     *            The counters the assembler reports to
+     */
+    public WebsocketMessageAssembler(int maxMessageSize, WebsocketFragmentStats stats) {
+        if (stats == null) {
+            throw new IllegalArgumentException("stats");
+        }
+
+        setMaxMessageSize(maxMessageSize);
+        mStats = stats;
+
+        mDecoder = Constants.UTF8.newDecoder();
+        mDecoder.onMalformedInput(CodingErrorAction.REPORT);
+        mDecoder.onUnmappableCharacter(CodingErrorAction.REPORT);
+    }
+
+    /**
+     * Sets the maximum size in bytes of a reassembled message
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        if (maxMessageSize <= 0) {
+            throw new IllegalArgumentException("maxMessageSize");
+        }
+
+        mMaxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * Returns the maximum size in bytes of a reassembled message
+     */
+    public int getMaxMessageSize() {
+        return mMaxMessageSize;
+    }
+
+    /**
+     * Adds a fragment to the current message
+     * 
+     * @param frame
+     *            The fragment
+     * @return The complete text message if the fragment was the final one, or
+     *         null otherwise. Binary messages are discarded
+     * @throws InvalidDataException
+     *             If the fragments are out of order, the message is too big or
+     *             it is not valid UTF-8 text. The partial message is discarded
+     */
+    public String onFragment(Framedata frame) throws InvalidDataException {
+        mStats.onFragmentReceived();
+
+        if (frame.getOpcode() == Opcode.CONTINUOUS) {
+            if (mMessageOpcode == null) {
+                throw new InvalidDataException(CloseFrame.PROTOCOL_ERROR, "Continuation frame without a message");
+            }
+        } else {
+            if (mMessageOpcode != null) {
+                reset();
+                throw new InvalidDataException(CloseFrame.PROTOCOL_ERROR, "New message before the previous one was complete");
+            }
+
+            mMessageOpcode = frame.getOpcode();
+        }
+
+        append(frame.getPayloadData());
+
+        if (!frame.isFin()) {
+            return null;
+        }
+
+        mStats.onMessageCompleted(mLength);
+
+        try {
+            if (mMessageOpcode != Opcode.TEXT) {
+                return null;
+            }
+
+            mDecoder.reset();
+            return mDecoder.decode(ByteBuffer.wrap(mBuffer, 0, mLength)).toString();
+        } catch (CharacterCodingException e) {
+            throw new InvalidDataException(CloseFrame.NO_UTF8, e);
+        } finally {
+            reset();
+        }
+    }
+
+    /**
+     * Discards the message being reassembled
+     */
+    public void reset() {
+        mMessageOpcode = null;
+        mLength = 0;
+
+        if (mBuffer != null && mBuffer.length > MAX_RETAINED_BUFFER_SIZE) {
+            mBuffer = null;
+        }
+    }
+
+    /**
+     * Returns the counters the assembler reports to
+     */
+    public WebsocketFragmentStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * Returns the number of fragmented messages completed
+     */
+    public long getFragmentedMessageCount() {
+        return mStats.getFragmentedMessageCount();
+    }
+
+    /**
+     * Returns the number of fragments received
+     */
+    public long getFragmentCount() {
+        return mStats.getFragmentCount();
+    }
+
+    /**
+     * Returns the size in bytes of the largest fragmented message
+     */
+    public int getLargestMessageSize() {
+        return mStats.getLargestMessageSize();
+    }
+
+    private void append(ByteBuffer payload) throws InvalidDataException {
+        int payloadLength = payload.remaining();
+
+        if (payloadLength > mMaxMessageSize - mLength) {
+            reset();
+            throw new InvalidDataException(CloseFrame.TOOBIG, "The message exceeds the maximum size of " + mMaxMessageSize + " bytes");
+        }
+
+        int requiredLength = mLength + payloadLength;
+
+        if (mBuffer == null || requiredLength > mBuffer.length) {
+            int newLength = mBuffer == null ? INITIAL_BUFFER_SIZE : mBuffer.length;
+            while (newLength < requiredLength) {
+                newLength = newLength > mMaxMessageSize / 2 ? mMaxMessageSize : newLength * 2;
+            }
+
+            byte[] newBuffer = new byte[newLength];
+            if (mBuffer != null) {
+                System.arraycopy(mBuffer, 0, newBuffer, 0, mLength);
+            }
+
+            mBuffer = newBuffer;
+        }
+
+        // the payload is read without changing the frame buffer position
+        payload.duplicate().get(mBuffer, mLength, payloadLength);
+        mLength = requiredLength;
+    }
+}
@@ -0,0 +1,364 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.transport;
+
+import java.io.IOException;
+import java.util.LinkedList;
+
+import microsoft.aspnet.signalr.client.SignalRFuture;
+
+/**
+ * Bounded queue of outgoing WebSocket messages.
+ * 
+ * Messages are written in order, one at a time, without a thread of their
+ * own: the next message is written when the writer reports that the previous
+ * one was flushed. The future of each message completes once the message was
+ * flushed to the socket, or fails if it could not be written. The queue is limited both in messages and in bytes,
+ * counting the message being written, and a FullQueuePolicy decides what
+ * happens to the messages sent while it is full.
+ */
+public class WebsocketSendQueue {
+
+    /**
+     * Default maximum number of queued messages
+     */
+    public static final int DEFAULT_MAX_QUEUED_MESSAGES = 1000;
+
+    /**
+     * Default maximum number of queued bytes
+     */
+    public static final long DEFAULT_MAX_QUEUED_BYTES = 1024 * 1024;
+
+    /**
+     * What happens to a message sent while the queue is full
+     */
+    public enum FullQueuePolicy {
+        /**
+         * The sending thread waits until there is room in the queue
+         */
+        Block,
+
+        /**
+         * The message is rejected and its future fails
+         */
+        Fail,
+
+        /**
+         * The oldest queued messages are dropped, and their futures fail, to
+         * make room for the new one
+         */
+        Drop
+    }
+
+    /**
+     * Writes the messages to the socket
+     */
+    public interface MessageWriter {
+        /**
+         * Starts writing a message, without waiting for it to be flushed
+         * 
+         * @param message
+         *            The message to write
+         * @param onFlushed
+         *            To be called once the message was flushed to the socket,
+         *            possibly from another thread
+         * @throws Exception
+         *             If the message could not be written
+         */
+        public void write(String message, Runnable onFlushed) throws Exception;
+    }
+
+    private MessageWriter mWriter;
+
+    private int mMaxQueuedMessages;
+
+    private long mMaxQueuedBytes;
+
+    private FullQueuePolicy mPolicy;
+
+    private Object mLock = new Object();
+
+    private LinkedList<QueuedMessage> mQueue = new LinkedList<QueuedMessage>();
+
+    private int mQueuedMessages = 0;
+
+    private long mQueuedBytes = 0;
+
+    private Throwable mCloseError = null;
+
+    private QueuedMessage mWritingMessage = null;
+
+    /**
+     * Initializes the queue with the default limits, blocking the senders
+     * while it is full
+     * 
+     * @param writer
+     *            The writer of the messages
+     */
+    public WebsocketSendQueue(MessageWriter writer) {
+        this(writer, DEFAULT_MAX_QUEUED_MESSAGES, DEFAULT_MAX_QUEUED_BYTES, FullQueuePolicy.Block);
+    }
+
+    /**
+     * Initializes the queue
+     * 
+     * @param writer
+     *            The writer of the messages
+     * @param maxQueuedMessages
+     *            Maximum number of queued messages
+     * @param maxQueuedBytes
+     *            Maximum number of queued bytes. A single message bigger than
+     *            this is accepted when the queue is empty
+     * @param policy
+     *            What happens to the messages sent while the queue is full
+     */
+    public WebsocketSendQueue(MessageWriter writer, int maxQueuedMessages, long maxQueuedBytes, FullQueuePolicy policy) {
+        if (writer == null) {
+            throw new IllegalArgumentException("writer");
+        }
+
+        if (maxQueuedMessages <= 0) {
+            throw new IllegalArgumentException("maxQueuedMessages");
+        }
+
+        if (maxQueuedBytes <= 0) {
+            throw new IllegalArgumentException("maxQueuedBytes");
+        }
+
+        if (policy == null) {
+            throw new IllegalArgumentException("policy");
+        }
+
+        mWriter = writer;
+        mMaxQueuedMessages = maxQueuedMessages;
+        mMaxQueuedBytes = maxQueuedBytes;
+        mPolicy = policy;
+    }
+
+    /**
+     * Queues a message
+     * 
+     * @param message
+     *            The message to send
+     * @return A future that completes when the message was flushed to the
+     *         socket
+     */
+    public SignalRFuture<Void> send(String message) {
+        if (message == null) {
+            throw new IllegalArgumentException("message");
+        }
+
+        QueuedMessage queuedMessage = new QueuedMessage(message);
+
+        synchronized (mLock) {
+            while (mCloseError == null && isFull(queuedMessage.mSize)) {
+                if (mPolicy == FullQueuePolicy.Fail) {
+                    queuedMessage.mFuture.triggerError(new IOException("The send queue is full"));
+                    return queuedMessage.mFuture;
+                } else if (mPolicy == FullQueuePolicy.Drop && !mQueue.isEmpty()) {
+                    QueuedMessage dropped = mQueue.removeFirst();
+                    onDequeued(dropped);
+                    dropped.mFuture.triggerError(new IOException("The message was dropped because the send queue is full"));
+                } else {
+                    // Block, or Drop with only the message being written left
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        queuedMessage.mFuture.triggerError(e);
+                        return queuedMessage.mFuture;
+                    }
+                }
+            }
+
+            if (mCloseError != null) {
+                queuedMessage.mFuture.triggerError(mCloseError);
+                return queuedMessage.mFuture;
+            }
+
+            mQueue.addLast(queuedMessage);
+            mQueuedMessages++;
+            mQueuedBytes += queuedMessage.mSize;
+
+        }
+
+        writeMessages();
+
+        return queuedMessage.mFuture;
+    }
+
+    /**
+     * Closes the queue. The queued messages, the one being written and the
+     * ones sent afterwards fail with the given error
+     * 
+     * @param error
+     *            The reason of the close
+     */
+    public void close(Throwable error) {
+        LinkedList<QueuedMessage> failedMessages = new LinkedList<QueuedMessage>();
+
+        synchronized (mLock) {
+            if (mCloseError != null) {
+                return;
+            }
+
+            mCloseError = error != null ? error : new IOException("The send queue was closed");
+
+            if (mWritingMessage != null) {
+                failedMessages.add(mWritingMessage);
+                onDequeued(mWritingMessage);
+                mWritingMessage = null;
+            }
+
+            while (!mQueue.isEmpty()) {
+                QueuedMessage message = mQueue.removeFirst();
+                onDequeued(message);
+                failedMessages.add(message);
+            }
+
+            mLock.notifyAll();
+        }
+
+        for (QueuedMessage message : failedMessages) {
+            message.mFuture.triggerError(mCloseError);
+        }
+    }
+
+    /**
+     * Returns the number of queued messages, including the one being written
+     */
+    public int getQueuedMessageCount() {
+        synchronized (mLock) {
+            return mQueuedMessages;
+        }
+    }
+
+    /**
+     * Returns the number of queued bytes, including the message being written
+     */
+    public long getQueuedBytes() {
+        synchronized (mLock) {
+            return mQueuedBytes;
+        }
+    }
+
+    private boolean isFull(long messageSize) {
+        if (mQueuedMessages == 0) {
+            return false;
+        }
+
+        return mQueuedMessages >= mMaxQueuedMessages || mQueuedBytes + messageSize > mMaxQueuedBytes;
+    }
+
+    private void onDequeued(QueuedMessage message) {
+        mQueuedMessages--;
+        mQueuedBytes -= message.mSize;
+    }
+
+    private void writeMessages() {
+        while (true) {
+            final QueuedMessage message;
+
+            synchronized (mLock) {
+                if (mWritingMessage != null || mCloseError != null || mQueue.isEmpty()) {
+                    return;
+                }
+
+                // the message is still counted while it is written
+                message = mQueue.removeFirst();
+                mWritingMessage = message;
+            }
+
+            if (message.mFuture.isCancelled()) {
+                onFlushed(message, null);
+            } else {
+                try {
+                    mWriter.write(message.mMessage, new Runnable() {
+
+                        @Override
+                        public void run() {
+                            onFlushed(message, null);
+                        }
+                    });
+                } catch (Throwable e) {
+                    onFlushed(message, e);
+                }
+            }
+
+            // a message flushed from another thread after this point writes
+            // the next one itself, otherwise this loop does
+            synchronized (mLock) {
+                message.mWriteReturned = true;
+            }
+        }
+    }
+
+    private void onFlushed(QueuedMessage message, Throwable error) {
+        boolean writeNext;
+
+        // the counters are updated before the future completes
+        synchronized (mLock) {
+            if (mWritingMessage != message) {
+                // the queue was closed meanwhile
+                return;
+            }
+
+            mWritingMessage = null;
+            onDequeued(message);
+            mLock.notifyAll();
+
+            writeNext = message.mWriteReturned;
+        }
+
+        if (error != null) {
+            message.mFuture.triggerError(error);
+        } else if (!message.mFuture.isCancelled()) {
+            message.mFuture.setResult(null);
+        }
+
+        if (writeNext) {
+            writeMessages();
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the UTF-8 encoding of a string, without
+     * encoding it
+     */
+    static long getUtf8Length(String message) {
+        long length = 0;
+
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < message.length() && Character.isLowSurrogate(message.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+
+        return length;
+    }
+
+    private static class QueuedMessage {
+        String mMessage;
+        long mSize;
+        SignalRFuture<Void> mFuture = new SignalRFuture<Void>();
+        boolean mWriteReturned = false;
+
+        QueuedMessage(String message) {
+            mMessage = message;
+            mSize = getUtf8Length(message);
+        }
+    }
+}
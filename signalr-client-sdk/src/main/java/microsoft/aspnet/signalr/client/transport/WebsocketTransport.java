@@ -6,18 +6,26 @@ See License.txt in the project root for license information.
 
 package microsoft.aspnet.signalr.client.transport;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
-import com.google.gson.Gson;
-
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_10;
 import org.java_websocket.exceptions.InvalidDataException;
 import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ServerHandshake;
-import org.java_websocket.util.Charsetfunctions;
 
 import microsoft.aspnet.signalr.client.ConnectionBase;
 import microsoft.aspnet.signalr.client.LogLevel;
@@ -25,6 +33,7 @@ import microsoft.aspnet.signalr.client.Logger;
 import microsoft.aspnet.signalr.client.SignalRFuture;
 import microsoft.aspnet.signalr.client.UpdateableCancellableFuture;
 import microsoft.aspnet.signalr.client.http.HttpConnection;
+import microsoft.aspnet.signalr.client.transport.WebsocketSendQueue.FullQueuePolicy;
 
 /**
  * Implements the WebsocketTransport for the Java SignalR library
@@ -32,10 +41,16 @@ import microsoft.aspnet.signalr.client.http.HttpConnection;
  */
 public class WebsocketTransport extends HttpClientTransport {
 
-    private String mPrefix;
-    private static final Gson gson = new Gson();
     WebSocketClient mWebSocketClient;
     private UpdateableCancellableFuture<Void> mConnectionFuture;
+    private volatile int mMaxMessageSize = WebsocketMessageAssembler.DEFAULT_MAX_MESSAGE_SIZE;
+    private WebsocketFragmentStats mFragmentStats = new WebsocketFragmentStats();
+    private WebsocketSendQueue mSendQueue;
+    private int mMaxQueuedMessages = WebsocketSendQueue.DEFAULT_MAX_QUEUED_MESSAGES;
+    private long mMaxQueuedBytes = WebsocketSendQueue.DEFAULT_MAX_QUEUED_BYTES;
+    private FullQueuePolicy mFullQueuePolicy = FullQueuePolicy.Block;
+    private PerMessageDeflateOptions mCompressionOptions = null;
+    private PerMessageDeflateStats mCompressionStats = new PerMessageDeflateStats();
 
     public WebsocketTransport(Logger logger) {
         super(logger);
@@ -45,6 +60,97 @@ public class WebsocketTransport extends HttpClientTransport {
         super(logger, httpConnection);
     }
 
+    /**
+     * Sets the maximum size in bytes of a fragmented or decompressed message,
+     * for the connections started afterwards. Bigger messages close the
+     * WebSocket
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        if (maxMessageSize <= 0) {
+            throw new IllegalArgumentException("maxMessageSize");
+        }
+
+        mMaxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * Returns the maximum size in bytes of a fragmented message
+     */
+    public int getMaxMessageSize() {
+        return mMaxMessageSize;
+    }
+
+    /**
+     * Returns the counters of the fragmented messages, for all the
+     * connections of the transport
+     */
+    public WebsocketFragmentStats getFragmentStats() {
+        return mFragmentStats;
+    }
+
+    /**
+     * Sets the limits of the outgoing message queue, which apply to the
+     * connections started afterwards
+     * 
+     * @param maxQueuedMessages
+     *            Maximum number of messages waiting to be flushed
+     * @param maxQueuedBytes
+     *            Maximum number of bytes waiting to be flushed
+     * @param policy
+     *            What happens to the messages sent while the queue is full
+     */
+    public void setSendQueueLimits(int maxQueuedMessages, long maxQueuedBytes, FullQueuePolicy policy) {
+        if (maxQueuedMessages <= 0) {
+            throw new IllegalArgumentException("maxQueuedMessages");
+        }
+
+        if (maxQueuedBytes <= 0) {
+            throw new IllegalArgumentException("maxQueuedBytes");
+        }
+
+        if (policy == null) {
+            throw new IllegalArgumentException("policy");
+        }
+
+        mMaxQueuedMessages = maxQueuedMessages;
+        mMaxQueuedBytes = maxQueuedBytes;
+        mFullQueuePolicy = policy;
+    }
+
+    /**
+     * Returns the outgoing message queue of the current connection, or null
+     * if the transport was not started
+     */
+    public WebsocketSendQueue getSendQueue() {
+        return mSendQueue;
+    }
+
+    /**
+     * Enables the permessage-deflate extension for the connections started
+     * afterwards. It is used only if the server accepts it
+     * 
+     * @param options
+     *            The options of the extension, or null to disable it
+     */
+    public void setCompression(PerMessageDeflateOptions options) {
+        mCompressionOptions = options != null ? new PerMessageDeflateOptions(options) : null;
+    }
+
+    /**
+     * Returns the options of the permessage-deflate extension, or null if it
+     * is disabled
+     */
+    public PerMessageDeflateOptions getCompression() {
+        return mCompressionOptions;
+    }
+
+    /**
+     * Returns the counters of the compressed messages
+     */
+    public PerMessageDeflateStats getCompressionStats() {
+        return mCompressionStats;
+    }
+
     @Override
     public String getName() {
         return "webSockets";
@@ -57,23 +163,9 @@ public class WebsocketTransport extends HttpClientTransport {
 
     @Override
     public SignalRFuture<Void> start(ConnectionBase connection, ConnectionType connectionType, final DataResultCallback callback) {
-        final String connectionString = connectionType == ConnectionType.InitialConnection ? "connect" : "reconnect";
-
-        final String transport = getName();
-        final String connectionToken = connection.getConnectionToken();
-        final String messageId = connection.getMessageId() != null ? connection.getMessageId() : "";
-        final String groupsToken = connection.getGroupsToken() != null ? connection.getGroupsToken() : "";
-        final String connectionData = connection.getConnectionData() != null ? connection.getConnectionData() : "";
-
-
         String url = null;
         try {
-            url = connection.getUrl() + "signalr/" + connectionString + '?'
-                    + "connectionData=" + URLEncoder.encode(URLEncoder.encode(connectionData, "UTF-8"), "UTF-8")
-                    + "&connectionToken=" + URLEncoder.encode(URLEncoder.encode(connectionToken, "UTF-8"), "UTF-8")
-                    + "&groupsToken=" + URLEncoder.encode(groupsToken, "UTF-8")
-                    + "&messageId=" + URLEncoder.encode(messageId, "UTF-8")
-                    + "&transport=" + URLEncoder.encode(transport, "UTF-8");
+            url = getConnectUrl(connection, connectionType, getName());
         } catch (UnsupportedEncodingException e) {
             e.printStackTrace();
         }
@@ -89,10 +181,58 @@ public class WebsocketTransport extends HttpClientTransport {
             return mConnectionFuture;
         }
 
-        mWebSocketClient = new WebSocketClient(uri) {
+        if (mSendQueue != null) {
+            mSendQueue.close(new IOException("The transport was restarted"));
+        }
+
+        final UpdateableCancellableFuture<Void> connectionFuture = mConnectionFuture;
+        final AtomicReference<WebsocketFlushChannel> flushChannel = new AtomicReference<WebsocketFlushChannel>();
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+        final AtomicReference<WebSocketClient> clientReference = new AtomicReference<WebSocketClient>();
+
+        // the fragments of each client are reassembled apart, since the
+        // read thread of a previous client may still be delivering some
+        final int maxMessageSize = getMaxMessageSize();
+        final WebsocketMessageAssembler messageAssembler = new WebsocketMessageAssembler(maxMessageSize, mFragmentStats);
+
+        final WebsocketSendQueue sendQueue = new WebsocketSendQueue(new WebsocketSendQueue.MessageWriter() {
+
+            @Override
+            public void write(String message, Runnable onFlushed) throws Exception {
+                queueFrames(clientReference.get(), flushChannel.get(), message, onFlushed);
+            }
+        }, mMaxQueuedMessages, mMaxQueuedBytes, mFullQueuePolicy);
+        mSendQueue = sendQueue;
+
+        Draft draft = mCompressionOptions != null ? new PerMessageDeflateDraft(mCompressionOptions, mCompressionStats, maxMessageSize) : new Draft_10();
+
+        final WebSocketClient client = new WebSocketClient(uri, draft) {
+            @Override
+            public ByteChannel createProxyChannel(ByteChannel channel) {
+                WebsocketFlushChannel wrappedChannel = new WebsocketFlushChannel(super.createProxyChannel(channel));
+                flushChannel.set(wrappedChannel);
+
+                // the start may have been cancelled while the socket was
+                // connecting, the exception stops the client before it
+                // starts its threads
+                if (cancelled.get()) {
+                    closeChannel(wrappedChannel);
+                    throw new IllegalStateException("The connection was cancelled");
+                }
+
+                return wrappedChannel;
+            }
+
             @Override
             public void onOpen(ServerHandshake serverHandshake) {
-                mConnectionFuture.setResult(null);
+                // the handshake may complete after the start was cancelled,
+                // e.g. after an upgrade timed out
+                if (cancelled.get()) {
+                    close();
+                    return;
+                }
+
+                connectionFuture.setResult(null);
             }
 
             @Override
@@ -102,69 +242,135 @@ public class WebsocketTransport extends HttpClientTransport {
 
             @Override
             public void onClose(int i, String s, boolean b) {
-                mWebSocketClient.close();
+                sendQueue.close(new IOException("The WebSocket was closed"));
+                close();
             }
 
             @Override
             public void onError(Exception e) {
-                mWebSocketClient.close();
+                sendQueue.close(e);
+                close();
             }
 
             @Override
             public void onFragment(Framedata frame) {
                 try {
-                    String decodedString = Charsetfunctions.stringUtf8(frame.getPayloadData());
-
-                    if(decodedString.equals("]}")){
-                        return;
-                    }
+                    String message = messageAssembler.onFragment(frame);
 
-                    if(decodedString.endsWith(":[") || null == mPrefix){
-                        mPrefix = decodedString;
-                        return;
-                    }
-
-                    String simpleConcatenate = mPrefix + decodedString;
-
-                    if(isJSONValid(simpleConcatenate)){
-                        onMessage(simpleConcatenate);
-                    }else{
-                        String extendedConcatenate = simpleConcatenate + "]}";
-                        if (isJSONValid(extendedConcatenate)) {
-                            onMessage(extendedConcatenate);
-                        } else {
-                            log("invalid json received:" + decodedString, LogLevel.Critical);
-                        }
+                    if (message != null) {
+                        onMessage(message);
                     }
                 } catch (InvalidDataException e) {
-                    e.printStackTrace();
+                    if (isLoggable(LogLevel.Critical)) {
+                        log("Invalid fragmented message: " + e.getMessage(), LogLevel.Critical);
+                    }
+                    getConnection().close(e.getCloseCode(), e.getMessage());
                 }
             }
         };
-        mWebSocketClient.connect();
+        clientReference.set(client);
+        mWebSocketClient = client;
+
+        connectionFuture.onCancelled(new Runnable() {
+
+            @Override
+            public void run() {
+                cancelled.set(true);
+                sendQueue.close(new IOException("The connection was cancelled"));
+
+                boolean open = client.getConnection().isOpen();
+                client.close();
+
+                // before the handshake completes, closing the client does not
+                // close the socket
+                WebsocketFlushChannel channel = flushChannel.get();
+                if (channel != null && !open) {
+                    closeChannel(channel);
+                }
+            }
+        });
+
+        client.connect();
 
         connection.closed(new Runnable() {
             @Override
             public void run() {
-                mWebSocketClient.close();
+                sendQueue.close(new IOException("The connection was closed"));
+                client.close();
             }
         });
 
         return mConnectionFuture;
     }
 
+    private void closeChannel(WebsocketFlushChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log(e);
+        }
+    }
+
+    /**
+     * Returns the URL of the WebSocket connect or reconnect request
+     */
+    static String getConnectUrl(ConnectionBase connection, ConnectionType connectionType, String transport) throws UnsupportedEncodingException {
+        final String connectionString = connectionType == ConnectionType.InitialConnection ? "connect" : "reconnect";
+
+        final String connectionToken = connection.getConnectionToken();
+        final String messageId = connection.getMessageId() != null ? connection.getMessageId() : "";
+        final String groupsToken = connection.getGroupsToken() != null ? connection.getGroupsToken() : "";
+        final String connectionData = connection.getConnectionData() != null ? connection.getConnectionData() : "";
+
+        return connection.getUrl() + "signalr/" + connectionString + '?'
+                + "connectionData=" + URLEncoder.encode(URLEncoder.encode(connectionData, "UTF-8"), "UTF-8")
+                + "&connectionToken=" + URLEncoder.encode(URLEncoder.encode(connectionToken, "UTF-8"), "UTF-8")
+                + "&groupsToken=" + URLEncoder.encode(groupsToken, "UTF-8")
+                + "&messageId=" + URLEncoder.encode(messageId, "UTF-8")
+                + "&transport=" + URLEncoder.encode(transport, "UTF-8");
+    }
+
     @Override
     public SignalRFuture<Void> send(ConnectionBase connection, String data, DataResultCallback callback) {
-        mWebSocketClient.send(data);
-        return new UpdateableCancellableFuture<Void>(null);
+        WebsocketSendQueue sendQueue = mSendQueue;
+
+        if (sendQueue == null) {
+            SignalRFuture<Void> future = new SignalRFuture<Void>();
+            future.triggerError(new IllegalStateException("The transport was not started"));
+            return future;
+        }
+
+        return sendQueue.send(data);
     }
 
-    private boolean isJSONValid(String test){
-        try {
-            gson.fromJson(test, Object.class);
-            return true;
-        } catch(com.google.gson.JsonSyntaxException ex) {
-            return false;
+    /**
+     * Queues the frames of a message for writing. The WebSocket writes the
+     * frames in order, so the message is flushed once its last frame is
+     */
+    private static void queueFrames(WebSocketClient client, WebsocketFlushChannel flushChannel, String message, Runnable onFlushed) throws Exception {
+        WebSocket socket = client.getConnection();
+
+        if (!socket.isOpen() || flushChannel == null || !(socket instanceof WebSocketImpl)) {
+            throw new IOException("The WebSocket is not open");
+        }
+
+        Draft draft = socket.getDraft();
+        List<Framedata> frames = draft.createFrames(message, true);
+
+        if (frames.isEmpty()) {
+            onFlushed.run();
+            return;
+        }
+
+        BlockingQueue<ByteBuffer> outQueue = ((WebSocketImpl) socket).outQueue;
+        for (int i = 0; i < frames.size(); i++) {
+            ByteBuffer buffer = draft.createBinaryFrame(frames.get(i));
+
+            if (i == frames.size() - 1) {
+                flushChannel.onWritten(buffer, onFlushed);
+            }
+
+            outQueue.put(buffer);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,409 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.tests.http;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import microsoft.aspnet.signalr.client.Constants;
+import microsoft.aspnet.signalr.client.ErrorCallback;
+import microsoft.aspnet.signalr.client.NullLogger;
+import microsoft.aspnet.signalr.client.http.CompressionStats;
+import microsoft.aspnet.signalr.client.http.HttpConnection;
+import microsoft.aspnet.signalr.client.http.HttpConnectionFuture;
+import microsoft.aspnet.signalr.client.http.HttpConnectionFuture.ResponseCallback;
+import microsoft.aspnet.signalr.client.http.Request;
+import microsoft.aspnet.signalr.client.http.Response;
+import microsoft.aspnet.signalr.client.http.java.HttpConnectionPool;
+import microsoft.aspnet.signalr.client.http.java.JavaHttpConnection;
+import microsoft.aspnet.signalr.client.http.java.NetworkExecutor;
+import microsoft.aspnet.signalr.client.http.java.NetworkExecutor.RejectionPolicy;
+import microsoft.aspnet.signalr.client.tests.util.LocalHttpServer;
+import microsoft.aspnet.signalr.client.tests.util.MultiResult;
+import microsoft.aspnet.signalr.client.tests.util.Sync;
+
+public class JavaHttpConnectionTests {
+
+    private LocalHttpServer mServer;
+    private Semaphore mReleaseResponse;
+    private List<Integer> mClientPorts;
+    private AtomicInteger mConcurrentRequests;
+    private AtomicInteger mMaxConcurrentRequests;
+
+    @Before
+    public void setUp() throws Exception {
+        Sync.reset();
+        mReleaseResponse = new Semaphore(0);
+        mClientPorts = Collections.synchronizedList(new ArrayList<Integer>());
+        mConcurrentRequests = new AtomicInteger(0);
+        mMaxConcurrentRequests = new AtomicInteger(0);
+
+        mServer = new LocalHttpServer(new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mClientPorts.add(exchange.getRemoteAddress().getPort());
+
+                int concurrentRequests = mConcurrentRequests.incrementAndGet();
+                synchronized (mMaxConcurrentRequests) {
+                    if (concurrentRequests > mMaxConcurrentRequests.get()) {
+                        mMaxConcurrentRequests.set(concurrentRequests);
+                    }
+                }
+
+                try {
+                    if (exchange.getRequestURI().getPath().equals("/wait")) {
+                        mReleaseResponse.acquireUninterruptibly();
+                    }
+
+                    byte[] content = "Hello World".getBytes(Constants.UTF8);
+
+                    String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                    if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                        content = gzip(content);
+                        exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                    }
+
+                    exchange.sendResponseHeaders(200, content.length);
+                    OutputStream body = exchange.getResponseBody();
+                    body.write(content);
+                    body.close();
+                } finally {
+                    mConcurrentRequests.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mReleaseResponse.release(100);
+        mServer.stop();
+    }
+
+    @Test
+    public void testRequestRunsOnNetworkExecutor() throws Exception {
+        JavaHttpConnection connection = new JavaHttpConnection(new NullLogger(), new NetworkExecutor());
+
+        final MultiResult result = new MultiResult();
+        HttpConnectionFuture future = connection.execute(createRequest("hello"), new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+                result.stringResult = Thread.currentThread().getName();
+                result.listResult.add(response.readToEnd().trim());
+                result.booleanResult = Thread.currentThread().isDaemon();
+            }
+        });
+
+        future.get();
+
+        assertEquals("Hello World", result.listResult.get(0));
+        assertTrue(result.stringResult.startsWith(NetworkExecutor.THREAD_NAME_PREFIX));
+        assertTrue(result.booleanResult);
+    }
+
+    @Test
+    public void testThreadsAreReused() throws Exception {
+        NetworkExecutor executor = new NetworkExecutor(1, 1, NetworkExecutor.DEFAULT_KEEP_ALIVE_MILLIS, 10, RejectionPolicy.Fail);
+        JavaHttpConnection connection = new JavaHttpConnection(new NullLogger(), executor);
+
+        final MultiResult result = new MultiResult();
+        for (int i = 0; i < 5; i++) {
+            connection.execute(createRequest("hello"), new ResponseCallback() {
+
+                @Override
+                public void onResponse(Response response) throws Exception {
+                    response.readToEnd();
+                    result.listResult.add(Thread.currentThread().getName());
+                }
+            }).get();
+        }
+
+        assertEquals(5, result.listResult.size());
+        for (Object threadName : result.listResult) {
+            assertEquals(result.listResult.get(0), threadName);
+        }
+        assertEquals(1, executor.getPoolSize());
+    }
+
+    @Test
+    public void testRejectedRequestTriggersError() throws Exception {
+        NetworkExecutor executor = new NetworkExecutor(0, 1, NetworkExecutor.DEFAULT_KEEP_ALIVE_MILLIS, 0, RejectionPolicy.Fail);
+        JavaHttpConnection connection = new JavaHttpConnection(new NullLogger(), executor);
+
+        ResponseCallback emptyCallback = new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+                response.readToEnd();
+            }
+        };
+
+        HttpConnectionFuture blocked = connection.execute(createRequest("wait"), emptyCallback);
+
+        final MultiResult result = new MultiResult();
+        HttpConnectionFuture rejected = connection.execute(createRequest("hello"), emptyCallback);
+        rejected.onError(new ErrorCallback() {
+
+            @Override
+            public void onError(Throwable error) {
+                result.errorsResult.add(error);
+            }
+        });
+
+        assertEquals(1, result.errorsResult.size());
+        assertTrue(result.errorsResult.get(0) instanceof RejectedExecutionException);
+
+        mReleaseResponse.release();
+        blocked.get();
+    }
+
+    @Test
+    public void testCancelledQueuedRequestIsNotExecuted() throws Exception {
+        NetworkExecutor executor = new NetworkExecutor(1, 1, NetworkExecutor.DEFAULT_KEEP_ALIVE_MILLIS, 10, RejectionPolicy.Fail);
+        JavaHttpConnection connection = new JavaHttpConnection(new NullLogger(), executor);
+
+        final MultiResult result = new MultiResult();
+        HttpConnectionFuture blocked = connection.execute(createRequest("wait"), new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+                response.readToEnd();
+            }
+        });
+
+        HttpConnectionFuture queued = connection.execute(createRequest("hello"), new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+                result.booleanResult = true;
+            }
+        });
+
+        assertEquals(1, executor.getQueuedCount());
+        queued.cancel();
+        assertEquals(0, executor.getQueuedCount());
+
+        mReleaseResponse.release();
+        blocked.get();
+
+        assertFalse(result.booleanResult);
+    }
+
+    @Test
+    public void testConnectionIsReusedWithPool() throws Exception {
+        JavaHttpConnection connection = new JavaHttpConnection(new NullLogger(), new NetworkExecutor(), new HttpConnectionPool());
+
+        executeSequentially(connection, 3);
+
+        assertEquals(3, mClientPorts.size());
+        assertEquals(mClientPorts.get(0), mClientPorts.get(1));
+        assertEquals(mClientPorts.get(0), mClientPorts.get(2));
+    }
+
+    @Test
+    public void testConnectionIsClosedWithoutPool() throws Exception {
+        JavaHttpConnection connection = new JavaHttpConnection(new NullLogger(), new NetworkExecutor(), null);
+
+        executeSequentially(connection, 2);
+
+        assertEquals(2, mClientPorts.size());
+        assertFalse(mClientPorts.get(0).equals(mClientPorts.get(1)));
+    }
+
+    @Test
+    public void testConcurrentConnectionsPerRouteAreLimited() throws Exception {
+        HttpConnectionPool pool = new HttpConnectionPool(1);
+        JavaHttpConnection connection = new JavaHttpConnection(new NullLogger(), new NetworkExecutor(), pool);
+
+        ResponseCallback emptyCallback = new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+                response.readToEnd();
+            }
+        };
+
+        HttpConnectionFuture first = connection.execute(createRequest("wait"), emptyCallback);
+        HttpConnectionFuture second = connection.execute(createRequest("wait"), emptyCallback);
+
+        Thread.sleep(500);
+        assertEquals(1, mClientPorts.size());
+
+        mReleaseResponse.release(2);
+        first.get();
+        second.get();
+
+        assertEquals(2, mClientPorts.size());
+        assertEquals(1, mMaxConcurrentRequests.get());
+    }
+
+    @Test
+    public void testRequestCancelledWhileWaitingForRouteIsNotSent() throws Exception {
+        HttpConnectionPool pool = new HttpConnectionPool(1);
+        JavaHttpConnection connection = new JavaHttpConnection(new NullLogger(), new NetworkExecutor(), pool);
+
+        ResponseCallback emptyCallback = new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+                response.readToEnd();
+            }
+        };
+
+        HttpConnectionFuture first = connection.execute(createRequest("wait"), emptyCallback);
+        Thread.sleep(500);
+        assertEquals(1, mClientPorts.size());
+
+        HttpConnectionFuture second = connection.execute(createRequest("wait"), emptyCallback);
+        Thread.sleep(500);
+        second.cancel();
+
+        mReleaseResponse.release(2);
+        first.get();
+
+        // the second request would have been sent as soon as the first one
+        // released the route
+        Thread.sleep(500);
+        assertEquals(1, mClientPorts.size());
+    }
+
+    @Test
+    public void testCompressedResponseIsDecompressed() throws Exception {
+        JavaHttpConnection connection = new JavaHttpConnection(new NullLogger(), new NetworkExecutor());
+        connection.setCompressionEnabled(true);
+
+        final MultiResult result = new MultiResult();
+        connection.execute(createRequest("hello"), new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+                result.stringResult = response.readToEnd();
+            }
+        }).get();
+
+        assertEquals("Hello World", result.stringResult);
+
+        CompressionStats stats = connection.getCompressionStats();
+        assertEquals(1, stats.getCompressedResponseCount());
+        assertEquals(gzip("Hello World".getBytes(Constants.UTF8)).length, stats.getCompressedBytes());
+        assertEquals(11, stats.getUncompressedBytes());
+    }
+
+    @Test
+    public void testCompressionIsDisabledByDefault() throws Exception {
+        JavaHttpConnection connection = new JavaHttpConnection(new NullLogger(), new NetworkExecutor());
+
+        executeSequentially(connection, 1);
+
+        assertEquals(0, connection.getCompressionStats().getCompressedResponseCount());
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        GZIPOutputStream gzipOutput = new GZIPOutputStream(output);
+        gzipOutput.write(content);
+        gzipOutput.close();
+
+        return output.toByteArray();
+    }
+
+    @Test
+    public void testReadTimeoutTriggersTimeout() throws Exception {
+        Request request = createRequest("wait");
+        request.setReadTimeout(500);
+
+        assertTimeout(new JavaHttpConnection(new NullLogger(), new NetworkExecutor()), request);
+    }
+
+    @Test
+    public void testDeadlineTriggersTimeout() throws Exception {
+        Request request = createRequest("wait");
+        request.setTotalTimeout(500);
+
+        assertTimeout(new JavaHttpConnection(new NullLogger(), new NetworkExecutor()), request);
+    }
+
+    private void assertTimeout(HttpConnection connection, Request request) throws Exception {
+        final Semaphore timedOut = new Semaphore(0);
+        final MultiResult result = new MultiResult();
+
+        HttpConnectionFuture future = connection.execute(request, new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+                result.booleanResult = true;
+            }
+        });
+
+        future.onTimeout(new ErrorCallback() {
+
+            @Override
+            public void onError(Throwable error) {
+                result.errorsResult.add(error);
+                timedOut.release();
+            }
+        });
+
+        future.onError(new ErrorCallback() {
+
+            @Override
+            public void onError(Throwable error) {
+                result.errorsResult.add(error);
+            }
+        });
+
+        assertTrue(timedOut.tryAcquire(10, TimeUnit.SECONDS));
+
+        // the request must not complete once the server answers
+        mReleaseResponse.release();
+        Thread.sleep(500);
+
+        assertEquals(1, result.errorsResult.size());
+        assertTrue(result.errorsResult.get(0) instanceof SocketTimeoutException);
+        assertFalse(result.booleanResult);
+    }
+
+    private void executeSequentially(JavaHttpConnection connection, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            connection.execute(createRequest("hello"), new ResponseCallback() {
+
+                @Override
+                public void onResponse(Response response) throws Exception {
+                    response.readToEnd();
+                }
+            }).get();
+        }
+    }
+
+    private Request createRequest(String path) {
+        Request request = new Request(Constants.HTTP_GET);
+        request.setUrl(mServer.getUrl() + path);
+
+        return request;
+    }
+}
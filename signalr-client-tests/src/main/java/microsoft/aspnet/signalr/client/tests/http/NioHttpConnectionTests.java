@@ -0,0 +1,621 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.tests.http;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import microsoft.aspnet.signalr.client.Constants;
+import microsoft.aspnet.signalr.client.ErrorCallback;
+import microsoft.aspnet.signalr.client.NullLogger;
+import microsoft.aspnet.signalr.client.http.HttpConnection;
+import microsoft.aspnet.signalr.client.http.HttpConnectionFuture;
+import microsoft.aspnet.signalr.client.http.HttpConnectionFuture.ResponseCallback;
+import microsoft.aspnet.signalr.client.http.HttpConnectionFuture.StreamingResponseCallback;
+import microsoft.aspnet.signalr.client.http.Request;
+import microsoft.aspnet.signalr.client.http.Response;
+import microsoft.aspnet.signalr.client.http.nio.NioHttpConnection;
+import microsoft.aspnet.signalr.client.http.nio.SelectorLoop;
+import microsoft.aspnet.signalr.client.tests.util.LocalHttpServer;
+import microsoft.aspnet.signalr.client.tests.util.MockHttpConnection;
+import microsoft.aspnet.signalr.client.tests.util.MultiResult;
+
+public class NioHttpConnectionTests {
+
+    private LocalHttpServer mServer;
+    private Semaphore mReleaseResponse;
+    private List<Integer> mClientPorts;
+    private SelectorLoop mLoop;
+    private ExecutorService mCallbackExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        mReleaseResponse = new Semaphore(0);
+        mClientPorts = Collections.synchronizedList(new ArrayList<Integer>());
+        mLoop = new SelectorLoop();
+        mCallbackExecutor = Executors.newFixedThreadPool(2);
+
+        mServer = new LocalHttpServer(new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mClientPorts.add(exchange.getRemoteAddress().getPort());
+                String path = exchange.getRequestURI().getPath();
+
+                if (path.equals("/stream")) {
+                    exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+                    exchange.sendResponseHeaders(200, 0);
+                    OutputStream body = exchange.getResponseBody();
+                    body.write("data: first\n\n".getBytes(Constants.UTF8));
+                    body.flush();
+                    mReleaseResponse.acquireUninterruptibly();
+                    body.write("data: second\n\n".getBytes(Constants.UTF8));
+                    body.close();
+                    return;
+                }
+
+                if (path.equals("/wait")) {
+                    mReleaseResponse.acquireUninterruptibly();
+                }
+
+                byte[] content = "Hello World".getBytes(Constants.UTF8);
+
+                if (path.equals("/echo")) {
+                    content = readFully(exchange.getRequestBody());
+                }
+
+                if (path.equals("/chunked")) {
+                    // a zero length makes the server use a chunked body
+                    exchange.sendResponseHeaders(200, 0);
+                    OutputStream body = exchange.getResponseBody();
+                    for (int i = 0; i < 3; i++) {
+                        body.write(content);
+                        body.flush();
+                    }
+                    body.close();
+                    return;
+                }
+
+                exchange.sendResponseHeaders(200, content.length);
+                OutputStream body = exchange.getResponseBody();
+                body.write(content);
+                body.close();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mReleaseResponse.release(100);
+        mServer.stop();
+        mLoop.shutdown();
+        mCallbackExecutor.shutdown();
+    }
+
+    @Test
+    public void testGetRequest() throws Exception {
+        assertEquals("Hello World", executeAndRead(createRequest(Constants.HTTP_GET, "hello")));
+    }
+
+    @Test
+    public void testChunkedResponse() throws Exception {
+        assertEquals("Hello WorldHello WorldHello World", executeAndRead(createRequest(Constants.HTTP_GET, "chunked")));
+    }
+
+    @Test
+    public void testPostContentIsSent() throws Exception {
+        Request request = createRequest(Constants.HTTP_POST, "echo");
+        request.setFormContent("data", "Hello \u00e9");
+        request.addHeader("Content-Type", "application/x-www-form-urlencoded");
+
+        assertEquals(request.getContent(), executeAndRead(request));
+    }
+
+    @Test
+    public void testConnectionIsReused() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            executeAndRead(createRequest(Constants.HTTP_GET, "hello"));
+        }
+
+        assertEquals(3, mClientPorts.size());
+        assertEquals(mClientPorts.get(0), mClientPorts.get(1));
+        assertEquals(mClientPorts.get(0), mClientPorts.get(2));
+    }
+
+    @Test
+    public void testPendingRequestsDontHoldThreads() throws Exception {
+        NioHttpConnection connection = createConnection();
+
+        ResponseCallback emptyCallback = new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+                response.readToEnd();
+            }
+        };
+
+        // many more outstanding polls than callback threads
+        List<HttpConnectionFuture> pendingPolls = new ArrayList<HttpConnectionFuture>();
+        for (int i = 0; i < 20; i++) {
+            pendingPolls.add(connection.execute(createRequest(Constants.HTTP_GET, "wait"), emptyCallback));
+        }
+
+        assertEquals("Hello World", executeAndRead(createRequest(Constants.HTTP_GET, "hello")));
+
+        mReleaseResponse.release(20);
+        for (HttpConnectionFuture poll : pendingPolls) {
+            poll.get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testEventStreamIsReadAsItArrives() throws Exception {
+        Request request = createRequest(Constants.HTTP_GET, "stream");
+        request.addHeader("Accept", "text/event-stream");
+
+        final MultiResult result = new MultiResult();
+        createConnection().execute(request, new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+                result.listResult.add(response.readLine());
+
+                // the server sends the rest once the first event was read
+                mReleaseResponse.release();
+
+                String line;
+                while ((line = response.readLine()) != null) {
+                    if (line.length() > 0) {
+                        result.listResult.add(line);
+                    }
+                }
+            }
+        }).get(10, TimeUnit.SECONDS);
+
+        assertEquals(2, result.listResult.size());
+        assertEquals("data: first", result.listResult.get(0));
+        assertEquals("data: second", result.listResult.get(1));
+    }
+
+    @Test
+    public void testEventStreamIsPushedWithoutHoldingThreads() throws Exception {
+        // a single callback thread for many more open streams
+        ExecutorService callbackExecutor = Executors.newSingleThreadExecutor();
+        NioHttpConnection connection = new NioHttpConnection(new NullLogger(), mLoop, callbackExecutor);
+
+        final int streamCount = 10;
+        final Semaphore started = new Semaphore(0);
+        final Semaphore received = new Semaphore(0);
+        final StringBuffer data = new StringBuffer();
+
+        List<HttpConnectionFuture> streams = new ArrayList<HttpConnectionFuture>();
+        try {
+            for (int i = 0; i < streamCount; i++) {
+                Request request = createRequest(Constants.HTTP_GET, "stream");
+                request.addHeader("Accept", "text/event-stream");
+
+                streams.add(connection.execute(request, new StreamingResponseCallback() {
+
+                    @Override
+                    public void onResponse(Response response) throws Exception {
+                        fail("The stream must be pushed");
+                    }
+
+                    @Override
+                    public void onStreamStarted(Response response) throws Exception {
+                        assertEquals(200, response.getStatus());
+                        started.release();
+                    }
+
+                    @Override
+                    public void onStreamData(byte[] buffer, int offset, int length) throws Exception {
+                        data.append(new String(buffer, offset, length, Constants.UTF8));
+                        received.release();
+                    }
+                }));
+            }
+
+            assertTrue(started.tryAcquire(streamCount, 10, TimeUnit.SECONDS));
+            assertTrue(received.tryAcquire(streamCount, 10, TimeUnit.SECONDS));
+
+            // the streams end once the server sends the rest
+            mReleaseResponse.release(streamCount);
+            for (HttpConnectionFuture stream : streams) {
+                stream.get(10, TimeUnit.SECONDS);
+            }
+
+            String expected = "";
+            for (int i = 0; i < streamCount; i++) {
+                expected += "data: first\n\ndata: second\n\n";
+            }
+
+            assertEquals(expected.length(), data.length());
+        } finally {
+            callbackExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBodyDelimitedByConnectionClose() throws Exception {
+        final ServerSocket rawServer = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+
+        Thread serverThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    Socket socket = rawServer.accept();
+                    OutputStream output = socket.getOutputStream();
+                    output.write("HTTP/1.1 200 OK\r\nConnection: close\r\n\r\nHello ".getBytes(Constants.UTF8));
+                    output.flush();
+                    output.write("World".getBytes(Constants.UTF8));
+                    socket.close();
+                } catch (IOException e) {
+                }
+            }
+        });
+        serverThread.start();
+
+        Request request = new Request(Constants.HTTP_GET);
+        request.setUrl("http://127.0.0.1:" + rawServer.getLocalPort() + "/");
+
+        try {
+            assertEquals("Hello World", executeAndRead(request));
+        } finally {
+            rawServer.close();
+        }
+    }
+
+    @Test
+    public void testIdempotentRequestIsRetriedWhenTheIdleConnectionCloses() throws Exception {
+        List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+        ServerSocket rawServer = startClosingServer(requests);
+
+        try {
+            executeAndRead(createRawRequest(Constants.HTTP_GET, rawServer));
+            assertEquals("Hello", executeAndRead(createRawRequest(Constants.HTTP_GET, rawServer)));
+
+            assertEquals(3, requests.size());
+        } finally {
+            rawServer.close();
+        }
+    }
+
+    @Test
+    public void testPostIsNotRetriedOnceWritten() throws Exception {
+        List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+        ServerSocket rawServer = startClosingServer(requests);
+
+        try {
+            executeAndRead(createRawRequest(Constants.HTTP_GET, rawServer));
+
+            Request request = createRawRequest(Constants.HTTP_POST, rawServer);
+            request.setFormContent("data", "Hello");
+
+            final Semaphore failed = new Semaphore(0);
+            final MultiResult result = new MultiResult();
+
+            HttpConnectionFuture future = createConnection().execute(request, new ResponseCallback() {
+
+                @Override
+                public void onResponse(Response response) throws Exception {
+                    result.booleanResult = true;
+                }
+            });
+
+            future.onError(new ErrorCallback() {
+
+                @Override
+                public void onError(Throwable error) {
+                    failed.release();
+                }
+            });
+
+            // the server may have executed the request, so it is not sent again
+            assertTrue(failed.tryAcquire(10, TimeUnit.SECONDS));
+            assertFalse(result.booleanResult);
+            assertEquals(2, requests.size());
+            assertTrue(requests.get(1).startsWith(Constants.HTTP_POST));
+        } finally {
+            rawServer.close();
+        }
+    }
+
+    @Test
+    public void testNegativeContentLengthFails() throws Exception {
+        final ServerSocket rawServer = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+
+        Thread serverThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    Socket socket = rawServer.accept();
+                    OutputStream output = socket.getOutputStream();
+                    output.write("HTTP/1.1 200 OK\r\nContent-Length: -5\r\n\r\nHello World".getBytes(Constants.UTF8));
+                    output.flush();
+                    Thread.sleep(1000);
+                    socket.close();
+                } catch (Exception e) {
+                }
+            }
+        });
+        serverThread.start();
+
+        Request request = new Request(Constants.HTTP_GET);
+        request.setUrl("http://127.0.0.1:" + rawServer.getLocalPort() + "/");
+
+        final Semaphore failed = new Semaphore(0);
+        final MultiResult result = new MultiResult();
+
+        try {
+            HttpConnectionFuture future = createConnection().execute(request, new ResponseCallback() {
+
+                @Override
+                public void onResponse(Response response) throws Exception {
+                    result.booleanResult = true;
+                }
+            });
+
+            future.onError(new ErrorCallback() {
+
+                @Override
+                public void onError(Throwable error) {
+                    failed.release();
+                }
+            });
+
+            assertTrue(failed.tryAcquire(10, TimeUnit.SECONDS));
+            assertFalse(result.booleanResult);
+        } finally {
+            rawServer.close();
+        }
+    }
+
+    @Test
+    public void testHttpsIsExecutedByTheHttpsConnection() throws Exception {
+        MockHttpConnection httpsConnection = new MockHttpConnection();
+        NioHttpConnection connection = new NioHttpConnection(new NullLogger(), mLoop, mCallbackExecutor, httpsConnection);
+
+        Request request = new Request(Constants.HTTP_GET);
+        request.setUrl("https://127.0.0.1/");
+
+        HttpConnectionFuture future = connection.execute(request, new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+            }
+        });
+
+        MockHttpConnection.RequestEntry entry = httpsConnection.getRequest();
+        assertSame(request, entry.request);
+        assertSame(entry.future, future);
+    }
+
+    @Test
+    public void testHttpsIsNotSupported() throws Exception {
+        Request request = new Request(Constants.HTTP_GET);
+        request.setUrl("https://127.0.0.1/");
+
+        final MultiResult result = new MultiResult();
+        HttpConnectionFuture future = createConnection().execute(request, new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+            }
+        });
+
+        future.onError(new ErrorCallback() {
+
+            @Override
+            public void onError(Throwable error) {
+                result.errorsResult.add(error);
+            }
+        });
+
+        assertEquals(1, result.errorsResult.size());
+    }
+
+    @Test
+    public void testReadTimeoutTriggersTimeout() throws Exception {
+        Request request = createRequest(Constants.HTTP_GET, "wait");
+        request.setReadTimeout(500);
+
+        assertTimeout(createConnection(), request);
+    }
+
+    @Test
+    public void testDeadlineTriggersTimeout() throws Exception {
+        Request request = createRequest(Constants.HTTP_GET, "wait");
+        request.setTotalTimeout(500);
+
+        assertTimeout(createConnection(), request);
+    }
+
+    private void assertTimeout(HttpConnection connection, Request request) throws Exception {
+        final Semaphore timedOut = new Semaphore(0);
+        final MultiResult result = new MultiResult();
+
+        HttpConnectionFuture future = connection.execute(request, new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+                result.booleanResult = true;
+            }
+        });
+
+        future.onTimeout(new ErrorCallback() {
+
+            @Override
+            public void onError(Throwable error) {
+                result.errorsResult.add(error);
+                timedOut.release();
+            }
+        });
+
+        future.onError(new ErrorCallback() {
+
+            @Override
+            public void onError(Throwable error) {
+                result.errorsResult.add(error);
+            }
+        });
+
+        assertTrue(timedOut.tryAcquire(10, TimeUnit.SECONDS));
+
+        // the request must not complete once the server answers
+        mReleaseResponse.release();
+        Thread.sleep(500);
+
+        assertEquals(1, result.errorsResult.size());
+        assertTrue(result.errorsResult.get(0) instanceof SocketTimeoutException);
+        assertFalse(result.booleanResult);
+    }
+
+    private NioHttpConnection createConnection() {
+        return new NioHttpConnection(new NullLogger(), mLoop, mCallbackExecutor);
+    }
+
+    private String executeAndRead(Request request) throws Exception {
+        final MultiResult result = new MultiResult();
+        createConnection().execute(request, new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+                result.stringResult = response.readToEnd().trim();
+            }
+        }).get(10, TimeUnit.SECONDS);
+
+        return result.stringResult;
+    }
+
+    /**
+     * Starts a server that answers the first request of each connection and
+     * closes the connection when it receives the next one
+     */
+    private static ServerSocket startClosingServer(final List<String> requests) throws IOException {
+        final ServerSocket rawServer = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+
+        Thread serverThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket = rawServer.accept();
+                        InputStream input = socket.getInputStream();
+
+                        requests.add(readRawRequest(input));
+                        OutputStream output = socket.getOutputStream();
+                        output.write("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nHello".getBytes(Constants.UTF8));
+                        output.flush();
+
+                        String request = readRawRequest(input);
+                        if (request != null) {
+                            requests.add(request);
+                        }
+                        socket.close();
+                    }
+                } catch (IOException e) {
+                }
+            }
+        });
+        serverThread.start();
+
+        return rawServer;
+    }
+
+    /**
+     * Reads a request with its body, returning its request line, or null if
+     * the connection was closed
+     */
+    private static String readRawRequest(InputStream input) throws IOException {
+        String requestLine = null;
+        int contentLength = 0;
+
+        String line;
+        while ((line = readRawLine(input)) != null && line.length() > 0) {
+            if (requestLine == null) {
+                requestLine = line;
+            } else if (line.toLowerCase(Locale.US).startsWith("content-length:")) {
+                contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+        }
+
+        for (int i = 0; i < contentLength; i++) {
+            input.read();
+        }
+
+        return requestLine;
+    }
+
+    private static String readRawLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        int b;
+        while ((b = input.read()) != '\n') {
+            if (b == -1) {
+                return null;
+            }
+
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+
+        return new String(line.toByteArray(), Constants.UTF8);
+    }
+
+    private static Request createRawRequest(String verb, ServerSocket rawServer) {
+        Request request = new Request(verb);
+        request.setUrl("http://127.0.0.1:" + rawServer.getLocalPort() + "/");
+
+        return request;
+    }
+
+    private Request createRequest(String verb, String path) {
+        Request request = new Request(verb);
+        request.setUrl(mServer.getUrl() + path);
+
+        return request;
+    }
+
+    private static byte[] readFully(InputStream stream) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+
+        while ((read = stream.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,278 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.tests.http;
+
+import static org.junit.Assert.*;
+
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.framing.Framedata.Opcode;
+import org.java_websocket.framing.FramedataImpl1;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import microsoft.aspnet.signalr.client.Constants;
+import microsoft.aspnet.signalr.client.NullLogger;
+import microsoft.aspnet.signalr.client.SignalRFuture;
+import microsoft.aspnet.signalr.client.http.nio.NioWebSocket;
+import microsoft.aspnet.signalr.client.http.nio.SelectorLoopGroup;
+import microsoft.aspnet.signalr.client.tests.util.LocalWebSocketServer;
+
+public class NioWebSocketTests {
+
+    private LocalWebSocketServer mServer;
+    private SelectorLoopGroup mLoopGroup;
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new LocalWebSocketServer() {
+            @Override
+            public void onMessage(WebSocket conn, String message) {
+                if (message.equals("fragmented")) {
+                    sendFragment(conn, Opcode.TEXT, "frag", false);
+                    sendFragment(conn, Opcode.CONTINUOUS, "men", false);
+                    sendFragment(conn, Opcode.CONTINUOUS, "ted", true);
+                } else if (message.equals("ping")) {
+                    FramedataImpl1 ping = new FramedataImpl1(Opcode.PING);
+                    ping.setFin(true);
+                    setPayload(ping, "ping payload");
+                    conn.sendFrame(ping);
+                } else if (message.equals("close")) {
+                    conn.close(4000, "server close");
+                } else {
+                    super.onMessage(conn, message);
+                }
+            }
+        };
+
+        mLoopGroup = new SelectorLoopGroup(1);
+        mExecutor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+        mLoopGroup.shutdown();
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testEcho() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        NioWebSocket webSocket = connect("ws/path?query=1", listener);
+
+        SignalRFuture<Void> sent = webSocket.send("Hello \u00e9");
+        sent.get(5, TimeUnit.SECONDS);
+
+        assertEquals("Hello \u00e9", listener.mMessages.poll(5, TimeUnit.SECONDS));
+        assertEquals("/ws/path?query=1", mServer.resourceDescriptors.get(0));
+    }
+
+    @Test
+    public void testLargeMessages() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        NioWebSocket webSocket = connect("", listener);
+
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            message.append(i % 10);
+        }
+
+        for (int i = 0; i < 3; i++) {
+            webSocket.send(message.toString());
+        }
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(message.toString(), listener.mMessages.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testFragmentedMessage() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        NioWebSocket webSocket = connect("", listener);
+
+        webSocket.send("fragmented");
+
+        assertEquals("fragmented", listener.mMessages.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testServerPingIsAnswered() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        NioWebSocket webSocket = connect("", listener);
+
+        webSocket.send("ping");
+        webSocket.send("after ping");
+        assertEquals("after ping", listener.mMessages.poll(5, TimeUnit.SECONDS));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mServer.pongs.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, mServer.pongs.size());
+        assertEquals("ping payload", toString(mServer.pongs.get(0).getPayloadData()));
+    }
+
+    @Test
+    public void testClientClose() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        NioWebSocket webSocket = connect("", listener);
+
+        webSocket.close();
+
+        assertEquals(Integer.valueOf(NioWebSocket.CLOSE_NORMAL), listener.mCloseCodes.poll(5, TimeUnit.SECONDS));
+        assertFalse(webSocket.isOpen());
+        assertTrue(webSocket.send("after close").errorWasTriggered() || waitForError(webSocket.send("after close")));
+    }
+
+    @Test
+    public void testServerClose() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        NioWebSocket webSocket = connect("", listener);
+
+        webSocket.send("close");
+
+        assertEquals(Integer.valueOf(4000), listener.mCloseCodes.poll(5, TimeUnit.SECONDS));
+        assertTrue(listener.mErrors.isEmpty());
+    }
+
+    @Test
+    public void testMessageTooBig() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        NioWebSocket webSocket = new NioWebSocket(new URI(mServer.getUrl()), null, listener, new NullLogger(), mLoopGroup.next(), mExecutor);
+        webSocket.setMaxMessageSize(10);
+        webSocket.connect();
+        assertTrue(listener.mOpened.poll(5, TimeUnit.SECONDS));
+
+        webSocket.send("a message longer than ten bytes");
+
+        assertEquals(Integer.valueOf(NioWebSocket.CLOSE_TOO_BIG), listener.mCloseCodes.poll(5, TimeUnit.SECONDS));
+        assertNotNull(listener.mErrors.poll(5, TimeUnit.SECONDS));
+        assertTrue(listener.mMessages.isEmpty());
+    }
+
+    @Test
+    public void testConnectionRefused() throws Exception {
+        // a port nobody listens on
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+
+        RecordingListener listener = new RecordingListener();
+        NioWebSocket webSocket = new NioWebSocket(new URI("ws://127.0.0.1:" + port + "/"), null, listener, new NullLogger(), mLoopGroup.next(), mExecutor);
+        webSocket.connect();
+
+        assertNotNull(listener.mErrors.poll(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(NioWebSocket.CLOSE_ABNORMAL), listener.mCloseCodes.poll(5, TimeUnit.SECONDS));
+        assertTrue(listener.mOpened.isEmpty());
+    }
+
+    @Test
+    public void testManyWebSocketsShareTheLoop() throws Exception {
+        int threadsBefore = Thread.activeCount();
+
+        List<RecordingListener> listeners = new ArrayList<RecordingListener>();
+        List<NioWebSocket> webSockets = new ArrayList<NioWebSocket>();
+        for (int i = 0; i < 50; i++) {
+            RecordingListener listener = new RecordingListener();
+            listeners.add(listener);
+            webSockets.add(connect("", listener));
+        }
+
+        // the executor threads may start, but no thread per WebSocket
+        assertTrue(Thread.activeCount() - threadsBefore <= 2);
+
+        for (int i = 0; i < webSockets.size(); i++) {
+            webSockets.get(i).send("message " + i);
+        }
+
+        for (int i = 0; i < webSockets.size(); i++) {
+            assertEquals("message " + i, listeners.get(i).mMessages.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    private NioWebSocket connect(String path, RecordingListener listener) throws Exception {
+        NioWebSocket webSocket = new NioWebSocket(new URI(mServer.getUrl() + path), null, listener, new NullLogger(), mLoopGroup.next(), mExecutor);
+        webSocket.connect();
+
+        assertTrue(listener.mOpened.poll(5, TimeUnit.SECONDS));
+        assertTrue(webSocket.isOpen());
+
+        return webSocket;
+    }
+
+    private static boolean waitForError(SignalRFuture<Void> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            return false;
+        } catch (Exception e) {
+            return true;
+        }
+    }
+
+    private static void sendFragment(WebSocket conn, Opcode opcode, String payload, boolean fin) {
+        FramedataImpl1 frame = new FramedataImpl1(opcode);
+        frame.setFin(fin);
+        setPayload(frame, payload);
+        conn.sendFrame(frame);
+    }
+
+    private static void setPayload(FramedataImpl1 frame, String payload) {
+        try {
+            frame.setPayload(ByteBuffer.wrap(payload.getBytes(Constants.UTF8_NAME)));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String toString(ByteBuffer buffer) throws Exception {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new String(bytes, Constants.UTF8_NAME);
+    }
+
+    private static class RecordingListener implements NioWebSocket.Listener {
+        BlockingQueue<Boolean> mOpened = new LinkedBlockingQueue<Boolean>();
+        BlockingQueue<String> mMessages = new LinkedBlockingQueue<String>();
+        BlockingQueue<Integer> mCloseCodes = new LinkedBlockingQueue<Integer>();
+        BlockingQueue<Throwable> mErrors = new LinkedBlockingQueue<Throwable>();
+
+        @Override
+        public void onOpen() {
+            mOpened.add(true);
+        }
+
+        @Override
+        public void onMessage(String message) {
+            mMessages.add(message);
+        }
+
+        @Override
+        public void onClose(int code, String reason) {
+            mCloseCodes.add(code);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            mErrors.add(error);
+        }
+    }
+}
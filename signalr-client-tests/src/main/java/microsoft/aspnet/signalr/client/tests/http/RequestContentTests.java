@@ -0,0 +1,202 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.tests.http;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import microsoft.aspnet.signalr.client.Constants;
+import microsoft.aspnet.signalr.client.NullLogger;
+import microsoft.aspnet.signalr.client.http.HttpConnectionFuture.ResponseCallback;
+import microsoft.aspnet.signalr.client.http.Request;
+import microsoft.aspnet.signalr.client.http.Response;
+import microsoft.aspnet.signalr.client.http.java.JavaHttpConnection;
+import microsoft.aspnet.signalr.client.http.java.NetworkExecutor;
+import microsoft.aspnet.signalr.client.tests.util.LocalHttpServer;
+import microsoft.aspnet.signalr.client.tests.util.MultiResult;
+
+public class RequestContentTests {
+
+    private LocalHttpServer mServer;
+    private volatile String mContentLength;
+    private volatile String mTransferEncoding;
+    private volatile String mContentEncoding;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new LocalHttpServer(new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mContentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+                mTransferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+                mContentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+
+                InputStream requestBody = exchange.getRequestBody();
+                if (Request.GZIP_ENCODING.equals(mContentEncoding)) {
+                    requestBody = new GZIPInputStream(requestBody);
+                }
+
+                // echo the decoded request body
+                byte[] content = readFully(requestBody);
+                exchange.sendResponseHeaders(200, content.length == 0 ? -1 : content.length);
+                OutputStream body = exchange.getResponseBody();
+                body.write(content);
+                body.close();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Test
+    public void testStringContentIsSentWithFixedLength() throws Exception {
+        Request request = createRequest();
+        request.setContent("Hello \u00e9");
+
+        assertTrue(Arrays.equals("Hello \u00e9".getBytes(Constants.UTF8), executeAndRead(request)));
+        assertEquals(String.valueOf("Hello \u00e9".getBytes(Constants.UTF8).length), mContentLength);
+        assertNull(mTransferEncoding);
+    }
+
+    @Test
+    public void testByteContentIsSentWithFixedLength() throws Exception {
+        byte[] content = createContent(100000);
+
+        Request request = createRequest();
+        request.setContent(content);
+
+        assertTrue(Arrays.equals(content, executeAndRead(request)));
+        assertEquals("100000", mContentLength);
+        assertNull(mTransferEncoding);
+    }
+
+    @Test
+    public void testStreamContentOfUnknownLengthIsChunked() throws Exception {
+        byte[] content = createContent(100000);
+
+        Request request = createRequest();
+        request.setContent(new ByteArrayInputStream(content), -1);
+
+        assertTrue(Arrays.equals(content, executeAndRead(request)));
+        assertEquals("chunked", mTransferEncoding);
+    }
+
+    @Test
+    public void testStreamContentOfKnownLength() throws Exception {
+        byte[] content = createContent(5000);
+
+        Request request = createRequest();
+        request.setContent(new ByteArrayInputStream(content), content.length);
+
+        assertTrue(Arrays.equals(content, executeAndRead(request)));
+        assertEquals("5000", mContentLength);
+    }
+
+    @Test
+    public void testGzipContent() throws Exception {
+        Request request = createRequest();
+        request.setFormContent("data", "Hello World Hello World Hello World");
+        request.setGzipContent(true);
+
+        String expected = request.getContent();
+        assertEquals(expected, new String(executeAndRead(request), Constants.UTF8_NAME));
+        assertEquals(Request.GZIP_ENCODING, mContentEncoding);
+    }
+
+    @Test
+    public void testContentLength() throws Exception {
+        Request request = createRequest();
+        assertFalse(request.hasContent());
+        assertEquals(0, request.getContentLength());
+        assertNull(request.getContentBytes());
+
+        request.setContent("\u00e9");
+        assertEquals(2, request.getContentLength());
+
+        request.setGzipContent(true);
+        assertEquals(-1, request.getContentLength());
+
+        request.setGzipContent(false);
+        request.setContent(new ByteArrayInputStream(new byte[10]), -1);
+        assertNull(request.getContent());
+        assertEquals(-1, request.getContentLength());
+    }
+
+    @Test
+    public void testGzipContentBytes() throws Exception {
+        byte[] content = createContent(10000);
+
+        Request request = createRequest();
+        request.setContent(content);
+        request.setGzipContent(true);
+
+        byte[] compressed = request.getContentBytes();
+        assertTrue(compressed.length < content.length);
+        assertTrue(Arrays.equals(content, readFully(new GZIPInputStream(new ByteArrayInputStream(compressed)))));
+    }
+
+    private byte[] executeAndRead(Request request) throws Exception {
+        JavaHttpConnection connection = new JavaHttpConnection(new NullLogger(), new NetworkExecutor());
+
+        final MultiResult result = new MultiResult();
+        connection.execute(request, new ResponseCallback() {
+
+            @Override
+            public void onResponse(Response response) throws Exception {
+                result.listResult.add(response.readAllBytes());
+            }
+        }).get();
+
+        return (byte[]) result.listResult.get(0);
+    }
+
+    private Request createRequest() {
+        Request request = new Request(Constants.HTTP_POST);
+        request.setUrl(mServer.getUrl() + "echo");
+
+        return request;
+    }
+
+    private static byte[] createContent(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i % 64);
+        }
+
+        return content;
+    }
+
+    private static byte[] readFully(InputStream stream) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+
+        while ((read = stream.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,223 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.tests.http;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import microsoft.aspnet.signalr.client.Constants;
+import microsoft.aspnet.signalr.client.http.CompressionStats;
+import microsoft.aspnet.signalr.client.http.ResponseHelper;
+import microsoft.aspnet.signalr.client.http.StreamResponse;
+import microsoft.aspnet.signalr.client.tests.util.PlainResponse;
+
+public class StreamResponseTests {
+
+    @Test
+    public void testPlainResponseStreamIsReadToTheEnd() throws Exception {
+        byte[] body = "first line\r\nsecond line \u00e9".getBytes(Constants.UTF8);
+
+        // only the Response methods are available
+        InputStream stream = ResponseHelper.getInputStream(new PlainResponse(createResponse(body, false)));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int read;
+        while ((read = stream.read()) != -1) {
+            output.write(read);
+        }
+
+        assertTrue(Arrays.equals(body, output.toByteArray()));
+    }
+
+    @Test
+    public void testReadAllBytesReturnsTheExactBody() throws Exception {
+        byte[] body = new byte[100000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+
+        StreamResponse response = createResponse(body, false);
+
+        assertTrue(Arrays.equals(body, response.readAllBytes()));
+    }
+
+    @Test
+    public void testReadAllBytesWithContentLength() throws Exception {
+        byte[] body = "Hello World".getBytes(Constants.UTF8);
+
+        StreamResponse response = createResponse(body, true);
+
+        assertTrue(Arrays.equals(body, response.readAllBytes()));
+    }
+
+    @Test
+    public void testReadToEndKeepsTheBodyAsIs() throws Exception {
+        String body = "first line\r\nsecond line \u00e9\u4e2d";
+
+        StreamResponse response = createResponse(body.getBytes(Constants.UTF8), false);
+
+        assertEquals(body, response.readToEnd());
+    }
+
+    @Test
+    public void testReadIntoByteBuffer() throws Exception {
+        byte[] body = "Hello World".getBytes(Constants.UTF8);
+        StreamResponse response = createResponse(body, false);
+
+        ByteBuffer buffer = ByteBuffer.allocate(5);
+        assertEquals(5, response.read(buffer));
+        assertEquals("Hello", new String(buffer.array(), 0, 5, Constants.UTF8));
+
+        buffer = ByteBuffer.allocate(100);
+        int total = 0;
+        int read;
+        while ((read = response.read(buffer)) != -1) {
+            total += read;
+        }
+
+        assertEquals(6, total);
+        assertEquals(" World", new String(buffer.array(), 0, total, Constants.UTF8));
+    }
+
+    @Test
+    public void testReadToEndAfterReadLine() throws Exception {
+        StreamResponse response = createResponse("first\nsecond\nthird".getBytes(Constants.UTF8), false);
+
+        assertEquals("first", response.readLine());
+        assertEquals("second\nthird", response.readToEnd());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInputStreamIsNotAvailableAfterReadLine() throws Exception {
+        StreamResponse response = createResponse("first\nsecond".getBytes(Constants.UTF8), false);
+
+        response.readLine();
+        response.getInputStream();
+    }
+
+    @Test
+    public void testGzipBodyIsDecompressed() throws Exception {
+        String body = "first line\nsecond line \u00e9";
+        CompressionStats stats = new CompressionStats();
+
+        StreamResponse response = createCompressedResponse(compress(body, new GZIPOutputStreamFactory()), "gzip", stats);
+
+        assertTrue(response.isCompressed());
+        assertEquals(body, response.readToEnd());
+        assertEquals(1, stats.getCompressedResponseCount());
+        assertEquals(body.getBytes(Constants.UTF8).length, stats.getUncompressedBytes());
+        assertTrue(stats.getCompressedBytes() > 0);
+    }
+
+    @Test
+    public void testCompressedBodyCanBeReadByLines() throws Exception {
+        StreamResponse response = createCompressedResponse(compress("data: first\n\ndata: second\n", new GZIPOutputStreamFactory()), "GZIP", null);
+
+        assertEquals("data: first", response.readLine());
+        assertEquals("", response.readLine());
+        assertEquals("data: second", response.readLine());
+        assertNull(response.readLine());
+    }
+
+    @Test
+    public void testDeflateBodyIsDecompressed() throws Exception {
+        StreamResponse response = createCompressedResponse(compress("Hello World", new DeflaterOutputStreamFactory(false)), "deflate", null);
+
+        assertEquals("Hello World", response.readToEnd());
+    }
+
+    @Test
+    public void testRawDeflateBodyIsDecompressed() throws Exception {
+        StreamResponse response = createCompressedResponse(compress("Hello World", new DeflaterOutputStreamFactory(true)), "deflate", null);
+
+        assertEquals("Hello World", response.readToEnd());
+    }
+
+    @Test
+    public void testEmptyCompressedBody() throws Exception {
+        StreamResponse response = createCompressedResponse(new byte[0], "gzip", null);
+
+        assertEquals("", response.readToEnd());
+    }
+
+    @Test
+    public void testUnknownEncodingIsNotDecoded() throws Exception {
+        StreamResponse response = createCompressedResponse("Hello".getBytes(Constants.UTF8), "identity", null);
+
+        assertFalse(response.isCompressed());
+        assertEquals("Hello", response.readToEnd());
+    }
+
+    private static StreamResponse createCompressedResponse(byte[] body, String encoding, CompressionStats stats) {
+        Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        headers.put("Content-Encoding", Arrays.asList(encoding));
+        headers.put("Content-Length", Arrays.asList(String.valueOf(body.length)));
+
+        return new StreamResponse(new ByteArrayInputStream(body), 200, headers, stats);
+    }
+
+    private static byte[] compress(String body, OutputStreamFactory factory) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        OutputStream compressed = factory.create(output);
+        compressed.write(body.getBytes(Constants.UTF8));
+        compressed.close();
+
+        return output.toByteArray();
+    }
+
+    private interface OutputStreamFactory {
+        OutputStream create(OutputStream output) throws IOException;
+    }
+
+    private static class GZIPOutputStreamFactory implements OutputStreamFactory {
+        @Override
+        public OutputStream create(OutputStream output) throws IOException {
+            return new GZIPOutputStream(output);
+        }
+    }
+
+    private static class DeflaterOutputStreamFactory implements OutputStreamFactory {
+        private boolean mRaw;
+
+        DeflaterOutputStreamFactory(boolean raw) {
+            mRaw = raw;
+        }
+
+        @Override
+        public OutputStream create(OutputStream output) throws IOException {
+            return new DeflaterOutputStream(output, new Deflater(Deflater.DEFAULT_COMPRESSION, mRaw));
+        }
+    }
+
+    private static StreamResponse createResponse(byte[] body, boolean withContentLength) {
+        Map<String, List<String>> headers = new HashMap<String, List<String>>();
+
+        if (withContentLength) {
+            List<String> value = new ArrayList<String>();
+            value.add(String.valueOf(body.length));
+            headers.put("Content-Length", value);
+        }
+
+        return new StreamResponse(new ByteArrayInputStream(body), 200, headers);
+    }
+}
@@ -0,0 +1,234 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.tests.http;
+
+import static org.junit.Assert.*;
+
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.Framedata.Opcode;
+import org.java_websocket.framing.FramedataImpl1;
+import org.java_websocket.handshake.ClientHandshake;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import microsoft.aspnet.signalr.client.Constants;
+import microsoft.aspnet.signalr.client.NullLogger;
+import microsoft.aspnet.signalr.client.SignalRFuture;
+import microsoft.aspnet.signalr.client.tests.util.LocalWebSocketServer;
+import microsoft.aspnet.signalr.client.tests.util.MockConnection;
+import microsoft.aspnet.signalr.client.transport.ConnectionType;
+import microsoft.aspnet.signalr.client.transport.DataResultCallback;
+import microsoft.aspnet.signalr.client.transport.WebsocketTransport;
+
+public class WebsocketTransportTests {
+
+    private LocalWebSocketServer mServer;
+    private Semaphore mReceived = new Semaphore(0);
+    private Semaphore mClosed = new Semaphore(0);
+    private Semaphore mPonged = new Semaphore(0);
+    private Semaphore mOpenedSemaphore = new Semaphore(0);
+    private List<WebSocket> mOpened = Collections.synchronizedList(new ArrayList<WebSocket>());
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new LocalWebSocketServer() {
+            @Override
+            public void onOpen(WebSocket conn, ClientHandshake handshake) {
+                super.onOpen(conn, handshake);
+                mOpened.add(conn);
+                mOpenedSemaphore.release();
+            }
+
+            @Override
+            public void onMessage(WebSocket conn, String message) {
+                mReceived.release();
+            }
+
+            @Override
+            public void onWebsocketPong(WebSocket conn, Framedata f) {
+                super.onWebsocketPong(conn, f);
+                mPonged.release();
+            }
+
+            @Override
+            public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+                super.onClose(conn, code, reason, remote);
+                mClosed.release();
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void testIdenticalMessagesAreAllFlushed() throws Exception {
+        WebsocketTransport transport = new WebsocketTransport(new NullLogger());
+        MockConnection connection = createConnection();
+
+        transport.start(connection, ConnectionType.InitialConnection, new DataResultCallback() {
+
+            @Override
+            public void onData(String data) {
+            }
+        }).get(5, TimeUnit.SECONDS);
+
+        // equal frames must not be mistaken for one another
+        List<SignalRFuture<Void>> futures = new ArrayList<SignalRFuture<Void>>();
+        for (int i = 0; i < 500; i++) {
+            futures.add(transport.send(connection, "same message", null));
+        }
+
+        for (SignalRFuture<Void> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+
+        assertTrue(mReceived.tryAcquire(500, 5, TimeUnit.SECONDS));
+        assertEquals(0, transport.getSendQueue().getQueuedMessageCount());
+    }
+
+    @Test
+    public void testCancelledStartClosesTheSocket() throws Exception {
+        // the server accepts the connection but never answers the handshake
+        ServerSocket server = new ServerSocket(0);
+        final String url = "http://127.0.0.1:" + server.getLocalPort() + "/";
+
+        WebsocketTransport transport = new WebsocketTransport(new NullLogger());
+        SignalRFuture<Void> start = transport.start(new MockConnection() {
+            @Override
+            public String getUrl() {
+                return url;
+            }
+        }, ConnectionType.InitialConnection, new DataResultCallback() {
+
+            @Override
+            public void onData(String data) {
+            }
+        });
+
+        server.setSoTimeout(5000);
+        Socket socket = server.accept();
+
+        start.cancel();
+
+        assertTrue(transport.getSendQueue().send("message").errorWasTriggered());
+
+        // the client closes its socket
+        socket.setSoTimeout(5000);
+        InputStream input = socket.getInputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        do {
+            read = input.read(buffer);
+        } while (read > 0);
+
+        assertEquals(-1, read);
+
+        socket.close();
+        server.close();
+    }
+
+    @Test
+    public void testCancelledStartClosesTheOpenWebSocket() throws Exception {
+        WebsocketTransport transport = new WebsocketTransport(new NullLogger());
+        SignalRFuture<Void> start = transport.start(createConnection(), ConnectionType.InitialConnection, new DataResultCallback() {
+
+            @Override
+            public void onData(String data) {
+            }
+        });
+
+        start.get(5, TimeUnit.SECONDS);
+        start.cancel();
+
+        assertTrue(transport.getSendQueue().send("message").errorWasTriggered());
+
+        assertTrue(mClosed.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(CloseFrame.NORMAL), mServer.closeCodes.get(0));
+    }
+
+    @Test
+    public void testRestartDoesNotMixTheFragmentsOfTwoSockets() throws Exception {
+        WebsocketTransport transport = new WebsocketTransport(new NullLogger());
+        MockConnection connection = createConnection();
+
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        final Semaphore receivedMessage = new Semaphore(0);
+        DataResultCallback callback = new DataResultCallback() {
+
+            @Override
+            public void onData(String data) {
+                received.add(data);
+                receivedMessage.release();
+            }
+        };
+
+        transport.start(connection, ConnectionType.InitialConnection, callback).get(5, TimeUnit.SECONDS);
+        assertTrue(mOpenedSemaphore.tryAcquire(5, TimeUnit.SECONDS));
+        WebSocket oldSocket = mOpened.get(0);
+
+        // the pong tells that the client read the first fragment
+        sendFragment(oldSocket, Opcode.TEXT, "old ", false);
+        FramedataImpl1 ping = new FramedataImpl1(Opcode.PING);
+        ping.setFin(true);
+        oldSocket.sendFrame(ping);
+        assertTrue(mPonged.tryAcquire(5, TimeUnit.SECONDS));
+
+        transport.start(connection, ConnectionType.Reconnection, callback).get(5, TimeUnit.SECONDS);
+        assertTrue(mOpenedSemaphore.tryAcquire(5, TimeUnit.SECONDS));
+        WebSocket newSocket = mOpened.get(1);
+
+        // the old socket still delivers its message while the new one is open
+        sendFragment(newSocket, Opcode.TEXT, "new ", false);
+        sendFragment(oldSocket, Opcode.CONTINUOUS, "message", true);
+        assertTrue(receivedMessage.tryAcquire(5, TimeUnit.SECONDS));
+        sendFragment(newSocket, Opcode.CONTINUOUS, "message", true);
+        assertTrue(receivedMessage.tryAcquire(5, TimeUnit.SECONDS));
+
+        assertEquals("old message", received.get(0));
+        assertEquals("new message", received.get(1));
+        assertEquals(0, mServer.closeCodes.size());
+        assertEquals(2, transport.getFragmentStats().getFragmentedMessageCount());
+    }
+
+    private static void sendFragment(WebSocket conn, Opcode opcode, String payload, boolean fin) {
+        FramedataImpl1 frame = new FramedataImpl1(opcode);
+        frame.setFin(fin);
+
+        try {
+            frame.setPayload(ByteBuffer.wrap(payload.getBytes(Constants.UTF8_NAME)));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        conn.sendFrame(frame);
+    }
+
+    private MockConnection createConnection() {
+        return new MockConnection() {
+            @Override
+            public String getUrl() {
+                return mServer.getUrl();
+            }
+        };
+    }
+}
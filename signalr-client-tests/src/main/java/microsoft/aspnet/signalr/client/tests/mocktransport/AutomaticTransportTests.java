@@ -0,0 +1,343 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.tests.mocktransport;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import microsoft.aspnet.signalr.client.ConnectionBase;
+import microsoft.aspnet.signalr.client.Logger;
+import microsoft.aspnet.signalr.client.NullLogger;
+import microsoft.aspnet.signalr.client.SignalRFuture;
+import microsoft.aspnet.signalr.client.tests.util.MockConnection;
+import microsoft.aspnet.signalr.client.tests.util.MockHttpConnection;
+import microsoft.aspnet.signalr.client.tests.util.MockHttpConnection.RequestEntry;
+import microsoft.aspnet.signalr.client.tests.util.Utils;
+import microsoft.aspnet.signalr.client.transport.AutomaticTransport;
+import microsoft.aspnet.signalr.client.transport.AutomaticTransport.TransportFactory;
+import microsoft.aspnet.signalr.client.transport.ClientTransport;
+import microsoft.aspnet.signalr.client.transport.ConnectionType;
+import microsoft.aspnet.signalr.client.transport.DataResultCallback;
+import microsoft.aspnet.signalr.client.transport.NegotiationResponse;
+import microsoft.aspnet.signalr.client.transport.TransportSelectionCache;
+
+public class AutomaticTransportTests {
+
+    private List<FakeTransport> mCreated = Collections.synchronizedList(new ArrayList<FakeTransport>());
+    private Semaphore mStarted = new Semaphore(0);
+
+    @Before
+    public void setUp() {
+        AutomaticTransport.clearWinningTransports();
+    }
+
+    @Test
+    public void testTransportsAreTriedInOrder() throws Exception {
+        AutomaticTransport transport = createTransport("webSockets", "serverSentEvents", "longPolling");
+
+        SignalRFuture<Void> start = transport.start(new MockConnection(), ConnectionType.InitialConnection, new NullCallback());
+
+        // the transports are created when they are tried
+        assertEquals(1, mCreated.size());
+        assertEquals("webSockets", mCreated.get(0).getName());
+
+        mCreated.get(0).mStart.triggerError(new Exception("Blocked"));
+        assertEquals(2, mCreated.size());
+
+        mCreated.get(1).mStart.setResult(null);
+        assertTrue(start.isDone());
+        assertEquals("serverSentEvents", transport.getName());
+        assertEquals(2, mCreated.size());
+    }
+
+    @Test
+    public void testAllTransportsFail() throws Exception {
+        AutomaticTransport transport = createTransport("webSockets", "longPolling");
+
+        SignalRFuture<Void> start = transport.start(new MockConnection(), ConnectionType.InitialConnection, new NullCallback());
+
+        mCreated.get(0).mStart.triggerError(new Exception("First"));
+        mCreated.get(1).mStart.triggerError(new Exception("Second"));
+
+        assertTrue(start.errorWasTriggered());
+        assertEquals("AutomaticTransport", transport.getName());
+    }
+
+    @Test
+    public void testWebSocketsAreSkippedWhenTheServerDoesNotSupportThem() throws Exception {
+        MockHttpConnection httpConnection = new MockHttpConnection();
+        AutomaticTransport transport = new AutomaticTransport(new NullLogger(), httpConnection, createFactories("webSockets", "longPolling"));
+
+        MockConnection connection = new MockConnection();
+        SignalRFuture<NegotiationResponse> negotiation = transport.negotiate(connection);
+
+        NegotiationResponse response = Utils.getDefaultNegotiationResponse();
+        response.setTryWebSockets(false);
+
+        RequestEntry entry = httpConnection.getRequest();
+        entry.response.writeLine(Utils.getNegotiationResponseContent(response));
+        Utils.finishMessage(entry);
+        negotiation.get();
+
+        transport.start(connection, ConnectionType.InitialConnection, new NullCallback());
+
+        assertEquals(1, mCreated.size());
+        assertEquals("longPolling", mCreated.get(0).getName());
+    }
+
+    @Test
+    public void testRacingStartsTheNextTransportAfterTheStaggerDelay() throws Exception {
+        AutomaticTransport transport = createTransport("webSockets", "serverSentEvents", "longPolling");
+        transport.setRacing(true);
+        transport.setStaggerDelay(500);
+
+        SignalRFuture<Void> start = transport.start(new MockConnection(), ConnectionType.InitialConnection, new NullCallback());
+
+        assertTrue(mStarted.tryAcquire(5, TimeUnit.SECONDS));
+
+        // the first transport is still connecting when the second one starts
+        assertTrue(mStarted.tryAcquire(5, TimeUnit.SECONDS));
+        FakeTransport first = mCreated.get(0);
+        FakeTransport second = mCreated.get(1);
+        assertFalse(first.mStart.isDone());
+
+        second.mStart.setResult(null);
+
+        start.get(5, TimeUnit.SECONDS);
+        assertEquals("serverSentEvents", transport.getName());
+        assertTrue(first.mStart.isCancelled());
+
+        // no other transport is started once one connected
+        assertFalse(mStarted.tryAcquire(1000, TimeUnit.MILLISECONDS));
+        assertEquals(2, mCreated.size());
+    }
+
+    @Test
+    public void testLosersDataIsIgnored() throws Exception {
+        AutomaticTransport transport = createTransport("webSockets", "longPolling");
+        transport.setRacing(true);
+        transport.setStaggerDelay(0);
+
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        SignalRFuture<Void> start = transport.start(new MockConnection(), ConnectionType.InitialConnection, new DataResultCallback() {
+
+            @Override
+            public void onData(String data) {
+                received.add(data);
+            }
+        });
+
+        assertTrue(mStarted.tryAcquire(2, 5, TimeUnit.SECONDS));
+
+        mCreated.get(1).mStart.setResult(null);
+        start.get(5, TimeUnit.SECONDS);
+        mCreated.get(0).mCallback.onData("loser");
+        mCreated.get(1).mCallback.onData("winner");
+
+        assertEquals(1, received.size());
+        assertEquals("winner", received.get(0));
+    }
+
+    @Test
+    public void testWinningTransportIsTriedFirst() throws Exception {
+        AutomaticTransport transport = createTransport("webSockets", "longPolling");
+        transport.start(new MockConnection(), ConnectionType.InitialConnection, new NullCallback());
+
+        mCreated.get(0).mStart.triggerError(new Exception("Blocked"));
+        mCreated.get(1).mStart.setResult(null);
+
+        mCreated.clear();
+
+        AutomaticTransport nextTransport = createTransport("webSockets", "longPolling");
+        nextTransport.start(new MockConnection(), ConnectionType.InitialConnection, new NullCallback());
+
+        assertEquals(1, mCreated.size());
+        assertEquals("longPolling", mCreated.get(0).getName());
+    }
+
+    @Test
+    public void testWinningTransportsOfLeastRecentEndpointsAreForgotten() throws Exception {
+        AutomaticTransport transport = createTransport("webSockets", "longPolling");
+        transport.start(createConnection("http://first/"), ConnectionType.InitialConnection, new NullCallback());
+
+        mCreated.get(0).mStart.triggerError(new Exception("Blocked"));
+        mCreated.get(1).mStart.setResult(null);
+
+        for (int i = 0; i < AutomaticTransport.MAX_WINNING_TRANSPORTS; i++) {
+            mCreated.clear();
+
+            AutomaticTransport otherTransport = createTransport("webSockets", "longPolling");
+            otherTransport.start(createConnection("http://other" + i + "/"), ConnectionType.InitialConnection, new NullCallback());
+            mCreated.get(0).mStart.setResult(null);
+        }
+
+        mCreated.clear();
+
+        AutomaticTransport nextTransport = createTransport("webSockets", "longPolling");
+        nextTransport.start(createConnection("http://first/"), ConnectionType.InitialConnection, new NullCallback());
+
+        assertEquals("webSockets", mCreated.get(0).getName());
+    }
+
+    @Test
+    public void testSelectionCacheIsUsedAndProbed() throws Exception {
+        File file = File.createTempFile("transports", ".cache");
+        file.delete();
+
+        try {
+            final Semaphore cached = new Semaphore(0);
+            TransportSelectionCache cache = new TransportSelectionCache(file, 60000, 3, 0) {
+
+                @Override
+                public synchronized void onConnected(String endpoint, String transport) {
+                    super.onConnected(endpoint, transport);
+
+                    if (transport.equals("serverSentEvents")) {
+                        cached.release();
+                    }
+                }
+            };
+            final Semaphore probed = new Semaphore(0);
+            final List<String> probedTransports = Collections.synchronizedList(new ArrayList<String>());
+
+            AutomaticTransport transport = new AutomaticTransport(new NullLogger(), new MockHttpConnection(), createFactories("webSockets",
+                    "serverSentEvents", "longPolling")) {
+
+                @Override
+                protected boolean probeTransport(ConnectionBase connection, ClientTransport transport) {
+                    probedTransports.add(transport.getName());
+                    probed.release();
+                    return transport.getName().equals("serverSentEvents");
+                }
+            };
+            transport.setSelectionCache(cache);
+            transport.start(new MockConnection(), ConnectionType.InitialConnection, new NullCallback());
+
+            mCreated.get(0).mStart.triggerError(new Exception("Blocked"));
+            mCreated.get(1).mStart.triggerError(new Exception("Blocked"));
+            mCreated.get(2).mStart.setResult(null);
+
+            // the better transports are probed in order until one works
+            assertTrue(probed.tryAcquire(2, 5, TimeUnit.SECONDS));
+            assertEquals("webSockets", probedTransports.get(0));
+            assertEquals("serverSentEvents", probedTransports.get(1));
+
+            // the probe thread updates the cache after the probe returns
+            assertTrue(cached.tryAcquire(5, TimeUnit.SECONDS));
+            cache.flush();
+
+            // the probed transport is used after a restart
+            AutomaticTransport.clearWinningTransports();
+            mCreated.clear();
+
+            AutomaticTransport nextTransport = createTransport("webSockets", "serverSentEvents", "longPolling");
+            nextTransport.setSelectionCache(new TransportSelectionCache(file));
+            nextTransport.start(new MockConnection(), ConnectionType.InitialConnection, new NullCallback());
+
+            assertEquals(1, mCreated.size());
+            assertEquals("serverSentEvents", mCreated.get(0).getName());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static MockConnection createConnection(final String url) {
+        return new MockConnection() {
+
+            @Override
+            public String getUrl() {
+                return url;
+            }
+        };
+    }
+
+    private AutomaticTransport createTransport(String... names) {
+        return new AutomaticTransport(new NullLogger(), new MockHttpConnection(), createFactories(names));
+    }
+
+    private List<TransportFactory> createFactories(String... names) {
+        List<TransportFactory> factories = new ArrayList<TransportFactory>();
+
+        for (final String name : names) {
+            factories.add(new TransportFactory() {
+
+                @Override
+                public String getTransportName() {
+                    return name;
+                }
+
+                @Override
+                public ClientTransport createTransport(Logger logger) {
+                    FakeTransport transport = new FakeTransport(name);
+                    mCreated.add(transport);
+                    return transport;
+                }
+            });
+        }
+
+        return factories;
+    }
+
+    private static class NullCallback implements DataResultCallback {
+        @Override
+        public void onData(String data) {
+        }
+    }
+
+    private class FakeTransport implements ClientTransport {
+        String mName;
+        SignalRFuture<Void> mStart;
+        DataResultCallback mCallback;
+
+        FakeTransport(String name) {
+            mName = name;
+        }
+
+        @Override
+        public String getName() {
+            return mName;
+        }
+
+        @Override
+        public boolean supportKeepAlive() {
+            return false;
+        }
+
+        @Override
+        public SignalRFuture<NegotiationResponse> negotiate(ConnectionBase connection) {
+            return null;
+        }
+
+        @Override
+        public SignalRFuture<Void> start(ConnectionBase connection, ConnectionType connectionType, DataResultCallback callback) {
+            mStart = new SignalRFuture<Void>();
+            mCallback = callback;
+            mStarted.release();
+
+            return mStart;
+        }
+
+        @Override
+        public SignalRFuture<Void> send(ConnectionBase connection, String data, DataResultCallback callback) {
+            return null;
+        }
+
+        @Override
+        public SignalRFuture<Void> abort(ConnectionBase connection) {
+            return null;
+        }
+    }
+}
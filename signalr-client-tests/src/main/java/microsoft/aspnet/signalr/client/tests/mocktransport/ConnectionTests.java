@@ -7,23 +7,37 @@ See License.txt in the project root for license information.
 package microsoft.aspnet.signalr.client.tests.mocktransport;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 import microsoft.aspnet.signalr.client.Action;
+import microsoft.aspnet.signalr.client.CodecHelper;
 import microsoft.aspnet.signalr.client.ConnectionState;
+import microsoft.aspnet.signalr.client.FilteredLogger;
+import microsoft.aspnet.signalr.client.GsonCodec;
+import microsoft.aspnet.signalr.client.LogLevel;
+import microsoft.aspnet.signalr.client.Logger;
 import microsoft.aspnet.signalr.client.MessageReceivedHandler;
 import microsoft.aspnet.signalr.client.NullLogger;
 import microsoft.aspnet.signalr.client.Connection;
 import microsoft.aspnet.signalr.client.SignalRFuture;
 import microsoft.aspnet.signalr.client.tests.util.MockClientTransport;
+import microsoft.aspnet.signalr.client.tests.util.MockConnection;
 import microsoft.aspnet.signalr.client.tests.util.MultiResult;
+import microsoft.aspnet.signalr.client.tests.util.TextJsonCodec;
 import microsoft.aspnet.signalr.client.tests.util.Utils;
 import microsoft.aspnet.signalr.client.transport.NegotiationResponse;
 
 import org.junit.Test;
 
+import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
@@ -185,6 +199,57 @@ public class ConnectionTests {
         assertEquals(dataToSend, transport.sendOperation.data);
     }
 
+    @Test
+    public void testFilteredLoggerLevelAndPayload() throws Exception {
+        RecordingLogger logger = new RecordingLogger(LogLevel.Information, false);
+        Connection connection = new Connection(SERVER_URL, CONNECTION_QUERYSTRING, logger);
+
+        MockClientTransport transport = new MockClientTransport();
+
+        connection.start(transport);
+
+        transport.negotiationFuture.setResult(Utils.getDefaultNegotiationResponse());
+        transport.startOperation.future.setResult(null);
+        transport.startOperation.callback.onData("{\"S\":1}");
+
+        connection.send("My secret data");
+        transport.sendOperation.future.setResult(null);
+
+        assertFalse(logger.mMessages.isEmpty());
+
+        boolean sendLogged = false;
+        for (int i = 0; i < logger.mMessages.size(); i++) {
+            assertTrue(logger.mLevels.get(i).compareTo(LogLevel.Information) <= 0);
+            assertFalse(logger.mMessages.get(i).contains("My secret data"));
+            sendLogged |= logger.mMessages.get(i).endsWith("Sending data");
+        }
+
+        assertTrue(sendLogged);
+
+        // a plain logger still gets every message with its data
+        final List<String> messages = new ArrayList<String>();
+        connection = new Connection(SERVER_URL, CONNECTION_QUERYSTRING, new Logger() {
+
+            @Override
+            public void log(String message, LogLevel level) {
+                messages.add(message);
+            }
+        });
+
+        transport = new MockClientTransport();
+        connection.start(transport);
+        transport.negotiationFuture.setResult(Utils.getDefaultNegotiationResponse());
+        transport.startOperation.future.setResult(null);
+        connection.send("My secret data");
+
+        boolean payloadLogged = false;
+        for (String message : messages) {
+            payloadLogged |= message.endsWith("Sending: My secret data");
+        }
+
+        assertTrue(payloadLogged);
+    }
+
     @Test
     public void testStop() throws Exception {
         Connection connection = new Connection(SERVER_URL, CONNECTION_QUERYSTRING, new NullLogger());
@@ -285,4 +350,80 @@ public class ConnectionTests {
         assertEquals(ConnectionState.Reconnecting, connection.getState());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testGsonFollowsTheCodec() throws Exception {
+        Connection connection = new Connection(SERVER_URL, CONNECTION_QUERYSTRING, new NullLogger());
+
+        Gson gson = new Gson();
+        connection.setGson(gson);
+        assertSame(gson, connection.getGson());
+        assertSame(gson, ((GsonCodec) connection.getCodec()).getGson());
+
+        GsonCodec gsonCodec = new GsonCodec();
+        connection.setCodec(gsonCodec);
+        assertSame(gsonCodec.getGson(), connection.getGson());
+
+        TextJsonCodec codec = new TextJsonCodec();
+        connection.setCodec(codec);
+        assertNull(connection.getGson());
+
+        // a custom codec is not replaced silently
+        try {
+            connection.setGson(gson);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+
+        assertSame(codec, connection.getCodec());
+        assertNull(connection.getGson());
+    }
+
+    @Test
+    public void testOtherConnectionsUseTheirGson() throws Exception {
+        final Gson gson = new Gson();
+
+        MockConnection connection = new MockConnection() {
+
+            @Override
+            public Gson getGson() {
+                return gson;
+            }
+        };
+
+        assertSame(gson, ((GsonCodec) CodecHelper.getCodec(connection)).getGson());
+
+        Connection codecConnection = new Connection(SERVER_URL, CONNECTION_QUERYSTRING, new NullLogger());
+        TextJsonCodec codec = new TextJsonCodec();
+        codecConnection.setCodec(codec);
+
+        assertSame(codec, CodecHelper.getCodec(codecConnection));
+    }
+
+    private static class RecordingLogger implements FilteredLogger {
+        LogLevel mLevel;
+        boolean mPayloadLoggable;
+        List<String> mMessages = new ArrayList<String>();
+        List<LogLevel> mLevels = new ArrayList<LogLevel>();
+
+        RecordingLogger(LogLevel level, boolean payloadLoggable) {
+            mLevel = level;
+            mPayloadLoggable = payloadLoggable;
+        }
+
+        @Override
+        public synchronized void log(String message, LogLevel level) {
+            mMessages.add(message);
+            mLevels.add(level);
+        }
+
+        @Override
+        public boolean isLoggable(LogLevel level) {
+            return level.compareTo(mLevel) <= 0;
+        }
+
+        @Override
+        public boolean isPayloadLoggable() {
+            return mPayloadLoggable;
+        }
+    }
+}
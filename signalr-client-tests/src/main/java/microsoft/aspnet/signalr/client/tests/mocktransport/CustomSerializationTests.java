@@ -8,8 +8,10 @@ package microsoft.aspnet.signalr.client.tests.mocktransport;
 
 import static org.junit.Assert.*;
 
+import java.text.ParseException;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.GregorianCalendar;
 import java.util.TimeZone;
 
 import microsoft.aspnet.signalr.client.CalendarSerializer;
@@ -131,4 +133,99 @@ public class CustomSerializationTests {
         assertNotNull(DateSerializer.deserialize("2014-03-29T00:00:00+00:00"));
         assertNotNull(DateSerializer.deserialize("2014-03-29T00:00:00.Z"));
     }
+
+    @Test
+    public void testFractionsAndOffsetsParse() throws Exception {
+
+        long expected = getUtcMillis(2014, 3, 29, 10, 20, 30, 123);
+
+        // .NET and Java variants
+        assertEquals(expected, DateSerializer.deserialize("2014-03-29T10:20:30.1234567Z").getTime());
+        assertEquals(expected, DateSerializer.deserialize("2014-03-29T10:20:30.123Z").getTime());
+        assertEquals(expected, DateSerializer.deserialize("2014-03-29T10:20:30.1239").getTime());
+        assertEquals(expected, DateSerializer.deserialize("2014-03-29T12:20:30.123+02:00").getTime());
+        assertEquals(expected, DateSerializer.deserialize("2014-03-29T04:50:30.123-0530").getTime());
+
+        assertEquals(expected - 123, DateSerializer.deserialize("2014-03-29T10:20:30").getTime());
+        assertEquals(expected - 123, DateSerializer.deserialize("2014-03-29T11:20:30+01").getTime());
+        assertEquals(expected - 123, DateSerializer.deserialize("2014-03-29T10:20:30.Z").getTime());
+        assertEquals(expected + 377, DateSerializer.deserialize("2014-03-29T10:20:30.5+00:00").getTime());
+
+        // the day changes with the offset
+        assertEquals(getUtcMillis(2012, 2, 29, 23, 0, 0, 0), DateSerializer.deserialize("2012-03-01T01:00:00+02:00").getTime());
+
+        String[] invalidDates = { "", "2014-03-29", "2014-03-29T10:20", "2014-13-29T10:20:30Z", "2014-03-29T10:20:30.123+2", "2014-03-29T10:20:30ZZ",
+                "2014-03-29X10:20:30", "2014-03-29T1a:20:30" };
+
+        for (String invalidDate : invalidDates) {
+            try {
+                DateSerializer.deserialize(invalidDate);
+                fail("Parsed " + invalidDate);
+            } catch (ParseException e) {
+            }
+        }
+    }
+
+    @Test
+    public void testSerializedDatesRoundTrip() throws Exception {
+
+        long[] dates = { 0, -1, getUtcMillis(1, 1, 1, 0, 0, 0, 0), getUtcMillis(1969, 12, 31, 23, 59, 59, 999), getUtcMillis(2000, 2, 29, 12, 0, 0, 7),
+                getUtcMillis(9999, 12, 31, 23, 59, 59, 999) };
+
+        for (long date : dates) {
+            String serialized = DateSerializer.serialize(new Date(date));
+
+            assertEquals(date, DateSerializer.deserialize(serialized).getTime());
+        }
+
+        assertEquals("1969-12-31T23:59:59.999Z", DateSerializer.serialize(new Date(-1)));
+        assertEquals("2000-02-29T12:00:00.007Z", DateSerializer.serialize(new Date(getUtcMillis(2000, 2, 29, 12, 0, 0, 7))));
+
+        Calendar calendar = new CalendarSerializer().deserialize(new JsonPrimitive("2000-02-29T14:00:00.007+02:00"), Calendar.class, null);
+        assertEquals(getUtcMillis(2000, 2, 29, 12, 0, 0, 7), calendar.getTimeInMillis());
+        assertEquals("\"2000-02-29T12:00:00.007Z\"", new CalendarSerializer().serialize(calendar, Calendar.class, null).toString());
+    }
+
+    @Test
+    public void testExpandedYearsRoundTrip() throws Exception {
+
+        long[] dates = { Long.MAX_VALUE, Long.MIN_VALUE, getUtcMillis(10000, 1, 1, 0, 0, 0, 0), getUtcMillis(0, 12, 31, 23, 59, 59, 999),
+                getUtcMillis(-1, 3, 1, 10, 20, 30, 123) };
+
+        for (long date : dates) {
+            String serialized = DateSerializer.serialize(new Date(date));
+
+            assertEquals(date, DateSerializer.deserialize(serialized).getTime());
+        }
+
+        assertEquals("+292278994-08-17T07:12:55.807Z", DateSerializer.serialize(new Date(Long.MAX_VALUE)));
+        assertEquals("-292275055-05-16T16:47:04.192Z", DateSerializer.serialize(new Date(Long.MIN_VALUE)));
+        assertEquals("+10000-01-01T00:00:00.000Z", DateSerializer.serialize(new Date(getUtcMillis(10000, 1, 1, 0, 0, 0, 0))));
+        assertEquals("0000-12-31T23:59:59.999Z", DateSerializer.serialize(new Date(getUtcMillis(0, 12, 31, 23, 59, 59, 999))));
+        assertEquals("-0001-03-01T10:20:30.123Z", DateSerializer.serialize(new Date(getUtcMillis(-1, 3, 1, 10, 20, 30, 123))));
+
+        assertEquals(getUtcMillis(10000, 1, 1, 2, 0, 0, 0), DateSerializer.deserialize("+10000-01-01T03:00:00+01:00").getTime());
+
+        String[] invalidDates = { "+292278994-08-17T07:12:55.808Z", "-292275055-05-16T16:47:04.191Z", "+1234567890-01-01T00:00:00Z", "+123-01-01T00:00:00Z",
+                "-0001-01-01", "+-001-01-01T00:00:00Z" };
+
+        for (String invalidDate : invalidDates) {
+            try {
+                DateSerializer.deserialize(invalidDate);
+                fail("Parsed " + invalidDate);
+            } catch (ParseException e) {
+            }
+        }
+    }
+
+    private static long getUtcMillis(int year, int month, int day, int hour, int minute, int second, int millisecond) {
+        // proleptic Gregorian calendar, like the serializer
+        GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        calendar.setGregorianChange(new Date(Long.MIN_VALUE));
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute, second);
+        calendar.set(Calendar.MILLISECOND, millisecond);
+
+        return calendar.getTimeInMillis();
+    }
 }
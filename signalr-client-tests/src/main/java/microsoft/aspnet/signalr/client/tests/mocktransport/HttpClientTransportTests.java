@@ -10,12 +10,17 @@ import static org.junit.Assert.*;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 import microsoft.aspnet.signalr.client.Action;
 import microsoft.aspnet.signalr.client.ErrorCallback;
 import microsoft.aspnet.signalr.client.Connection;
 import microsoft.aspnet.signalr.client.SignalRFuture;
+import microsoft.aspnet.signalr.client.http.HttpConnectionFuture;
+import microsoft.aspnet.signalr.client.http.HttpConnectionFuture.ResponseCallback;
+import microsoft.aspnet.signalr.client.http.Request;
 import microsoft.aspnet.signalr.client.tests.util.MockHttpConnection;
 import microsoft.aspnet.signalr.client.tests.util.MockHttpConnection.RequestEntry;
 import microsoft.aspnet.signalr.client.tests.util.MockConnection;
@@ -25,6 +30,7 @@ import microsoft.aspnet.signalr.client.tests.util.TransportType;
 import microsoft.aspnet.signalr.client.tests.util.Utils;
 import microsoft.aspnet.signalr.client.transport.ClientTransport;
 import microsoft.aspnet.signalr.client.transport.DataResultCallback;
+import microsoft.aspnet.signalr.client.transport.HttpClientTransport;
 import microsoft.aspnet.signalr.client.transport.NegotiationResponse;
 
 public abstract class HttpClientTransportTests {
@@ -94,6 +100,184 @@ public abstract class HttpClientTransportTests {
         assertTrue(send.isDone());
     }
 
+    @Test
+    public void testSendWindow() throws Exception {
+        final MockHttpConnection httpConnection = new MockHttpConnection();
+        HttpClientTransport transport = (HttpClientTransport) Utils.createTransport(getTransportType(), httpConnection);
+        transport.setSendWindow(2);
+
+        MockConnection connection = new MockConnection();
+
+        DataResultCallback callback = new DataResultCallback() {
+
+            @Override
+            public void onData(String data) {
+            }
+        };
+
+        List<SignalRFuture<Void>> sends = new ArrayList<SignalRFuture<Void>>();
+        for (int i = 0; i < 5; i++) {
+            sends.add(transport.send(connection, "message" + i, callback));
+        }
+
+        // only the window is handed to the connection, in order
+        assertEquals(2, httpConnection.getRequestCount());
+        assertEquals(3, transport.getQueuedSendCount());
+
+        RequestEntry first = httpConnection.getRequest();
+        RequestEntry second = httpConnection.getRequest();
+        assertEquals("data=message0&", first.request.getContent());
+        assertEquals("data=message1&", second.request.getContent());
+
+        // a queued message that is cancelled is never sent
+        sends.get(2).cancel();
+
+        first.future.setResult(null);
+        assertTrue(sends.get(0).isDone());
+
+        RequestEntry third = httpConnection.getRequest();
+        assertEquals("data=message3&", third.request.getContent());
+        assertEquals(0, httpConnection.getRequestCount());
+
+        // a failed request frees its slot too
+        second.future.triggerError(new Exception("Send failed"));
+        assertTrue(sends.get(1).errorWasTriggered());
+
+        RequestEntry fourth = httpConnection.getRequest();
+        assertEquals("data=message4&", fourth.request.getContent());
+        assertEquals(0, transport.getQueuedSendCount());
+    }
+
+    @Test
+    public void testSendsAreConcurrentByDefault() throws Exception {
+        final MockHttpConnection httpConnection = new MockHttpConnection();
+        HttpClientTransport transport = (HttpClientTransport) Utils.createTransport(getTransportType(), httpConnection);
+        assertEquals(HttpClientTransport.DEFAULT_SEND_WINDOW, transport.getSendWindow());
+
+        MockConnection connection = new MockConnection();
+
+        DataResultCallback callback = new DataResultCallback() {
+
+            @Override
+            public void onData(String data) {
+            }
+        };
+
+        // a send that doesn't complete doesn't hold the next one
+        transport.send(connection, "message0", callback);
+        transport.send(connection, "message1", callback);
+
+        assertEquals(2, httpConnection.getRequestCount());
+        assertEquals(0, transport.getQueuedSendCount());
+    }
+
+    @Test
+    public void testSendWindowOfOneKeepsOrder() throws Exception {
+        final MockHttpConnection httpConnection = new MockHttpConnection();
+        HttpClientTransport transport = (HttpClientTransport) Utils.createTransport(getTransportType(), httpConnection);
+        transport.setSendWindow(1);
+
+        MockConnection connection = new MockConnection();
+
+        DataResultCallback callback = new DataResultCallback() {
+
+            @Override
+            public void onData(String data) {
+            }
+        };
+
+        SignalRFuture<Void> first = transport.send(connection, "message0", callback);
+        transport.send(connection, "message1", callback);
+
+        // the second request waits for the first one to complete
+        assertEquals(1, httpConnection.getRequestCount());
+        assertEquals(1, transport.getQueuedSendCount());
+
+        RequestEntry entry = httpConnection.getRequest();
+        assertEquals("data=message0&", entry.request.getContent());
+
+        entry.future.setResult(null);
+        assertTrue(first.isDone());
+        assertEquals("data=message1&", httpConnection.getRequest().request.getContent());
+    }
+
+    @Test
+    public void testSendsAreExecutedOutOfTheLock() throws Exception {
+        final MultiResult result = new MultiResult();
+        final HttpClientTransport[] transport = new HttpClientTransport[1];
+
+        final MockHttpConnection httpConnection = new MockHttpConnection() {
+
+            @Override
+            public HttpConnectionFuture execute(Request request, ResponseCallback responseCallback) {
+                // another thread can use the transport while a request is
+                // executed, like a connection completing it synchronously
+                Thread thread = new Thread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        transport[0].getQueuedSendCount();
+                    }
+                });
+                thread.start();
+
+                try {
+                    thread.join(5000);
+                } catch (InterruptedException e) {
+                }
+
+                result.booleanResult = !thread.isAlive();
+
+                return super.execute(request, responseCallback);
+            }
+        };
+
+        transport[0] = (HttpClientTransport) Utils.createTransport(getTransportType(), httpConnection);
+
+        transport[0].send(new MockConnection(), "message0", new DataResultCallback() {
+
+            @Override
+            public void onData(String data) {
+            }
+        });
+
+        assertEquals(1, httpConnection.getRequestCount());
+        assertTrue(result.booleanResult);
+    }
+
+    @Test
+    public void testAbortFailsQueuedSends() throws Exception {
+        final MockHttpConnection httpConnection = new MockHttpConnection();
+        HttpClientTransport transport = (HttpClientTransport) Utils.createTransport(getTransportType(), httpConnection);
+        transport.setSendWindow(1);
+
+        MockConnection connection = new MockConnection();
+
+        DataResultCallback callback = new DataResultCallback() {
+
+            @Override
+            public void onData(String data) {
+            }
+        };
+
+        SignalRFuture<Void> inFlight = transport.send(connection, "message0", callback);
+        SignalRFuture<Void> queued = transport.send(connection, "message1", callback);
+        RequestEntry entry = httpConnection.getRequest();
+
+        transport.abort(connection);
+
+        assertTrue(queued.errorWasTriggered());
+        assertEquals(0, transport.getQueuedSendCount());
+
+        // the request in flight still completes
+        assertFalse(inFlight.isDone());
+        entry.future.setResult(null);
+        assertTrue(inFlight.isDone());
+
+        RequestEntry abort = httpConnection.getRequest();
+        assertTrue(abort.request.getUrl().contains("abort?"));
+    }
+
     @Test
     public void testAbort() throws Exception {
         final MockHttpConnection httpConnection = new MockHttpConnection();
@@ -7,14 +7,27 @@ See License.txt in the project root for license information.
 package microsoft.aspnet.signalr.client.tests.mocktransport;
 
 import static org.junit.Assert.*;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import microsoft.aspnet.signalr.client.Action;
+import microsoft.aspnet.signalr.client.ErrorCallback;
+import microsoft.aspnet.signalr.client.GsonCodec;
+import microsoft.aspnet.signalr.client.MessageReceivedHandler;
 import microsoft.aspnet.signalr.client.NullLogger;
 import microsoft.aspnet.signalr.client.hubs.HubConnection;
+import microsoft.aspnet.signalr.client.hubs.HubException;
 import microsoft.aspnet.signalr.client.hubs.HubProxy;
+import microsoft.aspnet.signalr.client.hubs.JsonArgument;
 import microsoft.aspnet.signalr.client.hubs.Subscription;
+import microsoft.aspnet.signalr.client.hubs.SubscriptionHandler1;
 import microsoft.aspnet.signalr.client.hubs.SubscriptionHandler2;
 import microsoft.aspnet.signalr.client.tests.util.MockClientTransport;
 import microsoft.aspnet.signalr.client.tests.util.MultiResult;
+import microsoft.aspnet.signalr.client.tests.util.TextJsonCodec;
 import microsoft.aspnet.signalr.client.tests.util.Utils;
 
 import org.junit.Test;
@@ -22,6 +35,7 @@ import org.junit.Test;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
 
 public class HubConnectionTests {
@@ -376,6 +390,317 @@ public class HubConnectionTests {
         assertEquals(2, multiResult.listResult.size());
     }
 
+    @Test
+    public void testEventsWithoutSubscriptionAreSkipped() throws Exception {
+
+        MockClientTransport transport = new MockClientTransport();
+        HubConnection connection = new HubConnection(SERVER_URL, "", true, new NullLogger());
+
+        HubProxy proxy = connection.createHubProxy("myProxy1");
+
+        final MultiResult multiResult = new MultiResult();
+
+        proxy.on("message1", new SubscriptionHandler2<String, Integer>() {
+
+            @Override
+            public void run(String arg1, Integer arg2) {
+                assertEquals("p1", arg1);
+                assertEquals(1, (int) arg2);
+
+                multiResult.listResult.add(1);
+            }
+        }, String.class, Integer.class);
+
+        connection.start(transport);
+        transport.negotiationFuture.setResult(Utils.getDefaultNegotiationResponse());
+        transport.startOperation.future.setResult(null);
+
+        // the state of a skipped event is still applied, and the fields of
+        // a message can come in any order
+        transport.startOperation.callback.onData("{\"C\":\"1\",\"M\":[{\"H\":\"myProxy1\",\"M\":\"unknown\",\"A\":[{\"nested\":[1,2,{}]}],"
+                + "\"S\":{\"key\":\"value\"}},{\"A\":[\"p1\",1],\"H\":\"MYPROXY1\",\"M\":\"Message1\"},{\"H\":\"otherProxy\",\"M\":\"message1\",\"A\":[]}]}");
+
+        assertEquals(1, multiResult.listResult.size());
+        assertEquals("value", proxy.getState("key").getAsString());
+        assertEquals("1", connection.getMessageId());
+    }
+
+    @Test
+    public void testReceivedHandlerGetsTheWholeMessage() throws Exception {
+
+        MockClientTransport transport = new MockClientTransport();
+        HubConnection connection = new HubConnection(SERVER_URL, "", true, new NullLogger());
+
+        HubProxy proxy = connection.createHubProxy("myProxy1");
+
+        final MultiResult multiResult = new MultiResult();
+
+        proxy.on("message1", new SubscriptionHandler1<String>() {
+
+            @Override
+            public void run(String arg1) {
+                multiResult.listResult.add(arg1);
+            }
+        }, String.class);
+
+        connection.received(new MessageReceivedHandler() {
+
+            @Override
+            public void onMessageReceived(JsonElement json) {
+                multiResult.listResult.add(json);
+            }
+        });
+
+        connection.start(transport);
+        transport.negotiationFuture.setResult(Utils.getDefaultNegotiationResponse());
+        transport.startOperation.future.setResult(null);
+
+        String hubMessage = "{\"H\":\"myProxy1\",\"M\":\"message1\",\"A\":[\"p1\"]}";
+        transport.startOperation.callback.onData("{\"M\":[" + hubMessage + "]}");
+
+        assertEquals(2, multiResult.listResult.size());
+        assertEquals(new JsonParser().parse(hubMessage), multiResult.listResult.get(0));
+        assertEquals("p1", multiResult.listResult.get(1));
+    }
+
+    @Test
+    public void testEventArgumentsAreKeptAsJson() throws Exception {
+
+        MockClientTransport transport = new MockClientTransport();
+        HubConnection connection = new HubConnection(SERVER_URL, "", true, new NullLogger());
+
+        HubProxy proxy = connection.createHubProxy("myProxy1");
+
+        final MultiResult multiResult = new MultiResult();
+
+        Subscription subscription = proxy.subscribe("message1");
+        subscription.addRawReceivedHandler(new Action<JsonArgument[]>() {
+
+            @Override
+            public void run(JsonArgument[] args) throws Exception {
+                for (JsonArgument arg : args) {
+                    multiResult.listResult.add(arg.getJson());
+                }
+            }
+        });
+
+        subscription.addReceivedHandler(new Action<JsonElement[]>() {
+
+            @Override
+            public void run(JsonElement[] args) throws Exception {
+                multiResult.listResult.add(args[0]);
+            }
+        });
+
+        proxy.on("message1", new SubscriptionHandler2<String, InvocationResult>() {
+
+            @Override
+            public void run(String arg1, InvocationResult arg2) {
+                multiResult.listResult.add(arg1);
+                multiResult.listResult.add(arg2);
+            }
+        }, String.class, InvocationResult.class);
+
+        connection.start(transport);
+        transport.negotiationFuture.setResult(Utils.getDefaultNegotiationResponse());
+        transport.startOperation.future.setResult(null);
+
+        String[] args = { "\"a \\\"quoted\\\" \\\\ \\n \\u0001 \\u00e9 \\ud83d\\ude00\"", "{\"prop1\":\"x\",\"prop2\":42,\"nested\":[1.50,-2e3,true,null,{}]}" };
+        // the arguments come before the event name, so they are kept as text
+        transport.startOperation.callback.onData("{\"M\":[{\"A\":[" + args[0] + " , " + args[1] + "],\"H\":\"myProxy1\",\"M\":\"message1\"}]}");
+
+        assertEquals(5, multiResult.listResult.size());
+
+        JsonParser parser = new JsonParser();
+        assertEquals(parser.parse(args[0]), parser.parse((String) multiResult.listResult.get(0)));
+        assertEquals(parser.parse(args[1]), parser.parse((String) multiResult.listResult.get(1)));
+        assertEquals(parser.parse(args[0]), multiResult.listResult.get(2));
+        assertEquals("a \"quoted\" \\ \n \u0001 \u00e9 \ud83d\ude00", multiResult.listResult.get(3));
+
+        InvocationResult result = (InvocationResult) multiResult.listResult.get(4);
+        assertEquals("x", result.prop1);
+        assertEquals(42, result.prop2);
+    }
+
+    @Test
+    public void testCodecIsUsed() throws Exception {
+
+        MockClientTransport transport = new MockClientTransport();
+        HubConnection connection = new HubConnection(SERVER_URL, "", true, new NullLogger());
+
+        final List<Object> encoded = new ArrayList<Object>();
+        final List<String> decoded = new ArrayList<String>();
+        connection.setCodec(new GsonCodec() {
+
+            @Override
+            public String toJson(Object value) {
+                encoded.add(value);
+                return super.toJson(value);
+            }
+
+            @Override
+            public <T> T fromJson(String json, Type type) {
+                decoded.add(json);
+                return super.fromJson(json, type);
+            }
+        });
+
+        HubProxy proxy = connection.createHubProxy("myProxy1");
+        proxy.setState("key", new JsonPrimitive("value"));
+
+        final MultiResult multiResult = new MultiResult();
+
+        proxy.on("message1", new SubscriptionHandler1<InvocationResult>() {
+
+            @Override
+            public void run(InvocationResult arg1) {
+                multiResult.listResult.add(arg1);
+            }
+        }, InvocationResult.class);
+
+        connection.start(transport);
+        transport.negotiationFuture.setResult(Utils.getDefaultNegotiationResponse());
+        transport.startOperation.future.setResult(null);
+
+        proxy.invoke("myMethod", "arg\"1", 2);
+        transport.sendOperation.future.setResult(null);
+
+        assertEquals(2, encoded.size());
+        assertEquals("arg\"1", encoded.get(0));
+        assertEquals("{\"I\":\"0\",\"H\":\"myProxy1\",\"M\":\"myMethod\",\"A\":[\"arg\\\"1\",2],\"S\":{\"key\":\"value\"}}", transport.sendOperation.data);
+
+        transport.startOperation.callback.onData("{\"M\":[{\"A\":[{\"prop1\":\"x\",\"prop2\":1}],\"H\":\"myProxy1\",\"M\":\"message1\"}]}");
+
+        assertEquals(1, decoded.size());
+        assertEquals(1, multiResult.listResult.size());
+        assertEquals("x", ((InvocationResult) multiResult.listResult.get(0)).prop1);
+
+        // the arguments of a subscribed event are kept as text too when the
+        // names come first
+        transport.startOperation.callback.onData("{\"M\":[{\"H\":\"myProxy1\",\"M\":\"message1\",\"A\":[{\"prop1\":\"y\",\"prop2\":2}]}]}");
+
+        assertEquals(2, decoded.size());
+        assertEquals("{\"prop1\":\"y\",\"prop2\":2}", decoded.get(1));
+        assertEquals(2, multiResult.listResult.size());
+        assertEquals("y", ((InvocationResult) multiResult.listResult.get(1)).prop1);
+    }
+
+    @Test
+    public void testCodecWithItsOwnReaderAndValuesIsUsed() throws Exception {
+
+        MockClientTransport transport = new MockClientTransport();
+        HubConnection connection = new HubConnection(SERVER_URL, "", true, new NullLogger());
+
+        TextJsonCodec codec = new TextJsonCodec();
+        connection.setCodec(codec);
+        assertNull(connection.getGson());
+
+        HubProxy proxy = connection.createHubProxy("myProxy1");
+
+        final MultiResult multiResult = new MultiResult();
+
+        proxy.on("message1", new SubscriptionHandler1<InvocationResult>() {
+
+            @Override
+            public void run(InvocationResult arg1) {
+                multiResult.listResult.add(arg1.prop1);
+            }
+        }, InvocationResult.class);
+
+        connection.start(transport);
+        transport.negotiationFuture.setResult(Utils.getDefaultNegotiationResponse());
+        transport.startOperation.future.setResult(null);
+
+        // events, with the names first or last
+        transport.startOperation.callback.onData("{\"M\":[{\"H\":\"myProxy1\",\"M\":\"message1\",\"A\":[{\"prop1\":\"a\"}]},"
+                + "{\"A\":[{\"prop1\":\"b\"}],\"H\":\"myProxy1\",\"M\":\"message1\"}]}");
+
+        // results, with the hub state and the error data
+        proxy.invoke(InvocationResult.class, "myMethod").done(new Action<InvocationResult>() {
+
+            @Override
+            public void run(InvocationResult result) throws Exception {
+                multiResult.listResult.add(result.prop1);
+            }
+        });
+        transport.startOperation.callback.onData("{\"I\":\"0\",\"R\":{\"prop1\":\"c\"},\"S\":{\"key\":\"value\"}}");
+
+        proxy.invoke("myMethod").onError(new ErrorCallback() {
+
+            @Override
+            public void onError(Throwable error) {
+                multiResult.listResult.add(((HubException) error).getErrorData());
+            }
+        });
+        transport.startOperation.callback.onData("{\"I\":\"1\",\"E\":\"Failed\",\"H\":true,\"D\":{\"code\":\"d\"}}");
+
+        // the received handler gets the message as a tree
+        connection.received(new MessageReceivedHandler() {
+
+            @Override
+            public void onMessageReceived(JsonElement json) {
+            }
+        });
+        transport.startOperation.callback.onData("{\"M\":[{\"H\":\"myProxy1\",\"M\":\"message1\",\"A\":[{\"prop1\":\"e\"}]}]}");
+
+        assertEquals(5, multiResult.listResult.size());
+        assertEquals("a", multiResult.listResult.get(0));
+        assertEquals("b", multiResult.listResult.get(1));
+        assertEquals("c", multiResult.listResult.get(2));
+        assertEquals("d", ((Map<?, ?>) multiResult.listResult.get(3)).get("code"));
+        assertEquals("e", multiResult.listResult.get(4));
+        assertEquals("value", proxy.getValue("key", String.class));
+
+        assertEquals(6, codec.decoded.size());
+        assertEquals("{\"prop1\":\"a\"}", codec.decoded.get(0));
+        assertEquals("{\"prop1\":\"b\"}", codec.decoded.get(1));
+        assertEquals("{\"prop1\":\"c\"}", codec.decoded.get(2));
+        assertEquals("{\"code\":\"d\"}", codec.decoded.get(3));
+        assertEquals("{\"prop1\":\"e\"}", codec.decoded.get(4));
+        assertEquals("\"value\"", codec.decoded.get(5));
+    }
+
+    @Test
+    public void testHandlerErrorsAreReported() throws Exception {
+
+        MockClientTransport transport = new MockClientTransport();
+        HubConnection connection = new HubConnection(SERVER_URL, "", true, new NullLogger());
+
+        HubProxy proxy = connection.createHubProxy("myProxy1");
+
+        final MultiResult multiResult = new MultiResult();
+
+        proxy.on("message1", new SubscriptionHandler2<String, Integer>() {
+
+            @Override
+            public void run(String arg1, Integer arg2) {
+                multiResult.listResult.add(arg1);
+                multiResult.listResult.add(arg2);
+                throw new IllegalStateException("Handler error");
+            }
+        }, String.class, Integer.class);
+
+        connection.error(new ErrorCallback() {
+
+            @Override
+            public void onError(Throwable error) {
+                multiResult.listResult.add(error);
+            }
+        });
+
+        connection.start(transport);
+        transport.negotiationFuture.setResult(Utils.getDefaultNegotiationResponse());
+        transport.startOperation.future.setResult(null);
+
+        transport.startOperation.callback.onData("{\"M\":[{\"H\":\"myProxy1\",\"M\":\"message1\",\"A\":[\"p1\",1]}]}");
+
+        // the handler is called directly, so its error is not wrapped
+        assertEquals(3, multiResult.listResult.size());
+        assertEquals("p1", multiResult.listResult.get(0));
+        assertEquals(1, multiResult.listResult.get(1));
+        assertTrue(multiResult.listResult.get(2) instanceof IllegalStateException);
+    }
+
     public class InvocationResult {
         public String prop1;
         public int prop2;
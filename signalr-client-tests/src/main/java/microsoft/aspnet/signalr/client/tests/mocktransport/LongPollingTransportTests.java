@@ -8,6 +8,13 @@ package microsoft.aspnet.signalr.client.tests.mocktransport;
 
 import static org.junit.Assert.*;
 
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -103,6 +110,258 @@ public class LongPollingTransportTests extends HttpClientTransportTests {
         assertTrue(result.futureResult.isDone());
     }
 
+    @Test
+    public void testTimedOutPollIsReplaced() throws Exception {
+        MockHttpConnection httpConnection = new MockHttpConnection();
+        LongPollingTransport transport = new LongPollingTransport(new NullLogger(), httpConnection);
+        transport.setPollTimeout(5000);
+
+        MockConnection connection = new MockConnection();
+
+        final MultiResult result = new MultiResult();
+        result.futureResult = transport.start(connection, ConnectionType.InitialConnection, new DataResultCallback() {
+
+            @Override
+            public void onData(String data) {
+            }
+        });
+
+        RequestEntry entry = httpConnection.getRequest();
+        assertEquals(5000, entry.request.getReadTimeout());
+        Utils.finishMessage(entry);
+
+        RequestEntry poll = httpConnection.getRequest();
+        assertTrue(poll.request.getUrl().contains("poll?"));
+
+        poll.future.triggerTimeout(new SocketTimeoutException());
+
+        RequestEntry newPoll = httpConnection.getRequest();
+        assertTrue(newPoll.request.getUrl().contains("poll?"));
+        assertEquals(5000, newPoll.request.getReadTimeout());
+        assertFalse(result.futureResult.errorWasTriggered());
+
+        result.futureResult.cancel();
+    }
+
+    @Test
+    public void testPipelinedPollIsSentBeforeTheBatchIsProcessed() throws Exception {
+        MockHttpConnection httpConnection = new MockHttpConnection();
+        LongPollingTransport transport = new LongPollingTransport(new NullLogger(), httpConnection);
+        transport.setPipelined(true);
+        assertTrue(transport.isPipelined());
+
+        MockConnection connection = new MockConnection();
+
+        final Semaphore processing = new Semaphore(0);
+        final Semaphore release = new Semaphore(0);
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+
+        final MultiResult result = new MultiResult();
+        result.futureResult = transport.start(connection, ConnectionType.InitialConnection, new DataResultCallback() {
+
+            @Override
+            public void onData(String data) {
+                received.add(data);
+                processing.release();
+
+                try {
+                    release.acquire();
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+
+        RequestEntry entry = httpConnection.getRequest();
+        entry.response.writeLine("{\"C\":\"d-1\",\"G\":\"groups-1\",\"M\":[]}");
+        respond(entry);
+
+        // the next poll is sent while the first batch is still being processed
+        assertTrue(processing.tryAcquire(5, TimeUnit.SECONDS));
+        RequestEntry poll = httpConnection.getRequest();
+        assertTrue(poll.request.getUrl().contains("poll?"));
+        assertTrue(poll.request.getUrl().contains("&messageId=d-1&groupsToken=groups-1&"));
+
+        poll.response.writeLine("{\"C\":\"d-2\",\"M\":[]}");
+        respond(poll);
+
+        RequestEntry nextPoll = httpConnection.getRequest();
+        assertTrue(nextPoll.request.getUrl().contains("&messageId=d-2&groupsToken=groups-1&"));
+        assertEquals(1, received.size());
+
+        release.release(2);
+        assertTrue(processing.tryAcquire(5, TimeUnit.SECONDS));
+
+        assertEquals(2, received.size());
+        assertTrue(received.get(0).contains("d-1"));
+        assertTrue(received.get(1).contains("d-2"));
+
+        result.futureResult.cancel();
+    }
+
+    @Test
+    public void testPipelinedBatchesAreProcessedInOrder() throws Exception {
+        MockHttpConnection httpConnection = new MockHttpConnection();
+        LongPollingTransport transport = new LongPollingTransport(new NullLogger(), httpConnection);
+        transport.setPipelined(true);
+
+        MockConnection connection = new MockConnection();
+
+        final int batchCount = 50;
+        final Semaphore done = new Semaphore(0);
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+
+        final MultiResult result = new MultiResult();
+        result.futureResult = transport.start(connection, ConnectionType.InitialConnection, new DataResultCallback() {
+
+            @Override
+            public void onData(String data) {
+                received.add(data);
+
+                if (received.size() == batchCount) {
+                    done.release();
+                }
+            }
+        });
+
+        for (int i = 0; i < batchCount; i++) {
+            RequestEntry entry = httpConnection.getRequest();
+            entry.response.writeLine("{\"C\":\"d-" + i + "\",\"M\":[" + i + "]}");
+            respond(entry);
+        }
+
+        assertTrue(done.tryAcquire(10, TimeUnit.SECONDS));
+        result.futureResult.cancel();
+
+        for (int i = 0; i < batchCount; i++) {
+            assertEquals("{\"C\":\"d-" + i + "\",\"M\":[" + i + "]}", received.get(i));
+        }
+    }
+
+    @Test
+    public void testReceivedIdsAreNotUsedOnceTheBatchIsProcessed() throws Exception {
+        MockHttpConnection httpConnection = new MockHttpConnection();
+        LongPollingTransport transport = new LongPollingTransport(new NullLogger(), httpConnection);
+        transport.setPipelined(true);
+
+        MockConnection connection = new MockConnection();
+
+        final MultiResult result = new MultiResult();
+        result.futureResult = transport.start(connection, ConnectionType.InitialConnection, new DataResultCallback() {
+
+            @Override
+            public void onData(String data) {
+            }
+        });
+
+        RequestEntry entry = httpConnection.getRequest();
+        entry.response.writeLine("{\"C\":\"d-1\",\"G\":\"groups-1\",\"M\":[]}");
+        respond(entry);
+
+        RequestEntry poll = httpConnection.getRequest();
+        assertTrue(poll.request.getUrl().contains("&messageId=d-1&groupsToken=groups-1&"));
+
+        // a reconnect batch is processed before the next poll, which then
+        // uses the ids the connection was updated with
+        poll.response.writeLine("{\"T\":1,\"M\":[]}");
+        respond(poll);
+
+        RequestEntry nextPoll = httpConnection.getRequest();
+        assertTrue(nextPoll.request.getUrl().contains("&messageId=%24MESSAGEID&groupsToken=%24GROUPSTOKEN&"));
+
+        result.futureResult.cancel();
+    }
+
+    @Test
+    public void testReceivedIdsAreNotUsedWithoutPipelining() throws Exception {
+        MockHttpConnection httpConnection = new MockHttpConnection();
+        LongPollingTransport transport = new LongPollingTransport(new NullLogger(), httpConnection);
+        transport.setPipelined(true);
+
+        MockConnection connection = new MockConnection();
+
+        final Semaphore processing = new Semaphore(0);
+        final Semaphore release = new Semaphore(0);
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+
+        final MultiResult result = new MultiResult();
+        result.futureResult = transport.start(connection, ConnectionType.InitialConnection, new DataResultCallback() {
+
+            @Override
+            public void onData(String data) {
+                received.add(data);
+
+                // only the first batch is held
+                if (received.size() == 1) {
+                    processing.release();
+
+                    try {
+                        release.acquire();
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }
+        });
+
+        RequestEntry entry = httpConnection.getRequest();
+        entry.response.writeLine("{\"C\":\"d-1\",\"M\":[]}");
+        respond(entry);
+
+        assertTrue(processing.tryAcquire(5, TimeUnit.SECONDS));
+        RequestEntry poll = httpConnection.getRequest();
+        assertTrue(poll.request.getUrl().contains("&messageId=d-1&"));
+
+        transport.setPipelined(false);
+
+        poll.response.writeLine("{\"M\":[]}");
+        respond(poll);
+
+        RequestEntry nextPoll = httpConnection.getRequest();
+        assertTrue(nextPoll.request.getUrl().contains("&messageId=%24MESSAGEID&"));
+
+        release.release();
+        result.futureResult.cancel();
+    }
+
+    @Test
+    public void testReceivedIdsAreNotUsedOnReconnect() throws Exception {
+        MockHttpConnection httpConnection = new MockHttpConnection();
+        LongPollingTransport transport = new LongPollingTransport(new NullLogger(), httpConnection);
+        transport.setPipelined(true);
+
+        MockConnection connection = new MockConnection();
+        DataResultCallback callback = new DataResultCallback() {
+
+            @Override
+            public void onData(String data) {
+            }
+        };
+
+        final MultiResult result = new MultiResult();
+        result.futureResult = transport.start(connection, ConnectionType.InitialConnection, callback);
+
+        RequestEntry entry = httpConnection.getRequest();
+        entry.response.writeLine("{\"C\":\"d-1\",\"M\":[]}");
+        respond(entry);
+
+        RequestEntry poll = httpConnection.getRequest();
+        assertTrue(poll.request.getUrl().contains("&messageId=d-1&"));
+        result.futureResult.cancel();
+
+        result.futureResult = transport.start(connection, ConnectionType.Reconnection, callback);
+
+        RequestEntry reconnect = httpConnection.getRequest();
+        assertTrue(reconnect.request.getUrl().contains("reconnect?"));
+        assertTrue(reconnect.request.getUrl().contains("&messageId=%24MESSAGEID&"));
+
+        result.futureResult.cancel();
+    }
+
+    private static void respond(RequestEntry entry) throws Exception {
+        // the response is complete before the transport reads it
+        entry.response.finishWriting();
+        Utils.finishMessage(entry);
+    }
+
     @Override
     protected TransportType getTransportType() {
         return TransportType.LongPolling;
@@ -0,0 +1,304 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.tests.mocktransport;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.java_websocket.drafts.Draft.HandshakeState;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.Framedata.Opcode;
+import org.java_websocket.handshake.HandshakeImpl1Client;
+import org.java_websocket.handshake.HandshakeImpl1Server;
+import org.java_websocket.util.Base64;
+import org.junit.Test;
+
+import microsoft.aspnet.signalr.client.Constants;
+import microsoft.aspnet.signalr.client.transport.PerMessageDeflateDraft;
+import microsoft.aspnet.signalr.client.transport.PerMessageDeflateOptions;
+import microsoft.aspnet.signalr.client.transport.PerMessageDeflateStats;
+import microsoft.aspnet.signalr.client.transport.WebsocketMessageAssembler;
+
+public class PerMessageDeflateDraftTests {
+
+    private static final String HUB_MESSAGE = "{\"H\":\"chatHub\",\"M\":\"broadcastMessage\",\"A\":[\"user\",\"Hello, this is a chat message\"],\"I\":1}";
+
+    @Test
+    public void testExtensionIsOffered() throws Exception {
+        PerMessageDeflateOptions options = new PerMessageDeflateOptions();
+        options.setClientNoContextTakeover(true);
+        options.setServerMaxWindowBits(10);
+
+        HandshakeImpl1Client request = new HandshakeImpl1Client();
+        new PerMessageDeflateDraft(options, new PerMessageDeflateStats()).postProcessHandshakeRequestAsClient(request);
+
+        assertEquals("permessage-deflate; client_no_context_takeover; server_max_window_bits=10",
+                request.getFieldValue(PerMessageDeflateDraft.EXTENSIONS_HEADER));
+    }
+
+    @Test
+    public void testNegotiation() throws Exception {
+        PerMessageDeflateDraft draft = new PerMessageDeflateDraft(new PerMessageDeflateOptions(), new PerMessageDeflateStats());
+        assertEquals(HandshakeState.MATCHED, handshake(draft, "permessage-deflate; server_no_context_takeover"));
+        assertTrue(draft.isNegotiated());
+
+        draft = new PerMessageDeflateDraft(new PerMessageDeflateOptions(), new PerMessageDeflateStats());
+        assertEquals(HandshakeState.MATCHED, handshake(draft, null));
+        assertFalse(draft.isNegotiated());
+
+        // the client compressor cannot use a smaller window
+        draft = new PerMessageDeflateDraft(new PerMessageDeflateOptions(), new PerMessageDeflateStats());
+        assertEquals(HandshakeState.NOT_MATCHED, handshake(draft, "permessage-deflate; client_max_window_bits=10"));
+
+        draft = new PerMessageDeflateDraft(new PerMessageDeflateOptions(), new PerMessageDeflateStats());
+        assertEquals(HandshakeState.NOT_MATCHED, handshake(draft, "x-unknown-extension"));
+    }
+
+    @Test
+    public void testMessagesAreCompressed() throws Exception {
+        PerMessageDeflateStats stats = new PerMessageDeflateStats();
+        PerMessageDeflateDraft sender = createNegotiatedDraft(new PerMessageDeflateOptions(), stats);
+        PerMessageDeflateDraft receiver = createNegotiatedDraft(new PerMessageDeflateOptions(), new PerMessageDeflateStats());
+
+        for (int i = 0; i < 3; i++) {
+            ByteBuffer frame = encode(sender, HUB_MESSAGE);
+
+            // RSV1 flags the compressed message
+            assertEquals(0x40, frame.get(0) & 0x40);
+
+            List<Framedata> frames = receiver.translateFrame(frame);
+            assertEquals(1, frames.size());
+            assertEquals(HUB_MESSAGE, toString(frames.get(0)));
+        }
+
+        assertEquals(3, stats.getSentMessageCount());
+        assertEquals(3 * HUB_MESSAGE.length(), stats.getSentUncompressedBytes());
+        assertTrue(stats.getSentCompressedBytes() < stats.getSentUncompressedBytes() / 2);
+    }
+
+    @Test
+    public void testContextTakeover() throws Exception {
+        PerMessageDeflateDraft withContext = createNegotiatedDraft(new PerMessageDeflateOptions(), new PerMessageDeflateStats());
+
+        PerMessageDeflateOptions options = new PerMessageDeflateOptions();
+        options.setClientNoContextTakeover(true);
+        PerMessageDeflateDraft withoutContext = createNegotiatedDraft(options, new PerMessageDeflateStats());
+
+        int firstSize = encode(withContext, HUB_MESSAGE).remaining();
+        assertEquals(firstSize, encode(withoutContext, HUB_MESSAGE).remaining());
+
+        // repeated messages compress to a few bytes only when the context is
+        // kept
+        assertTrue(encode(withContext, HUB_MESSAGE).remaining() < firstSize / 2);
+        assertEquals(firstSize, encode(withoutContext, HUB_MESSAGE).remaining());
+    }
+
+    @Test
+    public void testSmallMessagesAreNotCompressed() throws Exception {
+        PerMessageDeflateDraft draft = createNegotiatedDraft(new PerMessageDeflateOptions(), new PerMessageDeflateStats());
+
+        ByteBuffer frame = encode(draft, "{}");
+        assertEquals(0, frame.get(0) & 0x40);
+        // two bytes of header and the payload as is
+        assertEquals(4, frame.remaining());
+    }
+
+    @Test
+    public void testFragmentedCompressedMessageSplitAcrossReads() throws Exception {
+        PerMessageDeflateStats stats = new PerMessageDeflateStats();
+        PerMessageDeflateDraft draft = createNegotiatedDraft(new PerMessageDeflateOptions(), stats);
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            text.append(HUB_MESSAGE);
+        }
+
+        byte[] compressed = compress(text.toString().getBytes(Constants.UTF8));
+        int half = compressed.length / 2;
+
+        ByteBuffer data = ByteBuffer.allocate(compressed.length + 100);
+        writeFrame(data, 0x40 | 0x01, compressed, 0, half, false);
+        writeFrame(data, 0x00, compressed, half, compressed.length - half, true);
+        data.flip();
+
+        // deliver the data in small reads, splitting headers and payloads
+        List<Framedata> frames = new ArrayList<Framedata>();
+        while (data.hasRemaining()) {
+            int length = Math.min(7, data.remaining());
+            ByteBuffer read = ByteBuffer.allocate(length);
+            for (int i = 0; i < length; i++) {
+                read.put(data.get());
+            }
+            read.flip();
+
+            frames.addAll(draft.translateFrame(read));
+        }
+
+        assertEquals(2, frames.size());
+        assertEquals(Opcode.TEXT, frames.get(0).getOpcode());
+        assertEquals(Opcode.CONTINUOUS, frames.get(1).getOpcode());
+        assertEquals(text.toString(), toString(frames.get(0)) + toString(frames.get(1)));
+
+        assertEquals(1, stats.getReceivedMessageCount());
+        assertEquals(compressed.length, stats.getReceivedCompressedBytes());
+        assertEquals(text.length(), stats.getReceivedUncompressedBytes());
+    }
+
+    @Test(expected = InvalidDataException.class)
+    public void testCompressedFrameWithoutNegotiation() throws Exception {
+        PerMessageDeflateDraft draft = new PerMessageDeflateDraft(new PerMessageDeflateOptions(), new PerMessageDeflateStats());
+
+        byte[] compressed = compress(HUB_MESSAGE.getBytes(Constants.UTF8));
+        ByteBuffer data = ByteBuffer.allocate(compressed.length + 10);
+        writeFrame(data, 0x40 | 0x01, compressed, 0, compressed.length, true);
+        data.flip();
+
+        draft.translateFrame(data);
+    }
+
+    @Test
+    public void testDecompressedSizeIsLimited() throws Exception {
+        PerMessageDeflateDraft draft = createNegotiatedDraft(new PerMessageDeflateOptions(), new PerMessageDeflateStats(), 1024 * 1024);
+
+        // a few kilobytes that expand to 16 MB
+        byte[] compressed = compress(new byte[16 * 1024 * 1024]);
+        assertTrue(compressed.length < 64 * 1024);
+
+        ByteBuffer data = ByteBuffer.allocate(compressed.length + 10);
+        writeFrame(data, 0x40 | 0x01, compressed, 0, compressed.length, true);
+        data.flip();
+
+        try {
+            draft.translateFrame(data);
+            fail("The message should exceed the maximum size");
+        } catch (InvalidDataException e) {
+            assertEquals(CloseFrame.TOOBIG, e.getCloseCode());
+        }
+    }
+
+    @Test
+    public void testDecompressedSizeOfFragmentedMessageIsLimited() throws Exception {
+        // random letters, so that each half of the compressed data expands
+        // to about half of the text
+        Random random = new Random(1);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            text.append((char) ('a' + random.nextInt(26)));
+        }
+
+        // each fragment is below the limit, the message is not
+        PerMessageDeflateDraft draft = createNegotiatedDraft(new PerMessageDeflateOptions(), new PerMessageDeflateStats(), text.length() * 3 / 4);
+
+        byte[] compressed = compress(text.toString().getBytes(Constants.UTF8));
+        int half = compressed.length / 2;
+
+        ByteBuffer data = ByteBuffer.allocate(compressed.length + 100);
+        writeFrame(data, 0x40 | 0x01, compressed, 0, half, false);
+        writeFrame(data, 0x00, compressed, half, compressed.length - half, true);
+        data.flip();
+
+        try {
+            draft.translateFrame(data);
+            fail("The message should exceed the maximum size");
+        } catch (InvalidDataException e) {
+            assertEquals(CloseFrame.TOOBIG, e.getCloseCode());
+        }
+    }
+
+    @Test
+    public void testMessagesAfterALargeMessage() throws Exception {
+        PerMessageDeflateDraft sender = createNegotiatedDraft(new PerMessageDeflateOptions(), new PerMessageDeflateStats());
+        PerMessageDeflateDraft receiver = createNegotiatedDraft(new PerMessageDeflateOptions(), new PerMessageDeflateStats());
+
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 1024 * 1024) {
+            text.append(HUB_MESSAGE);
+        }
+
+        assertEquals(text.toString(), toString(receiver.translateFrame(encode(sender, text.toString())).get(0)));
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(HUB_MESSAGE, toString(receiver.translateFrame(encode(sender, HUB_MESSAGE)).get(0)));
+        }
+    }
+
+    private static PerMessageDeflateDraft createNegotiatedDraft(PerMessageDeflateOptions options, PerMessageDeflateStats stats) throws Exception {
+        return createNegotiatedDraft(options, stats, WebsocketMessageAssembler.DEFAULT_MAX_MESSAGE_SIZE);
+    }
+
+    private static PerMessageDeflateDraft createNegotiatedDraft(PerMessageDeflateOptions options, PerMessageDeflateStats stats, int maxMessageSize) throws Exception {
+        PerMessageDeflateDraft draft = new PerMessageDeflateDraft(options, stats, maxMessageSize);
+        assertEquals(HandshakeState.MATCHED, handshake(draft, options.toExtensionOffer()));
+
+        return draft;
+    }
+
+    private static HandshakeState handshake(PerMessageDeflateDraft draft, String acceptedExtensions) throws Exception {
+        HandshakeImpl1Client request = new HandshakeImpl1Client();
+        draft.postProcessHandshakeRequestAsClient(request);
+
+        String key = request.getFieldValue("Sec-WebSocket-Key") + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+        HandshakeImpl1Server response = new HandshakeImpl1Server();
+        response.put("Sec-WebSocket-Accept", Base64.encodeBytes(MessageDigest.getInstance("SHA1").digest(key.getBytes(Constants.UTF8))));
+
+        if (acceptedExtensions != null) {
+            response.put(PerMessageDeflateDraft.EXTENSIONS_HEADER, acceptedExtensions);
+        }
+
+        return draft.acceptHandshakeAsClient(request, response);
+    }
+
+    private static ByteBuffer encode(PerMessageDeflateDraft draft, String text) {
+        List<Framedata> frames = draft.createFrames(text, false);
+        assertEquals(1, frames.size());
+
+        return draft.createBinaryFrame(frames.get(0));
+    }
+
+    private static String toString(Framedata frame) throws Exception {
+        ByteBuffer payload = frame.getPayloadData();
+        byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+
+        return new String(bytes, Constants.UTF8_NAME);
+    }
+
+    private static byte[] compress(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+
+        byte[] buffer = new byte[data.length + 100];
+        int length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+        deflater.end();
+
+        // the sync flush trailer is not sent
+        byte[] compressed = new byte[length - 4];
+        System.arraycopy(buffer, 0, compressed, 0, compressed.length);
+        return compressed;
+    }
+
+    private static void writeFrame(ByteBuffer buffer, int flagsAndOpcode, byte[] payload, int offset, int length, boolean fin) {
+        buffer.put((byte) ((fin ? 0x80 : 0) | flagsAndOpcode));
+
+        if (length <= 125) {
+            buffer.put((byte) length);
+        } else {
+            buffer.put((byte) 126);
+            buffer.putShort((short) length);
+        }
+
+        buffer.put(payload, offset, length);
+    }
+}
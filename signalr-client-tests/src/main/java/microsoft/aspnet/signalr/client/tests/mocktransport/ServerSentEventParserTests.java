@@ -0,0 +1,143 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.tests.mocktransport;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import microsoft.aspnet.signalr.client.Constants;
+import microsoft.aspnet.signalr.client.transport.ServerSentEventParser;
+
+public class ServerSentEventParserTests {
+
+    @Test
+    public void testSingleLineEvents() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        ServerSentEventParser parser = new ServerSentEventParser(listener);
+
+        parse(parser, "data: initialized\n\ndata: {\"C\":\"1\"}\n\n");
+
+        assertEquals(2, listener.mData.size());
+        assertEquals("initialized", listener.mData.get(0));
+        assertEquals("{\"C\":\"1\"}", listener.mData.get(1));
+        assertNull(listener.mEventTypes.get(1));
+    }
+
+    @Test
+    public void testMultiLineData() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        ServerSentEventParser parser = new ServerSentEventParser(listener);
+
+        parse(parser, "data: first\ndata:second\ndata\ndata: fourth\n\n");
+
+        assertEquals(1, listener.mData.size());
+        assertEquals("first\nsecond\n\nfourth", listener.mData.get(0));
+    }
+
+    @Test
+    public void testFields() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        ServerSentEventParser parser = new ServerSentEventParser(listener);
+
+        parse(parser, ": comment\nid: 42\nevent: update\nretry: 3000\nunknown: field\ndata: payload\n\ndata: next\n\n");
+
+        assertEquals(2, listener.mData.size());
+        assertEquals("payload", listener.mData.get(0));
+        assertEquals("update", listener.mEventTypes.get(0));
+        assertEquals("42", listener.mLastEventIds.get(0));
+
+        // the event type is reset after each event, the id is not
+        assertNull(listener.mEventTypes.get(1));
+        assertEquals("42", listener.mLastEventIds.get(1));
+        assertEquals(3000, parser.getRetry());
+    }
+
+    @Test
+    public void testEventsWithoutDataAreIgnored() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        ServerSentEventParser parser = new ServerSentEventParser(listener);
+
+        parse(parser, ": keep alive\n\nevent: empty\n\nretry: invalid\n\n");
+
+        assertEquals(0, listener.mData.size());
+        assertEquals(-1, parser.getRetry());
+    }
+
+    @Test
+    public void testLineEndings() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        ServerSentEventParser parser = new ServerSentEventParser(listener);
+
+        parse(parser, "data: crlf\r\n\r\ndata: cr\r\rdata: lf\n\n");
+
+        assertEquals(3, listener.mData.size());
+        assertEquals("crlf", listener.mData.get(0));
+        assertEquals("cr", listener.mData.get(1));
+        assertEquals("lf", listener.mData.get(2));
+    }
+
+    @Test
+    public void testByteByByte() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        ServerSentEventParser parser = new ServerSentEventParser(listener);
+
+        byte[] stream = "\ufeffdata: \u00e9\u4e2d\r\ndata: two\r\n\r\nid: 1\ndata: three\n\n".getBytes(Constants.UTF8);
+
+        // every split point, including inside characters and CRLF pairs
+        for (int i = 0; i < stream.length; i++) {
+            parser.parse(stream, i, 1);
+        }
+
+        assertEquals(2, listener.mData.size());
+        assertEquals("\u00e9\u4e2d\ntwo", listener.mData.get(0));
+        assertEquals("three", listener.mData.get(1));
+        assertEquals("1", parser.getLastEventId());
+    }
+
+    @Test
+    public void testLargeEvent() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        ServerSentEventParser parser = new ServerSentEventParser(listener);
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            String line = "line " + i;
+            parse(parser, "data: " + line + "\n");
+
+            if (i > 0) {
+                expected.append("\n");
+            }
+            expected.append(line);
+        }
+        parse(parser, "\n");
+
+        assertEquals(1, listener.mData.size());
+        assertEquals(expected.toString(), listener.mData.get(0));
+    }
+
+    private static void parse(ServerSentEventParser parser, String data) throws Exception {
+        byte[] bytes = data.getBytes(Constants.UTF8);
+        parser.parse(bytes, 0, bytes.length);
+    }
+
+    private static class RecordingListener implements ServerSentEventParser.EventListener {
+        List<String> mData = new ArrayList<String>();
+        List<String> mEventTypes = new ArrayList<String>();
+        List<String> mLastEventIds = new ArrayList<String>();
+
+        @Override
+        public void onEvent(String eventType, String data, String lastEventId) {
+            mData.add(data);
+            mEventTypes.add(eventType);
+            mLastEventIds.add(lastEventId);
+        }
+    }
+}
@@ -17,6 +17,7 @@ import microsoft.aspnet.signalr.client.tests.util.MockHttpConnection;
 import microsoft.aspnet.signalr.client.tests.util.MockHttpConnection.RequestEntry;
 import microsoft.aspnet.signalr.client.tests.util.MockConnection;
 import microsoft.aspnet.signalr.client.tests.util.MultiResult;
+import microsoft.aspnet.signalr.client.tests.util.PlainResponse;
 import microsoft.aspnet.signalr.client.tests.util.Sync;
 import microsoft.aspnet.signalr.client.tests.util.TransportType;
 import microsoft.aspnet.signalr.client.tests.util.Utils;
@@ -63,7 +64,7 @@ public class ServerSentEventsTransportTests extends HttpClientTransportTests {
         RequestEntry entry = httpConnection.getRequest();
         entry.response.writeLine("data: initialized\n\n");
         entry.response.writeLine("data: Hello");
-        entry.response.writeLine("world\n\n");
+        entry.response.writeLine("data: world\n\n");
 
         Utils.finishMessage(entry);
 
@@ -80,6 +81,37 @@ public class ServerSentEventsTransportTests extends HttpClientTransportTests {
         assertTrue(future.isDone());
     }
 
+    @Test
+    public void testPlainResponseIsReadByLines() throws Exception {
+
+        MockHttpConnection httpConnection = new MockHttpConnection();
+        ServerSentEventsTransport transport = new ServerSentEventsTransport(new NullLogger(), httpConnection);
+
+        final MultiResult result = new MultiResult();
+
+        SignalRFuture<Void> future = transport.start(new MockConnection(), ConnectionType.InitialConnection, new DataResultCallback() {
+
+            @Override
+            public void onData(String data) {
+                result.listResult.add(data);
+            }
+        });
+
+        RequestEntry entry = httpConnection.getRequest();
+        entry.response.writeLine("data: initialized");
+        entry.response.writeLine("");
+        entry.response.writeLine("data: Hello");
+        entry.response.writeLine("data: world");
+        entry.response.writeLine("");
+        entry.response.finishWriting();
+
+        entry.callback.onResponse(new PlainResponse(entry.response));
+
+        assertEquals(1, result.listResult.size());
+        assertEquals("Hello\nworld", result.listResult.get(0));
+        assertTrue(future.isDone());
+    }
+
     @Override
     protected TransportType getTransportType() {
         return TransportType.ServerSentEvents;
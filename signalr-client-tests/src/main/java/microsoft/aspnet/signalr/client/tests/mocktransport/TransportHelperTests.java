@@ -0,0 +1,209 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.tests.mocktransport;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.gson.JsonElement;
+
+import microsoft.aspnet.signalr.client.Constants;
+import microsoft.aspnet.signalr.client.GsonValue;
+import microsoft.aspnet.signalr.client.JsonStreamReader;
+import microsoft.aspnet.signalr.client.Logger;
+import microsoft.aspnet.signalr.client.MessageResult;
+import microsoft.aspnet.signalr.client.NullLogger;
+import microsoft.aspnet.signalr.client.StreamingConnection;
+import microsoft.aspnet.signalr.client.tests.util.MockConnection;
+import microsoft.aspnet.signalr.client.transport.TransportHelper;
+
+public class TransportHelperTests {
+
+    @Test
+    public void testStreamedMessagesAreDispatched() throws Exception {
+        RecordingConnection connection = new RecordingConnection();
+
+        MessageResult result = TransportHelper.processReceivedData(toStream("{\"C\":\"d-1\",\"S\":1,\"G\":\"token\",\"M\":[{\"a\":1},\"text\",2]}"),
+                connection);
+
+        assertEquals(3, connection.mMessages.size());
+        assertEquals("{\"a\":1}", connection.mMessages.get(0).toString());
+        assertEquals("text", connection.mMessages.get(1).getAsString());
+        assertEquals(2, connection.mMessages.get(2).getAsInt());
+        assertEquals("d-1", connection.mMessageId);
+        assertEquals("token", connection.mGroupsToken);
+        assertTrue(result.initialize());
+        assertFalse(result.disconnect());
+    }
+
+    @Test
+    public void testStreamedDataMatchesStringData() throws Exception {
+        String data = "{\"C\":\"d-2\",\"T\":1,\"M\":[{\"H\":\"hub\",\"M\":\"method\",\"A\":[1,\"two\"]}]}";
+
+        RecordingConnection fromString = new RecordingConnection();
+        MessageResult stringResult = TransportHelper.processReceivedData(data, fromString);
+
+        RecordingConnection fromStream = new RecordingConnection();
+        MessageResult streamResult = TransportHelper.processReceivedData(toStream(data), fromStream);
+
+        assertEquals(fromString.mMessages, fromStream.mMessages);
+        assertEquals(fromString.mMessageId, fromStream.mMessageId);
+        assertEquals(stringResult.reconnect(), streamResult.reconnect());
+        assertTrue(streamResult.reconnect());
+    }
+
+    @Test
+    public void testHubResultIsDispatchedWhole() throws Exception {
+        RecordingConnection connection = new RecordingConnection();
+
+        TransportHelper.processReceivedData(toStream("{\"I\":\"1\",\"R\":42,\"S\":{\"state\":true}}"), connection);
+
+        assertEquals(1, connection.mMessages.size());
+        assertEquals(42, connection.mMessages.get(0).getAsJsonObject().get("R").getAsInt());
+    }
+
+    @Test
+    public void testDisconnectStopsProcessing() throws Exception {
+        RecordingConnection connection = new RecordingConnection();
+
+        MessageResult result = TransportHelper.processReceivedData(toStream("{\"D\":1,\"M\":[1,2]}"), connection);
+
+        assertTrue(result.disconnect());
+        assertEquals(0, connection.mMessages.size());
+    }
+
+    @Test
+    public void testEmptyStream() throws Exception {
+        RecordingConnection connection = new RecordingConnection();
+
+        MessageResult result = TransportHelper.processReceivedData(toStream("  "), connection);
+
+        assertFalse(result.disconnect());
+        assertEquals(0, connection.mMessages.size());
+        assertEquals(0, connection.mErrors.size());
+    }
+
+    @Test
+    public void testInvalidJsonTriggersError() throws Exception {
+        RecordingConnection connection = new RecordingConnection();
+
+        TransportHelper.processReceivedData(toStream("{\"M\":[1,}"), connection);
+
+        assertEquals(1, connection.mErrors.size());
+    }
+
+    @Test
+    public void testFirstMessageIsDispatchedBeforeTheStreamEnds() throws Exception {
+        final Semaphore firstMessage = new Semaphore(0);
+        final RecordingConnection connection = new RecordingConnection() {
+            @Override
+            public void onReceived(JsonElement message) {
+                super.onReceived(message);
+                firstMessage.release();
+            }
+        };
+
+        PipedOutputStream output = new PipedOutputStream();
+        final PipedInputStream input = new PipedInputStream(output);
+
+        Thread reader = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    TransportHelper.processReceivedData(input, connection);
+                } catch (IOException e) {
+                }
+            }
+        });
+        reader.start();
+
+        output.write("{\"C\":\"d-3\",\"M\":[{\"a\":1},".getBytes(Constants.UTF8));
+        output.flush();
+
+        assertTrue(firstMessage.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(1, connection.mMessages.size());
+
+        output.write("{\"a\":2}]}".getBytes(Constants.UTF8));
+        output.close();
+        reader.join(5000);
+
+        assertEquals(2, connection.mMessages.size());
+    }
+
+    @Test
+    public void testStreamingConnectionReadsTheMessages() throws Exception {
+        final List<String> streamed = new ArrayList<String>();
+
+        RecordingConnection connection = new StreamingRecordingConnection() {
+
+            @Override
+            public void onReceived(JsonStreamReader message) throws IOException {
+                streamed.add(GsonValue.readElement(message).toString());
+            }
+        };
+
+        TransportHelper.processReceivedData(toStream("{\"C\":\"d-4\",\"M\":[{\"a\":1},2]}"), connection);
+
+        assertEquals(2, streamed.size());
+        assertEquals("{\"a\":1}", streamed.get(0));
+        assertEquals("2", streamed.get(1));
+        assertEquals(0, connection.mMessages.size());
+        assertEquals("d-4", connection.mMessageId);
+    }
+
+    private static InputStream toStream(String data) {
+        return new ByteArrayInputStream(data.getBytes(Constants.UTF8));
+    }
+
+    private static class RecordingConnection extends MockConnection {
+        List<JsonElement> mMessages = Collections.synchronizedList(new ArrayList<JsonElement>());
+        List<Throwable> mErrors = new ArrayList<Throwable>();
+        String mMessageId;
+        String mGroupsToken;
+
+        @Override
+        public void onReceived(JsonElement message) {
+            mMessages.add(message);
+        }
+
+        @Override
+        public void setMessageId(String messageId) {
+            mMessageId = messageId;
+        }
+
+        @Override
+        public void setGroupsToken(String groupsToken) {
+            mGroupsToken = groupsToken;
+        }
+
+        @Override
+        public void onError(Throwable error, boolean mustCleanCurrentConnection) {
+            mErrors.add(error);
+        }
+
+        @Override
+        public Logger getLogger() {
+            return new NullLogger();
+        }
+    }
+
+    private static abstract class StreamingRecordingConnection extends RecordingConnection implements StreamingConnection {
+    }
+}
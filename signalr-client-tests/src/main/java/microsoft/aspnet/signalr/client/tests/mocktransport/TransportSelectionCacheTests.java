@@ -0,0 +1,142 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.tests.mocktransport;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import microsoft.aspnet.signalr.client.Constants;
+import microsoft.aspnet.signalr.client.transport.TransportSelectionCache;
+
+public class TransportSelectionCacheTests {
+
+    private static final String ENDPOINT = "http://myUrl/signalr/";
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("transports", ".cache");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void testEntriesSurviveRestarts() throws Exception {
+        TransportSelectionCache cache = new TransportSelectionCache(mFile);
+        assertNull(cache.getTransport(ENDPOINT));
+
+        cache.onConnected(ENDPOINT, "longPolling");
+        cache.onConnected("http://otherUrl/", "webSockets");
+        cache.flush();
+
+        TransportSelectionCache restarted = new TransportSelectionCache(mFile);
+        assertEquals("longPolling", restarted.getTransport(ENDPOINT));
+        assertEquals("webSockets", restarted.getTransport("http://otherUrl/"));
+
+        restarted.clear();
+        restarted.flush();
+        assertNull(new TransportSelectionCache(mFile).getTransport(ENDPOINT));
+    }
+
+    @Test
+    public void testEntriesExpire() throws Exception {
+        TransportSelectionCache cache = new TransportSelectionCache(mFile, 100, 3, 0);
+        cache.onConnected(ENDPOINT, "longPolling");
+        assertEquals("longPolling", cache.getTransport(ENDPOINT));
+
+        Thread.sleep(200);
+
+        assertNull(cache.getTransport(ENDPOINT));
+    }
+
+    @Test
+    public void testEntriesAreDroppedAfterTooManyFailures() throws Exception {
+        TransportSelectionCache cache = new TransportSelectionCache(mFile, 60000, 2, 0);
+        cache.onConnected(ENDPOINT, "longPolling");
+
+        // failures of other transports don't count
+        cache.onFailed(ENDPOINT, "webSockets");
+        cache.onFailed(ENDPOINT, "longPolling");
+        cache.flush();
+        assertEquals("longPolling", new TransportSelectionCache(mFile).getTransport(ENDPOINT));
+
+        // a connection resets the count
+        cache.onConnected(ENDPOINT, "longPolling");
+        cache.onFailed(ENDPOINT, "longPolling");
+        assertEquals("longPolling", cache.getTransport(ENDPOINT));
+
+        cache.onFailed(ENDPOINT, "longPolling");
+        assertNull(cache.getTransport(ENDPOINT));
+        cache.flush();
+        assertNull(new TransportSelectionCache(mFile).getTransport(ENDPOINT));
+    }
+
+    @Test
+    public void testProbesAreThrottled() throws Exception {
+        TransportSelectionCache cache = new TransportSelectionCache(mFile, 60000, 3, 100);
+        assertFalse(cache.startProbe(ENDPOINT));
+
+        // a new choice is not probed right away
+        cache.onConnected(ENDPOINT, "longPolling");
+        assertFalse(cache.startProbe(ENDPOINT));
+
+        Thread.sleep(200);
+
+        assertTrue(cache.startProbe(ENDPOINT));
+        assertFalse(cache.startProbe(ENDPOINT));
+    }
+
+    @Test
+    public void testChangesAreWrittenThroughUniqueTemporaryFiles() throws Exception {
+        File directory = new File(mFile.getPath() + ".dir");
+        assertTrue(directory.mkdir());
+
+        File file = new File(directory, "transports.cache");
+        try {
+            TransportSelectionCache cache = new TransportSelectionCache(file);
+            for (int i = 0; i < 100; i++) {
+                cache.onConnected(ENDPOINT + i, i % 2 == 0 ? "longPolling" : "webSockets");
+            }
+
+            cache.flush();
+
+            // the background writes and the flush leave no temporary file
+            // behind
+            assertArrayEquals(new String[] { "transports.cache" }, directory.list());
+            assertEquals("webSockets", new TransportSelectionCache(file).getTransport(ENDPOINT + 99));
+        } finally {
+            for (File child : directory.listFiles()) {
+                child.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void testMalformedLinesAreSkipped() throws Exception {
+        FileOutputStream stream = new FileOutputStream(mFile);
+        String content = "garbage\n" + ENDPOINT + "\tlongPolling\tnotANumber\t0\t0\nhttp://otherUrl/\twebSockets\t" + System.currentTimeMillis()
+                + "\t0\t0\n";
+        stream.write(content.getBytes(Constants.UTF8_NAME));
+        stream.close();
+
+        TransportSelectionCache cache = new TransportSelectionCache(mFile);
+        assertNull(cache.getTransport(ENDPOINT));
+        assertEquals("webSockets", cache.getTransport("http://otherUrl/"));
+    }
+}
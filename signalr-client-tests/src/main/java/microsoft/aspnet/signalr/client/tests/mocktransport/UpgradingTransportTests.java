@@ -0,0 +1,380 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.tests.mocktransport;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.util.Base64;
+import org.junit.Test;
+
+import microsoft.aspnet.signalr.client.ConnectionBase;
+import microsoft.aspnet.signalr.client.Constants;
+import microsoft.aspnet.signalr.client.ErrorCallback;
+import microsoft.aspnet.signalr.client.Logger;
+import microsoft.aspnet.signalr.client.NullLogger;
+import microsoft.aspnet.signalr.client.SignalRFuture;
+import microsoft.aspnet.signalr.client.tests.util.MockConnection;
+import microsoft.aspnet.signalr.client.tests.util.MockHttpConnection;
+import microsoft.aspnet.signalr.client.transport.AutomaticTransport.TransportFactory;
+import microsoft.aspnet.signalr.client.transport.ClientTransport;
+import microsoft.aspnet.signalr.client.transport.ConnectionType;
+import microsoft.aspnet.signalr.client.transport.DataResultCallback;
+import microsoft.aspnet.signalr.client.transport.NegotiationResponse;
+import microsoft.aspnet.signalr.client.transport.UpgradingTransport;
+import microsoft.aspnet.signalr.client.transport.WebsocketTransport;
+
+public class UpgradingTransportTests {
+
+    private List<FakeTransport> mCreated = Collections.synchronizedList(new ArrayList<FakeTransport>());
+    private Semaphore mStarted = new Semaphore(0);
+    private List<String> mReceived = Collections.synchronizedList(new ArrayList<String>());
+
+    @Test
+    public void testConnectsWithTheFastTransportAndUpgrades() throws Exception {
+        UpgradingTransport transport = createTransport("webSockets");
+
+        SignalRFuture<Void> start = startTransport(transport);
+        FakeTransport fast = getStarted(0);
+        assertEquals(ConnectionType.InitialConnection, fast.mConnectionType);
+
+        fast.mCallback.onData("first");
+        fast.mStart.setResult(null);
+        start.get(5, TimeUnit.SECONDS);
+        assertEquals("longPolling", transport.getName());
+
+        // the fast transport is paused before the better one starts
+        FakeTransport better = getStarted(1);
+        assertEquals("webSockets", better.getName());
+        assertEquals(ConnectionType.Reconnection, better.mConnectionType);
+        assertTrue(fast.mStart.isCancelled());
+        fast.mCallback.onData("late");
+
+        better.mStart.setResult(null);
+        waitForUpgrade(transport);
+        better.mCallback.onData("second");
+
+        assertEquals("webSockets", transport.getName());
+        assertEquals(2, mReceived.size());
+        assertEquals("first", mReceived.get(0));
+        assertEquals("second", mReceived.get(1));
+    }
+
+    @Test
+    public void testFastTransportIsResumedWhenNoTransportUpgrades() throws Exception {
+        UpgradingTransport transport = createTransport("webSockets", "serverSentEvents");
+
+        SignalRFuture<Void> start = startTransport(transport);
+        getStarted(0).mStart.setResult(null);
+        start.get(5, TimeUnit.SECONDS);
+
+        getStarted(1).mStart.triggerError(new Exception("Blocked"));
+        FakeTransport serverSentEvents = getStarted(2);
+        assertEquals("serverSentEvents", serverSentEvents.getName());
+        serverSentEvents.mStart.triggerError(new Exception("Blocked"));
+
+        // a new instance of the fast transport reconnects from the same
+        // position
+        FakeTransport resumed = getStarted(3);
+        assertEquals("longPolling", resumed.getName());
+        assertNotSame(mCreated.get(0), resumed);
+        assertEquals(ConnectionType.Reconnection, resumed.mConnectionType);
+
+        resumed.mStart.setResult(null);
+        resumed.mCallback.onData("data");
+
+        assertEquals("longPolling", transport.getName());
+        assertFalse(transport.isUpgraded());
+        assertEquals(1, mReceived.size());
+
+        // the upgrade is retried after the retry delay only
+        assertFalse(mStarted.tryAcquire(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testErrorsOfTheUpgradedTransportAreForwarded() throws Exception {
+        UpgradingTransport transport = createTransport("webSockets");
+
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        SignalRFuture<Void> start = startTransport(transport);
+        start.onError(new ErrorCallback() {
+
+            @Override
+            public void onError(Throwable error) {
+                errors.add(error);
+            }
+        });
+
+        getStarted(0).mStart.setResult(null);
+        FakeTransport better = getStarted(1);
+        better.mStart.setResult(null);
+        waitForUpgrade(transport);
+
+        // errors of the paused transport are ignored
+        mCreated.get(0).mStart.triggerError(new Exception("Paused"));
+        better.mStart.triggerError(new Exception("Lost"));
+
+        assertEquals(1, errors.size());
+        assertEquals("Lost", errors.get(0).getMessage());
+    }
+
+    @Test
+    public void testDowngradesAfterRepeatedReconnections() throws Exception {
+        UpgradingTransport transport = createTransport("webSockets");
+        transport.setMaxReconnectFailures(2);
+
+        SignalRFuture<Void> start = startTransport(transport);
+        getStarted(0).mStart.setResult(null);
+        start.get(5, TimeUnit.SECONDS);
+        FakeTransport better = getStarted(1);
+        better.mStart.setResult(null);
+        waitForUpgrade(transport);
+
+        // the upgraded transport reconnects once
+        SignalRFuture<Void> reconnect = transport.start(new MockConnection(), ConnectionType.Reconnection, new RecordingCallback());
+        assertSame(better, getStarted(2));
+        better.mStart.setResult(null);
+        reconnect.get(5, TimeUnit.SECONDS);
+        assertTrue(transport.isUpgraded());
+
+        // and then downgrades
+        transport.start(new MockConnection(), ConnectionType.Reconnection, new RecordingCallback());
+        FakeTransport fast = getStarted(3);
+        assertEquals("longPolling", fast.getName());
+        assertEquals(ConnectionType.Reconnection, fast.mConnectionType);
+        fast.mStart.setResult(null);
+
+        assertTrue(transport.isDowngraded());
+        assertEquals("longPolling", transport.getName());
+        assertFalse(mStarted.tryAcquire(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testFailedReconnectionFallsBackToTheFastTransport() throws Exception {
+        UpgradingTransport transport = createTransport("webSockets");
+
+        SignalRFuture<Void> start = startTransport(transport);
+        getStarted(0).mStart.setResult(null);
+        start.get(5, TimeUnit.SECONDS);
+        FakeTransport better = getStarted(1);
+        better.mStart.setResult(null);
+        waitForUpgrade(transport);
+
+        SignalRFuture<Void> reconnect = transport.start(new MockConnection(), ConnectionType.Reconnection, new RecordingCallback());
+        assertSame(better, getStarted(2));
+        better.mStart.triggerError(new Exception("Blocked"));
+
+        FakeTransport fast = getStarted(3);
+        assertEquals("longPolling", fast.getName());
+        fast.mStart.setResult(null);
+
+        reconnect.get(5, TimeUnit.SECONDS);
+        assertFalse(reconnect.errorWasTriggered());
+        assertFalse(transport.isUpgraded());
+        assertFalse(transport.isDowngraded());
+    }
+
+    @Test
+    public void testWebSocketConnectingAfterTheTimeoutIsClosed() throws Exception {
+        // the server answers the handshake only after the upgrade timed out
+        ServerSocket server = new ServerSocket(0);
+        final String url = "http://127.0.0.1:" + server.getLocalPort() + "/";
+
+        List<TransportFactory> upgradeFactories = new ArrayList<TransportFactory>();
+        upgradeFactories.add(new TransportFactory() {
+
+            @Override
+            public String getTransportName() {
+                return "webSockets";
+            }
+
+            @Override
+            public ClientTransport createTransport(Logger logger) {
+                return new WebsocketTransport(logger);
+            }
+        });
+
+        UpgradingTransport transport = new UpgradingTransport(new NullLogger(), new MockHttpConnection(), createFactory("longPolling"), upgradeFactories);
+        transport.setUpgradeDelay(0);
+        transport.setUpgradeTimeout(200);
+
+        SignalRFuture<Void> start = transport.start(new MockConnection() {
+            @Override
+            public String getUrl() {
+                return url;
+            }
+        }, ConnectionType.InitialConnection, new RecordingCallback());
+        getStarted(0).mStart.setResult(null);
+        start.get(5, TimeUnit.SECONDS);
+
+        server.setSoTimeout(5000);
+        Socket socket = server.accept();
+        socket.setSoTimeout(5000);
+        InputStream input = socket.getInputStream();
+        String key = readWebSocketKey(input);
+
+        // the fast transport is resumed once the upgrade timed out
+        FakeTransport resumed = getStarted(1);
+        assertEquals("longPolling", resumed.getName());
+        resumed.mStart.setResult(null);
+
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        String accept = Base64.encodeBytes(sha1.digest((key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(Constants.UTF8_NAME)));
+        String response = "HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Accept: " + accept + "\r\n\r\n";
+        try {
+            socket.getOutputStream().write(response.getBytes(Constants.UTF8_NAME));
+        } catch (IOException e) {
+            // the client may have closed the socket already
+        }
+
+        // the late WebSocket doesn't stay open
+        byte[] buffer = new byte[1024];
+        int read;
+        do {
+            read = input.read(buffer);
+        } while (read > 0);
+
+        assertEquals(-1, read);
+        assertFalse(transport.isUpgraded());
+        assertEquals("longPolling", transport.getName());
+
+        socket.close();
+        server.close();
+    }
+
+    /**
+     * Reads the handshake request of a WebSocket client and returns its key
+     */
+    private static String readWebSocketKey(InputStream input) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, Constants.UTF8_NAME));
+        String key = null;
+        String line;
+        while ((line = reader.readLine()) != null && line.length() > 0) {
+            if (line.toLowerCase(Locale.US).startsWith("sec-websocket-key:")) {
+                key = line.substring(line.indexOf(':') + 1).trim();
+            }
+        }
+
+        return key;
+    }
+
+    private SignalRFuture<Void> startTransport(UpgradingTransport transport) {
+        return transport.start(new MockConnection(), ConnectionType.InitialConnection, new RecordingCallback());
+    }
+
+    private FakeTransport getStarted(int index) throws Exception {
+        assertTrue(mStarted.tryAcquire(5, TimeUnit.SECONDS));
+        return mCreated.get(index);
+    }
+
+    /**
+     * The upgrade completes on the upgrade thread
+     */
+    private static void waitForUpgrade(UpgradingTransport transport) throws Exception {
+        for (int i = 0; i < 500 && !transport.isUpgraded(); i++) {
+            Thread.sleep(10);
+        }
+
+        assertTrue(transport.isUpgraded());
+    }
+
+    private UpgradingTransport createTransport(String... upgradeNames) {
+        List<TransportFactory> upgradeFactories = new ArrayList<TransportFactory>();
+        for (String name : upgradeNames) {
+            upgradeFactories.add(createFactory(name));
+        }
+
+        UpgradingTransport transport = new UpgradingTransport(new NullLogger(), new MockHttpConnection(), createFactory("longPolling"), upgradeFactories);
+        transport.setUpgradeDelay(0);
+
+        return transport;
+    }
+
+    private TransportFactory createFactory(final String name) {
+        return new TransportFactory() {
+
+            @Override
+            public String getTransportName() {
+                return name;
+            }
+
+            @Override
+            public ClientTransport createTransport(Logger logger) {
+                return new FakeTransport(name);
+            }
+        };
+    }
+
+    private class RecordingCallback implements DataResultCallback {
+        @Override
+        public void onData(String data) {
+            mReceived.add(data);
+        }
+    }
+
+    private class FakeTransport implements ClientTransport {
+        String mName;
+        volatile ConnectionType mConnectionType;
+        volatile SignalRFuture<Void> mStart;
+        volatile DataResultCallback mCallback;
+
+        FakeTransport(String name) {
+            mName = name;
+        }
+
+        @Override
+        public String getName() {
+            return mName;
+        }
+
+        @Override
+        public boolean supportKeepAlive() {
+            return false;
+        }
+
+        @Override
+        public SignalRFuture<NegotiationResponse> negotiate(ConnectionBase connection) {
+            return null;
+        }
+
+        @Override
+        public SignalRFuture<Void> start(ConnectionBase connection, ConnectionType connectionType, DataResultCallback callback) {
+            mConnectionType = connectionType;
+            mStart = new SignalRFuture<Void>();
+            mCallback = callback;
+
+            // a restarted transport is recorded again
+            mCreated.add(this);
+            mStarted.release();
+
+            return mStart;
+        }
+
+        @Override
+        public SignalRFuture<Void> send(ConnectionBase connection, String data, DataResultCallback callback) {
+            return null;
+        }
+
+        @Override
+        public SignalRFuture<Void> abort(ConnectionBase connection) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.tests.mocktransport;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata.Opcode;
+import org.java_websocket.framing.FramedataImpl1;
+import org.junit.Test;
+
+import microsoft.aspnet.signalr.client.Constants;
+import microsoft.aspnet.signalr.client.transport.WebsocketMessageAssembler;
+
+public class WebsocketMessageAssemblerTests {
+
+    @Test
+    public void testFragmentsAreReassembled() throws Exception {
+        WebsocketMessageAssembler assembler = new WebsocketMessageAssembler();
+
+        assertNull(assembler.onFragment(createFrame(Opcode.TEXT, "{\"C\":\"1\",\"M\":[", false)));
+        assertNull(assembler.onFragment(createFrame(Opcode.CONTINUOUS, "{\"a\":1}", false)));
+        assertEquals("{\"C\":\"1\",\"M\":[{\"a\":1}]}", assembler.onFragment(createFrame(Opcode.CONTINUOUS, "]}", true)));
+
+        assertEquals(1, assembler.getFragmentedMessageCount());
+        assertEquals(3, assembler.getFragmentCount());
+        assertEquals(23, assembler.getLargestMessageSize());
+    }
+
+    @Test
+    public void testSplitInsideMultiByteCharacter() throws Exception {
+        WebsocketMessageAssembler assembler = new WebsocketMessageAssembler();
+        byte[] text = "\"\u00e9\u4e2d\"".getBytes(Constants.UTF8);
+
+        // every fragment ends in the middle of a character
+        assertNull(assembler.onFragment(createFrame(Opcode.TEXT, text, 0, 2, false)));
+        assertNull(assembler.onFragment(createFrame(Opcode.CONTINUOUS, text, 2, 3, false)));
+        assertEquals("\"\u00e9\u4e2d\"", assembler.onFragment(createFrame(Opcode.CONTINUOUS, text, 5, text.length - 5, true)));
+    }
+
+    @Test
+    public void testMessagesAreIndependent() throws Exception {
+        WebsocketMessageAssembler assembler = new WebsocketMessageAssembler();
+
+        assembler.onFragment(createFrame(Opcode.TEXT, "first ", false));
+        assertEquals("first message", assembler.onFragment(createFrame(Opcode.CONTINUOUS, "message", true)));
+
+        assembler.onFragment(createFrame(Opcode.TEXT, "second ", false));
+        assertEquals("second message", assembler.onFragment(createFrame(Opcode.CONTINUOUS, "message", true)));
+
+        assertEquals(2, assembler.getFragmentedMessageCount());
+    }
+
+    @Test
+    public void testLargeMessage() throws Exception {
+        WebsocketMessageAssembler assembler = new WebsocketMessageAssembler();
+
+        StringBuilder expected = new StringBuilder();
+        assembler.onFragment(createFrame(Opcode.TEXT, "", false));
+        for (int i = 0; i < 1000; i++) {
+            String fragment = "fragment " + i + ";";
+            expected.append(fragment);
+            assembler.onFragment(createFrame(Opcode.CONTINUOUS, fragment, false));
+        }
+
+        assertEquals(expected.toString(), assembler.onFragment(createFrame(Opcode.CONTINUOUS, "", true)));
+    }
+
+    @Test
+    public void testMessageTooBig() throws Exception {
+        WebsocketMessageAssembler assembler = new WebsocketMessageAssembler(10);
+
+        assembler.onFragment(createFrame(Opcode.TEXT, "12345", false));
+
+        try {
+            assembler.onFragment(createFrame(Opcode.CONTINUOUS, "678901", false));
+            fail("The message should be too big");
+        } catch (InvalidDataException e) {
+            assertEquals(CloseFrame.TOOBIG, e.getCloseCode());
+        }
+
+        // the partial message was discarded
+        assembler.onFragment(createFrame(Opcode.TEXT, "12345", false));
+        assertEquals("1234567890", assembler.onFragment(createFrame(Opcode.CONTINUOUS, "67890", true)));
+    }
+
+    @Test
+    public void testInvalidUtf8() throws Exception {
+        WebsocketMessageAssembler assembler = new WebsocketMessageAssembler();
+
+        assembler.onFragment(createFrame(Opcode.TEXT, new byte[] { (byte) 0xc3 }, 0, 1, false));
+
+        try {
+            assembler.onFragment(createFrame(Opcode.CONTINUOUS, new byte[] { (byte) 0x28 }, 0, 1, true));
+            fail("The message should be invalid");
+        } catch (InvalidDataException e) {
+            assertEquals(CloseFrame.NO_UTF8, e.getCloseCode());
+        }
+    }
+
+    @Test(expected = InvalidDataException.class)
+    public void testContinuationWithoutMessage() throws Exception {
+        new WebsocketMessageAssembler().onFragment(createFrame(Opcode.CONTINUOUS, "data", true));
+    }
+
+    private static FramedataImpl1 createFrame(Opcode opcode, String payload, boolean fin) throws InvalidDataException {
+        byte[] bytes = payload.getBytes(Constants.UTF8);
+
+        return createFrame(opcode, bytes, 0, bytes.length, fin);
+    }
+
+    private static FramedataImpl1 createFrame(Opcode opcode, byte[] payload, int offset, int length, boolean fin) throws InvalidDataException {
+        FramedataImpl1 frame = new FramedataImpl1(opcode);
+        frame.setFin(fin);
+        frame.setPayload(ByteBuffer.wrap(payload, offset, length).slice());
+
+        return frame;
+    }
+}
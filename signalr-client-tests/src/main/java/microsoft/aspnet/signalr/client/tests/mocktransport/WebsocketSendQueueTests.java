@@ -0,0 +1,302 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.tests.mocktransport;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import microsoft.aspnet.signalr.client.ErrorCallback;
+import microsoft.aspnet.signalr.client.SignalRFuture;
+import microsoft.aspnet.signalr.client.transport.WebsocketSendQueue;
+import microsoft.aspnet.signalr.client.transport.WebsocketSendQueue.FullQueuePolicy;
+
+public class WebsocketSendQueueTests {
+
+    @Test
+    public void testFutureCompletesAfterTheMessageIsWritten() throws Exception {
+        GatedWriter writer = new GatedWriter();
+        WebsocketSendQueue queue = new WebsocketSendQueue(writer);
+
+        SignalRFuture<Void> future = queue.send("message");
+
+        assertTrue(writer.mStarted.tryAcquire(5, TimeUnit.SECONDS));
+        assertFalse(future.isDone());
+
+        // the message being written is still counted
+        assertEquals(1, queue.getQueuedMessageCount());
+        assertEquals(7, queue.getQueuedBytes());
+
+        writer.mGate.release();
+        future.get(5, TimeUnit.SECONDS);
+
+        assertEquals(0, queue.getQueuedMessageCount());
+        assertEquals(0, queue.getQueuedBytes());
+        assertEquals(Collections.singletonList("message"), writer.mMessages);
+    }
+
+    @Test
+    public void testMessagesAreWrittenInOrder() throws Exception {
+        GatedWriter writer = new GatedWriter();
+        writer.mGate.release(100);
+        WebsocketSendQueue queue = new WebsocketSendQueue(writer);
+
+        SignalRFuture<Void> last = null;
+        for (int i = 0; i < 100; i++) {
+            last = queue.send(String.valueOf(i));
+        }
+
+        last.get(5, TimeUnit.SECONDS);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(String.valueOf(i), writer.mMessages.get(i));
+        }
+    }
+
+    @Test
+    public void testFailPolicyRejectsMessagesWhenFull() throws Exception {
+        GatedWriter writer = new GatedWriter();
+        WebsocketSendQueue queue = new WebsocketSendQueue(writer, 2, 1024, FullQueuePolicy.Fail);
+
+        SignalRFuture<Void> first = queue.send("first");
+        SignalRFuture<Void> second = queue.send("second");
+        SignalRFuture<Void> third = queue.send("third");
+
+        assertTrue(third.errorWasTriggered());
+
+        writer.mGate.release(2);
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        assertEquals(2, writer.mMessages.size());
+    }
+
+    @Test
+    public void testByteLimit() throws Exception {
+        GatedWriter writer = new GatedWriter();
+        WebsocketSendQueue queue = new WebsocketSendQueue(writer, 100, 10, FullQueuePolicy.Fail);
+
+        // a single message bigger than the limit is accepted in an empty queue
+        assertFalse(queue.send("a message bigger than the limit").errorWasTriggered());
+        assertTrue(queue.send("1").errorWasTriggered());
+
+        writer.mGate.release(100);
+    }
+
+    @Test
+    public void testDropPolicyDropsTheOldestMessages() throws Exception {
+        GatedWriter writer = new GatedWriter();
+        WebsocketSendQueue queue = new WebsocketSendQueue(writer, 2, 1024, FullQueuePolicy.Drop);
+
+        SignalRFuture<Void> first = queue.send("first");
+        assertTrue(writer.mStarted.tryAcquire(5, TimeUnit.SECONDS));
+
+        SignalRFuture<Void> second = queue.send("second");
+        SignalRFuture<Void> third = queue.send("third");
+
+        // the message being written is never dropped
+        assertFalse(first.isDone());
+        assertTrue(second.errorWasTriggered());
+        assertFalse(third.isDone());
+
+        writer.mGate.release(2);
+        third.get(5, TimeUnit.SECONDS);
+        assertEquals(2, writer.mMessages.size());
+        assertEquals("third", writer.mMessages.get(1));
+    }
+
+    @Test
+    public void testBlockPolicyWaitsForRoom() throws Exception {
+        GatedWriter writer = new GatedWriter();
+        final WebsocketSendQueue queue = new WebsocketSendQueue(writer, 1, 1024, FullQueuePolicy.Block);
+
+        queue.send("first");
+
+        final Semaphore sent = new Semaphore(0);
+        Thread sender = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                queue.send("second");
+                sent.release();
+            }
+        });
+        sender.start();
+
+        assertFalse(sent.tryAcquire(200, TimeUnit.MILLISECONDS));
+
+        writer.mGate.release();
+        assertTrue(sent.tryAcquire(5, TimeUnit.SECONDS));
+
+        writer.mGate.release();
+    }
+
+    @Test
+    public void testWriteErrorFailsTheFuture() throws Exception {
+        WebsocketSendQueue queue = new WebsocketSendQueue(new WebsocketSendQueue.MessageWriter() {
+
+            @Override
+            public void write(String message, Runnable onFlushed) throws Exception {
+                throw new IOException("write error");
+            }
+        });
+
+        final Semaphore failed = new Semaphore(0);
+        queue.send("message").onError(new ErrorCallback() {
+
+            @Override
+            public void onError(Throwable error) {
+                failed.release();
+            }
+        });
+
+        assertTrue(failed.tryAcquire(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCloseFailsPendingMessages() throws Exception {
+        GatedWriter writer = new GatedWriter();
+        WebsocketSendQueue queue = new WebsocketSendQueue(writer);
+
+        queue.send("first");
+        assertTrue(writer.mStarted.tryAcquire(5, TimeUnit.SECONDS));
+        SignalRFuture<Void> second = queue.send("second");
+
+        queue.close(new IOException("closed"));
+
+        assertTrue(second.errorWasTriggered());
+        assertTrue(queue.send("third").errorWasTriggered());
+
+        writer.mGate.release();
+    }
+
+    @Test
+    public void testMessagesAreWrittenByTheSendingAndFlushingThreads() throws Exception {
+        GatedWriter writer = new GatedWriter();
+        WebsocketSendQueue queue = new WebsocketSendQueue(writer);
+
+        queue.send("first");
+        assertTrue(writer.mStarted.tryAcquire(5, TimeUnit.SECONDS));
+        SignalRFuture<Void> second = queue.send("second");
+
+        // the next message is written by the thread reporting the flush
+        assertEquals(Collections.singletonList(Thread.currentThread()), writer.mThreads);
+        writer.mGate.release(2);
+        second.get(5, TimeUnit.SECONDS);
+        assertEquals(Thread.currentThread(), writer.mThreads.get(1));
+    }
+
+    @Test
+    public void testMessagesFlushedInlineDoNotRecurse() throws Exception {
+        WebsocketSendQueue queue = new WebsocketSendQueue(new WebsocketSendQueue.MessageWriter() {
+            int mDepth = 0;
+
+            @Override
+            public void write(String message, Runnable onFlushed) throws Exception {
+                mDepth++;
+                assertEquals(1, mDepth);
+                onFlushed.run();
+                mDepth--;
+            }
+        });
+
+        SignalRFuture<Void> last = null;
+        for (int i = 0; i < 10; i++) {
+            last = queue.send(String.valueOf(i));
+        }
+
+        last.get(5, TimeUnit.SECONDS);
+        assertEquals(0, queue.getQueuedMessageCount());
+    }
+
+    @Test
+    public void testCloseFailsTheMessageBeingWritten() throws Exception {
+        GatedWriter writer = new GatedWriter();
+        WebsocketSendQueue queue = new WebsocketSendQueue(writer);
+
+        SignalRFuture<Void> first = queue.send("first");
+        assertTrue(writer.mStarted.tryAcquire(5, TimeUnit.SECONDS));
+
+        queue.close(new IOException("closed"));
+
+        assertTrue(first.errorWasTriggered());
+        assertEquals(0, queue.getQueuedMessageCount());
+
+        // a late flush is ignored
+        writer.mGate.release();
+        assertEquals(0, queue.getQueuedMessageCount());
+    }
+
+    /**
+     * Records the messages and reports them flushed once the gate lets them
+     * through, on the thread releasing the gate
+     */
+    private static class GatedWriter implements WebsocketSendQueue.MessageWriter {
+        List<String> mMessages = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> mThreads = Collections.synchronizedList(new ArrayList<Thread>());
+        Semaphore mStarted = new Semaphore(0);
+        Gate mGate = new Gate();
+
+        @Override
+        public void write(String message, Runnable onFlushed) throws Exception {
+            mMessages.add(message);
+            mThreads.add(Thread.currentThread());
+            mStarted.release();
+            mGate.flush(onFlushed);
+        }
+    }
+
+    private static class Gate {
+        private int mPermits = 0;
+        private Runnable mPending = null;
+
+        void release() {
+            release(1);
+        }
+
+        void release(int permits) {
+            Runnable onFlushed;
+
+            synchronized (this) {
+                mPermits += permits;
+                onFlushed = take();
+            }
+
+            if (onFlushed != null) {
+                onFlushed.run();
+            }
+        }
+
+        void flush(Runnable onFlushed) {
+            synchronized (this) {
+                mPending = onFlushed;
+                onFlushed = take();
+            }
+
+            if (onFlushed != null) {
+                onFlushed.run();
+            }
+        }
+
+        private Runnable take() {
+            if (mPermits == 0 || mPending == null) {
+                return null;
+            }
+
+            mPermits--;
+            Runnable onFlushed = mPending;
+            mPending = null;
+            return onFlushed;
+        }
+    }
+}
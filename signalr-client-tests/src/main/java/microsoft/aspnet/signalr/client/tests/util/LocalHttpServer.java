@@ -0,0 +1,38 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.tests.util;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HTTP server bound to the loopback interface, used as a stand-in for a real
+ * server in tests
+ */
+public class LocalHttpServer {
+
+    private HttpServer mServer;
+
+    public LocalHttpServer(HttpHandler handler) throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", handler);
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.start();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/";
+    }
+
+    public void stop() {
+        mServer.stop(0);
+    }
+}
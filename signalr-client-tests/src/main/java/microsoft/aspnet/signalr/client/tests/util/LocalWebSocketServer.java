@@ -0,0 +1,111 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.tests.util;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+/**
+ * WebSocket echo server bound to the loopback interface, used as a stand-in
+ * for a real server in tests. Subclasses can override onMessage to answer
+ * differently
+ */
+public class LocalWebSocketServer extends WebSocketServer {
+
+    public List<Integer> closeCodes = Collections.synchronizedList(new ArrayList<Integer>());
+    public List<Framedata> pongs = Collections.synchronizedList(new ArrayList<Framedata>());
+    public List<String> resourceDescriptors = Collections.synchronizedList(new ArrayList<String>());
+
+    public LocalWebSocketServer() throws IOException, InterruptedException {
+        super(new InetSocketAddress("127.0.0.1", getFreePort()));
+        start();
+
+        // the server thread binds the socket asynchronously
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            try {
+                new Socket("127.0.0.1", getPort()).close();
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private static int getFreePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+
+        return port;
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + getPort() + "/";
+    }
+
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        resourceDescriptors.add(handshake.getResourceDescriptor());
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        closeCodes.add(code);
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+        conn.send(message);
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+    }
+
+    @Override
+    public void onWebsocketPong(WebSocket conn, Framedata f) {
+        pongs.add(f);
+    }
+
+    public void shutdown() {
+        // stop() can deadlock with a connection closing at the same time, so
+        // the test doesn't wait for it forever
+        Thread stopThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    stop();
+                } catch (Exception e) {
+                }
+            }
+        });
+
+        stopThread.setDaemon(true);
+        stopThread.start();
+
+        try {
+            stopThread.join(2000);
+        } catch (InterruptedException e) {
+        }
+    }
+}
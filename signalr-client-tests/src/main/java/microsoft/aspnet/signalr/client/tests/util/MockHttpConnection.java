@@ -85,6 +85,10 @@ public class MockHttpConnection implements HttpConnection {
         }
     }
 
+    public int getRequestCount() {
+        return mSemaphore.availablePermits();
+    }
+
     public RequestEntry getRequest() throws InterruptedException {
         mSemaphore.acquire();
         return mRequests.poll();
@@ -7,6 +7,10 @@ See License.txt in the project root for license information.
 package microsoft.aspnet.signalr.client.tests.util;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -14,9 +18,10 @@ import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
 
-import microsoft.aspnet.signalr.client.http.Response;
+import microsoft.aspnet.signalr.client.Constants;
+import microsoft.aspnet.signalr.client.http.ByteResponse;
 
-public class MockResponse implements Response {
+public class MockResponse implements ByteResponse {
 
     Semaphore mSemaphore = new Semaphore(0);
 
@@ -24,7 +29,9 @@ public class MockResponse implements Response {
     Queue<String> mLines = new ConcurrentLinkedQueue<String>();
     Map<String, List<String>> mHeaders = new HashMap<String, List<String>>();
     int mStatus;
-    boolean mFinished = false;
+    volatile boolean mFinished = false;
+    InputStream mInputStream = null;
+    ReadableByteChannel mChannel = null;
 
     public MockResponse(int status) {
         mStatus = status;
@@ -45,6 +52,9 @@ public class MockResponse implements Response {
 
     public void finishWriting() {
         mFinished = true;
+
+        // wakes up a reader waiting for a line that won't come
+        mSemaphore.release();
     }
 
     public void setHeaders(Map<String, List<String>> headers) {
@@ -67,6 +77,10 @@ public class MockResponse implements Response {
 
         while (!mFinished || !mLines.isEmpty()) {
             String line = readLine();
+            if (line == null) {
+                break;
+            }
+
             sb.append(line);
             sb.append("\n");
         }
@@ -104,7 +118,79 @@ public class MockResponse implements Response {
 
     @Override
     public byte[] readAllBytes() throws IOException {
-        return readToEnd().getBytes();
+        return readToEnd().getBytes(Constants.UTF8);
+    }
+
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+        return getChannel().read(buffer);
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() {
+        if (mInputStream == null) {
+            mInputStream = new LinesInputStream();
+        }
+
+        return mInputStream;
+    }
+
+    @Override
+    public synchronized ReadableByteChannel getChannel() {
+        if (mChannel == null) {
+            mChannel = Channels.newChannel(getInputStream());
+        }
+
+        return mChannel;
+    }
+
+    /**
+     * Streams the written lines, each one followed by a line feed
+     */
+    private class LinesInputStream extends InputStream {
+        private byte[] mCurrentLine = new byte[0];
+        private int mPosition = 0;
+
+        @Override
+        public int read() throws IOException {
+            if (!nextLineIfNeeded()) {
+                return -1;
+            }
+
+            return mCurrentLine[mPosition++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+
+            if (!nextLineIfNeeded()) {
+                return -1;
+            }
+
+            // never block for the next line once some bytes are available
+            int count = Math.min(length, mCurrentLine.length - mPosition);
+            System.arraycopy(mCurrentLine, mPosition, buffer, offset, count);
+            mPosition += count;
+
+            return count;
+        }
+
+        private boolean nextLineIfNeeded() throws IOException {
+            if (mPosition == mCurrentLine.length) {
+                String line = readLine();
+                if (line == null) {
+                    return false;
+                }
+
+                mCurrentLine = (line + "\n").getBytes(Constants.UTF8);
+                mPosition = 0;
+            }
+
+            return true;
+        }
     }
 
 }
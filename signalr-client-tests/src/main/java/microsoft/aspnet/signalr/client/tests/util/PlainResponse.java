@@ -0,0 +1,56 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.tests.util;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import microsoft.aspnet.signalr.client.http.Response;
+
+/**
+ * Response that only implements the Response methods, like the ones of the
+ * HttpConnection implementations written for older versions
+ */
+public class PlainResponse implements Response {
+
+    private Response mResponse;
+
+    public PlainResponse(Response response) {
+        mResponse = response;
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaders() {
+        return mResponse.getHeaders();
+    }
+
+    @Override
+    public List<String> getHeader(String headerName) {
+        return mResponse.getHeader(headerName);
+    }
+
+    @Override
+    public String readToEnd() throws IOException {
+        return mResponse.readToEnd();
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        return mResponse.readLine();
+    }
+
+    @Override
+    public int getStatus() {
+        return mResponse.getStatus();
+    }
+
+    @Override
+    public byte[] readAllBytes() throws IOException {
+        return mResponse.readAllBytes();
+    }
+}
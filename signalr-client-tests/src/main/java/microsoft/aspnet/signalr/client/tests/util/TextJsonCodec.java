@@ -0,0 +1,157 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.tests.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+import microsoft.aspnet.signalr.client.JsonCodec;
+import microsoft.aspnet.signalr.client.JsonStreamReader;
+import microsoft.aspnet.signalr.client.JsonStreamToken;
+import microsoft.aspnet.signalr.client.JsonValue;
+
+/**
+ * JsonCodec with its own reader and values, standing in for a codec based on
+ * another JSON library. It records the JSON text it decodes
+ */
+public class TextJsonCodec implements JsonCodec {
+
+    public List<String> decoded = Collections.synchronizedList(new ArrayList<String>());
+
+    private Gson mGson = new Gson();
+
+    @Override
+    public JsonStreamReader newReader(Reader data) {
+        return new TextStreamReader(new JsonReader(data));
+    }
+
+    @Override
+    public JsonValue readValue(JsonStreamReader reader) throws IOException {
+        final String json = new JsonParser().parse(((TextStreamReader) reader).mReader).toString();
+
+        return new JsonValue() {
+
+            @Override
+            public String toJson() {
+                return json;
+            }
+        };
+    }
+
+    @Override
+    public String toJson(Object value) {
+        return mGson.toJson(value);
+    }
+
+    @Override
+    public <T> T fromJson(String json, Type type) {
+        decoded.add(json);
+        return mGson.fromJson(json, type);
+    }
+
+    @Override
+    public <T> T fromJson(JsonValue value, Type type) {
+        return fromJson(value.toJson(), type);
+    }
+
+    private static class TextStreamReader implements JsonStreamReader {
+        JsonReader mReader;
+
+        TextStreamReader(JsonReader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        public JsonStreamToken peek() throws IOException {
+            switch (mReader.peek()) {
+            case BEGIN_ARRAY:
+                return JsonStreamToken.BeginArray;
+            case END_ARRAY:
+                return JsonStreamToken.EndArray;
+            case BEGIN_OBJECT:
+                return JsonStreamToken.BeginObject;
+            case END_OBJECT:
+                return JsonStreamToken.EndObject;
+            case NAME:
+                return JsonStreamToken.Name;
+            case STRING:
+                return JsonStreamToken.String;
+            case NUMBER:
+                return JsonStreamToken.Number;
+            case BOOLEAN:
+                return JsonStreamToken.Boolean;
+            case NULL:
+                return JsonStreamToken.Null;
+            default:
+                return JsonStreamToken.EndDocument;
+            }
+        }
+
+        @Override
+        public void beginArray() throws IOException {
+            mReader.beginArray();
+        }
+
+        @Override
+        public void endArray() throws IOException {
+            mReader.endArray();
+        }
+
+        @Override
+        public void beginObject() throws IOException {
+            mReader.beginObject();
+        }
+
+        @Override
+        public void endObject() throws IOException {
+            mReader.endObject();
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            return mReader.hasNext();
+        }
+
+        @Override
+        public String nextName() throws IOException {
+            return mReader.nextName();
+        }
+
+        @Override
+        public String nextString() throws IOException {
+            return mReader.nextString();
+        }
+
+        @Override
+        public boolean nextBoolean() throws IOException {
+            return mReader.nextBoolean();
+        }
+
+        @Override
+        public void nextNull() throws IOException {
+            mReader.nextNull();
+        }
+
+        @Override
+        public void skipValue() throws IOException {
+            mReader.skipValue();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mReader.close();
+        }
+    }
+}